@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import packetspy.model.ARPPacket;
+import packetspy.model.Packet;
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Table of IPv4 to MAC address bindings learnt from ARP traffic.
+ * The table is keyed directly by the packed IPv4 address and split
+ * into independently locked segments so that it can be updated by
+ * the capture thread while being read by other threads.
+ *
+ * A binding is flagged as conflicting when an address is seen bound to
+ * a different MAC address than the one already recorded. The table
+ * keeps the most recent MAC address for conflicting bindings.
+ */
+public class ARPTable
+    implements ModelPacketListener
+{
+    /**
+     * Result of update when the address was not previously bound.
+     */
+    public static final int BINDING_NEW = 0;
+
+    /**
+     * Result of update when the address was already bound to MAC address.
+     */
+    public static final int BINDING_UNCHANGED = 1;
+
+    /**
+     * Result of update when the address was bound to a different MAC address.
+     */
+    public static final int BINDING_CONFLICT = 2;
+
+    /**
+     * The number of segments. Must be a power of 2.
+     */
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * The initial number of slots in each segment. Must be a power of 2.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Mask for the MAC address stored in a slot.
+     */
+    private static final long MAC_MASK = 0xFFFFFFFFFFFFL;
+
+    /**
+     * Flag set in a slot that contains a binding.
+     */
+    private static final long USED_FLAG = 1L << 48;
+
+    /**
+     * Flag set in a slot that contains a conflicting binding.
+     */
+    private static final long CONFLICT_FLAG = 1L << 49;
+
+    /**
+     * The segments of the table.
+     */
+    private final Segment[] m_segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * Create an empty table.
+     */
+    public ARPTable()
+    {
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            m_segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Update the table with the sender binding of any ARP packet
+     * in the specified packet hierarchy.
+     *
+     * @param packet the packet.
+     */
+    public void handlePacket( final Packet packet )
+    {
+        Packet p = packet;
+        while( null != p )
+        {
+            if( p instanceof ARPPacket )
+            {
+                final ARPPacket arp = (ARPPacket) p;
+                //ARP probes have an unspecified sender address
+                if( 0 != arp.getSenderProtocolAddress() )
+                {
+                    update( arp.getSenderProtocolAddress(), arp.getSenderHardwareAddress() );
+                }
+                return;
+            }
+            p = p.getUpperLayerPacket();
+        }
+    }
+
+    /**
+     * Record that the specified IP address is bound to the specified MAC address.
+     *
+     * @param address the IP address
+     * @param mac the MAC address
+     * @return one of the BINDING_* constants
+     */
+    public int update( final int address, final long mac )
+    {
+        final int hash = hash( address );
+        return segmentFor( hash ).update( hash, address, mac & MAC_MASK );
+    }
+
+    /**
+     * Return the MAC address bound to the specified IP address.
+     *
+     * @param address the IP address
+     * @return the MAC address or -1 if address is not bound
+     */
+    public long lookup( final int address )
+    {
+        final int hash = hash( address );
+        final long slot = segmentFor( hash ).get( hash, address );
+        if( 0 == slot )
+        {
+            return -1;
+        }
+        else
+        {
+            return slot & MAC_MASK;
+        }
+    }
+
+    /**
+     * Return true if the specified IP address has been seen bound
+     * to more than one MAC address.
+     *
+     * @param address the IP address
+     * @return true if the binding is conflicting
+     */
+    public boolean isConflicting( final int address )
+    {
+        final int hash = hash( address );
+        return 0 != ( segmentFor( hash ).get( hash, address ) & CONFLICT_FLAG );
+    }
+
+    /**
+     * Return the number of bindings in table.
+     *
+     * @return the number of bindings in table.
+     */
+    public int size()
+    {
+        int size = 0;
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            size += m_segments[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Return the number of times a conflicting binding has been seen.
+     *
+     * @return the number of times a conflicting binding has been seen.
+     */
+    public int getConflictCount()
+    {
+        int count = 0;
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            count += m_segments[i].getConflictCount();
+        }
+        return count;
+    }
+
+    /**
+     * Copy the bindings in the table into the specified arrays.
+     * If the arrays are too small then only a subset of the bindings
+     * are copied.
+     *
+     * @param addresses the array to copy IP addresses into
+     * @param macs the array to copy MAC addresses into
+     * @return the number of bindings copied
+     */
+    public int copyBindings( final int[] addresses, final long[] macs )
+    {
+        final int length = Math.min( addresses.length, macs.length );
+        int count = 0;
+        for( int i = 0; i < m_segments.length && count < length; i++ )
+        {
+            count = m_segments[i].copyBindings( addresses, macs, count, length );
+        }
+        return count;
+    }
+
+    /**
+     * Return the segment responsible for specified hash.
+     *
+     * @param hash the hash
+     * @return the segment
+     */
+    private Segment segmentFor( final int hash )
+    {
+        return m_segments[( hash >>> 28 ) & ( SEGMENT_COUNT - 1 )];
+    }
+
+    /**
+     * Spread the bits of the address so that addresses from
+     * the same subnet are distributed across the table.
+     *
+     * @param address the address
+     * @return the hash
+     */
+    private static int hash( final int address )
+    {
+        final int h = address * 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+
+    /**
+     * An open addressing hash table guarded by its own lock.
+     */
+    private static final class Segment
+    {
+        /**
+         * The IP addresses.
+         */
+        private int[] m_addresses = new int[INITIAL_CAPACITY];
+
+        /**
+         * The MAC address and flags for each slot. Zero indicates an empty slot.
+         */
+        private long[] m_slots = new long[INITIAL_CAPACITY];
+
+        /**
+         * The number of bindings.
+         */
+        private int m_size;
+
+        /**
+         * The number of conflicts seen.
+         */
+        private int m_conflictCount;
+
+        /**
+         * Record binding. See ARPTable.update().
+         */
+        synchronized int update( final int hash, final int address, final long mac )
+        {
+            final int index = indexOf( m_addresses, m_slots, hash, address );
+            final long slot = m_slots[index];
+            if( 0 == slot )
+            {
+                m_addresses[index] = address;
+                m_slots[index] = mac | USED_FLAG;
+                m_size++;
+                if( m_size * 4 > m_slots.length * 3 )
+                {
+                    rehash();
+                }
+                return BINDING_NEW;
+            }
+            else if( ( slot & MAC_MASK ) == mac )
+            {
+                return BINDING_UNCHANGED;
+            }
+            else
+            {
+                m_slots[index] = mac | USED_FLAG | CONFLICT_FLAG;
+                m_conflictCount++;
+                return BINDING_CONFLICT;
+            }
+        }
+
+        /**
+         * Return the slot for address or 0 if address not bound.
+         */
+        synchronized long get( final int hash, final int address )
+        {
+            return m_slots[indexOf( m_addresses, m_slots, hash, address )];
+        }
+
+        /**
+         * Return the number of bindings in segment.
+         */
+        synchronized int size()
+        {
+            return m_size;
+        }
+
+        /**
+         * Return the number of conflicts seen in segment.
+         */
+        synchronized int getConflictCount()
+        {
+            return m_conflictCount;
+        }
+
+        /**
+         * Copy bindings into arrays starting at specified index.
+         */
+        synchronized int copyBindings( final int[] addresses,
+                                       final long[] macs,
+                                       final int start,
+                                       final int length )
+        {
+            int count = start;
+            for( int i = 0; i < m_slots.length && count < length; i++ )
+            {
+                if( 0 != m_slots[i] )
+                {
+                    addresses[count] = m_addresses[i];
+                    macs[count] = m_slots[i] & MAC_MASK;
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Double the capacity of the segment.
+         */
+        private void rehash()
+        {
+            final int[] addresses = m_addresses;
+            final long[] slots = m_slots;
+            m_addresses = new int[addresses.length * 2];
+            m_slots = new long[slots.length * 2];
+            for( int i = 0; i < slots.length; i++ )
+            {
+                if( 0 != slots[i] )
+                {
+                    final int index =
+                        indexOf( m_addresses, m_slots, hash( addresses[i] ), addresses[i] );
+                    m_addresses[index] = addresses[i];
+                    m_slots[index] = slots[i];
+                }
+            }
+        }
+
+        /**
+         * Return the slot containing address or the empty slot where it should be added.
+         */
+        private static int indexOf( final int[] addresses,
+                                    final long[] slots,
+                                    final int hash,
+                                    final int address )
+        {
+            final int mask = slots.length - 1;
+            int index = hash & mask;
+            while( 0 != slots[index] && addresses[index] != address )
+            {
+                index = ( index + 1 ) & mask;
+            }
+            return index;
+        }
+    }
+}
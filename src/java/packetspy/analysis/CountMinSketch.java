@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+/**
+ * Count-Min sketch that estimates the total count added for each int key
+ * using a fixed amount of memory. The sketch is a table of depth rows of
+ * width counters. Each key is hashed to one counter in every row and the
+ * estimate of a key is the smallest of its counters.
+ *
+ * <p>An estimate is never less than the true count and with probability
+ * of at least 1 - e<sup>-depth</sup> exceeds it by no more than
+ * e / width of the total count added to the sketch.</p>
+ *
+ * <p>Sketches of the same dimensions can be merged so that separate
+ * threads can each update their own sketch. The sketch is not thread safe.</p>
+ */
+public class CountMinSketch
+{
+    /**
+     * The largest supported depth.
+     */
+    public static final int MAX_DEPTH = 8;
+
+    /**
+     * The odd multipliers used to hash keys for each row.
+     */
+    private static final int[] SEEDS = new int[]{0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F,
+                                                 0x165667B1, 0xD3A2646D, 0xFD7046C5, 0xB55A4F09};
+
+    /**
+     * The number of rows.
+     */
+    private final int m_depth;
+
+    /**
+     * The number of counters in each row. A power of 2.
+     */
+    private final int m_width;
+
+    /**
+     * The shift that selects the top log2(width) bits of a hash.
+     */
+    private final int m_shift;
+
+    /**
+     * The counters, row by row.
+     */
+    private final long[] m_counters;
+
+    /**
+     * The total count added to sketch.
+     */
+    private long m_total;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param depth the number of rows, from 1 to MAX_DEPTH
+     * @param width the number of counters in each row. Must be a power of 2.
+     */
+    public CountMinSketch( final int depth, final int width )
+    {
+        if( depth < 1 || depth > MAX_DEPTH )
+        {
+            throw new IllegalArgumentException( "depth must be between 1 and " + MAX_DEPTH );
+        }
+        if( width < 1 || 0 != ( width & ( width - 1 ) ) )
+        {
+            throw new IllegalArgumentException( "width must be a power of 2" );
+        }
+        m_depth = depth;
+        m_width = width;
+        int bits = 0;
+        while( ( 1 << bits ) < width )
+        {
+            bits++;
+        }
+        m_shift = 32 - bits;
+        m_counters = new long[depth * width];
+    }
+
+    /**
+     * Add count to key.
+     *
+     * @param key the key
+     * @param count the count to add. Must not be negative.
+     */
+    public void add( final int key, final long count )
+    {
+        for( int i = 0; i < m_depth; i++ )
+        {
+            m_counters[index( key, i )] += count;
+        }
+        m_total += count;
+    }
+
+    /**
+     * Return the estimated count of key.
+     *
+     * @param key the key
+     * @return the estimate, which is never less than the true count
+     */
+    public long estimate( final int key )
+    {
+        long estimate = Long.MAX_VALUE;
+        for( int i = 0; i < m_depth; i++ )
+        {
+            estimate = Math.min( estimate, m_counters[index( key, i )] );
+        }
+        return estimate;
+    }
+
+    /**
+     * Return the total count added to sketch.
+     *
+     * @return the total count
+     */
+    public long getTotal()
+    {
+        return m_total;
+    }
+
+    /**
+     * Return the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getDepth()
+    {
+        return m_depth;
+    }
+
+    /**
+     * Return the number of counters in each row.
+     *
+     * @return the number of counters in each row
+     */
+    public int getWidth()
+    {
+        return m_width;
+    }
+
+    /**
+     * Add the counts of another sketch to this sketch. The result is the
+     * same as if every count added to other had been added to this sketch.
+     *
+     * @param other the sketch, which must have the same dimensions
+     */
+    public void merge( final CountMinSketch other )
+    {
+        if( other.m_depth != m_depth || other.m_width != m_width )
+        {
+            throw new IllegalArgumentException( "Sketch dimensions differ" );
+        }
+        for( int i = 0; i < m_counters.length; i++ )
+        {
+            m_counters[i] += other.m_counters[i];
+        }
+        m_total += other.m_total;
+    }
+
+    /**
+     * Reset every count to zero.
+     */
+    public void clear()
+    {
+        for( int i = 0; i < m_counters.length; i++ )
+        {
+            m_counters[i] = 0;
+        }
+        m_total = 0;
+    }
+
+    /**
+     * Return the index of the counter for key in row. Keys are hashed
+     * by multiplying by the seed of the row and taking the top bits.
+     */
+    private int index( final int key, final int row )
+    {
+        //A shift of 32 is a shift of 0 so the mask is required when width is 1
+        return row * m_width + ( ( ( key * SEEDS[row] ) >>> m_shift ) & ( m_width - 1 ) );
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import packetspy.model.IP4Packet;
+import packetspy.model.Packet;
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Streaming heavy hitter detector that finds the IPv4 hosts sending or
+ * receiving the most packets and bytes using a fixed amount of memory,
+ * however many hosts are seen. For each direction and measure a
+ * {@link SpaceSaving} summary tracks the largest hosts and a
+ * {@link CountMinSketch} estimates the traffic of any other host.
+ * Bytes are measured by the total length of the IPv4 packet.
+ *
+ * <p>The detector is not thread safe. Each capture thread should update
+ * its own detector, and detectors created with the same parameters can be
+ * merged to answer queries. Queries may be made at any time and
+ * {@link #clear()} starts a new interval.</p>
+ */
+public class HeavyHitters
+    implements ModelPacketListener
+{
+    /**
+     * Key hosts by source address.
+     */
+    public static final int KEY_SOURCE = 0;
+
+    /**
+     * Key hosts by destination address.
+     */
+    public static final int KEY_DESTINATION = 1;
+
+    /**
+     * Measure packets.
+     */
+    public static final int MEASURE_PACKETS = 0;
+
+    /**
+     * Measure bytes.
+     */
+    public static final int MEASURE_BYTES = 1;
+
+    /**
+     * The default number of hosts tracked by each summary.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The default number of rows in each sketch.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * The default number of counters in each row of each sketch.
+     */
+    public static final int DEFAULT_WIDTH = 4096;
+
+    /**
+     * The summaries indexed by key * 2 + measure.
+     */
+    private final SpaceSaving[] m_summaries = new SpaceSaving[4];
+
+    /**
+     * The sketches indexed by key * 2 + measure.
+     */
+    private final CountMinSketch[] m_sketches = new CountMinSketch[4];
+
+    /**
+     * Create detector with the default capacity and sketch dimensions.
+     */
+    public HeavyHitters()
+    {
+        this( DEFAULT_CAPACITY, DEFAULT_DEPTH, DEFAULT_WIDTH );
+    }
+
+    /**
+     * Create detector.
+     *
+     * @param capacity the number of hosts tracked by each summary
+     * @param depth the number of rows in each sketch
+     * @param width the number of counters in each row of each sketch. Must be a power of 2.
+     */
+    public HeavyHitters( final int capacity, final int depth, final int width )
+    {
+        for( int i = 0; i < m_summaries.length; i++ )
+        {
+            m_summaries[i] = new SpaceSaving( capacity );
+            m_sketches[i] = new CountMinSketch( depth, width );
+        }
+    }
+
+    /**
+     * Count the outermost IPv4 packet in the specified packet hierarchy.
+     *
+     * @param packet the packet.
+     */
+    public void handlePacket( final Packet packet )
+    {
+        Packet p = packet;
+        while( null != p )
+        {
+            if( p instanceof IP4Packet )
+            {
+                final IP4Packet ip = (IP4Packet) p;
+                add( ip.getSourceAddress(), ip.getDestinationAddress(), ip.getLength() );
+                return;
+            }
+            p = p.getUpperLayerPacket();
+        }
+    }
+
+    /**
+     * Count a packet.
+     *
+     * @param source the source address
+     * @param destination the destination address
+     * @param length the length of packet in bytes
+     */
+    public void add( final int source, final int destination, final int length )
+    {
+        count( KEY_SOURCE, source, length );
+        count( KEY_DESTINATION, destination, length );
+    }
+
+    /**
+     * Copy the hosts with the largest traffic into the specified arrays
+     * in order of decreasing traffic. Every host whose traffic exceeds
+     * 1/capacity of the total is included, and the traffic reported for
+     * each host exceeds its true traffic by no more than its error.
+     *
+     * @param key KEY_SOURCE or KEY_DESTINATION
+     * @param measure MEASURE_PACKETS or MEASURE_BYTES
+     * @param addresses the array to copy addresses into
+     * @param counts the array to copy the traffic of each host into
+     * @param errors the array to copy the maximum overestimate of each count into. May be null.
+     * @return the number of hosts copied
+     */
+    public int copyTop( final int key,
+                        final int measure,
+                        final int[] addresses,
+                        final long[] counts,
+                        final long[] errors )
+    {
+        return m_summaries[indexOf( key, measure )].copyTop( addresses, counts, errors );
+    }
+
+    /**
+     * Return the estimated traffic of a host. The estimate is never less
+     * than the true traffic and is the smaller of the estimates of the
+     * summary and sketch.
+     *
+     * @param key KEY_SOURCE or KEY_DESTINATION
+     * @param measure MEASURE_PACKETS or MEASURE_BYTES
+     * @param address the address of the host
+     * @return the estimated traffic
+     */
+    public long estimate( final int key, final int measure, final int address )
+    {
+        final int index = indexOf( key, measure );
+        return Math.min( m_summaries[index].estimate( address ), m_sketches[index].estimate( address ) );
+    }
+
+    /**
+     * Return the number of packets counted.
+     *
+     * @return the number of packets counted
+     */
+    public long getPacketCount()
+    {
+        return m_sketches[indexOf( KEY_SOURCE, MEASURE_PACKETS )].getTotal();
+    }
+
+    /**
+     * Return the number of bytes counted.
+     *
+     * @return the number of bytes counted
+     */
+    public long getByteCount()
+    {
+        return m_sketches[indexOf( KEY_SOURCE, MEASURE_BYTES )].getTotal();
+    }
+
+    /**
+     * Add the counts of another detector created with the same parameters.
+     *
+     * @param other the detector
+     */
+    public void merge( final HeavyHitters other )
+    {
+        for( int i = 0; i < m_summaries.length; i++ )
+        {
+            m_summaries[i].merge( other.m_summaries[i] );
+            m_sketches[i].merge( other.m_sketches[i] );
+        }
+    }
+
+    /**
+     * Forget every packet counted.
+     */
+    public void clear()
+    {
+        for( int i = 0; i < m_summaries.length; i++ )
+        {
+            m_summaries[i].clear();
+            m_sketches[i].clear();
+        }
+    }
+
+    private void count( final int key, final int address, final int length )
+    {
+        final int packets = indexOf( key, MEASURE_PACKETS );
+        final int bytes = indexOf( key, MEASURE_BYTES );
+        m_summaries[packets].add( address, 1 );
+        m_sketches[packets].add( address, 1 );
+        m_summaries[bytes].add( address, length );
+        m_sketches[bytes].add( address, length );
+    }
+
+    private static int indexOf( final int key, final int measure )
+    {
+        if( KEY_SOURCE != key && KEY_DESTINATION != key )
+        {
+            throw new IllegalArgumentException( "Unknown key " + key );
+        }
+        if( MEASURE_PACKETS != measure && MEASURE_BYTES != measure )
+        {
+            throw new IllegalArgumentException( "Unknown measure " + measure );
+        }
+        return key * 2 + measure;
+    }
+}
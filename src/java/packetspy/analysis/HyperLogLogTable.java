@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table of HyperLogLog estimators that count the distinct elements seen
+ * for each int key. Each key has 2<sup>precision</sup> one byte registers
+ * and the estimates have a standard error of about
+ * 1.04 / sqrt(2<sup>precision</sup>), so the default precision of 10 uses
+ * 1KB per key for an error of about 3%.
+ *
+ * <p>The registers of every key are held in a single direct buffer
+ * allocated when the table is created, so a large table adds no objects
+ * to the heap and is never resized. Keys are added until the table is
+ * full, after which elements of new keys are counted as dropped.</p>
+ *
+ * <p>Tables with the same precision can be merged, which takes the
+ * maximum of each register and gives the same result as if every element
+ * had been added to one table. Separate threads can therefore each update
+ * their own table. The table is not thread safe.</p>
+ */
+public class HyperLogLogTable
+{
+    /**
+     * The default precision.
+     */
+    public static final int DEFAULT_PRECISION = 10;
+
+    /**
+     * The smallest supported precision.
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * The largest supported precision.
+     */
+    public static final int MAX_PRECISION = 16;
+
+    /**
+     * 2<sup>-n</sup> for every possible register value n.
+     */
+    private static final double[] INVERSE_POWERS = new double[65];
+
+    static
+    {
+        for( int i = 0; i < INVERSE_POWERS.length; i++ )
+        {
+            INVERSE_POWERS[i] = 1.0 / ( 1L << i );
+        }
+    }
+
+    /**
+     * The number of bits of each hash used to select a register.
+     */
+    private final int m_precision;
+
+    /**
+     * The number of registers for each key.
+     */
+    private final int m_registerCount;
+
+    /**
+     * The registers of each slot. The registers of slot n start at n * m_registerCount.
+     */
+    private final ByteBuffer m_registers;
+
+    /**
+     * The key of each slot.
+     */
+    private final int[] m_keys;
+
+    /**
+     * Open addressing table from key to slot + 1. Zero indicates an empty entry.
+     */
+    private final int[] m_table;
+
+    /**
+     * The number of keys in table.
+     */
+    private int m_size;
+
+    /**
+     * The number of elements dropped because the table was full.
+     */
+    private long m_droppedCount;
+
+    /**
+     * Create table with the default precision.
+     *
+     * @param capacity the maximum number of keys
+     */
+    public HyperLogLogTable( final int capacity )
+    {
+        this( capacity, DEFAULT_PRECISION );
+    }
+
+    /**
+     * Create table.
+     *
+     * @param capacity the maximum number of keys
+     * @param precision the number of bits used to select a register,
+     *        from MIN_PRECISION to MAX_PRECISION
+     */
+    public HyperLogLogTable( final int capacity, final int precision )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive" );
+        }
+        if( precision < MIN_PRECISION || precision > MAX_PRECISION )
+        {
+            throw new IllegalArgumentException( "precision must be between " + MIN_PRECISION +
+                                                " and " + MAX_PRECISION );
+        }
+        m_precision = precision;
+        m_registerCount = 1 << precision;
+        if( (long) capacity * m_registerCount > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "capacity too large for precision" );
+        }
+        m_registers = ByteBuffer.allocateDirect( capacity * m_registerCount );
+        m_keys = new int[capacity];
+        int tableSize = 2;
+        while( tableSize < capacity * 2 )
+        {
+            tableSize *= 2;
+        }
+        m_table = new int[tableSize];
+    }
+
+    /**
+     * Add element to the set of distinct elements of key.
+     *
+     * @param key the key
+     * @param element the element
+     */
+    public void add( final int key, final long element )
+    {
+        final int slot = slotFor( key );
+        if( slot < 0 )
+        {
+            m_droppedCount++;
+            return;
+        }
+        final long hash = mix( element );
+        final int register = (int) ( hash >>> ( 64 - m_precision ) );
+        //The guard bit limits the rank when the remaining bits are all zero
+        final int rank = numberOfLeadingZeros( ( hash << m_precision ) | ( 1L << ( m_precision - 1 ) ) ) + 1;
+        final int position = slot * m_registerCount + register;
+        if( rank > m_registers.get( position ) )
+        {
+            m_registers.put( position, (byte) rank );
+        }
+    }
+
+    /**
+     * Return the estimated number of distinct elements of key.
+     *
+     * @param key the key
+     * @return the estimate or 0 if key is not in table
+     */
+    public long estimate( final int key )
+    {
+        final int slot = m_table[indexOf( key )] - 1;
+        return ( slot < 0 ) ? 0 : estimateSlot( slot );
+    }
+
+    /**
+     * Return true if table contains key.
+     *
+     * @param key the key
+     * @return true if table contains key
+     */
+    public boolean contains( final int key )
+    {
+        return 0 != m_table[indexOf( key )];
+    }
+
+    /**
+     * Copy the keys whose estimate is at least threshold and their
+     * estimates into the specified arrays. If the arrays are too small
+     * then only a subset of the keys are copied.
+     *
+     * @param threshold the smallest estimate copied
+     * @param keys the array to copy keys into
+     * @param estimates the array to copy estimates into
+     * @return the number of keys copied
+     */
+    public int copyKeysAbove( final long threshold, final int[] keys, final long[] estimates )
+    {
+        final int length = Math.min( keys.length, estimates.length );
+        int count = 0;
+        for( int slot = 0; slot < m_size && count < length; slot++ )
+        {
+            final long estimate = estimateSlot( slot );
+            if( estimate >= threshold )
+            {
+                keys[count] = m_keys[slot];
+                estimates[count] = estimate;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of keys in table.
+     *
+     * @return the number of keys in table
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the maximum number of keys.
+     *
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return m_keys.length;
+    }
+
+    /**
+     * Return the precision.
+     *
+     * @return the precision
+     */
+    public int getPrecision()
+    {
+        return m_precision;
+    }
+
+    /**
+     * Return the number of elements dropped because the table was full.
+     *
+     * @return the number of elements dropped
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Merge the registers of another table into this table. Keys of other
+     * that do not fit in this table are counted as dropped.
+     *
+     * @param other the table, which must have the same precision
+     */
+    public void merge( final HyperLogLogTable other )
+    {
+        if( other.m_precision != m_precision )
+        {
+            throw new IllegalArgumentException( "Precisions differ" );
+        }
+        for( int otherSlot = 0; otherSlot < other.m_size; otherSlot++ )
+        {
+            final int slot = slotFor( other.m_keys[otherSlot] );
+            if( slot < 0 )
+            {
+                m_droppedCount++;
+                continue;
+            }
+            final int base = slot * m_registerCount;
+            final int otherBase = otherSlot * m_registerCount;
+            for( int i = 0; i < m_registerCount; i++ )
+            {
+                final byte value = other.m_registers.get( otherBase + i );
+                if( value > m_registers.get( base + i ) )
+                {
+                    m_registers.put( base + i, value );
+                }
+            }
+        }
+        m_droppedCount += other.m_droppedCount;
+    }
+
+    /**
+     * Remove every key.
+     */
+    public void clear()
+    {
+        final int end = m_size * m_registerCount;
+        //Register counts are multiples of 8 so the used registers can be cleared a long at a time
+        for( int i = 0; i < end; i += 8 )
+        {
+            m_registers.putLong( i, 0 );
+        }
+        for( int i = 0; i < m_table.length; i++ )
+        {
+            m_table[i] = 0;
+        }
+        m_size = 0;
+        m_droppedCount = 0;
+    }
+
+    /**
+     * Return the estimate of the registers in slot using the bias
+     * corrected harmonic mean, or linear counting for small sets.
+     */
+    private long estimateSlot( final int slot )
+    {
+        final int base = slot * m_registerCount;
+        double sum = 0;
+        int zeros = 0;
+        for( int i = 0; i < m_registerCount; i++ )
+        {
+            final int value = m_registers.get( base + i );
+            sum += INVERSE_POWERS[value];
+            if( 0 == value )
+            {
+                zeros++;
+            }
+        }
+        final double m = m_registerCount;
+        final double estimate = alpha( m_registerCount ) * m * m / sum;
+        if( estimate <= 2.5 * m && 0 != zeros )
+        {
+            return Math.round( m * Math.log( m / zeros ) );
+        }
+        return Math.round( estimate );
+    }
+
+    /**
+     * Return the slot of key, adding key if not present.
+     *
+     * @return the slot or -1 if key is not present and table is full
+     */
+    private int slotFor( final int key )
+    {
+        final int index = indexOf( key );
+        if( 0 != m_table[index] )
+        {
+            return m_table[index] - 1;
+        }
+        if( m_size == m_keys.length )
+        {
+            return -1;
+        }
+        final int slot = m_size++;
+        m_keys[slot] = key;
+        m_table[index] = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Return the table entry containing key or the empty entry where it should be added.
+     */
+    private int indexOf( final int key )
+    {
+        final int mask = m_table.length - 1;
+        final int h = key * 0x9E3779B9;
+        int index = ( h ^ ( h >>> 16 ) ) & mask;
+        while( 0 != m_table[index] && m_keys[m_table[index] - 1] != key )
+        {
+            index = ( index + 1 ) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Return the bias correction constant for the number of registers.
+     */
+    private static double alpha( final int registerCount )
+    {
+        if( 16 == registerCount )
+        {
+            return 0.673;
+        }
+        else if( 32 == registerCount )
+        {
+            return 0.697;
+        }
+        else if( 64 == registerCount )
+        {
+            return 0.709;
+        }
+        else
+        {
+            return 0.7213 / ( 1 + 1.079 / registerCount );
+        }
+    }
+
+    /**
+     * Mix the bits of element so that every bit of the result depends on
+     * every bit of element.
+     */
+    private static long mix( final long element )
+    {
+        long h = element;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Return the number of leading zero bits in value.
+     */
+    private static int numberOfLeadingZeros( final long value )
+    {
+        if( 0 == value )
+        {
+            return 64;
+        }
+        int n = 0;
+        long v = value;
+        if( 0 == ( v >>> 32 ) )
+        {
+            n += 32;
+            v <<= 32;
+        }
+        if( 0 == ( v >>> 48 ) )
+        {
+            n += 16;
+            v <<= 16;
+        }
+        if( 0 == ( v >>> 56 ) )
+        {
+            n += 8;
+            v <<= 8;
+        }
+        if( 0 == ( v >>> 60 ) )
+        {
+            n += 4;
+            v <<= 4;
+        }
+        if( 0 == ( v >>> 62 ) )
+        {
+            n += 2;
+            v <<= 2;
+        }
+        if( 0 == ( v >>> 63 ) )
+        {
+            n += 1;
+        }
+        return n;
+    }
+}
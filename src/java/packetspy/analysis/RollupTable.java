@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+/**
+ * Table of packet and byte counts per int key over time, kept at one
+ * second, ten second and one minute resolution. Time is the capture
+ * time of the packets in seconds since the epoch, not the wall clock,
+ * so captures read from a file roll up the same as live captures.
+ *
+ * <p>Each resolution is a tier holding a fixed number of the most
+ * recent periods in preallocated ring buffers of primitive counters.
+ * Packets are only added to the current second. When the time of the
+ * packets moves past a second, that second is folded into the ten
+ * second and one minute periods containing it and the ring slots of the
+ * new periods are cleared, so neither packets nor ticks allocate
+ * objects. Packets up to one second tier ring behind the latest second
+ * are added to every tier directly, and older packets are counted as
+ * late and otherwise ignored.</p>
+ *
+ * <p>Keys are assigned a series when first seen until the table is full,
+ * after which packets of new keys are counted as dropped. Methods are
+ * synchronized so that the table can be queried while it is updated.</p>
+ */
+public class RollupTable
+{
+    /**
+     * The tier of one second periods.
+     */
+    public static final int TIER_SECOND = 0;
+
+    /**
+     * The tier of ten second periods.
+     */
+    public static final int TIER_TEN_SECONDS = 1;
+
+    /**
+     * The tier of one minute periods.
+     */
+    public static final int TIER_MINUTE = 2;
+
+    /**
+     * The number of tiers.
+     */
+    public static final int TIER_COUNT = 3;
+
+    /**
+     * The default number of periods kept by each tier. Five minutes of
+     * seconds, an hour of ten seconds and a day of minutes.
+     */
+    public static final int[] DEFAULT_PERIOD_COUNTS = new int[]{300, 360, 1440};
+
+    /**
+     * The length of the periods of each tier in seconds.
+     */
+    private static final int[] RESOLUTIONS = new int[]{1, 10, 60};
+
+    /**
+     * The key of each series.
+     */
+    private final int[] m_keys;
+
+    /**
+     * Open addressing table from key to series + 1. Zero indicates an empty entry.
+     */
+    private final int[] m_table;
+
+    /**
+     * The number of series in use.
+     */
+    private int m_size;
+
+    /**
+     * The number of periods kept by each tier.
+     */
+    private final int[] m_periodCounts = new int[TIER_COUNT];
+
+    /**
+     * The packet counts of each tier, period by period. The counts of the
+     * period held in ring slot n start at n * capacity and are indexed by series.
+     */
+    private final long[][] m_packets = new long[TIER_COUNT][];
+
+    /**
+     * The byte counts of each tier laid out as m_packets.
+     */
+    private final long[][] m_bytes = new long[TIER_COUNT][];
+
+    /**
+     * The latest second a packet has been added to or -1 if none.
+     */
+    private long m_latestSecond = -1;
+
+    /**
+     * The number of packets too old to be counted.
+     */
+    private long m_lateCount;
+
+    /**
+     * The number of packets of keys that could not be assigned a series.
+     */
+    private long m_droppedCount;
+
+    /**
+     * Create table keeping the default number of periods.
+     *
+     * @param capacity the maximum number of keys
+     */
+    public RollupTable( final int capacity )
+    {
+        this( capacity, DEFAULT_PERIOD_COUNTS );
+    }
+
+    /**
+     * Create table.
+     *
+     * @param capacity the maximum number of keys
+     * @param periodCounts the number of periods kept by each tier
+     */
+    public RollupTable( final int capacity, final int[] periodCounts )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive" );
+        }
+        if( TIER_COUNT != periodCounts.length )
+        {
+            throw new IllegalArgumentException( "periodCounts must have an entry for each tier" );
+        }
+        m_keys = new int[capacity];
+        int tableSize = 2;
+        while( tableSize < capacity * 2 )
+        {
+            tableSize *= 2;
+        }
+        m_table = new int[tableSize];
+        for( int tier = 0; tier < TIER_COUNT; tier++ )
+        {
+            if( periodCounts[tier] < 1 )
+            {
+                throw new IllegalArgumentException( "periodCounts must be positive" );
+            }
+            m_periodCounts[tier] = periodCounts[tier];
+            m_packets[tier] = new long[periodCounts[tier] * capacity];
+            m_bytes[tier] = new long[periodCounts[tier] * capacity];
+        }
+    }
+
+    /**
+     * Add a packet to the counts of key.
+     *
+     * @param key the key
+     * @param second the capture time of packet in seconds since the epoch
+     * @param length the length of packet in bytes
+     */
+    public synchronized void add( final int key, final long second, final int length )
+    {
+        if( second > m_latestSecond )
+        {
+            advance( second );
+        }
+        else if( m_latestSecond - second >= m_periodCounts[TIER_SECOND] )
+        {
+            m_lateCount++;
+            return;
+        }
+
+        final int series = seriesFor( key );
+        if( series < 0 )
+        {
+            m_droppedCount++;
+            return;
+        }
+        add( TIER_SECOND, series, second, length );
+        if( second < m_latestSecond )
+        {
+            //The second has already been folded into the other tiers
+            for( int tier = TIER_SECOND + 1; tier < TIER_COUNT; tier++ )
+            {
+                if( isRetained( tier, second / RESOLUTIONS[tier] ) )
+                {
+                    add( tier, series, second, length );
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the packet and byte counts of key for consecutive periods of
+     * a tier into the specified arrays. Periods that are no longer or
+     * not yet kept are reported as zero.
+     *
+     * @param key the key
+     * @param tier one of the TIER_* constants
+     * @param startSecond a time in the first period to copy, in seconds since the epoch
+     * @param packets the array to copy packet counts into. May be null.
+     * @param bytes the array to copy byte counts into. May be null.
+     * @param count the number of periods to copy
+     * @return the number of periods copied that are kept by the tier
+     */
+    public synchronized int copyPeriods( final int key,
+                                         final int tier,
+                                         final long startSecond,
+                                         final long[] packets,
+                                         final long[] bytes,
+                                         final int count )
+    {
+        checkTier( tier );
+        final int index = m_table[indexOf( key )] - 1;
+        final long first = startSecond / RESOLUTIONS[tier];
+        int retained = 0;
+        for( int i = 0; i < count; i++ )
+        {
+            long packetCount = 0;
+            long byteCount = 0;
+            if( isRetained( tier, first + i ) )
+            {
+                retained++;
+                if( index >= 0 )
+                {
+                    final int position = slotOf( tier, first + i ) + index;
+                    packetCount = m_packets[tier][position];
+                    byteCount = m_bytes[tier][position];
+                    if( TIER_SECOND != tier && first + i == m_latestSecond / RESOLUTIONS[tier] )
+                    {
+                        //The latest second is not folded into the coarser tiers until it is complete
+                        final int latest = slotOf( TIER_SECOND, m_latestSecond ) + index;
+                        packetCount += m_packets[TIER_SECOND][latest];
+                        byteCount += m_bytes[TIER_SECOND][latest];
+                    }
+                }
+            }
+            if( null != packets )
+            {
+                packets[i] = packetCount;
+            }
+            if( null != bytes )
+            {
+                bytes[i] = byteCount;
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Return the number of packets of key in the period of tier containing second.
+     *
+     * @param key the key
+     * @param tier one of the TIER_* constants
+     * @param second a time in the period in seconds since the epoch
+     * @return the number of packets or 0 if the period is not kept
+     */
+    public long getPackets( final int key, final int tier, final long second )
+    {
+        final long[] packets = new long[1];
+        copyPeriods( key, tier, second, packets, null, 1 );
+        return packets[0];
+    }
+
+    /**
+     * Return the number of bytes of key in the period of tier containing second.
+     *
+     * @param key the key
+     * @param tier one of the TIER_* constants
+     * @param second a time in the period in seconds since the epoch
+     * @return the number of bytes or 0 if the period is not kept
+     */
+    public long getBytes( final int key, final int tier, final long second )
+    {
+        final long[] bytes = new long[1];
+        copyPeriods( key, tier, second, null, bytes, 1 );
+        return bytes[0];
+    }
+
+    /**
+     * Return the length of the periods of a tier.
+     *
+     * @param tier one of the TIER_* constants
+     * @return the length in seconds
+     */
+    public static int getResolution( final int tier )
+    {
+        checkTier( tier );
+        return RESOLUTIONS[tier];
+    }
+
+    /**
+     * Return the latest second a packet has been added to.
+     *
+     * @return the second or -1 if no packets have been added
+     */
+    public synchronized long getLatestSecond()
+    {
+        return m_latestSecond;
+    }
+
+    /**
+     * Copy the keys that have been seen into the specified array.
+     *
+     * @param keys the array
+     * @return the number of keys copied
+     */
+    public synchronized int copyKeys( final int[] keys )
+    {
+        final int count = Math.min( keys.length, m_size );
+        System.arraycopy( m_keys, 0, keys, 0, count );
+        return count;
+    }
+
+    /**
+     * Return the number of keys seen.
+     *
+     * @return the number of keys seen
+     */
+    public synchronized int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the number of packets that were too old to be counted.
+     *
+     * @return the number of late packets
+     */
+    public synchronized long getLateCount()
+    {
+        return m_lateCount;
+    }
+
+    /**
+     * Return the number of packets whose key could not be added because the table was full.
+     *
+     * @return the number of packets dropped
+     */
+    public synchronized long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Move the latest second forward, folding the previous latest second
+     * into the coarser tiers and clearing the slots of new periods.
+     */
+    private void advance( final long second )
+    {
+        final long previous = m_latestSecond;
+        if( previous >= 0 )
+        {
+            final int capacity = m_keys.length;
+            final int source = slotOf( TIER_SECOND, previous );
+            for( int tier = TIER_SECOND + 1; tier < TIER_COUNT; tier++ )
+            {
+                final int target = slotOf( tier, previous / RESOLUTIONS[tier] );
+                for( int i = 0; i < m_size; i++ )
+                {
+                    m_packets[tier][target + i] += m_packets[TIER_SECOND][source + i];
+                    m_bytes[tier][target + i] += m_bytes[TIER_SECOND][source + i];
+                }
+                clearPeriods( tier, previous / RESOLUTIONS[tier], second / RESOLUTIONS[tier], capacity );
+            }
+            clearPeriods( TIER_SECOND, previous, second, capacity );
+        }
+        else
+        {
+            for( int tier = 0; tier < TIER_COUNT; tier++ )
+            {
+                clearPeriods( tier, second / RESOLUTIONS[tier] - 1, second / RESOLUTIONS[tier], m_keys.length );
+            }
+        }
+        m_latestSecond = second;
+    }
+
+    /**
+     * Clear the slots of the periods after from up to and including to.
+     */
+    private void clearPeriods( final int tier, final long from, final long to, final int capacity )
+    {
+        final long start = Math.max( from + 1, to - m_periodCounts[tier] + 1 );
+        for( long period = start; period <= to; period++ )
+        {
+            final int slot = slotOf( tier, period );
+            for( int i = 0; i < capacity; i++ )
+            {
+                m_packets[tier][slot + i] = 0;
+                m_bytes[tier][slot + i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Add packet to the period of tier containing second.
+     */
+    private void add( final int tier, final int series, final long second, final int length )
+    {
+        final int position = slotOf( tier, second / RESOLUTIONS[tier] ) + series;
+        m_packets[tier][position]++;
+        m_bytes[tier][position] += length;
+    }
+
+    /**
+     * Return true if tier keeps period.
+     */
+    private boolean isRetained( final int tier, final long period )
+    {
+        if( m_latestSecond < 0 )
+        {
+            return false;
+        }
+        final long latest = m_latestSecond / RESOLUTIONS[tier];
+        return period <= latest && latest - period < m_periodCounts[tier];
+    }
+
+    /**
+     * Return the start of the counts of period in the arrays of tier.
+     */
+    private int slotOf( final int tier, final long period )
+    {
+        return (int) ( period % m_periodCounts[tier] ) * m_keys.length;
+    }
+
+    /**
+     * Return the series of key, adding key if not present.
+     *
+     * @return the series or -1 if key is not present and table is full
+     */
+    private int seriesFor( final int key )
+    {
+        final int index = indexOf( key );
+        if( 0 != m_table[index] )
+        {
+            return m_table[index] - 1;
+        }
+        if( m_size == m_keys.length )
+        {
+            return -1;
+        }
+        final int series = m_size++;
+        m_keys[series] = key;
+        m_table[index] = series + 1;
+        return series;
+    }
+
+    /**
+     * Return the table entry containing key or the empty entry where it should be added.
+     */
+    private int indexOf( final int key )
+    {
+        final int mask = m_table.length - 1;
+        final int h = key * 0x9E3779B9;
+        int index = ( h ^ ( h >>> 16 ) ) & mask;
+        while( 0 != m_table[index] && m_keys[m_table[index] - 1] != key )
+        {
+            index = ( index + 1 ) & mask;
+        }
+        return index;
+    }
+
+    private static void checkTier( final int tier )
+    {
+        if( tier < 0 || tier >= TIER_COUNT )
+        {
+            throw new IllegalArgumentException( "Unknown tier " + tier );
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import packetspy.model.IP4Packet;
+import packetspy.model.Packet;
+import packetspy.model.TCPPacket;
+import packetspy.model.UDPPacket;
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Detector of scans and floods that estimates, using
+ * {@link HyperLogLogTable}s, the number of distinct services each IPv4
+ * source contacts and the number of distinct sources that contact each
+ * IPv4 destination. A service is a destination address and TCP or UDP
+ * destination port, or just the address for other protocols, so both
+ * scans of many hosts and scans of many ports on one host show as a
+ * large fan out. A destination receiving a flood from many sources
+ * shows as a large fan in.
+ *
+ * <p>The detector is not thread safe. Each capture thread should update
+ * its own detector, and detectors created with the same parameters can be
+ * merged to answer queries. {@link #clear()} starts a new interval.</p>
+ */
+public class ScanDetector
+    implements ModelPacketListener
+{
+    /**
+     * The default maximum number of sources and of destinations tracked.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The distinct services contacted by each source.
+     */
+    private final HyperLogLogTable m_fanOut;
+
+    /**
+     * The distinct sources contacting each destination.
+     */
+    private final HyperLogLogTable m_fanIn;
+
+    /**
+     * Create detector with the default capacity and precision.
+     */
+    public ScanDetector()
+    {
+        this( DEFAULT_CAPACITY, HyperLogLogTable.DEFAULT_PRECISION );
+    }
+
+    /**
+     * Create detector.
+     *
+     * @param capacity the maximum number of sources and of destinations tracked
+     * @param precision the precision of the estimators
+     */
+    public ScanDetector( final int capacity, final int precision )
+    {
+        m_fanOut = new HyperLogLogTable( capacity, precision );
+        m_fanIn = new HyperLogLogTable( capacity, precision );
+    }
+
+    /**
+     * Count the outermost IPv4 packet in the specified packet hierarchy
+     * and the TCP or UDP packet it carries.
+     *
+     * @param packet the packet.
+     */
+    public void handlePacket( final Packet packet )
+    {
+        Packet p = packet;
+        while( null != p )
+        {
+            if( p instanceof IP4Packet )
+            {
+                final IP4Packet ip = (IP4Packet) p;
+                final Packet upper = ip.getUpperLayerPacket();
+                int port = -1;
+                if( upper instanceof TCPPacket )
+                {
+                    port = ( (TCPPacket) upper ).getDestinationPort();
+                }
+                else if( upper instanceof UDPPacket )
+                {
+                    port = ( (UDPPacket) upper ).getDestinationPort();
+                }
+                add( ip.getSourceAddress(), ip.getDestinationAddress(), port );
+                return;
+            }
+            p = p.getUpperLayerPacket();
+        }
+    }
+
+    /**
+     * Count a packet.
+     *
+     * @param source the source address
+     * @param destination the destination address
+     * @param port the TCP or UDP destination port or -1 if neither
+     */
+    public void add( final int source, final int destination, final int port )
+    {
+        //Ports are shifted above the address so port -1 differs from every real port
+        m_fanOut.add( source, ( (long) ( port + 1 ) << 32 ) | ( destination & 0xFFFFFFFFL ) );
+        m_fanIn.add( destination, source );
+    }
+
+    /**
+     * Return the estimated number of distinct services contacted by source.
+     *
+     * @param source the source address
+     * @return the estimate
+     */
+    public long getFanOut( final int source )
+    {
+        return m_fanOut.estimate( source );
+    }
+
+    /**
+     * Return the estimated number of distinct sources that contacted destination.
+     *
+     * @param destination the destination address
+     * @return the estimate
+     */
+    public long getFanIn( final int destination )
+    {
+        return m_fanIn.estimate( destination );
+    }
+
+    /**
+     * Copy the sources whose fan out is at least threshold into the
+     * specified arrays.
+     *
+     * @param threshold the smallest fan out copied
+     * @param sources the array to copy sources into
+     * @param estimates the array to copy fan outs into
+     * @return the number of sources copied
+     */
+    public int copyScanners( final long threshold, final int[] sources, final long[] estimates )
+    {
+        return m_fanOut.copyKeysAbove( threshold, sources, estimates );
+    }
+
+    /**
+     * Copy the destinations whose fan in is at least threshold into the
+     * specified arrays.
+     *
+     * @param threshold the smallest fan in copied
+     * @param destinations the array to copy destinations into
+     * @param estimates the array to copy fan ins into
+     * @return the number of destinations copied
+     */
+    public int copyTargets( final long threshold, final int[] destinations, final long[] estimates )
+    {
+        return m_fanIn.copyKeysAbove( threshold, destinations, estimates );
+    }
+
+    /**
+     * Return the number of sources and destinations of packets that
+     * were not counted because the detector was already tracking its
+     * maximum number of sources or destinations.
+     *
+     * @return the number of sources and destinations dropped
+     */
+    public long getDroppedCount()
+    {
+        return m_fanOut.getDroppedCount() + m_fanIn.getDroppedCount();
+    }
+
+    /**
+     * Merge the estimators of another detector created with the same parameters.
+     *
+     * @param other the detector
+     */
+    public void merge( final ScanDetector other )
+    {
+        m_fanOut.merge( other.m_fanOut );
+        m_fanIn.merge( other.m_fanIn );
+    }
+
+    /**
+     * Forget every packet counted.
+     */
+    public void clear()
+    {
+        m_fanOut.clear();
+        m_fanIn.clear();
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+/**
+ * Space-Saving summary that tracks the int keys with the largest total
+ * counts using a fixed number of counters. When a key that is not
+ * tracked is added and every counter is in use, the counter with the
+ * smallest count is given to the new key, which inherits that count as
+ * its possible overestimate.
+ *
+ * <p>With capacity m, every key whose true count exceeds 1/m of the total
+ * count is tracked, and the count of a tracked key exceeds its true
+ * count by no more than its error, which is at most 1/m of the total.</p>
+ *
+ * <p>Counters are held in primitive arrays indexed by slot. An open
+ * addressing table finds the slot of a key and a binary heap ordered
+ * by count finds the slot with the smallest count, so adding a count
+ * takes O(log m) time and allocates nothing. Summaries can be merged
+ * so that separate threads can each update their own summary. The
+ * summary is not thread safe.</p>
+ */
+public class SpaceSaving
+{
+    /**
+     * The key in each slot.
+     */
+    private final int[] m_keys;
+
+    /**
+     * The count in each slot.
+     */
+    private final long[] m_counts;
+
+    /**
+     * The maximum overestimate of the count in each slot.
+     */
+    private final long[] m_errors;
+
+    /**
+     * The slots in heap order, with the slot of the smallest count first.
+     */
+    private final int[] m_heap;
+
+    /**
+     * The position of each slot in heap.
+     */
+    private final int[] m_positions;
+
+    /**
+     * Open addressing table from key to slot + 1. Zero indicates an empty entry.
+     */
+    private final int[] m_table;
+
+    /**
+     * The number of slots in use.
+     */
+    private int m_size;
+
+    /**
+     * The total count added to summary.
+     */
+    private long m_total;
+
+    /**
+     * Create an empty summary.
+     *
+     * @param capacity the number of keys tracked
+     */
+    public SpaceSaving( final int capacity )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive" );
+        }
+        m_keys = new int[capacity];
+        m_counts = new long[capacity];
+        m_errors = new long[capacity];
+        m_heap = new int[capacity];
+        m_positions = new int[capacity];
+        int tableSize = 2;
+        while( tableSize < capacity * 2 )
+        {
+            tableSize *= 2;
+        }
+        m_table = new int[tableSize];
+    }
+
+    /**
+     * Add count to key.
+     *
+     * @param key the key
+     * @param count the count to add. Must not be negative.
+     */
+    public void add( final int key, final long count )
+    {
+        m_total += count;
+        final int index = indexOf( key );
+        if( 0 != m_table[index] )
+        {
+            final int slot = m_table[index] - 1;
+            m_counts[slot] += count;
+            siftDown( m_positions[slot] );
+        }
+        else if( m_size < m_keys.length )
+        {
+            m_table[index] = m_size + 1;
+            push( key, count, 0 );
+        }
+        else
+        {
+            //Replace the key with the smallest count
+            final int slot = m_heap[0];
+            remove( m_keys[slot] );
+            m_table[indexOf( key )] = slot + 1;
+            m_keys[slot] = key;
+            m_errors[slot] = m_counts[slot];
+            m_counts[slot] += count;
+            siftDown( 0 );
+        }
+    }
+
+    /**
+     * Return the estimated count of key. If the key is not tracked this
+     * is the smallest count tracked, which bounds the true count.
+     *
+     * @param key the key
+     * @return the estimate, which is never less than the true count
+     */
+    public long estimate( final int key )
+    {
+        final int slot = m_table[indexOf( key )] - 1;
+        return ( slot < 0 ) ? getMinimumCount() : m_counts[slot];
+    }
+
+    /**
+     * Return true if key is tracked.
+     *
+     * @param key the key
+     * @return true if key is tracked
+     */
+    public boolean contains( final int key )
+    {
+        return 0 != m_table[indexOf( key )];
+    }
+
+    /**
+     * Return the smallest count that a tracked key may have. Keys
+     * that are not tracked have a true count no larger than this.
+     *
+     * @return the smallest count or 0 if there are unused counters
+     */
+    public long getMinimumCount()
+    {
+        return ( m_size < m_keys.length ) ? 0 : m_counts[m_heap[0]];
+    }
+
+    /**
+     * Return the total count added to summary.
+     *
+     * @return the total count
+     */
+    public long getTotal()
+    {
+        return m_total;
+    }
+
+    /**
+     * Return the number of keys tracked.
+     *
+     * @return the number of keys tracked
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the maximum number of keys tracked.
+     *
+     * @return the capacity
+     */
+    public int getCapacity()
+    {
+        return m_keys.length;
+    }
+
+    /**
+     * Copy the tracked keys with the largest counts into the specified
+     * arrays in order of decreasing count. The true count of each key
+     * is between its count less its error and its count.
+     *
+     * @param keys the array to copy keys into
+     * @param counts the array to copy counts into
+     * @param errors the array to copy errors into. May be null.
+     * @return the number of keys copied, which is at most the length of the arrays
+     */
+    public int copyTop( final int[] keys, final long[] counts, final long[] errors )
+    {
+        final int length = Math.min( keys.length, counts.length );
+        final int[] slots = new int[length];
+        int count = 0;
+        for( int slot = 0; slot < m_size; slot++ )
+        {
+            if( count == length && ( 0 == length || m_counts[slot] <= m_counts[slots[length - 1]] ) )
+            {
+                continue;
+            }
+            //Insert slot into the ordered slots, dropping the last if full
+            int i = ( count < length ) ? count++ : length - 1;
+            while( i > 0 && m_counts[slots[i - 1]] < m_counts[slot] )
+            {
+                slots[i] = slots[i - 1];
+                i--;
+            }
+            slots[i] = slot;
+        }
+        for( int i = 0; i < count; i++ )
+        {
+            keys[i] = m_keys[slots[i]];
+            counts[i] = m_counts[slots[i]];
+            if( null != errors )
+            {
+                errors[i] = m_errors[slots[i]];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Merge the counts of another summary into this summary. A key
+     * tracked by only one summary is assumed to have the smallest count
+     * of the other summary in it, which keeps the bounds of the counts
+     * and errors of the merged summary.
+     *
+     * @param other the summary
+     */
+    public void merge( final SpaceSaving other )
+    {
+        final int size = m_size;
+        final int[] keys = new int[size + other.m_size];
+        final long[] counts = new long[keys.length];
+        final long[] errors = new long[keys.length];
+        final long minimum = getMinimumCount();
+        final long otherMinimum = other.getMinimumCount();
+        int count = 0;
+        for( int slot = 0; slot < size; slot++ )
+        {
+            final int key = m_keys[slot];
+            final int otherSlot = other.m_table[other.indexOf( key )] - 1;
+            keys[count] = key;
+            if( otherSlot < 0 )
+            {
+                counts[count] = m_counts[slot] + otherMinimum;
+                errors[count] = m_errors[slot] + otherMinimum;
+            }
+            else
+            {
+                counts[count] = m_counts[slot] + other.m_counts[otherSlot];
+                errors[count] = m_errors[slot] + other.m_errors[otherSlot];
+            }
+            count++;
+        }
+        for( int slot = 0; slot < other.m_size; slot++ )
+        {
+            final int key = other.m_keys[slot];
+            if( !contains( key ) )
+            {
+                keys[count] = key;
+                counts[count] = other.m_counts[slot] + minimum;
+                errors[count] = other.m_errors[slot] + minimum;
+                count++;
+            }
+        }
+
+        final long total = m_total + other.m_total;
+        clear();
+        m_total = total;
+        for( int i = 0; i < count; i++ )
+        {
+            if( m_size < m_keys.length )
+            {
+                m_table[indexOf( keys[i] )] = m_size + 1;
+                push( keys[i], counts[i], errors[i] );
+            }
+            else if( counts[i] > m_counts[m_heap[0]] )
+            {
+                final int slot = m_heap[0];
+                remove( m_keys[slot] );
+                m_table[indexOf( keys[i] )] = slot + 1;
+                m_keys[slot] = keys[i];
+                m_counts[slot] = counts[i];
+                m_errors[slot] = errors[i];
+                siftDown( 0 );
+            }
+        }
+    }
+
+    /**
+     * Remove every key.
+     */
+    public void clear()
+    {
+        for( int i = 0; i < m_table.length; i++ )
+        {
+            m_table[i] = 0;
+        }
+        m_size = 0;
+        m_total = 0;
+    }
+
+    /**
+     * Add key to a new slot at the end of the heap. The table entry must already be set.
+     */
+    private void push( final int key, final long count, final long error )
+    {
+        final int slot = m_size++;
+        m_keys[slot] = key;
+        m_counts[slot] = count;
+        m_errors[slot] = error;
+        m_heap[slot] = slot;
+        m_positions[slot] = slot;
+        siftUp( slot );
+    }
+
+    /**
+     * Move the slot at position towards the root until its parent has a smaller count.
+     */
+    private void siftUp( final int position )
+    {
+        final int slot = m_heap[position];
+        int i = position;
+        while( i > 0 )
+        {
+            final int parent = ( i - 1 ) >> 1;
+            if( m_counts[m_heap[parent]] <= m_counts[slot] )
+            {
+                break;
+            }
+            setHeap( i, m_heap[parent] );
+            i = parent;
+        }
+        setHeap( i, slot );
+    }
+
+    /**
+     * Move the slot at position away from the root until its children have larger counts.
+     */
+    private void siftDown( final int position )
+    {
+        final int slot = m_heap[position];
+        final long count = m_counts[slot];
+        int i = position;
+        while( true )
+        {
+            int child = i * 2 + 1;
+            if( child >= m_size )
+            {
+                break;
+            }
+            if( child + 1 < m_size && m_counts[m_heap[child + 1]] < m_counts[m_heap[child]] )
+            {
+                child++;
+            }
+            if( count <= m_counts[m_heap[child]] )
+            {
+                break;
+            }
+            setHeap( i, m_heap[child] );
+            i = child;
+        }
+        setHeap( i, slot );
+    }
+
+    private void setHeap( final int position, final int slot )
+    {
+        m_heap[position] = slot;
+        m_positions[slot] = position;
+    }
+
+    /**
+     * Remove key from table, moving back any later entries of the
+     * same probe sequence so that lookups still find them.
+     */
+    private void remove( final int key )
+    {
+        final int mask = m_table.length - 1;
+        int hole = indexOf( key );
+        m_table[hole] = 0;
+        int index = ( hole + 1 ) & mask;
+        while( 0 != m_table[index] )
+        {
+            final int home = hash( m_keys[m_table[index] - 1] ) & mask;
+            //Move the entry into the hole unless its home lies cyclically after the hole
+            if( ( ( index - home ) & mask ) >= ( ( index - hole ) & mask ) )
+            {
+                m_table[hole] = m_table[index];
+                m_table[index] = 0;
+                hole = index;
+            }
+            index = ( index + 1 ) & mask;
+        }
+    }
+
+    /**
+     * Return the table entry containing key or the empty entry where it should be added.
+     */
+    private int indexOf( final int key )
+    {
+        final int mask = m_table.length - 1;
+        int index = hash( key ) & mask;
+        while( 0 != m_table[index] && m_keys[m_table[index] - 1] != key )
+        {
+            index = ( index + 1 ) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Spread the bits of the key so that keys from the same subnet
+     * are distributed across the table.
+     */
+    private static int hash( final int key )
+    {
+        final int h = key * 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import packetspy.model.IPPacket;
+import packetspy.model.LinuxCookedPacket;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.VLANPacket;
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Listener that rolls up the packets and bytes of raw packets per IP
+ * protocol, per interface and per VLAN into {@link RollupTable}s at one
+ * second, ten second and one minute resolution, keyed by the capture
+ * time of each packet. Packets and bytes per second are the counts of
+ * a period divided by {@link RollupTable#getResolution(int)}.
+ *
+ * <p>The protocol is that of the outermost IPv4 or IPv6 layer, or
+ * {@link #PROTOCOL_NOT_IP} for other packets. The VLAN is the id of the
+ * outermost VLAN tag, or 0 for untagged packets. The interface is the
+ * index recorded by a Linux cooked capture header if present, and
+ * otherwise the interface the listener was created for. Bytes are
+ * the length of the packet on the wire.</p>
+ */
+public class TrafficRollup
+    implements ModelPacketListener
+{
+    /**
+     * The protocol key of packets that are not IP.
+     */
+    public static final int PROTOCOL_NOT_IP = -1;
+
+    /**
+     * The default maximum number of protocols.
+     */
+    public static final int DEFAULT_PROTOCOL_CAPACITY = 32;
+
+    /**
+     * The default maximum number of interfaces.
+     */
+    public static final int DEFAULT_INTERFACE_CAPACITY = 16;
+
+    /**
+     * The default maximum number of VLANs.
+     */
+    public static final int DEFAULT_VLAN_CAPACITY = 64;
+
+    /**
+     * The interface of packets that do not record one.
+     */
+    private final int m_interfaceId;
+
+    /**
+     * The counts per protocol.
+     */
+    private final RollupTable m_protocols;
+
+    /**
+     * The counts per interface.
+     */
+    private final RollupTable m_interfaces;
+
+    /**
+     * The counts per VLAN.
+     */
+    private final RollupTable m_vlans;
+
+    /**
+     * Create rollup with the default capacities.
+     *
+     * @param interfaceId the interface of packets that do not record one
+     */
+    public TrafficRollup( final int interfaceId )
+    {
+        this( interfaceId,
+              DEFAULT_PROTOCOL_CAPACITY,
+              DEFAULT_INTERFACE_CAPACITY,
+              DEFAULT_VLAN_CAPACITY,
+              RollupTable.DEFAULT_PERIOD_COUNTS );
+    }
+
+    /**
+     * Create rollup.
+     *
+     * @param interfaceId the interface of packets that do not record one
+     * @param protocolCapacity the maximum number of protocols
+     * @param interfaceCapacity the maximum number of interfaces
+     * @param vlanCapacity the maximum number of VLANs
+     * @param periodCounts the number of periods kept by each tier
+     */
+    public TrafficRollup( final int interfaceId,
+                          final int protocolCapacity,
+                          final int interfaceCapacity,
+                          final int vlanCapacity,
+                          final int[] periodCounts )
+    {
+        m_interfaceId = interfaceId;
+        m_protocols = new RollupTable( protocolCapacity, periodCounts );
+        m_interfaces = new RollupTable( interfaceCapacity, periodCounts );
+        m_vlans = new RollupTable( vlanCapacity, periodCounts );
+    }
+
+    /**
+     * Add raw packet to the rollups.
+     *
+     * @param packet the raw packet
+     */
+    public void handlePacket( final Packet packet )
+    {
+        final RawPacket raw = (RawPacket) packet;
+        int protocol = PROTOCOL_NOT_IP;
+        int interfaceId = m_interfaceId;
+        int vlan = 0;
+        final int count = raw.getLayerCount();
+        for( int i = 1; i < count; i++ )
+        {
+            final int layerType = raw.getLayerType( i );
+            if( Packet.LAYER_LINUX_COOKED == layerType )
+            {
+                final int index = ( (LinuxCookedPacket) raw.getLayer( i ) ).getInterfaceIndex();
+                if( -1 != index )
+                {
+                    interfaceId = index;
+                }
+            }
+            else if( Packet.LAYER_VLAN == layerType && 0 == vlan )
+            {
+                vlan = ( (VLANPacket) raw.getLayer( i ) ).getVlanId();
+            }
+            else if( Packet.LAYER_IP4 == layerType || Packet.LAYER_IP6 == layerType )
+            {
+                protocol = ( (IPPacket) raw.getLayer( i ) ).getProtocol();
+                break;
+            }
+        }
+        add( raw.getSeconds() & 0xFFFFFFFFL, raw.getLength(), protocol, interfaceId, vlan );
+    }
+
+    /**
+     * Add a packet to the rollups.
+     *
+     * @param second the capture time of packet in seconds since the epoch
+     * @param length the length of packet in bytes
+     * @param protocol the IP protocol or PROTOCOL_NOT_IP
+     * @param interfaceId the interface
+     * @param vlan the VLAN id or 0 if untagged
+     */
+    public void add( final long second,
+                     final int length,
+                     final int protocol,
+                     final int interfaceId,
+                     final int vlan )
+    {
+        m_protocols.add( protocol, second, length );
+        m_interfaces.add( interfaceId, second, length );
+        m_vlans.add( vlan, second, length );
+    }
+
+    /**
+     * Return the counts per IP protocol.
+     *
+     * @return the counts per IP protocol
+     */
+    public RollupTable getProtocols()
+    {
+        return m_protocols;
+    }
+
+    /**
+     * Return the counts per interface.
+     *
+     * @return the counts per interface
+     */
+    public RollupTable getInterfaces()
+    {
+        return m_interfaces;
+    }
+
+    /**
+     * Return the counts per VLAN.
+     *
+     * @return the counts per VLAN
+     */
+    public RollupTable getVlans()
+    {
+        return m_vlans;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing an ARP packet for IPv4 over Ethernet.
+ * Addresses are stored in packed form; MAC addresses in the
+ * lower 48 bits of a long and IP addresses in an int.
+ *
+ * Semantic:  | HW Type | Proto Type | HW Len | Proto Len | Op | Sender MAC | Sender IP | Target MAC | Target IP |
+ * Length:    |       2 |          2 |      1 |         1 |  2 |          6 |         4 |          6 |         4 |
+ */
+public class ARPPacket
+    extends Packet
+{
+    /**
+     * Ethernet hardware type.
+     */
+    public static final int HARDWARE_ETHERNET = 1;
+
+    /**
+     * ARP request.
+     */
+    public static final int OP_REQUEST = 1;
+
+    /**
+     * ARP reply.
+     */
+    public static final int OP_REPLY = 2;
+
+    /**
+     * Reverse ARP request.
+     */
+    public static final int OP_REVERSE_REQUEST = 3;
+
+    /**
+     * Reverse ARP reply.
+     */
+    public static final int OP_REVERSE_REPLY = 4;
+
+    /**
+     * The hardware type.
+     */
+    private final int m_hardwareType;
+
+    /**
+     * The protocol type. Uses the same values as EthernetPacket.TYPE_*.
+     */
+    private final int m_protocolType;
+
+    /**
+     * The operation. Must be one of the OP_* constants.
+     */
+    private final int m_operation;
+
+    /**
+     * The sender MAC Address.
+     */
+    private final long m_senderHardwareAddress;
+
+    /**
+     * The sender IP Address.
+     */
+    private final int m_senderProtocolAddress;
+
+    /**
+     * The target MAC Address.
+     */
+    private final long m_targetHardwareAddress;
+
+    /**
+     * The target IP Address.
+     */
+    private final int m_targetProtocolAddress;
+
+    /**
+     * Create ARP packet.
+     *
+     * @param hardwareType the hardware type
+     * @param protocolType the protocol type
+     * @param operation the operation
+     * @param senderHardwareAddress the sender MAC Address
+     * @param senderProtocolAddress the sender IP Address
+     * @param targetHardwareAddress the target MAC Address
+     * @param targetProtocolAddress the target IP Address
+     */
+    public ARPPacket( final int hardwareType,
+                      final int protocolType,
+                      final int operation,
+                      final long senderHardwareAddress,
+                      final int senderProtocolAddress,
+                      final long targetHardwareAddress,
+                      final int targetProtocolAddress )
+    {
+        m_hardwareType = hardwareType;
+        m_protocolType = protocolType;
+        m_operation = operation;
+        m_senderHardwareAddress = senderHardwareAddress;
+        m_senderProtocolAddress = senderProtocolAddress;
+        m_targetHardwareAddress = targetHardwareAddress;
+        m_targetProtocolAddress = targetProtocolAddress;
+    }
+
+    /**
+     * Return the hardware type.
+     *
+     * @return the hardware type.
+     */
+    public int getHardwareType()
+    {
+        return m_hardwareType;
+    }
+
+    /**
+     * Return the protocol type.
+     *
+     * @return the protocol type.
+     */
+    public int getProtocolType()
+    {
+        return m_protocolType;
+    }
+
+    /**
+     * Return the operation.
+     *
+     * @return the operation.
+     */
+    public int getOperation()
+    {
+        return m_operation;
+    }
+
+    /**
+     * Return the sender MAC Address.
+     *
+     * @return the sender MAC Address.
+     */
+    public long getSenderHardwareAddress()
+    {
+        return m_senderHardwareAddress;
+    }
+
+    /**
+     * Return the sender IP Address.
+     *
+     * @return the sender IP Address.
+     */
+    public int getSenderProtocolAddress()
+    {
+        return m_senderProtocolAddress;
+    }
+
+    /**
+     * Return the target MAC Address.
+     *
+     * @return the target MAC Address.
+     */
+    public long getTargetHardwareAddress()
+    {
+        return m_targetHardwareAddress;
+    }
+
+    /**
+     * Return the target IP Address.
+     *
+     * @return the target IP Address.
+     */
+    public int getTargetProtocolAddress()
+    {
+        return m_targetProtocolAddress;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_ARP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "ARP[ OP=" ).append( getOperation() ).append( ' ' );
+        RenderUtil.appendMAC( sb, getSenderHardwareAddress() );
+        sb.append( '/' );
+        RenderUtil.appendIP( sb, getSenderProtocolAddress() );
+        sb.append( " ===> " );
+        RenderUtil.appendMAC( sb, getTargetHardwareAddress() );
+        sb.append( '/' );
+        RenderUtil.appendIP( sb, getTargetProtocolAddress() );
+        sb.append( ']' );
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Utilities for working with packed network addresses. IPv4 addresses
+ * are packed into an int with the first octet in the most significant
+ * byte and MAC addresses are packed into the lower 48 bits of a long.
+ */
+public class AddressUtil
+{
+    /**
+     * The broadcast MAC address.
+     */
+    public static final long BROADCAST_MAC = 0xFFFFFFFFFFFFL;
+
+    /**
+     * Pack specified 4 byte array into an IPv4 address.
+     *
+     * @param address the address
+     * @return the packed address
+     */
+    public static int toIP4Address( final byte[] address )
+    {
+        if( 4 != address.length )
+        {
+            throw new IllegalArgumentException( "4 != address.length" );
+        }
+        return ( ( address[0] & 0xFF ) << 24 ) |
+               ( ( address[1] & 0xFF ) << 16 ) |
+               ( ( address[2] & 0xFF ) << 8 ) |
+               ( address[3] & 0xFF );
+    }
+
+    /**
+     * Unpack specified IPv4 address into a 4 byte array.
+     *
+     * @param address the packed address
+     * @return the address
+     */
+    public static byte[] ip4ToBytes( final int address )
+    {
+        return new byte[]{(byte) ( address >>> 24 ),
+                          (byte) ( address >>> 16 ),
+                          (byte) ( address >>> 8 ),
+                          (byte) address};
+    }
+
+    /**
+     * Pack specified 6 byte array into a MAC address.
+     *
+     * @param address the address
+     * @return the packed address
+     */
+    public static long toMACAddress( final byte[] address )
+    {
+        if( 6 != address.length )
+        {
+            throw new IllegalArgumentException( "6 != address.length" );
+        }
+        long result = 0;
+        for( int i = 0; i < 6; i++ )
+        {
+            result = ( result << 8 ) | ( address[i] & 0xFF );
+        }
+        return result;
+    }
+
+    /**
+     * Unpack specified MAC address into a 6 byte array.
+     *
+     * @param address the packed address
+     * @return the address
+     */
+    public static byte[] macToBytes( final long address )
+    {
+        final byte[] result = new byte[6];
+        for( int i = 0; i < 6; i++ )
+        {
+            result[i] = (byte) ( address >>> ( 40 - i * 8 ) );
+        }
+        return result;
+    }
+
+    /**
+     * Parse an IPv4 address in dotted decimal notation.
+     *
+     * @param address the address string
+     * @return the packed address
+     * @throws IllegalArgumentException if address is not a valid IPv4 address
+     */
+    public static int parseIP4Address( final String address )
+    {
+        int result = 0;
+        int octet = 0;
+        int digits = 0;
+        int octets = 0;
+        final int length = address.length();
+        for( int i = 0; i <= length; i++ )
+        {
+            final char ch = ( i < length ) ? address.charAt( i ) : '.';
+            if( '.' == ch )
+            {
+                if( 0 == digits || 4 == octets )
+                {
+                    throw new IllegalArgumentException( "Invalid address: " + address );
+                }
+                result = ( result << 8 ) | octet;
+                octets++;
+                octet = 0;
+                digits = 0;
+            }
+            else if( ch >= '0' && ch <= '9' && digits < 3 )
+            {
+                octet = octet * 10 + ( ch - '0' );
+                digits++;
+                if( octet > 255 )
+                {
+                    throw new IllegalArgumentException( "Invalid address: " + address );
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException( "Invalid address: " + address );
+            }
+        }
+        if( 4 != octets )
+        {
+            throw new IllegalArgumentException( "Invalid address: " + address );
+        }
+        return result;
+    }
+
+    /**
+     * Return the network mask for specified prefix length.
+     *
+     * @param prefixLength the prefix length (0-32)
+     * @return the network mask
+     */
+    public static int toNetmask( final int prefixLength )
+    {
+        if( prefixLength < 0 || prefixLength > 32 )
+        {
+            throw new IllegalArgumentException( "prefixLength out of range: " + prefixLength );
+        }
+        else if( 0 == prefixLength )
+        {
+            return 0;
+        }
+        else
+        {
+            return 0xFFFFFFFF << ( 32 - prefixLength );
+        }
+    }
+
+    /**
+     * Return true if the address is within the specified subnet.
+     *
+     * @param address the address
+     * @param network the network address of subnet
+     * @param prefixLength the prefix length of subnet (0-32)
+     * @return true if the address is within the specified subnet
+     */
+    public static boolean isInSubnet( final int address,
+                                      final int network,
+                                      final int prefixLength )
+    {
+        final int netmask = toNetmask( prefixLength );
+        return ( address & netmask ) == ( network & netmask );
+    }
+
+    /**
+     * Compare two IPv4 addresses treating them as unsigned values so
+     * that addresses are ordered numerically.
+     *
+     * @param address1 the first address
+     * @param address2 the second address
+     * @return a negative, zero or positive value as the first address is
+     *         less than, equal to or greater than the second address
+     */
+    public static int compareIP4( final int address1, final int address2 )
+    {
+        final int value1 = address1 ^ 0x80000000;
+        final int value2 = address2 ^ 0x80000000;
+        return ( value1 < value2 ) ? -1 : ( ( value1 == value2 ) ? 0 : 1 );
+    }
+
+    /**
+     * Compare two MAC addresses.
+     *
+     * @param address1 the first address
+     * @param address2 the second address
+     * @return a negative, zero or positive value as the first address is
+     *         less than, equal to or greater than the second address
+     */
+    public static int compareMAC( final long address1, final long address2 )
+    {
+        final long value1 = address1 & BROADCAST_MAC;
+        final long value2 = address2 & BROADCAST_MAC;
+        return ( value1 < value2 ) ? -1 : ( ( value1 == value2 ) ? 0 : 1 );
+    }
+
+    /**
+     * Return true if the IPv4 address is a multicast address.
+     *
+     * @param address the address
+     * @return true if the IPv4 address is a multicast address
+     */
+    public static boolean isMulticastIP4( final int address )
+    {
+        return 0xE0 == ( ( address >>> 24 ) & 0xF0 );
+    }
+
+    /**
+     * Return true if the MAC address is a group (multicast or broadcast) address.
+     *
+     * @param address the address
+     * @return true if the MAC address is a group address
+     */
+    public static boolean isGroupMAC( final long address )
+    {
+        return 0 != ( address & 0x010000000000L );
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Utilities for computing the Internet checksum used by IPv4, TCP and UDP.
+ * The checksum is the ones' complement of the ones' complement sum of
+ * the data taken as 16 bit big endian words. Sums are accumulated in a
+ * long and only folded into 16 bits when the checksum is finished, so
+ * partial sums such as a pseudo header can simply be added together.
+ *
+ * <p>Data containing a correct checksum field sums to a checksum of 0.</p>
+ */
+public class ChecksumUtil
+{
+    /**
+     * Return the unfolded sum of the 16 bit words of data. If length is
+     * odd the last byte is padded with a zero byte.
+     *
+     * @param data the data
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the sum
+     */
+    public static long sum( final byte[] data, final int offset, final int length )
+    {
+        //The high and low bytes of words are summed separately, which
+        //avoids assembling each word, and combined once at the end.
+        //Neither int can overflow for lengths below 8MB.
+        int high = 0;
+        int low = 0;
+        int i = offset;
+        final int end = offset + length;
+        final int unrolledEnd = offset + ( length & ~7 );
+        while( i < unrolledEnd )
+        {
+            high += ( data[i] & 0xFF ) + ( data[i + 2] & 0xFF ) + ( data[i + 4] & 0xFF ) + ( data[i + 6] & 0xFF );
+            low += ( data[i + 1] & 0xFF ) + ( data[i + 3] & 0xFF ) + ( data[i + 5] & 0xFF ) + ( data[i + 7] & 0xFF );
+            i += 8;
+        }
+        while( i + 1 < end )
+        {
+            high += data[i] & 0xFF;
+            low += data[i + 1] & 0xFF;
+            i += 2;
+        }
+        if( i < end )
+        {
+            high += data[i] & 0xFF;
+        }
+        return ( (long) high << 8 ) + low;
+    }
+
+    /**
+     * Return the sum of the IPv4 pseudo header used by TCP and UDP checksums.
+     *
+     * @param source the source address
+     * @param destination the destination address
+     * @param protocol the IP protocol
+     * @param length the length of the TCP or UDP header and payload
+     * @return the sum
+     */
+    public static long pseudoHeaderSum( final int source,
+                                        final int destination,
+                                        final int protocol,
+                                        final int length )
+    {
+        return ( source >>> 16 ) + ( source & 0xFFFF ) +
+            ( destination >>> 16 ) + ( destination & 0xFFFF ) +
+            protocol + length;
+    }
+
+    /**
+     * Return the sum of the pseudo header of a packet carried by ip.
+     *
+     * @param ip the IPv4 or IPv6 packet
+     * @param protocol the IP protocol
+     * @param length the length of the upper layer header and payload
+     * @return the sum
+     */
+    public static long pseudoHeaderSum( final IPPacket ip, final int protocol, final int length )
+    {
+        if( ip instanceof IP4Packet )
+        {
+            final IP4Packet ip4 = (IP4Packet) ip;
+            return pseudoHeaderSum( ip4.getSourceAddress(), ip4.getDestinationAddress(), protocol, length );
+        }
+        else
+        {
+            final IP6Packet ip6 = (IP6Packet) ip;
+            //The IPv6 pseudo header has a 32 bit length, the upper half of which is always zero here
+            return sum( ip6.getSourceHigh() ) + sum( ip6.getSourceLow() ) +
+                sum( ip6.getDestinationHigh() ) + sum( ip6.getDestinationLow() ) +
+                protocol + length;
+        }
+    }
+
+    /**
+     * Fold sum into 16 bits and return its ones' complement.
+     *
+     * @param sum the sum
+     * @return the checksum
+     */
+    public static int toChecksum( final long sum )
+    {
+        long folded = sum;
+        while( 0 != ( folded >>> 16 ) )
+        {
+            folded = ( folded & 0xFFFF ) + ( folded >>> 16 );
+        }
+        return (int) ( ~folded & 0xFFFF );
+    }
+
+    /**
+     * Return the checksum of data.
+     *
+     * @param data the data
+     * @param offset the offset of the first byte
+     * @param length the number of bytes
+     * @return the checksum
+     */
+    public static int checksum( final byte[] data, final int offset, final int length )
+    {
+        return toChecksum( sum( data, offset, length ) );
+    }
+
+    /**
+     * Return the sum of the 16 bit words of value.
+     *
+     * @param value the value
+     * @return the sum
+     */
+    private static long sum( final long value )
+    {
+        return ( value >>> 48 ) + ( ( value >>> 32 ) & 0xFFFF ) + ( ( value >>> 16 ) & 0xFFFF ) + ( value & 0xFFFF );
+    }
+}
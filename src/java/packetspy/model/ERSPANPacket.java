@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing an ERSPAN header carried in GRE. Type II headers
+ * are 8 bytes and type III headers are 12 bytes, optionally followed by
+ * an 8 byte platform specific subheader. The mirrored Ethernet frame follows.
+ *
+ * Semantic:  | Version | VLAN | COS | Encap | Truncated | Session Id | ... |
+ * Length:    |   4 bit |12 bit|3 bit| 2 bit |     1 bit |     10 bit |     |
+ */
+public class ERSPANPacket
+    extends Packet
+    implements TunnelPacket
+{
+    /**
+     * ERSPAN type II.
+     */
+    public static final int VERSION_2 = 1;
+
+    /**
+     * ERSPAN type III.
+     */
+    public static final int VERSION_3 = 2;
+
+    /**
+     * The version.
+     */
+    private final int m_version;
+
+    /**
+     * The VLAN of the mirrored frame.
+     */
+    private final int m_vlanId;
+
+    /**
+     * The session identifier.
+     */
+    private final int m_sessionId;
+
+    /**
+     * True if the mirrored frame was truncated.
+     */
+    private final boolean m_truncated;
+
+    /**
+     * Create an ERSPAN header.
+     *
+     * @param version the version
+     * @param vlanId the VLAN of the mirrored frame
+     * @param sessionId the session identifier
+     * @param truncated true if the mirrored frame was truncated
+     */
+    public ERSPANPacket( final int version,
+                         final int vlanId,
+                         final int sessionId,
+                         final boolean truncated )
+    {
+        m_version = version;
+        m_vlanId = vlanId;
+        m_sessionId = sessionId;
+        m_truncated = truncated;
+    }
+
+    /**
+     * Return the version.
+     *
+     * @return the version.
+     */
+    public int getVersion()
+    {
+        return m_version;
+    }
+
+    /**
+     * Return the VLAN of the mirrored frame.
+     *
+     * @return the VLAN of the mirrored frame.
+     */
+    public int getVlanId()
+    {
+        return m_vlanId;
+    }
+
+    /**
+     * Return the session identifier.
+     *
+     * @return the session identifier.
+     */
+    public int getSessionId()
+    {
+        return m_sessionId;
+    }
+
+    /**
+     * Return true if the mirrored frame was truncated.
+     *
+     * @return true if the mirrored frame was truncated.
+     */
+    public boolean isTruncated()
+    {
+        return m_truncated;
+    }
+
+    /**
+     * Return the session identifier as the tunnel identifier.
+     *
+     * @see TunnelPacket#getTunnelId()
+     */
+    public long getTunnelId()
+    {
+        return m_sessionId;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_ERSPAN;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "ERSPAN[ V=" ).append( getVersion() );
+        sb.append( " ID=" ).append( getSessionId() );
+        sb.append( " VLAN=" ).append( getVlanId() ).append( ']' );
+    }
+}
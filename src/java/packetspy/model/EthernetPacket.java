@@ -39,16 +39,62 @@ public class EthernetPacket
      * Address resolution protocol.
      */
     public static final int TYPE_ARP = 0x0806;
+    /**
+     * IPv6 protocol.
+     */
+    public static final int TYPE_IP6 = 0x86DD;
+    /**
+     * IEEE 802.1Q VLAN tag.
+     */
+    public static final int TYPE_VLAN = 0x8100;
+    /**
+     * IEEE 802.1ad service VLAN tag (QinQ).
+     */
+    public static final int TYPE_QINQ = 0x88A8;
+    /**
+     * Pre-standard QinQ service VLAN tag.
+     */
+    public static final int TYPE_QINQ_LEGACY = 0x9100;
+    /**
+     * MPLS unicast.
+     */
+    public static final int TYPE_MPLS = 0x8847;
+    /**
+     * MPLS multicast.
+     */
+    public static final int TYPE_MPLS_MULTICAST = 0x8848;
+    /**
+     * Transparent Ethernet bridging, used to carry Ethernet frames in GRE.
+     */
+    public static final int TYPE_TRANSPARENT_ETHERNET = 0x6558;
+    /**
+     * ERSPAN type II, carried in GRE.
+     */
+    public static final int TYPE_ERSPAN = 0x88BE;
+    /**
+     * ERSPAN type III, carried in GRE.
+     */
+    public static final int TYPE_ERSPAN3 = 0x22EB;
+
+    /**
+     * The destination MAC Address packed into the lower 48 bits.
+     */
+    private final long m_destinationAddress;
 
     /**
-     * The destination MAC Address. Must be 6 bytes.
+     * The source MAC Address packed into the lower 48 bits.
      */
-    private final byte[] m_destination;
+    private final long m_sourceAddress;
 
     /**
-     * The source MAC Address. Must be 6 bytes.
+     * The destination MAC Address as bytes. Created on demand.
      */
-    private final byte[] m_source;
+    private byte[] m_destination;
+
+    /**
+     * The source MAC Address as bytes. Created on demand.
+     */
+    private byte[] m_source;
 
     /**
      * The type of the underlying packet.
@@ -81,11 +127,27 @@ public class EthernetPacket
         {
             throw new IllegalArgumentException( "6 != source.length" );
         }
+        m_destinationAddress = AddressUtil.toMACAddress( destination );
+        m_sourceAddress = AddressUtil.toMACAddress( source );
         m_destination = destination;
         m_source = source;
         m_type = type;
     }
 
+    /**
+     * Create an ethernet packet with packed addresses.
+     *
+     * @param destination the packed destination MAC Address
+     * @param source the packed source MAC Address
+     * @param type the frame type / protocol
+     */
+    public EthernetPacket( final long destination, final long source, final int type )
+    {
+        m_destinationAddress = destination & AddressUtil.BROADCAST_MAC;
+        m_sourceAddress = source & AddressUtil.BROADCAST_MAC;
+        m_type = type;
+    }
+
     /**
      * Return the destination MAC Address.
      *
@@ -93,9 +155,23 @@ public class EthernetPacket
      */
     public byte[] getDestination()
     {
+        if( null == m_destination )
+        {
+            m_destination = AddressUtil.macToBytes( m_destinationAddress );
+        }
         return m_destination;
     }
 
+    /**
+     * Return the destination MAC Address packed into a long.
+     *
+     * @return the destination MAC Address.
+     */
+    public long getDestinationAddress()
+    {
+        return m_destinationAddress;
+    }
+
     /**
      * Return the source MAC Address.
      *
@@ -103,9 +179,23 @@ public class EthernetPacket
      */
     public byte[] getSource()
     {
+        if( null == m_source )
+        {
+            m_source = AddressUtil.macToBytes( m_sourceAddress );
+        }
         return m_source;
     }
 
+    /**
+     * Return the source MAC Address packed into a long.
+     *
+     * @return the source MAC Address.
+     */
+    public long getSourceAddress()
+    {
+        return m_sourceAddress;
+    }
+
     /**
      * Return the frame type.
      *
@@ -118,15 +208,22 @@ public class EthernetPacket
 
 
     /**
-     * @see Object#toString()
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_ETHERNET;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
      */
-    public String toString()
+    public void appendTo( final StringBuffer sb )
     {
-        return
-            "Ethernet[ " +
-            RenderUtil.macToString( getSource() ) +
-            " ===> " +
-            RenderUtil.macToString( getDestination() ) +
-            " T=" + getType() + "]";
+        sb.append( "Ethernet[ " );
+        RenderUtil.appendMAC( sb, getSourceAddress() );
+        sb.append( " ===> " );
+        RenderUtil.appendMAC( sb, getDestinationAddress() );
+        sb.append( " T=" ).append( getType() ).append( ']' );
     }
 }
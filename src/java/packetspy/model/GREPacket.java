@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing a Generic Routing Encapsulation header.
+ * The checksum, key and sequence number are only present if the
+ * corresponding flag is set.
+ *
+ * Semantic:  | Flags | Version | Protocol | Checksum | Reserved | Key | Sequence |
+ * Length:    | 13 bit|   3 bit |        2 |        2 |        2 |   4 |        4 |
+ */
+public class GREPacket
+    extends Packet
+    implements TunnelPacket
+{
+    /**
+     * Flag indicating checksum is present.
+     */
+    public static final int FLAG_CHECKSUM = 0x8000;
+
+    /**
+     * Flag indicating key is present.
+     */
+    public static final int FLAG_KEY = 0x2000;
+
+    /**
+     * Flag indicating sequence number is present.
+     */
+    public static final int FLAG_SEQUENCE = 0x1000;
+
+    /**
+     * The flags and version.
+     */
+    private final int m_flags;
+
+    /**
+     * The type of the underlying packet.
+     * Uses the same values as EthernetPacket.TYPE_*.
+     */
+    private final int m_protocol;
+
+    /**
+     * The key or -1 if not present.
+     */
+    private final long m_key;
+
+    /**
+     * The sequence number or -1 if not present.
+     */
+    private final long m_sequence;
+
+    /**
+     * Create a GRE header.
+     *
+     * @param flags the flags and version
+     * @param protocol the type of the underlying packet
+     * @param key the key or -1 if not present
+     * @param sequence the sequence number or -1 if not present
+     */
+    public GREPacket( final int flags,
+                      final int protocol,
+                      final long key,
+                      final long sequence )
+    {
+        m_flags = flags;
+        m_protocol = protocol;
+        m_key = key;
+        m_sequence = sequence;
+    }
+
+    /**
+     * Return the flags and version.
+     *
+     * @return the flags and version.
+     */
+    public int getFlags()
+    {
+        return m_flags;
+    }
+
+    /**
+     * Return the GRE version.
+     *
+     * @return the GRE version.
+     */
+    public int getVersion()
+    {
+        return m_flags & 0x7;
+    }
+
+    /**
+     * Return the type of the underlying packet.
+     *
+     * @return the type of the underlying packet.
+     */
+    public int getProtocol()
+    {
+        return m_protocol;
+    }
+
+    /**
+     * Return the key.
+     *
+     * @return the key or -1 if not present.
+     */
+    public long getKey()
+    {
+        return m_key;
+    }
+
+    /**
+     * Return the sequence number.
+     *
+     * @return the sequence number or -1 if not present.
+     */
+    public long getSequence()
+    {
+        return m_sequence;
+    }
+
+    /**
+     * Return the key as the tunnel identifier.
+     *
+     * @see TunnelPacket#getTunnelId()
+     */
+    public long getTunnelId()
+    {
+        return m_key;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_GRE;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "GRE[ P=" ).append( getProtocol() );
+        if( -1 != m_key )
+        {
+            sb.append( " K=" ).append( m_key );
+        }
+        if( -1 != m_sequence )
+        {
+            sb.append( " S=" ).append( m_sequence );
+        }
+        sb.append( ']' );
+    }
+}
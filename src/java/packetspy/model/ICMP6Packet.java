@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Packet representing ICMPv6 packet.
+ */
+public class ICMP6Packet
+    extends Packet
+{
+    /**
+     * Destination unreachable.
+     */
+    public static final int TYPE_DESTINATION_UNREACHABLE = 1;
+
+    /**
+     * Packet too big for link MTU.
+     */
+    public static final int TYPE_PACKET_TOO_BIG = 2;
+
+    /**
+     * Hop limit or fragment reassembly time exceeded.
+     */
+    public static final int TYPE_TIME_EXCEEDED = 3;
+
+    /**
+     * Erroneous header field.
+     */
+    public static final int TYPE_PARAMETER_PROBLEM = 4;
+
+    /**
+     * Echo request message.
+     */
+    public static final int TYPE_ECHO_REQUEST = 128;
+
+    /**
+     * Echo reply message.
+     */
+    public static final int TYPE_ECHO_REPLY = 129;
+
+    /**
+     * Multicast listener query.
+     */
+    public static final int TYPE_LISTENER_QUERY = 130;
+
+    /**
+     * Multicast listener report.
+     */
+    public static final int TYPE_LISTENER_REPORT = 131;
+
+    /**
+     * Multicast listener done.
+     */
+    public static final int TYPE_LISTENER_DONE = 132;
+
+    /**
+     * Router solicitation.
+     */
+    public static final int TYPE_ROUTER_SOLICITATION = 133;
+
+    /**
+     * Router advertisement.
+     */
+    public static final int TYPE_ROUTER_ADVERTISEMENT = 134;
+
+    /**
+     * Neighbor solicitation.
+     */
+    public static final int TYPE_NEIGHBOR_SOLICITATION = 135;
+
+    /**
+     * Neighbor advertisement.
+     */
+    public static final int TYPE_NEIGHBOR_ADVERTISEMENT = 136;
+
+    /**
+     * Redirect message.
+     */
+    public static final int TYPE_REDIRECT = 137;
+
+    /**
+     * Version 2 multicast listener report.
+     */
+    public static final int TYPE_LISTENER_REPORT_V2 = 143;
+
+    /**
+     * The type of ICMPv6 Message.
+     */
+    private final int m_type;
+
+    /**
+     * The code associated with message.
+     * (This is type specific).
+     */
+    private final int m_code;
+
+    /**
+     * The packet checksum.
+     */
+    private final int m_checksum;
+
+    /**
+     * The first 32 bits of the message body.
+     * This is type specific.
+     */
+    private final long m_param;
+
+    /**
+     * Create ICMPv6 packet.
+     *
+     * @param type the type
+     * @param code the code
+     * @param checksum the packet checksum
+     * @param param param
+     */
+    public ICMP6Packet( final int type,
+                        final int code,
+                        final int checksum,
+                        final long param )
+    {
+        m_type = type;
+        m_code = code;
+        m_checksum = checksum;
+        m_param = param;
+    }
+
+    /**
+     * Return type of ICMPv6 Message.
+     *
+     * @return type of ICMPv6 Message.
+     */
+    public int getType()
+    {
+        return m_type;
+    }
+
+    /**
+     * Return the code associated with message.
+     *
+     * @return the code associated with message.
+     */
+    public int getCode()
+    {
+        return m_code;
+    }
+
+    /**
+     * Return the packets checksum.
+     *
+     * @return the packets checksum.
+     */
+    public int getChecksum()
+    {
+        return m_checksum;
+    }
+
+    /**
+     * Return the param associated with message.
+     *
+     * @return the param associated with message.
+     */
+    public long getParam()
+    {
+        return m_param;
+    }
+
+    /**
+     * Return true if message is an error message that quotes
+     * the datagram that caused the error.
+     *
+     * @return true if message is an error message.
+     */
+    public boolean isError()
+    {
+        return m_type < 128;
+    }
+
+    /**
+     * Return the datagram quoted by an error message. The quoted datagram
+     * is decoded in place and contains the IP header and at least the
+     * first 8 bytes of the transport header of the packet that caused
+     * the error.
+     *
+     * @return the quoted datagram or null if none decoded
+     */
+    public IPPacket getQuotedDatagram()
+    {
+        final Packet upper = getUpperLayerPacket();
+        if( upper instanceof IPPacket )
+        {
+            return (IPPacket) upper;
+        }
+        return null;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_ICMP6;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        IPPacket.appendAddresses( sb, "ICMP6[ ", this );
+        sb.append( " T/C=" ).append( getType() ).append( '/' ).append( getCode() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " PARAM=" ).append( getParam() );
+        sb.append( ']' );
+    }
+}
@@ -244,19 +244,55 @@ public class ICMPPacket
     }
 
     /**
-     * @see Object#toString()
+     * Return true if message is an error message that quotes
+     * the datagram that caused the error.
+     *
+     * @return true if message is an error message.
+     */
+    public boolean isError()
+    {
+        return TYPE_DESTINATION_UNREACHABLE == m_type ||
+            TYPE_SOURCE_QUENCH == m_type ||
+            TYPE_REDIRECT == m_type ||
+            TYPE_TIME_EXCEEDED == m_type ||
+            TYPE_PARAMETER_PROBLEM == m_type;
+    }
+
+    /**
+     * Return the datagram quoted by an error message. The quoted datagram
+     * is decoded in place and contains the IP header and at least the
+     * first 8 bytes of the transport header of the packet that caused
+     * the error.
+     *
+     * @return the quoted datagram or null if none decoded
+     */
+    public IPPacket getQuotedDatagram()
+    {
+        final Packet upper = getUpperLayerPacket();
+        if( upper instanceof IPPacket )
+        {
+            return (IPPacket) upper;
+        }
+        return null;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_ICMP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
      */
-    public String toString()
+    public void appendTo( final StringBuffer sb )
     {
-        final IP4Packet ipPacket = (IP4Packet)getLowerLayerPacket();
-        return
-            "ICMP[ " +
-            RenderUtil.ipToString( ipPacket.getSource() ) +
-            " ===> " +
-            RenderUtil.ipToString( ipPacket.getDestination() ) +
-            " T/C=" + getType() + "/" + getCode() +
-            " CHK=" + getChecksum() +
-            " PARAM=" + getParam() +
-            "]";
+        IPPacket.appendAddresses( sb, "ICMP[ ", this );
+        sb.append( " T/C=" ).append( getType() ).append( '/' ).append( getCode() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " PARAM=" ).append( getParam() );
+        sb.append( ']' );
     }
 }
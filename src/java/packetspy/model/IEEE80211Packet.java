@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing an IEEE 802.11 MAC header. Data frames that carry
+ * a LLC/SNAP header expose the ethertype of the encapsulated packet.
+ *
+ * Semantic:  | Frame Control | Duration | Address 1 | Address 2 | Address 3 | Sequence | Address 4 | QoS | HT |
+ * Length:    |             2 |        2 |         6 |         6 |         6 |        2 |         6 |   2 |  4 |
+ *
+ * Address 4 is only present when frame travels between distribution
+ * systems, QoS control is only present in QoS data frames and HT control
+ * is only present when the order flag is set on QoS data frames.
+ */
+public class IEEE80211Packet
+    extends Packet
+{
+    /**
+     * Management frame type.
+     */
+    public static final int TYPE_MANAGEMENT = 0;
+
+    /**
+     * Control frame type.
+     */
+    public static final int TYPE_CONTROL = 1;
+
+    /**
+     * Data frame type.
+     */
+    public static final int TYPE_DATA = 2;
+
+    /**
+     * The frame control field.
+     */
+    private final int m_frameControl;
+
+    /**
+     * The first address. Usually the receiver.
+     */
+    private final long m_address1;
+
+    /**
+     * The second address. Usually the transmitter.
+     */
+    private final long m_address2;
+
+    /**
+     * The third address. Usually the BSSID or final destination.
+     */
+    private final long m_address3;
+
+    /**
+     * The ethertype of underlying packet or -1 if not a data frame with a SNAP header.
+     */
+    private final int m_etherType;
+
+    /**
+     * Create an IEEE 802.11 header.
+     *
+     * @param frameControl the frame control field
+     * @param address1 the first address
+     * @param address2 the second address
+     * @param address3 the third address
+     * @param etherType the ethertype of underlying packet or -1 if none
+     */
+    public IEEE80211Packet( final int frameControl,
+                            final long address1,
+                            final long address2,
+                            final long address3,
+                            final int etherType )
+    {
+        m_frameControl = frameControl;
+        m_address1 = address1;
+        m_address2 = address2;
+        m_address3 = address3;
+        m_etherType = etherType;
+    }
+
+    /**
+     * Return the frame control field in transmission order.
+     *
+     * @return the frame control field.
+     */
+    public int getFrameControl()
+    {
+        return m_frameControl;
+    }
+
+    /**
+     * Return the frame type. One of TYPE_*.
+     *
+     * @return the frame type.
+     */
+    public int getType()
+    {
+        return ( m_frameControl >> 10 ) & 0x3;
+    }
+
+    /**
+     * Return the frame subtype.
+     *
+     * @return the frame subtype.
+     */
+    public int getSubtype()
+    {
+        return ( m_frameControl >> 12 ) & 0xF;
+    }
+
+    /**
+     * Return true if the frame is sent to the distribution system.
+     *
+     * @return true if the frame is sent to the distribution system.
+     */
+    public boolean isToDS()
+    {
+        return 0 != ( m_frameControl & 0x01 );
+    }
+
+    /**
+     * Return true if the frame is sent from the distribution system.
+     *
+     * @return true if the frame is sent from the distribution system.
+     */
+    public boolean isFromDS()
+    {
+        return 0 != ( m_frameControl & 0x02 );
+    }
+
+    /**
+     * Return true if the frame body is encrypted.
+     *
+     * @return true if the frame body is encrypted.
+     */
+    public boolean isProtected()
+    {
+        return 0 != ( m_frameControl & 0x40 );
+    }
+
+    /**
+     * Return the first address.
+     *
+     * @return the first address.
+     */
+    public long getAddress1()
+    {
+        return m_address1;
+    }
+
+    /**
+     * Return the second address.
+     *
+     * @return the second address.
+     */
+    public long getAddress2()
+    {
+        return m_address2;
+    }
+
+    /**
+     * Return the third address.
+     *
+     * @return the third address.
+     */
+    public long getAddress3()
+    {
+        return m_address3;
+    }
+
+    /**
+     * Return the ethertype of the underlying packet.
+     *
+     * @return the ethertype or -1 if frame does not carry one.
+     */
+    public int getEtherType()
+    {
+        return m_etherType;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_IEEE802_11;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "802.11[ " );
+        RenderUtil.appendMAC( sb, getAddress2() );
+        sb.append( " ===> " );
+        RenderUtil.appendMAC( sb, getAddress1() );
+        sb.append( " BSS=" );
+        RenderUtil.appendMAC( sb, getAddress3() );
+        sb.append( " T/S=" ).append( getType() ).append( '/' ).append( getSubtype() );
+        sb.append( " T=" ).append( getEtherType() ).append( ']' );
+    }
+}
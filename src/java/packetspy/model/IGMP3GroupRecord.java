@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Cursor over the group records of an IGMPv3 membership report.
+ * The cursor reads the records directly from the packet data so a
+ * single instance can be reused to walk the records of many reports.
+ *
+ * <pre>
+ * final IGMP3GroupRecord record = new IGMP3GroupRecord();
+ * record.reset( report );
+ * while( record.next() )
+ * {
+ *     ...record.getMulticastAddress()...
+ * }
+ * </pre>
+ *
+ * Semantic:  | Record Type | Aux Data Len | Number of Sources | Multicast Address | Sources | Aux Data |
+ * Length:    |           1 |            1 |                 2 |                 4 |   4 * N | 4 * Len  |
+ */
+public class IGMP3GroupRecord
+{
+    /**
+     * Current state report - receiving from the included sources.
+     */
+    public static final int MODE_IS_INCLUDE = 1;
+
+    /**
+     * Current state report - receiving from all but the excluded sources.
+     */
+    public static final int MODE_IS_EXCLUDE = 2;
+
+    /**
+     * Filter mode change report - changed to include mode.
+     */
+    public static final int CHANGE_TO_INCLUDE_MODE = 3;
+
+    /**
+     * Filter mode change report - changed to exclude mode.
+     */
+    public static final int CHANGE_TO_EXCLUDE_MODE = 4;
+
+    /**
+     * Source list change report - allow additional sources.
+     */
+    public static final int ALLOW_NEW_SOURCES = 5;
+
+    /**
+     * Source list change report - block previously allowed sources.
+     */
+    public static final int BLOCK_OLD_SOURCES = 6;
+
+    /**
+     * The packet data.
+     */
+    private byte[] m_data;
+
+    /**
+     * The offset of the current record or -1 if not positioned on a record.
+     */
+    private int m_offset = -1;
+
+    /**
+     * The offset of the next record.
+     */
+    private int m_next;
+
+    /**
+     * The offset after the last byte of record data.
+     */
+    private int m_limit;
+
+    /**
+     * The number of records that have not been visited.
+     */
+    private int m_remaining;
+
+    /**
+     * Position the cursor before the first record of specified report.
+     *
+     * @param report the report
+     */
+    public void reset( final IGMP3ReportPacket report )
+    {
+        m_data = report.getData();
+        m_offset = -1;
+        m_next = report.getPayloadStart();
+        m_limit = Math.min( m_data.length, m_next + report.getPayloadLength() );
+        m_remaining = report.getGroupRecordCount();
+    }
+
+    /**
+     * Move the cursor to the next record.
+     *
+     * @return true if cursor positioned on a record, false if no more records
+     *         or the remaining records were not captured
+     */
+    public boolean next()
+    {
+        if( 0 >= m_remaining || m_next + 8 > m_limit )
+        {
+            m_offset = -1;
+            m_remaining = 0;
+            return false;
+        }
+        m_offset = m_next;
+        m_next += 8 + getSourceCount() * 4 + getAuxDataLength() * 4;
+        m_remaining--;
+        return true;
+    }
+
+    /**
+     * Return the record type.
+     *
+     * @return the record type.
+     */
+    public int getRecordType()
+    {
+        return m_data[position()] & 0xFF;
+    }
+
+    /**
+     * Return the length of the auxiliary data in 32 bit words.
+     *
+     * @return the length of the auxiliary data in 32 bit words.
+     */
+    public int getAuxDataLength()
+    {
+        return m_data[position() + 1] & 0xFF;
+    }
+
+    /**
+     * Return the number of sources in record.
+     *
+     * @return the number of sources in record.
+     */
+    public int getSourceCount()
+    {
+        final int offset = position();
+        return ( ( m_data[offset + 2] & 0xFF ) << 8 ) | ( m_data[offset + 3] & 0xFF );
+    }
+
+    /**
+     * Return the number of sources in record that were captured.
+     *
+     * @return the number of sources in record that were captured.
+     */
+    public int getCapturedSourceCount()
+    {
+        return Math.max( 0, Math.min( getSourceCount(), ( m_limit - position() - 8 ) / 4 ) );
+    }
+
+    /**
+     * Return the multicast address.
+     *
+     * @return the multicast address.
+     */
+    public int getMulticastAddress()
+    {
+        return readInt( m_data, position() + 4 );
+    }
+
+    /**
+     * Return the source address at specified index.
+     *
+     * @param index the index of the source
+     * @return the source address
+     * @throws IndexOutOfBoundsException if index is not less than getCapturedSourceCount()
+     */
+    public int getSource( final int index )
+    {
+        if( index < 0 || index >= getCapturedSourceCount() )
+        {
+            throw new IndexOutOfBoundsException( "index " + index );
+        }
+        return readInt( m_data, position() + 8 + index * 4 );
+    }
+
+    /**
+     * Return the offset of the current record.
+     *
+     * @return the offset of the current record.
+     */
+    private int position()
+    {
+        if( -1 == m_offset )
+        {
+            throw new IllegalStateException( "Not positioned on a record" );
+        }
+        return m_offset;
+    }
+
+    /**
+     * Read a 32 bit value.
+     *
+     * @param data the input data
+     * @param offset the offset in input data
+     * @return the value
+     */
+    static int readInt( final byte[] data, final int offset )
+    {
+        return ( ( data[offset + 0] & 0xFF ) << 24 ) |
+               ( ( data[offset + 1] & 0xFF ) << 16 ) |
+               ( ( data[offset + 2] & 0xFF ) << 8 ) |
+               ( ( data[offset + 3] & 0xFF ) << 0 );
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Packet representing IGMPv3 membership query. The source addresses
+ * are read from the packet data on demand.
+ *
+ * Semantic:  | Type | Max Resp Code | Checksum | Group Address | Resv | S     | QRV   | QQIC | Number of Sources | Sources |
+ * Length:    |    1 |             1 |        2 |             4 | 4bit | 1 bit | 3 bit |    1 |                 2 |   4 * N |
+ */
+public class IGMP3QueryPacket
+    extends IGMPPacket
+{
+    /**
+     * True if router side processing should be suppressed.
+     */
+    private final boolean m_suppressRouterProcessing;
+
+    /**
+     * The querier's robustness variable.
+     */
+    private final byte m_robustness;
+
+    /**
+     * The querier's query interval code.
+     */
+    private final short m_queryIntervalCode;
+
+    /**
+     * The number of source addresses.
+     */
+    private final int m_sourceCount;
+
+    /**
+     * Create IGMPv3 query packet.
+     *
+     * @param maxResponseCode the max response code
+     * @param checksum the packet checksum
+     * @param address the group address
+     * @param suppressRouterProcessing the suppress router-side processing flag
+     * @param robustness the querier's robustness variable
+     * @param queryIntervalCode the querier's query interval code
+     * @param sourceCount the number of source addresses
+     */
+    public IGMP3QueryPacket( final short maxResponseCode,
+                             final int checksum,
+                             final byte[] address,
+                             final boolean suppressRouterProcessing,
+                             final byte robustness,
+                             final short queryIntervalCode,
+                             final int sourceCount )
+    {
+        super( (byte) QUERY, maxResponseCode, checksum, address );
+        m_suppressRouterProcessing = suppressRouterProcessing;
+        m_robustness = robustness;
+        m_queryIntervalCode = queryIntervalCode;
+        m_sourceCount = sourceCount;
+    }
+
+    /**
+     * Return the max response time in tenths of a second
+     * decoded from the max response code.
+     *
+     * @return the max response time in tenths of a second.
+     */
+    public int getMaxResponseDelay()
+    {
+        return decodeTimeCode( getMaxResponseTime() );
+    }
+
+    /**
+     * Return true if router side processing should be suppressed.
+     *
+     * @return true if router side processing should be suppressed.
+     */
+    public boolean isSuppressRouterProcessingSet()
+    {
+        return m_suppressRouterProcessing;
+    }
+
+    /**
+     * Return the querier's robustness variable.
+     *
+     * @return the querier's robustness variable.
+     */
+    public byte getRobustness()
+    {
+        return m_robustness;
+    }
+
+    /**
+     * Return the querier's query interval code.
+     *
+     * @return the querier's query interval code.
+     */
+    public short getQueryIntervalCode()
+    {
+        return m_queryIntervalCode;
+    }
+
+    /**
+     * Return the querier's query interval in seconds.
+     *
+     * @return the querier's query interval in seconds.
+     */
+    public int getQueryInterval()
+    {
+        return decodeTimeCode( m_queryIntervalCode );
+    }
+
+    /**
+     * Return the number of source addresses.
+     *
+     * @return the number of source addresses.
+     */
+    public int getSourceCount()
+    {
+        return m_sourceCount;
+    }
+
+    /**
+     * Return the number of source addresses that were captured.
+     *
+     * @return the number of source addresses that were captured.
+     */
+    public int getCapturedSourceCount()
+    {
+        final byte[] data = getData();
+        if( null == data )
+        {
+            return 0;
+        }
+        final int available = ( data.length - getHeaderStart() - 12 ) / 4;
+        return Math.max( 0, Math.min( m_sourceCount, available ) );
+    }
+
+    /**
+     * Return the source address at specified index.
+     *
+     * @param index the index of the source
+     * @return the source address
+     * @throws IndexOutOfBoundsException if index is not less than getCapturedSourceCount()
+     */
+    public int getSource( final int index )
+    {
+        if( index < 0 || index >= getCapturedSourceCount() )
+        {
+            throw new IndexOutOfBoundsException( "index " + index );
+        }
+        return IGMP3GroupRecord.readInt( getData(), getHeaderStart() + 12 + index * 4 );
+    }
+
+    /**
+     * Decode a max response code or querier's query interval code.
+     * Codes of 128 or more are encoded as an exponent and mantissa.
+     *
+     * @param code the code
+     * @return the decoded value
+     */
+    public static int decodeTimeCode( final int code )
+    {
+        if( code < 128 )
+        {
+            return code;
+        }
+        else
+        {
+            final int mantissa = code & 0x0F;
+            final int exponent = ( code >> 4 ) & 0x07;
+            return ( mantissa | 0x10 ) << ( exponent + 3 );
+        }
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        IPPacket.appendAddresses( sb, "IGMP3[ ", this );
+        sb.append( " T=" ).append( getType() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " ADDR=" );
+        RenderUtil.appendIP( sb, getAddress() );
+        sb.append( " QRV=" ).append( getRobustness() );
+        sb.append( " QQI=" ).append( getQueryInterval() );
+        sb.append( " SOURCES=" ).append( getSourceCount() );
+        sb.append( ']' );
+    }
+}
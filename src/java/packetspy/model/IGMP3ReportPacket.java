@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Packet representing IGMPv3 membership report. The group records
+ * are not copied out of the packet but are accessed through an
+ * {@link IGMP3GroupRecord} cursor.
+ *
+ * Semantic:  | Type | Reserved | Checksum | Reserved | Number of Records | Group Records |
+ * Length:    |    1 |        1 |        2 |        2 |                 2 |             N |
+ */
+public class IGMP3ReportPacket
+    extends Packet
+{
+    /**
+     * The packet checksum.
+     */
+    private final int m_checksum;
+
+    /**
+     * The number of group records.
+     */
+    private final int m_groupRecordCount;
+
+    /**
+     * Create IGMPv3 report packet.
+     *
+     * @param checksum the packet checksum
+     * @param groupRecordCount the number of group records
+     */
+    public IGMP3ReportPacket( final int checksum, final int groupRecordCount )
+    {
+        m_checksum = checksum;
+        m_groupRecordCount = groupRecordCount;
+    }
+
+    /**
+     * Return type of IGMP Message.
+     *
+     * @return type of IGMP Message.
+     */
+    public byte getType()
+    {
+        return IGMPPacket.V3_REPORT;
+    }
+
+    /**
+     * Return the packets checksum.
+     *
+     * @return the packets checksum.
+     */
+    public int getChecksum()
+    {
+        return m_checksum;
+    }
+
+    /**
+     * Return the number of group records.
+     *
+     * @return the number of group records.
+     */
+    public int getGroupRecordCount()
+    {
+        return m_groupRecordCount;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_IGMP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        IPPacket.appendAddresses( sb, "IGMP3[ ", this );
+        sb.append( " T=" ).append( getType() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " RECORDS=" ).append( getGroupRecordCount() );
+        sb.append( ']' );
+    }
+}
@@ -132,19 +132,23 @@ public class IGMPPacket
     }
 
     /**
-     * @see Object#toString()
+     * @see Packet#getLayerType()
      */
-    public String toString()
+    public int getLayerType()
     {
-        final IP4Packet ipPacket = (IP4Packet)getLowerLayerPacket();
-        return
-            "IGMP[ " +
-            RenderUtil.ipToString( ipPacket.getSource() ) +
-            " ===> " +
-            RenderUtil.ipToString( ipPacket.getDestination() ) +
-            " T=" + getType() +
-            " CHK=" + getChecksum() +
-            " ADDR=" + RenderUtil.ipToString( getAddress() ) +
-            "]";
+        return LAYER_IGMP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        IPPacket.appendAddresses( sb, "IGMP[ ", this );
+        sb.append( " T=" ).append( getType() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " ADDR=" );
+        RenderUtil.appendIP( sb, getAddress() );
+        sb.append( ']' );
     }
 }
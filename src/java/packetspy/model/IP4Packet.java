@@ -25,7 +25,7 @@ package packetspy.model;
  * Class representing an IP Packet.
  */
 public class IP4Packet
-    extends Packet
+    extends IPPacket
 {
     /**
      * Type Of Service Flag - Set to minimize delay.
@@ -67,6 +67,11 @@ public class IP4Packet
      */
     public static final int PROTOCOL_UDP = 17;
 
+    /**
+     * Generic Routing Encapsulation.
+     */
+    public static final int PROTOCOL_GRE = 47;
+
 
     /**
      * The type of service. Must be one of the TOS_* constants.
@@ -115,14 +120,24 @@ public class IP4Packet
     private final int m_checksum;
 
     /**
-     * The source IP Address. Must be 4 bytes.
+     * The source IP Address packed into an int.
+     */
+    private final int m_sourceAddress;
+
+    /**
+     * The destination IP Address packed into an int.
      */
-    private final byte[] m_source;
+    private final int m_destinationAddress;
 
     /**
-     * The source IP Address. Must be 4 bytes.
+     * The source IP Address as bytes. Created on demand.
      */
-    private final byte[] m_destination;
+    private byte[] m_source;
+
+    /**
+     * The destination IP Address as bytes. Created on demand.
+     */
+    private byte[] m_destination;
 
     /**
      * Create packet.
@@ -176,10 +191,52 @@ public class IP4Packet
         m_timeToLive = timeToLive;
         m_protocol = protocol;
         m_checksum = checksum;
+        m_sourceAddress = AddressUtil.toIP4Address( source );
+        m_destinationAddress = AddressUtil.toIP4Address( destination );
         m_source = source;
         m_destination = destination;
     }
 
+    /**
+     * Create packet with packed addresses.
+     *
+     * @param typeOfService the type of service
+     * @param length the length of the packet
+     * @param id the packet identification
+     * @param moreFlag the more Flag
+     * @param dontFragmentFlag the dontFragment Flag
+     * @param fragmentOffset the fragment offset
+     * @param timeToLive the time to live
+     * @param protocol the higher level protocol
+     * @param checksum the checksum
+     * @param source the packed source address
+     * @param destination the packed destination address
+     */
+    public IP4Packet( final byte typeOfService,
+                      final int length,
+                      final int id,
+                      final boolean moreFlag,
+                      final boolean dontFragmentFlag,
+                      final int fragmentOffset,
+                      final short timeToLive,
+                      final short protocol,
+                      final int checksum,
+                      final int source,
+                      final int destination )
+    {
+        m_typeOfService = typeOfService;
+        m_length = length;
+        m_id = id;
+        m_moreFlag = moreFlag;
+        m_dontFragmentFlag = dontFragmentFlag;
+        m_fragmentOffset = fragmentOffset;
+        m_timeToLive = timeToLive;
+        m_protocol = protocol;
+        m_checksum = checksum;
+        m_sourceAddress = source;
+        m_destinationAddress = destination;
+    }
+
     /**
      * Return the type of service.
      *
@@ -277,9 +334,23 @@ public class IP4Packet
      */
     public byte[] getDestination()
     {
+        if( null == m_destination )
+        {
+            m_destination = AddressUtil.ip4ToBytes( m_destinationAddress );
+        }
         return m_destination;
     }
 
+    /**
+     * Return the destination IP Address packed into an int.
+     *
+     * @return the destination IP Address.
+     */
+    public int getDestinationAddress()
+    {
+        return m_destinationAddress;
+    }
+
     /**
      * Return the source IP Address.
      *
@@ -287,27 +358,64 @@ public class IP4Packet
      */
     public byte[] getSource()
     {
+        if( null == m_source )
+        {
+            m_source = AddressUtil.ip4ToBytes( m_sourceAddress );
+        }
         return m_source;
     }
 
     /**
-     * @see Object#toString()
+     * Return the source IP Address packed into an int.
+     *
+     * @return the source IP Address.
+     */
+    public int getSourceAddress()
+    {
+        return m_sourceAddress;
+    }
+
+    /**
+     * @see IPPacket#appendSource(StringBuffer)
+     */
+    public void appendSource( final StringBuffer sb )
+    {
+        RenderUtil.appendIP( sb, m_sourceAddress );
+    }
+
+    /**
+     * @see IPPacket#appendDestination(StringBuffer)
+     */
+    public void appendDestination( final StringBuffer sb )
+    {
+        RenderUtil.appendIP( sb, m_destinationAddress );
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_IP4;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
      */
-    public String toString()
+    public void appendTo( final StringBuffer sb )
     {
-        return
-            "IP[ " +
-            RenderUtil.ipToString( getSource() ) +
-            " ===> " +
-            RenderUtil.ipToString( getDestination() ) +
-            " P=" + getProtocol() +
-            " TOS=" + getTypeOfService() +
-            " TTL=" + getTimeToLive() +
-            " CHK=" + getChecksum() +
-            " FRG_OFF=" + getFragmentOffset() +
-            " ID=" + getId() +
-            " DF=" + isDontFragmentFlagSet() +
-            " MORE=" + isMoreFlagSet() +
-            " L=" + getLength() + "]";
+        sb.append( "IP[ " );
+        RenderUtil.appendIP( sb, getSourceAddress() );
+        sb.append( " ===> " );
+        RenderUtil.appendIP( sb, getDestinationAddress() );
+        sb.append( " P=" ).append( getProtocol() );
+        sb.append( " TOS=" ).append( getTypeOfService() );
+        sb.append( " TTL=" ).append( getTimeToLive() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( " FRG_OFF=" ).append( getFragmentOffset() );
+        sb.append( " ID=" ).append( getId() );
+        sb.append( " DF=" ).append( isDontFragmentFlagSet() );
+        sb.append( " MORE=" ).append( isMoreFlagSet() );
+        sb.append( " L=" ).append( getLength() ).append( ']' );
     }
 }
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing an IPv6 Packet. The addresses are stored as pairs
+ * of longs so that they can be compared and hashed without allocation.
+ *
+ * Semantic:  | Version | Traffic Class | Flow Label | Payload Length | Next Header | Hop Limit | Source | Destination |
+ * Length:    |   4 bit |         8 bit |     20 bit |              2 |           1 |         1 |     16 |          16 |
+ */
+public class IP6Packet
+    extends IPPacket
+{
+    /**
+     * Hop-by-Hop options extension header.
+     */
+    public static final int HEADER_HOP_BY_HOP = 0;
+
+    /**
+     * Routing extension header.
+     */
+    public static final int HEADER_ROUTING = 43;
+
+    /**
+     * Fragment extension header.
+     */
+    public static final int HEADER_FRAGMENT = 44;
+
+    /**
+     * Authentication extension header.
+     */
+    public static final int HEADER_AUTHENTICATION = 51;
+
+    /**
+     * Destination options extension header.
+     */
+    public static final int HEADER_DESTINATION_OPTIONS = 60;
+
+    /**
+     * Value of next header field indicating no header follows.
+     */
+    public static final int HEADER_NONE = 59;
+
+    /**
+     * Internet Control Message Protocol for IPv6.
+     */
+    public static final int PROTOCOL_ICMP6 = 58;
+
+    /**
+     * The traffic class.
+     */
+    private final short m_trafficClass;
+
+    /**
+     * The flow label. Only the lower 20 bits are used.
+     */
+    private final int m_flowLabel;
+
+    /**
+     * The length of the payload including extension headers.
+     */
+    private final int m_length;
+
+    /**
+     * The next header field of the fixed header.
+     */
+    private final short m_nextHeader;
+
+    /**
+     * The hop limit.
+     */
+    private final short m_hopLimit;
+
+    /**
+     * The upper 64 bits of the source address.
+     */
+    private final long m_sourceHigh;
+
+    /**
+     * The lower 64 bits of the source address.
+     */
+    private final long m_sourceLow;
+
+    /**
+     * The upper 64 bits of the destination address.
+     */
+    private final long m_destinationHigh;
+
+    /**
+     * The lower 64 bits of the destination address.
+     */
+    private final long m_destinationLow;
+
+    /**
+     * The protocol of the header following the extension headers.
+     */
+    private final short m_protocol;
+
+    /**
+     * True if the packet contains a fragment header.
+     */
+    private final boolean m_fragment;
+
+    /**
+     * The fragment offset in 8 byte units.
+     */
+    private final int m_fragmentOffset;
+
+    /**
+     * The more fragments flag.
+     */
+    private final boolean m_moreFlag;
+
+    /**
+     * The fragment identification.
+     */
+    private final long m_fragmentId;
+
+    /**
+     * Create packet.
+     *
+     * @param trafficClass the traffic class
+     * @param flowLabel the flow label
+     * @param length the payload length
+     * @param nextHeader the next header field of fixed header
+     * @param hopLimit the hop limit
+     * @param sourceHigh the upper 64 bits of source address
+     * @param sourceLow the lower 64 bits of source address
+     * @param destinationHigh the upper 64 bits of destination address
+     * @param destinationLow the lower 64 bits of destination address
+     * @param protocol the protocol after all extension headers
+     * @param fragment true if packet has a fragment header
+     * @param fragmentOffset the fragment offset
+     * @param moreFlag the more fragments flag
+     * @param fragmentId the fragment identification
+     */
+    public IP6Packet( final short trafficClass,
+                      final int flowLabel,
+                      final int length,
+                      final short nextHeader,
+                      final short hopLimit,
+                      final long sourceHigh,
+                      final long sourceLow,
+                      final long destinationHigh,
+                      final long destinationLow,
+                      final short protocol,
+                      final boolean fragment,
+                      final int fragmentOffset,
+                      final boolean moreFlag,
+                      final long fragmentId )
+    {
+        m_trafficClass = trafficClass;
+        m_flowLabel = flowLabel;
+        m_length = length;
+        m_nextHeader = nextHeader;
+        m_hopLimit = hopLimit;
+        m_sourceHigh = sourceHigh;
+        m_sourceLow = sourceLow;
+        m_destinationHigh = destinationHigh;
+        m_destinationLow = destinationLow;
+        m_protocol = protocol;
+        m_fragment = fragment;
+        m_fragmentOffset = fragmentOffset;
+        m_moreFlag = moreFlag;
+        m_fragmentId = fragmentId;
+    }
+
+    /**
+     * Return the traffic class.
+     *
+     * @return the traffic class.
+     */
+    public short getTrafficClass()
+    {
+        return m_trafficClass;
+    }
+
+    /**
+     * Return the flow label.
+     *
+     * @return the flow label.
+     */
+    public int getFlowLabel()
+    {
+        return m_flowLabel;
+    }
+
+    /**
+     * Return the payload length including extension headers.
+     *
+     * @return the payload length including extension headers.
+     */
+    public int getLength()
+    {
+        return m_length;
+    }
+
+    /**
+     * Return the next header field of the fixed header.
+     *
+     * @return the next header field of the fixed header.
+     */
+    public short getNextHeader()
+    {
+        return m_nextHeader;
+    }
+
+    /**
+     * Return the hop limit.
+     *
+     * @return the hop limit.
+     */
+    public short getHopLimit()
+    {
+        return m_hopLimit;
+    }
+
+    /**
+     * Return the upper 64 bits of the source address.
+     *
+     * @return the upper 64 bits of the source address.
+     */
+    public long getSourceHigh()
+    {
+        return m_sourceHigh;
+    }
+
+    /**
+     * Return the lower 64 bits of the source address.
+     *
+     * @return the lower 64 bits of the source address.
+     */
+    public long getSourceLow()
+    {
+        return m_sourceLow;
+    }
+
+    /**
+     * Return the upper 64 bits of the destination address.
+     *
+     * @return the upper 64 bits of the destination address.
+     */
+    public long getDestinationHigh()
+    {
+        return m_destinationHigh;
+    }
+
+    /**
+     * Return the lower 64 bits of the destination address.
+     *
+     * @return the lower 64 bits of the destination address.
+     */
+    public long getDestinationLow()
+    {
+        return m_destinationLow;
+    }
+
+    /**
+     * Return the protocol of the header following the extension headers.
+     * This is HEADER_NONE if there is no such header or an
+     * extension header if the chain could not be completely walked.
+     *
+     * @return the higher level protocol.
+     */
+    public short getProtocol()
+    {
+        return m_protocol;
+    }
+
+    /**
+     * Return true if the packet contains a fragment header.
+     *
+     * @return true if the packet contains a fragment header.
+     */
+    public boolean isFragment()
+    {
+        return m_fragment;
+    }
+
+    /**
+     * Return the fragment offset in 8 byte units.
+     *
+     * @return the fragment offset.
+     */
+    public int getFragmentOffset()
+    {
+        return m_fragmentOffset;
+    }
+
+    /**
+     * Return true if more fragments flag is set.
+     *
+     * @return true if more fragments flag is set.
+     */
+    public boolean isMoreFlagSet()
+    {
+        return m_moreFlag;
+    }
+
+    /**
+     * Return the fragment identification.
+     *
+     * @return the fragment identification.
+     */
+    public long getFragmentId()
+    {
+        return m_fragmentId;
+    }
+
+    /**
+     * Return the source IP Address.
+     * A new array is created on each invocation.
+     *
+     * @return the source IP Address.
+     */
+    public byte[] getSource()
+    {
+        return toBytes( m_sourceHigh, m_sourceLow );
+    }
+
+    /**
+     * Return the destination IP Address.
+     * A new array is created on each invocation.
+     *
+     * @return the destination IP Address.
+     */
+    public byte[] getDestination()
+    {
+        return toBytes( m_destinationHigh, m_destinationLow );
+    }
+
+    /**
+     * Convert an address into a 16 byte array.
+     *
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     * @return the address
+     */
+    private static byte[] toBytes( final long high, final long low )
+    {
+        final byte[] address = new byte[16];
+        for( int i = 0; i < 8; i++ )
+        {
+            address[i] = (byte) ( high >>> ( 56 - i * 8 ) );
+            address[i + 8] = (byte) ( low >>> ( 56 - i * 8 ) );
+        }
+        return address;
+    }
+
+    /**
+     * @see IPPacket#appendSource(StringBuffer)
+     */
+    public void appendSource( final StringBuffer sb )
+    {
+        RenderUtil.appendIP6( sb, getSourceHigh(), getSourceLow() );
+    }
+
+    /**
+     * @see IPPacket#appendDestination(StringBuffer)
+     */
+    public void appendDestination( final StringBuffer sb )
+    {
+        RenderUtil.appendIP6( sb, getDestinationHigh(), getDestinationLow() );
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_IP6;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "IP6[ " );
+        RenderUtil.appendIP6( sb, getSourceHigh(), getSourceLow() );
+        sb.append( " ===> " );
+        RenderUtil.appendIP6( sb, getDestinationHigh(), getDestinationLow() );
+        sb.append( " P=" ).append( getProtocol() );
+        sb.append( " TC=" ).append( getTrafficClass() );
+        sb.append( " FL=" ).append( getFlowLabel() );
+        sb.append( " HL=" ).append( getHopLimit() );
+        if( isFragment() )
+        {
+            sb.append( " FRG_OFF=" ).append( getFragmentOffset() );
+            sb.append( " ID=" ).append( getFragmentId() );
+            sb.append( " MORE=" ).append( isMoreFlagSet() );
+        }
+        sb.append( " L=" ).append( getLength() ).append( ']' );
+    }
+}
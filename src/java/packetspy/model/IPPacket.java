@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * The base class for IPv4 and IPv6 packets.
+ */
+public abstract class IPPacket
+    extends Packet
+{
+    /**
+     * Return the protocol of the packet carried by this packet.
+     * The protocol uses the same values as IP4Packet.PROTOCOL_*.
+     *
+     * @return the higher level protocol.
+     */
+    public abstract short getProtocol();
+
+    /**
+     * Return the source IP Address.
+     *
+     * @return the source IP Address.
+     */
+    public abstract byte[] getSource();
+
+    /**
+     * Return the destination IP Address.
+     *
+     * @return the destination IP Address.
+     */
+    public abstract byte[] getDestination();
+
+    /**
+     * Append the source IP Address to specified buffer.
+     *
+     * @param sb the buffer
+     */
+    public abstract void appendSource( StringBuffer sb );
+
+    /**
+     * Append the destination IP Address to specified buffer.
+     *
+     * @param sb the buffer
+     */
+    public abstract void appendDestination( StringBuffer sb );
+
+    /**
+     * Append the packet name followed by the source and destination
+     * addresses of the IP packet enclosing specified packet.
+     *
+     * @param sb the buffer
+     * @param name the packet name
+     * @param packet the packet carried by an IP packet
+     */
+    static void appendAddresses( final StringBuffer sb, final String name, final Packet packet )
+    {
+        final IPPacket ipPacket = (IPPacket)packet.getLowerLayerPacket();
+        sb.append( name );
+        ipPacket.appendSource( sb );
+        sb.append( " ===> " );
+        ipPacket.appendDestination( sb );
+    }
+}
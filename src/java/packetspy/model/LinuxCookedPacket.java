@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing the pseudo header used by Linux cooked captures.
+ * Both the original (SLL) and version 2 (SLL2) headers are represented
+ * by this class. SLL2 adds the index of the interface the packet was
+ * captured on.
+ *
+ * SLL:
+ * Semantic:  | Packet Type | Hardware Type | Address Length | Address | Protocol |
+ * Length:    |           2 |             2 |              2 |       8 |        2 |
+ *
+ * SLL2:
+ * Semantic:  | Protocol | Reserved | Interface | Hardware Type | Packet Type | Address Length | Address |
+ * Length:    |        2 |        2 |         4 |             2 |           1 |              1 |       8 |
+ */
+public class LinuxCookedPacket
+    extends Packet
+{
+    /**
+     * Packet addressed to this host.
+     */
+    public static final int PACKET_HOST = 0;
+
+    /**
+     * Packet broadcast by another host.
+     */
+    public static final int PACKET_BROADCAST = 1;
+
+    /**
+     * Packet multicast by another host.
+     */
+    public static final int PACKET_MULTICAST = 2;
+
+    /**
+     * Packet sent between other hosts.
+     */
+    public static final int PACKET_OTHERHOST = 3;
+
+    /**
+     * Packet sent by this host.
+     */
+    public static final int PACKET_OUTGOING = 4;
+
+    /**
+     * The direction of packet. One of PACKET_*.
+     */
+    private final int m_packetType;
+
+    /**
+     * The ARPHRD_* type of the device.
+     */
+    private final int m_hardwareType;
+
+    /**
+     * The number of bytes in the link layer address.
+     */
+    private final int m_addressLength;
+
+    /**
+     * Up to 8 bytes of the link layer source address packed into a long.
+     */
+    private final long m_address;
+
+    /**
+     * The type of the underlying packet.
+     * Uses the same values as EthernetPacket.TYPE_*.
+     */
+    private final int m_type;
+
+    /**
+     * The interface index or -1 for the original SLL header.
+     */
+    private final int m_interfaceIndex;
+
+    /**
+     * Create a Linux cooked header.
+     *
+     * @param packetType the direction of packet
+     * @param hardwareType the ARPHRD_* type of device
+     * @param addressLength the number of bytes in the link layer address
+     * @param address the link layer address packed into a long
+     * @param type the type of the underlying packet
+     * @param interfaceIndex the interface index or -1 if unknown
+     */
+    public LinuxCookedPacket( final int packetType,
+                              final int hardwareType,
+                              final int addressLength,
+                              final long address,
+                              final int type,
+                              final int interfaceIndex )
+    {
+        m_packetType = packetType;
+        m_hardwareType = hardwareType;
+        m_addressLength = addressLength;
+        m_address = address;
+        m_type = type;
+        m_interfaceIndex = interfaceIndex;
+    }
+
+    /**
+     * Return the direction of packet.
+     *
+     * @return the direction of packet. One of PACKET_*.
+     */
+    public int getPacketType()
+    {
+        return m_packetType;
+    }
+
+    /**
+     * Return the ARPHRD_* type of device.
+     *
+     * @return the ARPHRD_* type of device.
+     */
+    public int getHardwareType()
+    {
+        return m_hardwareType;
+    }
+
+    /**
+     * Return the number of bytes in the link layer address.
+     *
+     * @return the number of bytes in the link layer address.
+     */
+    public int getAddressLength()
+    {
+        return m_addressLength;
+    }
+
+    /**
+     * Return the link layer source address. The address is packed into
+     * the lower getAddressLength() bytes of the result.
+     *
+     * @return the link layer source address.
+     */
+    public long getAddress()
+    {
+        return m_address;
+    }
+
+    /**
+     * Return the type of the underlying packet.
+     *
+     * @return the type of the underlying packet.
+     */
+    public int getType()
+    {
+        return m_type;
+    }
+
+    /**
+     * Return the index of the interface packet was captured on.
+     *
+     * @return the interface index or -1 if unknown.
+     */
+    public int getInterfaceIndex()
+    {
+        return m_interfaceIndex;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_LINUX_COOKED;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "SLL[ PKT=" ).append( getPacketType() );
+        sb.append( " HW=" ).append( getHardwareType() );
+        if( 6 == getAddressLength() )
+        {
+            sb.append( " ADDR=" );
+            RenderUtil.appendMAC( sb, getAddress() );
+        }
+        if( -1 != getInterfaceIndex() )
+        {
+            sb.append( " IF=" ).append( getInterfaceIndex() );
+        }
+        sb.append( " T=" ).append( getType() ).append( ']' );
+    }
+}
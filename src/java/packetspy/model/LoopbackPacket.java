@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing the header used by BSD loopback captures, which
+ * identifies the protocol by address family rather than ethertype.
+ *
+ * Semantic:  | Address Family |
+ * Length:    |              4 |
+ */
+public class LoopbackPacket
+    extends Packet
+{
+    /**
+     * IPv4 address family on all platforms.
+     */
+    public static final int FAMILY_INET = 2;
+
+    /**
+     * IPv6 address family on Linux.
+     */
+    public static final int FAMILY_INET6_LINUX = 10;
+
+    /**
+     * IPv6 address family on NetBSD and OpenBSD.
+     */
+    public static final int FAMILY_INET6_BSD = 24;
+
+    /**
+     * IPv6 address family on FreeBSD.
+     */
+    public static final int FAMILY_INET6_FREEBSD = 28;
+
+    /**
+     * IPv6 address family on Darwin.
+     */
+    public static final int FAMILY_INET6_DARWIN = 30;
+
+    /**
+     * The address family of the underlying packet.
+     */
+    private final int m_family;
+
+    /**
+     * Create a loopback header.
+     *
+     * @param family the address family of the underlying packet
+     */
+    public LoopbackPacket( final int family )
+    {
+        m_family = family;
+    }
+
+    /**
+     * Return the address family of the underlying packet.
+     *
+     * @return the address family of the underlying packet.
+     */
+    public int getFamily()
+    {
+        return m_family;
+    }
+
+    /**
+     * Return true if the family identifies an IPv6 packet
+     * on any of the platforms that produce loopback captures.
+     *
+     * @return true if the underlying packet is IPv6.
+     */
+    public boolean isIP6()
+    {
+        return FAMILY_INET6_LINUX == m_family ||
+            FAMILY_INET6_BSD == m_family ||
+            FAMILY_INET6_FREEBSD == m_family ||
+            FAMILY_INET6_DARWIN == m_family;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_LOOPBACK;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "Loopback[ AF=" ).append( getFamily() ).append( ']' );
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing a single MPLS label stack entry. A label stack
+ * is represented by a chain of MPLSPackets, the last of which has the
+ * bottom of stack flag set.
+ *
+ * Semantic:  | Label  | Traffic Class | Bottom Of Stack | TTL   |
+ * Length:    | 20 bit |         3 bit |           1 bit | 8 bit |
+ */
+public class MPLSPacket
+    extends Packet
+{
+    /**
+     * The label.
+     */
+    private final int m_label;
+
+    /**
+     * The traffic class.
+     */
+    private final byte m_trafficClass;
+
+    /**
+     * True if this is the last entry in the label stack.
+     */
+    private final boolean m_bottomOfStack;
+
+    /**
+     * The time to live.
+     */
+    private final short m_timeToLive;
+
+    /**
+     * Create a label stack entry.
+     *
+     * @param label the label
+     * @param trafficClass the traffic class
+     * @param bottomOfStack true if last entry in stack
+     * @param timeToLive the time to live
+     */
+    public MPLSPacket( final int label,
+                       final byte trafficClass,
+                       final boolean bottomOfStack,
+                       final short timeToLive )
+    {
+        m_label = label;
+        m_trafficClass = trafficClass;
+        m_bottomOfStack = bottomOfStack;
+        m_timeToLive = timeToLive;
+    }
+
+    /**
+     * Return the label.
+     *
+     * @return the label.
+     */
+    public int getLabel()
+    {
+        return m_label;
+    }
+
+    /**
+     * Return the traffic class.
+     *
+     * @return the traffic class.
+     */
+    public byte getTrafficClass()
+    {
+        return m_trafficClass;
+    }
+
+    /**
+     * Return true if this is the last entry in the label stack.
+     *
+     * @return true if this is the last entry in the label stack.
+     */
+    public boolean isBottomOfStack()
+    {
+        return m_bottomOfStack;
+    }
+
+    /**
+     * Return the time to live.
+     *
+     * @return the time to live.
+     */
+    public short getTimeToLive()
+    {
+        return m_timeToLive;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_MPLS;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "MPLS[ LABEL=" ).append( getLabel() );
+        sb.append( " TC=" ).append( getTrafficClass() );
+        sb.append( " S=" ).append( isBottomOfStack() );
+        sb.append( " TTL=" ).append( getTimeToLive() ).append( ']' );
+    }
+}
@@ -21,11 +21,118 @@
  */
 package packetspy.model;
 
+import java.nio.ByteBuffer;
+
 /**
  * The base class for packets of specific layer.
  */
 public class Packet
 {
+    /**
+     * Layer type of packets that do not define a layer type.
+     */
+    public static final int LAYER_UNKNOWN = 0;
+
+    /**
+     * Layer type of RawPacket.
+     */
+    public static final int LAYER_RAW = 1;
+
+    /**
+     * Layer type of EthernetPacket.
+     */
+    public static final int LAYER_ETHERNET = 2;
+
+    /**
+     * Layer type of VLANPacket.
+     */
+    public static final int LAYER_VLAN = 3;
+
+    /**
+     * Layer type of MPLSPacket.
+     */
+    public static final int LAYER_MPLS = 4;
+
+    /**
+     * Layer type of ARPPacket.
+     */
+    public static final int LAYER_ARP = 5;
+
+    /**
+     * Layer type of IP4Packet.
+     */
+    public static final int LAYER_IP4 = 6;
+
+    /**
+     * Layer type of IP6Packet.
+     */
+    public static final int LAYER_IP6 = 7;
+
+    /**
+     * Layer type of ICMPPacket.
+     */
+    public static final int LAYER_ICMP = 8;
+
+    /**
+     * Layer type of ICMP6Packet.
+     */
+    public static final int LAYER_ICMP6 = 9;
+
+    /**
+     * Layer type of IGMP packets.
+     */
+    public static final int LAYER_IGMP = 10;
+
+    /**
+     * Layer type of TCPPacket.
+     */
+    public static final int LAYER_TCP = 11;
+
+    /**
+     * Layer type of UDPPacket.
+     */
+    public static final int LAYER_UDP = 12;
+
+    /**
+     * Layer type of LinuxCookedPacket.
+     */
+    public static final int LAYER_LINUX_COOKED = 13;
+
+    /**
+     * Layer type of LoopbackPacket.
+     */
+    public static final int LAYER_LOOPBACK = 14;
+
+    /**
+     * Layer type of RadiotapPacket.
+     */
+    public static final int LAYER_RADIOTAP = 15;
+
+    /**
+     * Layer type of IEEE80211Packet.
+     */
+    public static final int LAYER_IEEE802_11 = 16;
+
+    /**
+     * Layer type of GREPacket.
+     */
+    public static final int LAYER_GRE = 17;
+
+    /**
+     * Layer type of ERSPANPacket.
+     */
+    public static final int LAYER_ERSPAN = 18;
+
+    /**
+     * Layer type of VXLANPacket.
+     */
+    public static final int LAYER_VXLAN = 19;
+
+    /**
+     * The view returned when no payload was captured.
+     */
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate( 0 ).asReadOnlyBuffer();
+
     /**
      * The upper layer packet.
      */
@@ -36,6 +143,12 @@ public class Packet
      */
     private Packet m_lowerLayerPacket;
 
+    /**
+     * The absolute position of the header in bytes or -1 if the position
+     * has not been recorded and must be calculated from lower layers.
+     */
+    private int m_headerStart = -1;
+
     /**
      * The offset of payload relative to header offset.
      */
@@ -57,6 +170,25 @@ public class Packet
      */
     private byte[] m_payloadData;
 
+    /**
+     * Flag set when the header of packet, or of the packet it carries,
+     * was truncated or inconsistent and could not be fully decoded.
+     */
+    private boolean m_malformed;
+
+    /**
+     * Flag set when packet is part of the datagram quoted by an ICMP
+     * error message. The length fields of quoted packets describe the
+     * original datagram rather than the data that follows them.
+     */
+    private boolean m_quoted;
+
+    /**
+     * Flag set when the checksum of packet was validated and did
+     * not match the content of packet.
+     */
+    private boolean m_checksumError;
+
     /**
      * Return the size of the payload in bytes.
      *
@@ -98,28 +230,197 @@ public class Packet
 
     /**
      * Return the payload data.
+     * The first invocation copies the payload out of the underlying data.
+     * Use {@link #getPayloadBuffer()} or the payload access methods
+     * to inspect the payload without copying.
      *
      * @return the payload data.
      */
     public byte[] getPayloadData()
     {
         if( null == m_payloadData )
+        {
+            final int length = getCapturedPayloadLength();
+            m_payloadData = new byte[length];
+            if( 0 != length )
+            {
+                System.arraycopy( m_data, getPayloadStart(), m_payloadData, 0, length );
+            }
+        }
+        return m_payloadData;
+    }
+
+    /**
+     * Return the number of payload bytes that were captured.
+     *
+     * @return the number of payload bytes that were captured.
+     */
+    public int getCapturedPayloadLength()
+    {
+        if( null == m_data )
+        {
+            return 0;
+        }
+        else
         {
             final int start = getPayloadStart();
-            final int end = start + m_payloadLength;
-            final int actualEnd = Math.min( m_data.length, end );
-            final int length = actualEnd - start;
-            if( 0 >= length )
+            final int end = Math.min( m_data.length, start + m_payloadLength );
+            return Math.max( 0, end - start );
+        }
+    }
+
+    /**
+     * Return a read-only view of the captured payload. The view shares
+     * the underlying data and no payload bytes are copied.
+     *
+     * @return a read-only view of the captured payload.
+     */
+    public ByteBuffer getPayloadBuffer()
+    {
+        final int length = getCapturedPayloadLength();
+        if( 0 == length )
+        {
+            return EMPTY_BUFFER;
+        }
+        else
+        {
+            return ByteBuffer.wrap( m_data, getPayloadStart(), length ).slice().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Return the byte at specified index in payload.
+     *
+     * @param index the index relative to the start of payload
+     * @return the byte
+     * @throws IndexOutOfBoundsException if index is outside the captured payload
+     */
+    public byte getPayloadByte( final int index )
+    {
+        if( index < 0 || index >= getCapturedPayloadLength() )
+        {
+            throw new IndexOutOfBoundsException( "index " + index );
+        }
+        return m_data[getPayloadStart() + index];
+    }
+
+    /**
+     * Copy a region of the captured payload into the specified array.
+     *
+     * @param index the index relative to the start of payload
+     * @param destination the destination array
+     * @param offset the offset in destination array
+     * @param length the number of bytes to copy
+     * @throws IndexOutOfBoundsException if region is outside the captured payload
+     */
+    public void copyPayload( final int index,
+                             final byte[] destination,
+                             final int offset,
+                             final int length )
+    {
+        if( index < 0 || length < 0 || index + length > getCapturedPayloadLength() )
+        {
+            throw new IndexOutOfBoundsException( "index " + index + " length " + length );
+        }
+        System.arraycopy( m_data, getPayloadStart() + index, destination, offset, length );
+    }
+
+    /**
+     * Return true if the region of captured payload starting at index
+     * matches the specified region of pattern.
+     *
+     * @param index the index relative to the start of payload
+     * @param pattern the pattern
+     * @param offset the offset in pattern
+     * @param length the number of bytes to compare
+     * @return true if the regions match, false if not or region is not captured
+     */
+    public boolean payloadRegionMatches( final int index,
+                                         final byte[] pattern,
+                                         final int offset,
+                                         final int length )
+    {
+        if( index < 0 || length < 0 || index + length > getCapturedPayloadLength() )
+        {
+            return false;
+        }
+        final int start = getPayloadStart() + index;
+        for( int i = 0; i < length; i++ )
+        {
+            if( m_data[start + i] != pattern[offset + i] )
             {
-                m_payloadData = new byte[0];
+                return false;
             }
-            else
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the captured payload starts with specified prefix.
+     *
+     * @param prefix the prefix
+     * @return true if the captured payload starts with specified prefix
+     */
+    public boolean payloadStartsWith( final byte[] prefix )
+    {
+        return payloadRegionMatches( 0, prefix, 0, prefix.length );
+    }
+
+    /**
+     * Return the index of the first occurrence of pattern in captured payload.
+     *
+     * @param pattern the pattern
+     * @return the index relative to the start of payload or -1 if not found
+     */
+    public int indexOfPayload( final byte[] pattern )
+    {
+        return indexOfPayload( pattern, 0 );
+    }
+
+    /**
+     * Return the index of the first occurrence of pattern in captured
+     * payload at or after specified index.
+     *
+     * @param pattern the pattern
+     * @param fromIndex the index relative to the start of payload to start search
+     * @return the index relative to the start of payload or -1 if not found
+     */
+    public int indexOfPayload( final byte[] pattern, final int fromIndex )
+    {
+        final int length = getCapturedPayloadLength();
+        if( 0 == pattern.length )
+        {
+            return Math.min( Math.max( fromIndex, 0 ), length );
+        }
+        final int start = getPayloadStart();
+        final int last = start + length - pattern.length;
+        final byte first = pattern[0];
+        for( int i = start + Math.max( fromIndex, 0 ); i <= last; i++ )
+        {
+            if( m_data[i] == first )
             {
-                m_payloadData = new byte[length];
-                System.arraycopy( m_data, start, m_payloadData, 0, length );
+                int j = 1;
+                while( j < pattern.length && m_data[i + j] == pattern[j] )
+                {
+                    j++;
+                }
+                if( j == pattern.length )
+                {
+                    return i - start;
+                }
             }
         }
-        return m_payloadData;
+        return -1;
+    }
+
+    /**
+     * Return the underlying data captured for complete packet hierarchy.
+     *
+     * @return the data
+     */
+    public byte[] getData()
+    {
+        return m_data;
     }
 
     /**
@@ -140,6 +441,10 @@ public class Packet
      */
     public int getHeaderStart()
     {
+        if( -1 != m_headerStart )
+        {
+            return m_headerStart;
+        }
         final Packet packet = getLowerLayerPacket();
         if( null == packet )
         {
@@ -158,16 +463,94 @@ public class Packet
      */
     public int getPayloadStart()
     {
-        final int start = getPayloadOffset();
-        final Packet packet = getLowerLayerPacket();
-        if( null == packet )
-        {
-            return start;
-        }
-        else
-        {
-            return packet.getPayloadStart() + start;
-        }
+        return getHeaderStart() + getPayloadOffset();
+    }
+
+    /**
+     * Record the absolute position of the header in bytes. Once recorded
+     * the header and payload positions no longer need to be calculated
+     * from the lower layer packets.
+     *
+     * @param headerStart the absolute position of the header in bytes or -1 to clear.
+     */
+    public void setHeaderStart( final int headerStart )
+    {
+        m_headerStart = headerStart;
+    }
+
+    /**
+     * Return the type of layer this packet represents.
+     * Layer types are specified by the LAYER_* constants.
+     *
+     * @return the type of layer.
+     */
+    public int getLayerType()
+    {
+        return LAYER_UNKNOWN;
+    }
+
+    /**
+     * Return true if the header of packet, or of the packet it carries,
+     * was truncated or inconsistent and could not be fully decoded.
+     * Decoding stops at the first malformed layer.
+     *
+     * @return true if the packet is malformed.
+     */
+    public boolean isMalformed()
+    {
+        return m_malformed;
+    }
+
+    /**
+     * Specify whether the packet is malformed.
+     *
+     * @param malformed true if the packet is malformed
+     */
+    public void setMalformed( final boolean malformed )
+    {
+        m_malformed = malformed;
+    }
+
+    /**
+     * Return true if packet is part of the datagram quoted by an ICMP error message.
+     *
+     * @return true if packet is part of a quoted datagram
+     */
+    public boolean isQuoted()
+    {
+        return m_quoted;
+    }
+
+    /**
+     * Specify whether packet is part of the datagram quoted by an ICMP error message.
+     *
+     * @param quoted true if packet is part of a quoted datagram
+     */
+    public void setQuoted( final boolean quoted )
+    {
+        m_quoted = quoted;
+    }
+
+    /**
+     * Return true if the checksum of packet was validated and did not
+     * match the content of packet. Checksums are only validated when
+     * requested from the factory decoding the packet.
+     *
+     * @return true if the checksum of packet is incorrect
+     */
+    public boolean isChecksumError()
+    {
+        return m_checksumError;
+    }
+
+    /**
+     * Specify whether the checksum of packet is incorrect.
+     *
+     * @param checksumError true if the checksum of packet is incorrect
+     */
+    public void setChecksumError( final boolean checksumError )
+    {
+        m_checksumError = checksumError;
     }
 
     /**
@@ -260,4 +643,26 @@ public class Packet
             }
         }
     }
+
+    /**
+     * Append a description of the packet to specified buffer.
+     * Subclasses override this method to describe their fields
+     * so that packets can be rendered into a reused buffer.
+     *
+     * @param sb the buffer
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( super.toString() );
+    }
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        final StringBuffer sb = new StringBuffer( 128 );
+        appendTo( sb );
+        return sb.toString();
+    }
 }
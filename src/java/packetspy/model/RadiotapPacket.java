@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing a radiotap header which carries radio information
+ * for captured IEEE 802.11 frames. Only the fields required to locate
+ * the frame are decoded.
+ *
+ * Semantic:  | Version | Pad | Length | Present | Fields ... |
+ * Length:    |       1 |   1 |      2 |   4 * N |   Variable |
+ *
+ * The length and present fields are little endian.
+ */
+public class RadiotapPacket
+    extends Packet
+{
+    /**
+     * Present bit indicating the flags field is included.
+     */
+    public static final int PRESENT_FLAGS = 0x00000002;
+
+    /**
+     * Flag indicating the frame includes the 4 byte frame check sequence.
+     */
+    public static final int FLAG_FCS = 0x10;
+
+    /**
+     * The length of the radiotap header.
+     */
+    private final int m_length;
+
+    /**
+     * The first present word.
+     */
+    private final int m_present;
+
+    /**
+     * The flags field or 0 if not present.
+     */
+    private final int m_flags;
+
+    /**
+     * Create a radiotap header.
+     *
+     * @param length the length of header
+     * @param present the first present word
+     * @param flags the flags field or 0 if not present
+     */
+    public RadiotapPacket( final int length, final int present, final int flags )
+    {
+        m_length = length;
+        m_present = present;
+        m_flags = flags;
+    }
+
+    /**
+     * Return the length of header.
+     *
+     * @return the length of header.
+     */
+    public int getLength()
+    {
+        return m_length;
+    }
+
+    /**
+     * Return the first present word which identifies the fields in header.
+     *
+     * @return the first present word.
+     */
+    public int getPresent()
+    {
+        return m_present;
+    }
+
+    /**
+     * Return the flags field.
+     *
+     * @return the flags field or 0 if not present.
+     */
+    public int getFlags()
+    {
+        return m_flags;
+    }
+
+    /**
+     * Return true if the frame includes the frame check sequence.
+     *
+     * @return true if the frame includes the frame check sequence.
+     */
+    public boolean hasFCS()
+    {
+        return 0 != ( m_flags & FLAG_FCS );
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_RADIOTAP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "Radiotap[ L=" ).append( getLength() );
+        sb.append( " PRESENT=" ).append( Integer.toHexString( getPresent() ) );
+        sb.append( " FLAGS=" ).append( getFlags() ).append( ']' );
+    }
+}
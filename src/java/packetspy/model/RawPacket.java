@@ -27,11 +27,71 @@ package packetspy.model;
 public class RawPacket
     extends Packet
 {
+    /**
+     * BSD loopback with the address family in host byte order.
+     */
+    public static final int TYPE_NULL = 0;
+
     /**
      * Ethernet.
      */
     public static final int TYPE_802_3 = 1;
 
+    /**
+     * Raw IPv4 or IPv6 as reported by libpcap on most platforms.
+     */
+    public static final int TYPE_RAW = 12;
+
+    /**
+     * Raw IPv4 or IPv6 as reported by libpcap on OpenBSD.
+     */
+    public static final int TYPE_RAW_OPENBSD = 14;
+
+    /**
+     * Raw IPv4 or IPv6 as recorded in capture files.
+     */
+    public static final int TYPE_RAW_IP = 101;
+
+    /**
+     * IEEE 802.11 wireless frames without radio information.
+     */
+    public static final int TYPE_IEEE802_11 = 105;
+
+    /**
+     * OpenBSD loopback with the address family in network byte order.
+     */
+    public static final int TYPE_LOOP = 108;
+
+    /**
+     * Linux cooked capture as used by the "any" device.
+     */
+    public static final int TYPE_LINUX_SLL = 113;
+
+    /**
+     * IEEE 802.11 wireless frames preceded by a radiotap header.
+     */
+    public static final int TYPE_IEEE802_11_RADIOTAP = 127;
+
+    /**
+     * Raw IPv4.
+     */
+    public static final int TYPE_IPV4 = 228;
+
+    /**
+     * Raw IPv6.
+     */
+    public static final int TYPE_IPV6 = 229;
+
+    /**
+     * Linux cooked capture version 2.
+     */
+    public static final int TYPE_LINUX_SLL2 = 276;
+
+    /**
+     * The initial size of the decoded layer table.
+     */
+    private static final int INITIAL_LAYER_CAPACITY = 6;
+
     /**
      * The link type.
      * Supported types specified by TYPE_*.
@@ -63,6 +123,21 @@ public class RawPacket
      */
     private final byte[] m_data;
 
+    /**
+     * The packets decoded from data, in order from lowest to highest layer.
+     */
+    private Packet[] m_layers;
+
+    /**
+     * The layer type of each decoded packet.
+     */
+    private int[] m_layerTypes;
+
+    /**
+     * The number of decoded packets.
+     */
+    private int m_layerCount;
+
     /**
      * Create raw packet.
      *
@@ -149,11 +224,126 @@ public class RawPacket
     }
 
     /**
-     * @see Object#toString()
+     * Record a packet decoded from the data of this raw packet and the absolute
+     * position of its header. Packets should be added in the order they
+     * are decoded.
+     *
+     * @param packet the packet
+     * @param headerStart the absolute position of the header
+     */
+    public void addLayer( final Packet packet, final int headerStart )
+    {
+        if( null == m_layers )
+        {
+            m_layers = new Packet[INITIAL_LAYER_CAPACITY];
+            m_layerTypes = new int[INITIAL_LAYER_CAPACITY];
+        }
+        else if( m_layerCount == m_layers.length )
+        {
+            final Packet[] layers = new Packet[m_layerCount * 2];
+            final int[] layerTypes = new int[m_layerCount * 2];
+            System.arraycopy( m_layers, 0, layers, 0, m_layerCount );
+            System.arraycopy( m_layerTypes, 0, layerTypes, 0, m_layerCount );
+            m_layers = layers;
+            m_layerTypes = layerTypes;
+        }
+        packet.setHeaderStart( headerStart );
+        m_layers[m_layerCount] = packet;
+        m_layerTypes[m_layerCount] = packet.getLayerType();
+        m_layerCount++;
+    }
+
+    /**
+     * Return the number of decoded packets.
+     *
+     * @return the number of decoded packets.
+     */
+    public int getLayerCount()
+    {
+        return m_layerCount;
+    }
+
+    /**
+     * Return the decoded packet at specified index.
+     *
+     * @param index the index
+     * @return the packet
+     */
+    public Packet getLayer( final int index )
+    {
+        if( index < 0 || index >= m_layerCount )
+        {
+            throw new IndexOutOfBoundsException( "index " + index );
+        }
+        return m_layers[index];
+    }
+
+    /**
+     * Return the layer type of the decoded packet at specified index.
+     *
+     * @param index the index
+     * @return the layer type
+     */
+    public int getLayerType( final int index )
+    {
+        if( index < 0 || index >= m_layerCount )
+        {
+            throw new IndexOutOfBoundsException( "index " + index );
+        }
+        return m_layerTypes[index];
+    }
+
+    /**
+     * Return the first decoded packet with the specified layer type.
+     *
+     * @param layerType the layer type
+     * @return the packet or null if no such layer decoded
+     */
+    public Packet findLayer( final int layerType )
+    {
+        for( int i = 0; i < m_layerCount; i++ )
+        {
+            if( layerType == m_layerTypes[i] )
+            {
+                return m_layers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the outermost decoded tunnel. Packets can be sharded by
+     * the identifier of the tunnel so that all traffic from a tunnel
+     * is processed together.
+     *
+     * @return the tunnel or null if packet was not tunnelled
+     */
+    public TunnelPacket findTunnel()
+    {
+        for( int i = 0; i < m_layerCount; i++ )
+        {
+            if( m_layers[i] instanceof TunnelPacket )
+            {
+                return (TunnelPacket) m_layers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_RAW;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
      */
-    public String toString()
+    public void appendTo( final StringBuffer sb )
     {
-        return
-            "Raw[ LinkType=" + m_linkType +" L=" + getLength() + "]";
+        sb.append( "Raw[ LinkType=" ).append( m_linkType );
+        sb.append( " L=" ).append( getLength() ).append( ']' );
     }
 }
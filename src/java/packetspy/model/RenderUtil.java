@@ -21,11 +21,50 @@
  */
 package packetspy.model;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 /**
  * Utilities to help render network fields as strings.
+ *
+ * <p>The append* methods write directly into a caller supplied
+ * StringBuffer, CharBuffer or ByteBuffer (as US-ASCII) using precomputed
+ * text for octets and hex pairs. They create no intermediate objects so
+ * a caller that reuses its buffer can render packets without generating
+ * garbage.</p>
  */
 public class RenderUtil
 {
+    /**
+     * The characters used to render hex values.
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The characters used to render IPv6 groups.
+     */
+    private static final char[] LOWER_HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The two hex characters for each byte value, indexed by value * 2.
+     */
+    private static final char[] HEX_PAIRS = new char[256 * 2];
+
+    /**
+     * The decimal text for each octet value.
+     */
+    private static final char[][] OCTETS = new char[256][];
+
+    static
+    {
+        for( int i = 0; i < 256; i++ )
+        {
+            HEX_PAIRS[i * 2] = HEX_DIGITS[i >> 4];
+            HEX_PAIRS[i * 2 + 1] = HEX_DIGITS[i & 0xF];
+            OCTETS[i] = String.valueOf( i ).toCharArray();
+        }
+    }
+
     /**
      * Convert specified array of bytes into an ip-string.
      *
@@ -35,27 +74,146 @@ public class RenderUtil
     public static String ipToString( final byte[] address )
     {
         final StringBuffer sb = new StringBuffer( address.length * 4 );
+        appendIP( sb, address );
+        return sb.toString();
+    }
+
+    /**
+     * Convert specified packed IPv4 address into an ip-string.
+     *
+     * @param address the address with the first octet in the most significant byte
+     * @return the ip address
+     */
+    public static String ipToString( final int address )
+    {
+        final StringBuffer sb = new StringBuffer( 15 );
+        appendIP( sb, address );
+        return sb.toString();
+    }
+
+    /**
+     * Convert specified IPv6 address into a string using the
+     * canonical format described in RFC 5952.
+     *
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     * @return the ip address
+     */
+    public static String ip6ToString( final long high, final long low )
+    {
+        final StringBuffer sb = new StringBuffer( 39 );
+        appendIP6( sb, high, low );
+        return sb.toString();
+    }
+
+    /**
+     * Convert specified array of bytes into an mac address string.
+     *
+     * @param address the address
+     * @return the mac address string
+     */
+    public static String macToString( final byte[] address )
+    {
+        final StringBuffer sb = new StringBuffer( address.length * 3 );
+        appendMAC( sb, address );
+        return sb.toString();
+    }
+
+    /**
+     * Convert specified packed mac address into a string.
+     *
+     * @param address the address stored in the lower 48 bits
+     * @return the mac address string
+     */
+    public static String macToString( final long address )
+    {
+        final StringBuffer sb = new StringBuffer( 17 );
+        appendMAC( sb, address );
+        return sb.toString();
+    }
+
+    /**
+     * Append specified array of bytes as an ip-string. 16 byte
+     * arrays are rendered as IPv6 addresses.
+     *
+     * @param sb the buffer
+     * @param address the address
+     */
+    public static void appendIP( final StringBuffer sb, final byte[] address )
+    {
+        if( 16 == address.length )
+        {
+            appendIP6( sb, readLong( address, 0 ), readLong( address, 8 ) );
+            return;
+        }
         for( int i = 0; i < address.length; i++ )
         {
-            final int element = address[i] & 0xFF;
             if( 0 != i )
             {
                 sb.append( '.' );
             }
-            sb.append( element );
+            sb.append( OCTETS[ address[i] & 0xFF ] );
         }
-        return sb.toString();
     }
 
     /**
-     * Convert specified array of bytes into an mac address string.
+     * Append specified packed IPv4 address as an ip-string.
+     *
+     * @param sb the buffer
+     * @param address the address with the first octet in the most significant byte
+     */
+    public static void appendIP( final StringBuffer sb, final int address )
+    {
+        sb.append( OCTETS[address >>> 24] );
+        sb.append( '.' );
+        sb.append( OCTETS[( address >>> 16 ) & 0xFF] );
+        sb.append( '.' );
+        sb.append( OCTETS[( address >>> 8 ) & 0xFF] );
+        sb.append( '.' );
+        sb.append( OCTETS[address & 0xFF] );
+    }
+
+    /**
+     * Append specified IPv6 address using the canonical
+     * format described in RFC 5952.
+     *
+     * @param sb the buffer
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     */
+    public static void appendIP6( final StringBuffer sb, final long high, final long low )
+    {
+        final int zeroRun = findZeroRun( high, low );
+        final int zeroStart = zeroRun >> 4;
+        final int zeroEnd = zeroStart + ( zeroRun & 0xF );
+        for( int i = 0; i < 8; i++ )
+        {
+            if( i == zeroStart )
+            {
+                sb.append( "::" );
+                i = zeroEnd - 1;
+                continue;
+            }
+            else if( 0 != i && i != zeroEnd )
+            {
+                sb.append( ':' );
+            }
+            final int group = group( high, low, i );
+            for( int shift = firstNibbleShift( group ); shift >= 0; shift -= 4 )
+            {
+                sb.append( LOWER_HEX_DIGITS[( group >> shift ) & 0xF] );
+            }
+        }
+    }
+
+    /**
+     * Append specified array of bytes as a mac address string.
      *
+     * @param sb the buffer
      * @param address the address
-     * @return the mac address string
      */
-    public static String macToString( final byte[] address )
+    public static void appendMAC( final StringBuffer sb, final byte[] address )
     {
-        final StringBuffer sb = new StringBuffer( address.length * 3 );
         for( int i = 0; i < address.length; i++ )
         {
             if( 0 != i )
@@ -64,9 +222,236 @@ public class RenderUtil
             }
             appendHexValue( sb, address[i] );
         }
-        return sb.toString();
     }
 
+    /**
+     * Append specified packed mac address.
+     *
+     * @param sb the buffer
+     * @param address the address stored in the lower 48 bits
+     */
+    public static void appendMAC( final StringBuffer sb, final long address )
+    {
+        for( int shift = 40; shift >= 0; shift -= 8 )
+        {
+            if( 40 != shift )
+            {
+                sb.append( ':' );
+            }
+            final int index = ( (int) ( address >>> shift ) & 0xFF ) * 2;
+            sb.append( HEX_PAIRS[index] );
+            sb.append( HEX_PAIRS[index + 1] );
+        }
+    }
+
+    /**
+     * Append specified packed IPv4 address as an ip-string.
+     *
+     * @param buffer the buffer
+     * @param address the address with the first octet in the most significant byte
+     */
+    public static void appendIP( final CharBuffer buffer, final int address )
+    {
+        for( int shift = 24; shift >= 0; shift -= 8 )
+        {
+            if( 24 != shift )
+            {
+                buffer.put( '.' );
+            }
+            buffer.put( OCTETS[( address >>> shift ) & 0xFF] );
+        }
+    }
+
+    /**
+     * Append specified IPv6 address using the canonical
+     * format described in RFC 5952.
+     *
+     * @param buffer the buffer
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     */
+    public static void appendIP6( final CharBuffer buffer, final long high, final long low )
+    {
+        final int zeroRun = findZeroRun( high, low );
+        final int zeroStart = zeroRun >> 4;
+        final int zeroEnd = zeroStart + ( zeroRun & 0xF );
+        for( int i = 0; i < 8; i++ )
+        {
+            if( i == zeroStart )
+            {
+                buffer.put( ':' );
+                buffer.put( ':' );
+                i = zeroEnd - 1;
+                continue;
+            }
+            else if( 0 != i && i != zeroEnd )
+            {
+                buffer.put( ':' );
+            }
+            final int group = group( high, low, i );
+            for( int shift = firstNibbleShift( group ); shift >= 0; shift -= 4 )
+            {
+                buffer.put( LOWER_HEX_DIGITS[( group >> shift ) & 0xF] );
+            }
+        }
+    }
+
+    /**
+     * Append specified packed mac address.
+     *
+     * @param buffer the buffer
+     * @param address the address stored in the lower 48 bits
+     */
+    public static void appendMAC( final CharBuffer buffer, final long address )
+    {
+        for( int shift = 40; shift >= 0; shift -= 8 )
+        {
+            if( 40 != shift )
+            {
+                buffer.put( ':' );
+            }
+            buffer.put( HEX_PAIRS, ( (int) ( address >>> shift ) & 0xFF ) * 2, 2 );
+        }
+    }
+
+    /**
+     * Append specified value in decimal.
+     *
+     * @param buffer the buffer
+     * @param value the value
+     */
+    public static void appendDecimal( final CharBuffer buffer, final long value )
+    {
+        if( value < 0 )
+        {
+            buffer.put( '-' );
+        }
+        final int digits = countDigits( value );
+        final int position = buffer.position();
+        long remainder = value;
+        for( int i = digits - 1; i >= 0; i-- )
+        {
+            buffer.put( position + i, HEX_DIGITS[Math.abs( (int) ( remainder % 10 ) )] );
+            remainder /= 10;
+        }
+        buffer.position( position + digits );
+    }
+
+    /**
+     * Append specified packed IPv4 address as an US-ASCII ip-string.
+     *
+     * @param buffer the buffer
+     * @param address the address with the first octet in the most significant byte
+     */
+    public static void appendIP( final ByteBuffer buffer, final int address )
+    {
+        for( int shift = 24; shift >= 0; shift -= 8 )
+        {
+            if( 24 != shift )
+            {
+                buffer.put( (byte) '.' );
+            }
+            final char[] octet = OCTETS[( address >>> shift ) & 0xFF];
+            for( int i = 0; i < octet.length; i++ )
+            {
+                buffer.put( (byte) octet[i] );
+            }
+        }
+    }
+
+    /**
+     * Append specified IPv6 address as US-ASCII using the canonical
+     * format described in RFC 5952.
+     *
+     * @param buffer the buffer
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     */
+    public static void appendIP6( final ByteBuffer buffer, final long high, final long low )
+    {
+        final int zeroRun = findZeroRun( high, low );
+        final int zeroStart = zeroRun >> 4;
+        final int zeroEnd = zeroStart + ( zeroRun & 0xF );
+        for( int i = 0; i < 8; i++ )
+        {
+            if( i == zeroStart )
+            {
+                buffer.put( (byte) ':' );
+                buffer.put( (byte) ':' );
+                i = zeroEnd - 1;
+                continue;
+            }
+            else if( 0 != i && i != zeroEnd )
+            {
+                buffer.put( (byte) ':' );
+            }
+            final int group = group( high, low, i );
+            for( int shift = firstNibbleShift( group ); shift >= 0; shift -= 4 )
+            {
+                buffer.put( (byte) LOWER_HEX_DIGITS[( group >> shift ) & 0xF] );
+            }
+        }
+    }
+
+    /**
+     * Append specified packed mac address as US-ASCII.
+     *
+     * @param buffer the buffer
+     * @param address the address stored in the lower 48 bits
+     */
+    public static void appendMAC( final ByteBuffer buffer, final long address )
+    {
+        for( int shift = 40; shift >= 0; shift -= 8 )
+        {
+            if( 40 != shift )
+            {
+                buffer.put( (byte) ':' );
+            }
+            final int index = ( (int) ( address >>> shift ) & 0xFF ) * 2;
+            buffer.put( (byte) HEX_PAIRS[index] );
+            buffer.put( (byte) HEX_PAIRS[index + 1] );
+        }
+    }
+
+    /**
+     * Append specified value in decimal as US-ASCII.
+     *
+     * @param buffer the buffer
+     * @param value the value
+     */
+    public static void appendDecimal( final ByteBuffer buffer, final long value )
+    {
+        if( value < 0 )
+        {
+            buffer.put( (byte) '-' );
+        }
+        final int digits = countDigits( value );
+        final int position = buffer.position();
+        long remainder = value;
+        for( int i = digits - 1; i >= 0; i-- )
+        {
+            buffer.put( position + i, (byte) ( '0' + Math.abs( (int) ( remainder % 10 ) ) ) );
+            remainder /= 10;
+        }
+        buffer.position( position + digits );
+    }
+
+    /**
+     * Append specified string as US-ASCII. Characters outside
+     * the US-ASCII range are replaced by '?'.
+     *
+     * @param buffer the buffer
+     * @param text the text
+     */
+    public static void appendASCII( final ByteBuffer buffer, final String text )
+    {
+        final int length = text.length();
+        for( int i = 0; i < length; i++ )
+        {
+            final char ch = text.charAt( i );
+            buffer.put( (byte) ( ch < 0x80 ? ch : '?' ) );
+        }
+    }
 
     /**
      * Convert a byte into hex value and add to buffer.
@@ -76,8 +461,9 @@ public class RenderUtil
      */
     static void appendHexValue( final StringBuffer sb, final byte data )
     {
-        sb.append( nibbleToHex( (byte) ( data >> 4 ) ) );
-        sb.append( nibbleToHex( data ) );
+        final int index = ( data & 0xFF ) * 2;
+        sb.append( HEX_PAIRS[index] );
+        sb.append( HEX_PAIRS[index + 1] );
     }
 
     /**
@@ -88,14 +474,108 @@ public class RenderUtil
      */
     static char nibbleToHex( final byte data )
     {
-        final int nibble = data & 0xf;
-        if( nibble <= 9 )
+        return HEX_DIGITS[data & 0xf];
+    }
+
+    /**
+     * Return the number of decimal digits in specified value, ignoring sign.
+     *
+     * @param value the value
+     * @return the number of digits
+     */
+    private static int countDigits( final long value )
+    {
+        int digits = 1;
+        for( long remainder = value / 10; 0 != remainder; remainder /= 10 )
         {
-            return (char) ( '0' + nibble );
+            digits++;
         }
-        else
+        return digits;
+    }
+
+    /**
+     * Return the specified 16 bit group of an IPv6 address.
+     *
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     * @param index the group index (0-7)
+     * @return the group
+     */
+    private static int group( final long high, final long low, final int index )
+    {
+        final long half = ( index < 4 ) ? high : low;
+        return (int) ( half >>> ( 48 - ( index & 3 ) * 16 ) ) & 0xFFFF;
+    }
+
+    /**
+     * Return the shift of the most significant non-zero nibble in group,
+     * so that groups are rendered without leading zeros.
+     *
+     * @param group the group
+     * @return the shift
+     */
+    private static int firstNibbleShift( final int group )
+    {
+        int shift = 12;
+        while( shift > 0 && 0 == ( group >> shift ) )
+        {
+            shift -= 4;
+        }
+        return shift;
+    }
+
+    /**
+     * Locate the longest run of at least two zero groups which
+     * RFC 5952 specifies is replaced by "::".
+     *
+     * @param high the upper 64 bits of address
+     * @param low the lower 64 bits of address
+     * @return the start of run shifted left by 4 bits ORed with the run
+     *         length, or a value whose start is past the last group if
+     *         there is no such run
+     */
+    private static int findZeroRun( final long high, final long low )
+    {
+        int zeroStart = 15;
+        int zeroLength = 0;
+        int runStart = -1;
+        for( int i = 0; i <= 8; i++ )
+        {
+            if( i < 8 && 0 == group( high, low, i ) )
+            {
+                if( -1 == runStart )
+                {
+                    runStart = i;
+                }
+            }
+            else if( -1 != runStart )
+            {
+                final int runLength = i - runStart;
+                if( runLength > zeroLength && runLength > 1 )
+                {
+                    zeroStart = runStart;
+                    zeroLength = runLength;
+                }
+                runStart = -1;
+            }
+        }
+        return ( zeroStart << 4 ) | zeroLength;
+    }
+
+    /**
+     * Read a 64 bit big-endian value from array.
+     *
+     * @param data the data
+     * @param offset the offset
+     * @return the value
+     */
+    private static long readLong( final byte[] data, final int offset )
+    {
+        long result = 0;
+        for( int i = 0; i < 8; i++ )
         {
-            return (char) ( 'A' + nibble - 10 );
+            result = ( result << 8 ) | ( data[offset + i] & 0xFF );
         }
+        return result;
     }
 }
@@ -273,29 +273,56 @@ public class TCPPacket
 
 
     /**
-     * @see Object#toString()
+     * @see Packet#getLayerType()
      */
-    public String toString()
+    public int getLayerType()
     {
-        final IP4Packet ipPacket = (IP4Packet)getLowerLayerPacket();
-        return
-            "TCP[ " +
-            RenderUtil.ipToString( ipPacket.getSource() ) + ":" + getSourcePort() +
-            " ===> " +
-            RenderUtil.ipToString( ipPacket.getDestination() ) + ":" + getDestinationPort() +
-            " SEQ=" + getSequence() +
-            " ACK=" + getAck() +
-            " WIN=" + getWindow() +
-            " DATA_OFF=" + getDataOffset() +
-            " URG_PTR=" + getUrgentPointer() +
-            " CHK=" + getChecksum() +
-            " " +
-            ((isAckFlagSet())?"ACK ":"") +
-            ((isFinFlagSet())?"FIN ":"") +
-            ((isPshFlagSet())?"PSH ":"") +
-            ((isRstFlagSet())?"RST ":"") +
-            ((isSynFlagSet())?"SYN ":"") +
-            ((isUrgFlagSet())?"URG ":"") +
-            "]";
+        return LAYER_TCP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        final IPPacket ipPacket = (IPPacket)getLowerLayerPacket();
+        sb.append( "TCP[ " );
+        ipPacket.appendSource( sb );
+        sb.append( ':' ).append( getSourcePort() );
+        sb.append( " ===> " );
+        ipPacket.appendDestination( sb );
+        sb.append( ':' ).append( getDestinationPort() );
+        sb.append( " SEQ=" ).append( getSequence() );
+        sb.append( " ACK=" ).append( getAck() );
+        sb.append( " WIN=" ).append( getWindow() );
+        sb.append( " DATA_OFF=" ).append( getDataOffset() );
+        sb.append( " URG_PTR=" ).append( getUrgentPointer() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( ' ' );
+        if( isAckFlagSet() )
+        {
+            sb.append( "ACK " );
+        }
+        if( isFinFlagSet() )
+        {
+            sb.append( "FIN " );
+        }
+        if( isPshFlagSet() )
+        {
+            sb.append( "PSH " );
+        }
+        if( isRstFlagSet() )
+        {
+            sb.append( "RST " );
+        }
+        if( isSynFlagSet() )
+        {
+            sb.append( "SYN " );
+        }
+        if( isUrgFlagSet() )
+        {
+            sb.append( "URG " );
+        }
+        sb.append( ']' );
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Interface implemented by packets that encapsulate another link or
+ * network layer packet. The encapsulated packet is decoded in place and
+ * linked above the tunnel packet so both the outer and inner layers
+ * appear in the packet chain.
+ */
+public interface TunnelPacket
+{
+    /**
+     * Return the identifier that distinguishes this tunnel from other
+     * tunnels between the same endpoints, such as the GRE key, the
+     * ERSPAN session or the VXLAN network identifier.
+     *
+     * @return the tunnel identifier or -1 if the tunnel has no identifier.
+     */
+    long getTunnelId();
+}
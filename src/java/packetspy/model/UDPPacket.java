@@ -107,18 +107,27 @@ public class UDPPacket
     }
 
     /**
-     * @see Object#toString()
+     * @see Packet#getLayerType()
      */
-    public String toString()
+    public int getLayerType()
     {
-        final IP4Packet ipPacket = (IP4Packet)getLowerLayerPacket();
-        return
-            "UDP[ " +
-            RenderUtil.ipToString( ipPacket.getSource() ) + ":" + getSourcePort() +
-            " ===> " +
-            RenderUtil.ipToString( ipPacket.getDestination() ) + ":" + getDestinationPort() +
-            " L=" + getLength() +
-            " CHK=" + getChecksum() +
-            "]";
+        return LAYER_UDP;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        final IPPacket ipPacket = (IPPacket)getLowerLayerPacket();
+        sb.append( "UDP[ " );
+        ipPacket.appendSource( sb );
+        sb.append( ':' ).append( getSourcePort() );
+        sb.append( " ===> " );
+        ipPacket.appendDestination( sb );
+        sb.append( ':' ).append( getDestinationPort() );
+        sb.append( " L=" ).append( getLength() );
+        sb.append( " CHK=" ).append( getChecksum() );
+        sb.append( ']' );
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing an IEEE 802.1Q VLAN tag. Stacked (QinQ) tags
+ * are represented by a chain of VLANPackets.
+ *
+ * Semantic:  | Priority | Drop Eligible | VLAN Id | Protocol |
+ * Length:    |    3 bit |         1 bit |  12 bit |        2 |
+ */
+public class VLANPacket
+    extends Packet
+{
+    /**
+     * The ethertype used to identify this tag.
+     */
+    private final int m_tagType;
+
+    /**
+     * The priority code point.
+     */
+    private final byte m_priority;
+
+    /**
+     * The drop eligible indicator.
+     */
+    private final boolean m_dropEligible;
+
+    /**
+     * The VLAN identifier.
+     */
+    private final int m_vlanId;
+
+    /**
+     * The type of the underlying packet.
+     * Uses the same values as EthernetPacket.TYPE_*.
+     */
+    private final int m_type;
+
+    /**
+     * Create a VLAN tag.
+     *
+     * @param tagType the ethertype used to identify tag
+     * @param priority the priority code point
+     * @param dropEligible the drop eligible indicator
+     * @param vlanId the VLAN identifier
+     * @param type the type of the underlying packet
+     */
+    public VLANPacket( final int tagType,
+                       final byte priority,
+                       final boolean dropEligible,
+                       final int vlanId,
+                       final int type )
+    {
+        m_tagType = tagType;
+        m_priority = priority;
+        m_dropEligible = dropEligible;
+        m_vlanId = vlanId;
+        m_type = type;
+    }
+
+    /**
+     * Return the ethertype used to identify this tag.
+     *
+     * @return the ethertype used to identify this tag.
+     */
+    public int getTagType()
+    {
+        return m_tagType;
+    }
+
+    /**
+     * Return the priority code point.
+     *
+     * @return the priority code point.
+     */
+    public byte getPriority()
+    {
+        return m_priority;
+    }
+
+    /**
+     * Return true if the drop eligible indicator is set.
+     *
+     * @return true if the drop eligible indicator is set.
+     */
+    public boolean isDropEligible()
+    {
+        return m_dropEligible;
+    }
+
+    /**
+     * Return the VLAN identifier.
+     *
+     * @return the VLAN identifier.
+     */
+    public int getVlanId()
+    {
+        return m_vlanId;
+    }
+
+    /**
+     * Return the type of the underlying packet.
+     *
+     * @return the type of the underlying packet.
+     */
+    public int getType()
+    {
+        return m_type;
+    }
+
+    /**
+     * Return the identifier of the outermost VLAN tag at or above
+     * the specified packet.
+     *
+     * @param packet the packet to start searching from
+     * @return the VLAN identifier or -1 if packet is untagged
+     */
+    public static int findVlanId( final Packet packet )
+    {
+        Packet p = packet;
+        while( null != p )
+        {
+            if( p instanceof VLANPacket )
+            {
+                return ( (VLANPacket) p ).getVlanId();
+            }
+            p = p.getUpperLayerPacket();
+        }
+        return -1;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_VLAN;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "VLAN[ ID=" ).append( getVlanId() );
+        sb.append( " PRI=" ).append( getPriority() );
+        sb.append( " DEI=" ).append( isDropEligible() );
+        sb.append( " T=" ).append( getType() ).append( ']' );
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+/**
+ * Class representing a VXLAN header carried in UDP.
+ * The encapsulated Ethernet frame follows.
+ *
+ * Semantic:  | Flags | Reserved | Network Id | Reserved |
+ * Length:    |     1 |        3 |          3 |        1 |
+ */
+public class VXLANPacket
+    extends Packet
+    implements TunnelPacket
+{
+    /**
+     * The UDP port assigned to VXLAN.
+     */
+    public static final int PORT = 4789;
+
+    /**
+     * Flag indicating the network identifier is valid.
+     */
+    public static final int FLAG_VNI = 0x08;
+
+    /**
+     * The flags.
+     */
+    private final int m_flags;
+
+    /**
+     * The VXLAN network identifier.
+     */
+    private final int m_networkId;
+
+    /**
+     * Create a VXLAN header.
+     *
+     * @param flags the flags
+     * @param networkId the VXLAN network identifier
+     */
+    public VXLANPacket( final int flags, final int networkId )
+    {
+        m_flags = flags;
+        m_networkId = networkId;
+    }
+
+    /**
+     * Return the flags.
+     *
+     * @return the flags.
+     */
+    public int getFlags()
+    {
+        return m_flags;
+    }
+
+    /**
+     * Return the VXLAN network identifier.
+     *
+     * @return the VXLAN network identifier.
+     */
+    public int getNetworkId()
+    {
+        return m_networkId;
+    }
+
+    /**
+     * Return the network identifier as the tunnel identifier.
+     *
+     * @see TunnelPacket#getTunnelId()
+     */
+    public long getTunnelId()
+    {
+        return m_networkId;
+    }
+
+    /**
+     * @see Packet#getLayerType()
+     */
+    public int getLayerType()
+    {
+        return LAYER_VXLAN;
+    }
+
+    /**
+     * @see Packet#appendTo(StringBuffer)
+     */
+    public void appendTo( final StringBuffer sb )
+    {
+        sb.append( "VXLAN[ VNI=" ).append( getNetworkId() ).append( ']' );
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+
+/**
+ * Interface implemented by components that decode a protocol header.
+ * Dissectors are registered with a {@link DissectorRegistry} against the
+ * ethertype, IP protocol or port that identifies the protocol.
+ */
+public interface Dissector
+{
+    /**
+     * Decode the protocol header located at the specified offset.
+     * The dissector should not link the returned packet to the lower
+     * layer packet as that is the responsibility of the caller. The
+     * dissector should record the returned packet in the layer table of
+     * the raw packet using {@link RawPacket#addLayer(Packet, int)} before
+     * decoding any higher layers.
+     *
+     * <p>The dissector must not read at or beyond
+     * {@link ModelPacketFactory#getCapturedEnd(Packet, RawPacket)}. If the
+     * header is truncated it should return the result of
+     * {@link ModelPacketFactory#markMalformed(Packet, int)} rather than
+     * throw an exception.</p>
+     *
+     * @param factory the factory performing the decode
+     * @param packet the packet enclosing the header
+     * @param offset the absolute offset of the header in raw data
+     * @param raw the raw packet
+     * @return the packet or null if unable to decode header
+     */
+    Packet dissect( ModelPacketFactory factory, Packet packet, int offset, RawPacket raw );
+}
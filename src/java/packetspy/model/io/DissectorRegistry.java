@@ -0,0 +1,613 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import packetspy.model.EthernetPacket;
+import packetspy.model.IP4Packet;
+import packetspy.model.IP6Packet;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.VXLANPacket;
+
+/**
+ * Registry of dissectors used by {@link ModelPacketFactory}.
+ * Dissectors are stored in arrays indexed directly by the ethertype,
+ * IP protocol or port so the cost of locating a dissector does not
+ * depend on the number of dissectors registered.
+ *
+ * The registry is not synchronized and dissectors should be registered
+ * before the registry is used to decode packets.
+ */
+public class DissectorRegistry
+{
+    /**
+     * The number of possible ethertypes.
+     */
+    private static final int ETHER_TYPE_COUNT = 0x10000;
+
+    /**
+     * The number of possible IP protocols.
+     */
+    private static final int IP_PROTOCOL_COUNT = 0x100;
+
+    /**
+     * The number of possible TCP or UDP ports.
+     */
+    private static final int PORT_COUNT = 0x10000;
+
+    /**
+     * The number of link types that may have dissectors registered.
+     */
+    private static final int LINK_TYPE_COUNT = 0x200;
+
+    /**
+     * Dissector for Ethernet frames.
+     */
+    private static final Dissector ETHERNET_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseEthernetFrame( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for BSD loopback headers in the byte order of the capturing host.
+     */
+    private static final Dissector NULL_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseLoopbackPacket( packet, offset, raw, true );
+        }
+    };
+
+    /**
+     * Dissector for OpenBSD loopback headers in network byte order.
+     */
+    private static final Dissector LOOP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseLoopbackPacket( packet, offset, raw, false );
+        }
+    };
+
+    /**
+     * Dissector for IP packets without a link layer header.
+     */
+    private static final Dissector RAW_IP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseRawIPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for Linux cooked capture headers.
+     */
+    private static final Dissector LINUX_SLL_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseLinuxCookedPacket( packet, offset, raw, false );
+        }
+    };
+
+    /**
+     * Dissector for version 2 Linux cooked capture headers.
+     */
+    private static final Dissector LINUX_SLL2_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseLinuxCookedPacket( packet, offset, raw, true );
+        }
+    };
+
+    /**
+     * Dissector for radiotap headers and the IEEE 802.11 frames they precede.
+     */
+    private static final Dissector RADIOTAP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseRadiotapPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for IEEE 802.11 frames.
+     */
+    private static final Dissector IEEE802_11_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseIEEE80211Packet( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for ARP packets.
+     */
+    private static final Dissector ARP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseARPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for VLAN tags.
+     */
+    private static final Dissector VLAN_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseVLANPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for MPLS label stacks.
+     */
+    private static final Dissector MPLS_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseMPLSPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for IPv4 packets.
+     */
+    private static final Dissector IP4_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseIPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for IPv6 packets.
+     */
+    private static final Dissector IP6_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseIP6Packet( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for ICMPv6 packets.
+     */
+    private static final Dissector ICMP6_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseICMP6Packet( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for UDP packets.
+     */
+    private static final Dissector UDP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseUDPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for TCP packets.
+     */
+    private static final Dissector TCP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseTCPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for ICMP packets.
+     */
+    private static final Dissector ICMP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseICMPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for IGMP packets.
+     */
+    private static final Dissector IGMP_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseIGMPPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for GRE headers.
+     */
+    private static final Dissector GRE_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseGREPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for ERSPAN headers.
+     */
+    private static final Dissector ERSPAN_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseERSPANPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissector for VXLAN headers.
+     */
+    private static final Dissector VXLAN_DISSECTOR = new Dissector()
+    {
+        public Packet dissect( final ModelPacketFactory factory,
+                               final Packet packet,
+                               final int offset,
+                               final RawPacket raw )
+        {
+            return factory.parseVXLANPacket( packet, offset, raw );
+        }
+    };
+
+    /**
+     * Dissectors indexed by link type.
+     */
+    private final Dissector[] m_linkTypeDissectors = new Dissector[LINK_TYPE_COUNT];
+
+    /**
+     * Dissectors indexed by ethertype.
+     */
+    private final Dissector[] m_etherTypeDissectors = new Dissector[ETHER_TYPE_COUNT];
+
+    /**
+     * The parse depth of the packets decoded by each ethertype dissector.
+     */
+    private final byte[] m_etherTypeDepths = new byte[ETHER_TYPE_COUNT];
+
+    /**
+     * Dissectors indexed by IP protocol.
+     */
+    private final Dissector[] m_ipProtocolDissectors = new Dissector[IP_PROTOCOL_COUNT];
+
+    /**
+     * Dissectors indexed by TCP port.
+     */
+    private final Dissector[] m_tcpPortDissectors = new Dissector[PORT_COUNT];
+
+    /**
+     * Dissectors indexed by UDP port.
+     */
+    private final Dissector[] m_udpPortDissectors = new Dissector[PORT_COUNT];
+
+    /**
+     * Create a registry containing dissectors for all the
+     * protocols supported by the packetspy model.
+     *
+     * @return the registry
+     */
+    public static DissectorRegistry createDefaultRegistry()
+    {
+        final DissectorRegistry registry = new DissectorRegistry();
+        registry.registerLinkTypeDissector( RawPacket.TYPE_802_3, ETHERNET_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_NULL, NULL_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_LOOP, LOOP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_RAW, RAW_IP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_RAW_OPENBSD, RAW_IP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_RAW_IP, RAW_IP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_IPV4, RAW_IP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_IPV6, RAW_IP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_LINUX_SLL, LINUX_SLL_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_LINUX_SLL2, LINUX_SLL2_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_IEEE802_11_RADIOTAP, RADIOTAP_DISSECTOR );
+        registry.registerLinkTypeDissector( RawPacket.TYPE_IEEE802_11, IEEE802_11_DISSECTOR );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_IP, IP4_DISSECTOR );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_IP6, IP6_DISSECTOR );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_ARP, ARP_DISSECTOR );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_VLAN,
+                                             VLAN_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_QINQ,
+                                             VLAN_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_QINQ_LEGACY,
+                                             VLAN_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_MPLS,
+                                             MPLS_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_MPLS_MULTICAST,
+                                             MPLS_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_TRANSPARENT_ETHERNET,
+                                             ETHERNET_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_ERSPAN,
+                                             ERSPAN_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_ERSPAN3,
+                                             ERSPAN_DISSECTOR,
+                                             ModelPacketFactory.DEPTH_LINK );
+        registry.registerIPProtocolDissector( IP4Packet.PROTOCOL_ICMP, ICMP_DISSECTOR );
+        registry.registerIPProtocolDissector( IP4Packet.PROTOCOL_IGMP, IGMP_DISSECTOR );
+        registry.registerIPProtocolDissector( IP4Packet.PROTOCOL_TCP, TCP_DISSECTOR );
+        registry.registerIPProtocolDissector( IP4Packet.PROTOCOL_UDP, UDP_DISSECTOR );
+        registry.registerIPProtocolDissector( IP6Packet.PROTOCOL_ICMP6, ICMP6_DISSECTOR );
+        registry.registerIPProtocolDissector( IP4Packet.PROTOCOL_GRE, GRE_DISSECTOR );
+        registry.registerUDPPortDissector( VXLANPacket.PORT, VXLAN_DISSECTOR );
+        return registry;
+    }
+
+    /**
+     * Register a dissector for the link layer of packets captured with
+     * specified link type. Any existing dissector for link type is replaced.
+     *
+     * @param linkType the link type. One of RawPacket.TYPE_*
+     * @param dissector the dissector. May be null to remove dissector.
+     */
+    public void registerLinkTypeDissector( final int linkType, final Dissector dissector )
+    {
+        checkRange( "linkType", linkType, LINK_TYPE_COUNT );
+        m_linkTypeDissectors[linkType] = dissector;
+    }
+
+    /**
+     * Register a dissector for specified ethertype that decodes a
+     * network layer packet. Any existing dissector for ethertype is replaced.
+     *
+     * @param type the ethertype
+     * @param dissector the dissector. May be null to remove dissector.
+     */
+    public void registerEtherTypeDissector( final int type, final Dissector dissector )
+    {
+        registerEtherTypeDissector( type, dissector, ModelPacketFactory.DEPTH_NETWORK );
+    }
+
+    /**
+     * Register a dissector for specified ethertype.
+     * Any existing dissector for ethertype is replaced.
+     * The depth is used to skip the dissector when the factory is limited
+     * to a shallower depth. Dissectors for tags that sit between the link
+     * and network layer, such as VLAN tags, use ModelPacketFactory.DEPTH_LINK.
+     *
+     * @param type the ethertype
+     * @param dissector the dissector. May be null to remove dissector.
+     * @param depth the depth of packets decoded. One of ModelPacketFactory.DEPTH_*
+     */
+    public void registerEtherTypeDissector( final int type,
+                                            final Dissector dissector,
+                                            final int depth )
+    {
+        checkRange( "type", type, ETHER_TYPE_COUNT );
+        checkRange( "depth", depth, ModelPacketFactory.DEPTH_ALL + 1 );
+        m_etherTypeDissectors[type] = dissector;
+        m_etherTypeDepths[type] = (byte)depth;
+    }
+
+    /**
+     * Register a dissector for specified IP protocol.
+     * Any existing dissector for protocol is replaced.
+     *
+     * @param protocol the IP protocol
+     * @param dissector the dissector. May be null to remove dissector.
+     */
+    public void registerIPProtocolDissector( final int protocol, final Dissector dissector )
+    {
+        checkRange( "protocol", protocol, IP_PROTOCOL_COUNT );
+        m_ipProtocolDissectors[protocol] = dissector;
+    }
+
+    /**
+     * Register a dissector for the payload of TCP packets sent
+     * to or from specified port. Any existing dissector for port is replaced.
+     *
+     * @param port the TCP port
+     * @param dissector the dissector. May be null to remove dissector.
+     */
+    public void registerTCPPortDissector( final int port, final Dissector dissector )
+    {
+        checkRange( "port", port, PORT_COUNT );
+        m_tcpPortDissectors[port] = dissector;
+    }
+
+    /**
+     * Register a dissector for the payload of UDP packets sent
+     * to or from specified port. Any existing dissector for port is replaced.
+     *
+     * @param port the UDP port
+     * @param dissector the dissector. May be null to remove dissector.
+     */
+    public void registerUDPPortDissector( final int port, final Dissector dissector )
+    {
+        checkRange( "port", port, PORT_COUNT );
+        m_udpPortDissectors[port] = dissector;
+    }
+
+    /**
+     * Return the dissector for specified link type.
+     *
+     * @param linkType the link type
+     * @return the dissector or null if none registered
+     */
+    public Dissector getLinkTypeDissector( final int linkType )
+    {
+        if( linkType < 0 || linkType >= LINK_TYPE_COUNT )
+        {
+            return null;
+        }
+        return m_linkTypeDissectors[linkType];
+    }
+
+    /**
+     * Return the dissector for specified ethertype.
+     *
+     * @param type the ethertype
+     * @return the dissector or null if none registered
+     */
+    public Dissector getEtherTypeDissector( final int type )
+    {
+        return m_etherTypeDissectors[type];
+    }
+
+    /**
+     * Return the depth of packets decoded by the dissector for specified ethertype.
+     *
+     * @param type the ethertype
+     * @return the depth. One of ModelPacketFactory.DEPTH_*
+     */
+    public int getEtherTypeDepth( final int type )
+    {
+        return m_etherTypeDepths[type];
+    }
+
+    /**
+     * Return the dissector for specified IP protocol.
+     *
+     * @param protocol the IP protocol
+     * @return the dissector or null if none registered
+     */
+    public Dissector getIPProtocolDissector( final int protocol )
+    {
+        return m_ipProtocolDissectors[protocol];
+    }
+
+    /**
+     * Return the dissector for specified TCP port.
+     *
+     * @param port the TCP port
+     * @return the dissector or null if none registered
+     */
+    public Dissector getTCPPortDissector( final int port )
+    {
+        return m_tcpPortDissectors[port];
+    }
+
+    /**
+     * Return the dissector for specified UDP port.
+     *
+     * @param port the UDP port
+     * @return the dissector or null if none registered
+     */
+    public Dissector getUDPPortDissector( final int port )
+    {
+        return m_udpPortDissectors[port];
+    }
+
+    /**
+     * Make sure that the key is within the range of the table.
+     *
+     * @param name the name of key
+     * @param key the key
+     * @param count the number of keys in table
+     */
+    private static void checkRange( final String name, final int key, final int count )
+    {
+        if( key < 0 || key >= count )
+        {
+            throw new IllegalArgumentException( name + " out of range: " + key );
+        }
+    }
+}
@@ -21,22 +21,318 @@
  */
 package packetspy.model.io;
 
+import packetspy.model.ARPPacket;
+import packetspy.model.ChecksumUtil;
+import packetspy.model.ERSPANPacket;
 import packetspy.model.EthernetPacket;
+import packetspy.model.GREPacket;
+import packetspy.model.ICMP6Packet;
 import packetspy.model.ICMPPacket;
+import packetspy.model.IEEE80211Packet;
+import packetspy.model.IGMP3QueryPacket;
+import packetspy.model.IGMP3ReportPacket;
 import packetspy.model.IGMPPacket;
 import packetspy.model.IP4Packet;
+import packetspy.model.IP6Packet;
+import packetspy.model.IPPacket;
+import packetspy.model.LinuxCookedPacket;
+import packetspy.model.LoopbackPacket;
+import packetspy.model.MPLSPacket;
 import packetspy.model.Packet;
+import packetspy.model.RadiotapPacket;
 import packetspy.model.RawPacket;
 import packetspy.model.TCPPacket;
 import packetspy.model.UDPPacket;
+import packetspy.model.VLANPacket;
+import packetspy.model.VXLANPacket;
 
 /**
  * Model factory for turning raw capture data into packets.
  */
 public class ModelPacketFactory
 {
+    /**
+     * Only create the RawPacket.
+     */
+    public static final int DEPTH_RAW = 0;
+
+    /**
+     * Decode link layer frames and any VLAN or MPLS tags.
+     */
+    public static final int DEPTH_LINK = 1;
+
+    /**
+     * Decode network layer packets such as IP and ARP.
+     */
+    public static final int DEPTH_NETWORK = 2;
+
+    /**
+     * Decode transport layer packets such as TCP, UDP, ICMP and IGMP.
+     */
+    public static final int DEPTH_TRANSPORT = 3;
+
+    /**
+     * Decode all layers including payloads handled by port dissectors.
+     */
+    public static final int DEPTH_ALL = 4;
+
+    /**
+     * The maximum number of IPv6 extension headers walked before
+     * giving up on locating the upper layer protocol.
+     */
+    private static final int MAX_IP6_EXTENSION_HEADERS = 16;
+
+    /**
+     * The maximum number of stacked VLAN tags decoded before the
+     * frame is considered malformed.
+     */
+    private static final int MAX_VLAN_TAGS = 8;
+
+    /**
+     * The maximum number of nested GRE, ERSPAN and VXLAN layers decoded
+     * before the innermost tunnel is considered malformed.
+     */
+    private static final int MAX_TUNNEL_DEPTH = 8;
+
+    /**
+     * The largest layer type for which malformed layers and checksum errors are counted.
+     */
+    private static final int MAX_LAYER_TYPE = 63;
+
+    /**
+     * The dissectors used to decode the layers above Ethernet.
+     */
+    private final DissectorRegistry m_registry;
+
+    /**
+     * The deepest layer decoded. One of DEPTH_*.
+     */
+    private final int m_depth;
+
+    /**
+     * The number of malformed layers encountered, indexed by layer type.
+     */
+    private final long[] m_malformedCounts = new long[MAX_LAYER_TYPE + 1];
+
+    /**
+     * The number of layers with incorrect checksums, indexed by layer type.
+     */
+    private final long[] m_checksumErrorCounts = new long[MAX_LAYER_TYPE + 1];
+
+    /**
+     * True if the checksums of IPv4, TCP and UDP packets are validated.
+     */
+    private boolean m_validateChecksums;
+
+    /**
+     * Create a factory that decodes the standard protocols.
+     */
+    public ModelPacketFactory()
+    {
+        this( DissectorRegistry.createDefaultRegistry() );
+    }
+
+    /**
+     * Create a factory that uses specified dissectors.
+     *
+     * @param registry the dissector registry
+     */
+    public ModelPacketFactory( final DissectorRegistry registry )
+    {
+        this( registry, DEPTH_ALL );
+    }
+
+    /**
+     * Create a factory that uses specified dissectors and stops decoding
+     * at specified depth. Layers below the depth are not decoded and no
+     * packets are created for them.
+     *
+     * @param registry the dissector registry
+     * @param depth the deepest layer decoded. One of DEPTH_*
+     */
+    public ModelPacketFactory( final DissectorRegistry registry, final int depth )
+    {
+        if( null == registry )
+        {
+            throw new NullPointerException( "registry" );
+        }
+        if( depth < DEPTH_RAW || depth > DEPTH_ALL )
+        {
+            throw new IllegalArgumentException( "depth out of range: " + depth );
+        }
+        m_registry = registry;
+        m_depth = depth;
+    }
+
+    /**
+     * Return the dissectors used by factory.
+     *
+     * @return the dissectors used by factory.
+     */
+    public DissectorRegistry getRegistry()
+    {
+        return m_registry;
+    }
+
+    /**
+     * Return the deepest layer decoded by factory.
+     *
+     * @return the depth. One of DEPTH_*
+     */
+    public int getDepth()
+    {
+        return m_depth;
+    }
+
+    /**
+     * Return true if the checksums of IPv4, TCP and UDP packets are validated.
+     *
+     * @return true if checksums are validated
+     */
+    public boolean isValidateChecksums()
+    {
+        return m_validateChecksums;
+    }
+
+    /**
+     * Specify whether the checksums of IPv4, TCP and UDP packets are
+     * validated. Packets with incorrect checksums are flagged but still
+     * decoded. Checksums are only validated when the whole packet was
+     * captured and is not a fragment or part of an ICMP error message.
+     * Packets sent by the capturing host often have incorrect checksums
+     * when checksum calculation is offloaded to the network card.
+     *
+     * @param validateChecksums true to validate checksums
+     */
+    public void setValidateChecksums( final boolean validateChecksums )
+    {
+        m_validateChecksums = validateChecksums;
+    }
+
+    /**
+     * Return the number of layers with incorrect checksums encountered by factory.
+     *
+     * @return the number of layers with incorrect checksums.
+     */
+    public long getChecksumErrorCount()
+    {
+        long count = 0;
+        for( int i = 0; i < m_checksumErrorCounts.length; i++ )
+        {
+            count += m_checksumErrorCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of layers of specified type with incorrect
+     * checksums encountered by factory.
+     *
+     * @param layerType the layer type. One of Packet.LAYER_*
+     * @return the number of layers with incorrect checksums.
+     */
+    public long getChecksumErrorCount( final int layerType )
+    {
+        if( layerType < 0 || layerType >= m_checksumErrorCounts.length )
+        {
+            return 0;
+        }
+        return m_checksumErrorCounts[layerType];
+    }
+
+    /**
+     * Return the number of malformed layers encountered by factory.
+     *
+     * @return the number of malformed layers.
+     */
+    public long getMalformedCount()
+    {
+        long count = 0;
+        for( int i = 0; i < m_malformedCounts.length; i++ )
+        {
+            count += m_malformedCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of malformed layers of specified type encountered by factory.
+     *
+     * @param layerType the layer type. One of Packet.LAYER_*
+     * @return the number of malformed layers.
+     */
+    public long getMalformedCount( final int layerType )
+    {
+        if( layerType < 0 || layerType >= m_malformedCounts.length )
+        {
+            return 0;
+        }
+        return m_malformedCounts[layerType];
+    }
+
+    /**
+     * Record that a layer of specified type could not be decoded from the
+     * payload of packet. The packet is marked as malformed.
+     * Dissectors use this method when the header they decode is truncated.
+     *
+     * @param packet the packet whose payload could not be decoded
+     * @param layerType the type of the layer that could not be decoded. One of Packet.LAYER_*
+     * @return null so dissectors can return the result directly
+     */
+    public Packet markMalformed( final Packet packet, final int layerType )
+    {
+        packet.setMalformed( true );
+        if( layerType >= 0 && layerType < m_malformedCounts.length )
+        {
+            m_malformedCounts[layerType]++;
+        }
+        return null;
+    }
+
+    /**
+     * Return the absolute position of the end of the payload of packet,
+     * limited to the data that was actually captured. Dissectors must
+     * not read at or beyond this position.
+     *
+     * @param packet the packet
+     * @param raw the raw packet
+     * @return the end of the captured payload
+     */
+    public static int getCapturedEnd( final Packet packet, final RawPacket raw )
+    {
+        return Math.min( getEnd( packet ), raw.getCapturedLength() );
+    }
+
+    /**
+     * Return the absolute position of the end of the payload of packet
+     * as it was on the wire.
+     *
+     * @param packet the packet
+     * @return the end of payload
+     */
+    static int getEnd( final Packet packet )
+    {
+        return packet.getPayloadStart() + packet.getPayloadLength();
+    }
+
+    /**
+     * Return the dissector for the link layer of packets captured with
+     * specified link type. Capture loops should resolve the dissector once
+     * per capture handle and pass it to
+     * {@link #parseRawPacket(Dissector, int, int, int, int, int, byte[])}.
+     *
+     * @param linkType the link type
+     * @return the dissector or null if link type not supported
+     */
+    public Dissector resolveLinkType( final int linkType )
+    {
+        return m_registry.getLinkTypeDissector( linkType );
+    }
+
     /**
      * Utility method to parse a raw packet.
+     * Frames whose captured length exceeds the data supplied are marked
+     * as malformed and are not decoded.
      *
      * @return the packet
      */
@@ -46,6 +342,32 @@ public class ModelPacketFactory
                                      final int seconds,
                                      final int useconds,
                                      final byte[] data )
+    {
+        return parseRawPacket( resolveLinkType( linkType ),
+                               linkType,
+                               length,
+                               capturedLength,
+                               seconds,
+                               useconds,
+                               data );
+    }
+
+    /**
+     * Utility method to parse a raw packet using a link layer dissector
+     * previously returned from {@link #resolveLinkType(int)}.
+     * Frames whose captured length exceeds the data supplied are marked
+     * as malformed and are not decoded.
+     *
+     * @param linkDissector the link layer dissector. May be null.
+     * @return the packet
+     */
+    public RawPacket parseRawPacket( final Dissector linkDissector,
+                                     final int linkType,
+                                     final int length,
+                                     final int capturedLength,
+                                     final int seconds,
+                                     final int useconds,
+                                     final byte[] data )
     {
         final RawPacket raw = new RawPacket( linkType,
                                              length,
@@ -54,242 +376,1500 @@ public class ModelPacketFactory
                                              useconds,
                                              data );
         raw.setData( data );
+        raw.addLayer( raw, 0 );
         raw.setPayloadOffset( 0 );
-        raw.setPayloadLength( length );
+        raw.setPayloadLength( Math.max( length, capturedLength ) );
+
+        if( capturedLength < 0 || capturedLength > data.length )
+        {
+            markMalformed( raw, Packet.LAYER_RAW );
+        }
+        else if( DEPTH_LINK <= m_depth )
+        {
+            dissect( linkDissector, raw, 0, raw );
+        }
+        return raw;
+    }
+
+    /**
+     * Utility method to parse an EthernetPacket packet.
+     *
+     * @param lower the packet enclosing the frame
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if frame truncated.
+     */
+    EthernetPacket parseEthernetFrame( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 14 )
+        {
+            markMalformed( lower, Packet.LAYER_ETHERNET );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final long destination = readMacAddress( data, offset );
+        final long source = readMacAddress( data, offset + 6 );
+        final int type = readUnsignedShort( data, offset + 12 );
+        final EthernetPacket packet = new EthernetPacket( destination, source, type );
+        packet.setPayloadOffset( 14 );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - 14 ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        dissectEtherType( type, packet, offset + 14, raw );
+        return packet;
+    }
+
+    /**
+     * Utility method to parse the header of a BSD loopback capture.
+     *
+     * @param lower the packet enclosing the header
+     * @param offset the offset
+     * @param raw the raw packet
+     * @param hostByteOrder true if the family is in the byte order of the capturing host
+     * @return the packet or null if truncated.
+     */
+    LoopbackPacket parseLoopbackPacket( final Packet lower,
+                                        final int offset,
+                                        final RawPacket raw,
+                                        final boolean hostByteOrder )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 4 )
+        {
+            markMalformed( lower, Packet.LAYER_LOOPBACK );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        int family = (int) readUnsignedInteger( data, offset );
+        //Families are small so a value in the upper bytes was written little endian
+        if( hostByteOrder && 0 != ( family & 0xFFFF0000 ) )
+        {
+            family = readUnsignedShortLE( data, offset );
+        }
+
+        final LoopbackPacket packet = new LoopbackPacket( family );
+        packet.setPayloadOffset( 4 );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - 4 ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        if( LoopbackPacket.FAMILY_INET == family )
+        {
+            dissectEtherType( EthernetPacket.TYPE_IP, packet, offset + 4, raw );
+        }
+        else if( packet.isIP6() )
+        {
+            dissectEtherType( EthernetPacket.TYPE_IP6, packet, offset + 4, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse an IP packet that has no link layer header.
+     * The version field determines whether it is decoded as IPv4 or IPv6.
+     *
+     * @param lower the packet enclosing the IP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated or not IP.
+     */
+    Packet parseRawIPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 1 )
+        {
+            return markMalformed( lower, Packet.LAYER_IP4 );
+        }
+        final int version = ( raw.getData()[offset] >> 4 ) & 0xF;
+        if( 4 == version )
+        {
+            return dissectEtherType( EthernetPacket.TYPE_IP, lower, offset, raw );
+        }
+        else if( 6 == version )
+        {
+            return dissectEtherType( EthernetPacket.TYPE_IP6, lower, offset, raw );
+        }
+        else
+        {
+            return markMalformed( lower, Packet.LAYER_IP4 );
+        }
+    }
+
+    /**
+     * Utility method to parse the pseudo header of a Linux cooked capture.
+     *
+     * @param lower the packet enclosing the header
+     * @param offset the offset
+     * @param raw the raw packet
+     * @param version2 true if the header is a SLL2 header
+     * @return the packet or null if truncated.
+     */
+    LinuxCookedPacket parseLinuxCookedPacket( final Packet lower,
+                                              final int offset,
+                                              final RawPacket raw,
+                                              final boolean version2 )
+    {
+        final int headerLength = version2 ? 20 : 16;
+        if( getCapturedEnd( lower, raw ) - offset < headerLength )
+        {
+            markMalformed( lower, Packet.LAYER_LINUX_COOKED );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int packetType;
+        final int hardwareType;
+        final int addressLength;
+        final int addressOffset;
+        final int type;
+        final int interfaceIndex;
+        if( version2 )
+        {
+            type = readUnsignedShort( data, offset );
+            interfaceIndex = (int) readUnsignedInteger( data, offset + 4 );
+            hardwareType = readUnsignedShort( data, offset + 8 );
+            packetType = readUnsignedByte( data, offset + 10 );
+            addressLength = readUnsignedByte( data, offset + 11 );
+            addressOffset = offset + 12;
+        }
+        else
+        {
+            packetType = readUnsignedShort( data, offset );
+            hardwareType = readUnsignedShort( data, offset + 2 );
+            addressLength = readUnsignedShort( data, offset + 4 );
+            addressOffset = offset + 6;
+            type = readUnsignedShort( data, offset + 14 );
+            interfaceIndex = -1;
+        }
+        long address = 0;
+        final int count = Math.min( addressLength, 8 );
+        for( int i = 0; i < count; i++ )
+        {
+            address = ( address << 8 ) | ( data[addressOffset + i] & 0xFF );
+        }
+
+        final LinuxCookedPacket packet =
+            new LinuxCookedPacket( packetType, hardwareType, addressLength, address, type, interfaceIndex );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        //Values below 0x600 are lengths or Linux specific protocol identifiers
+        if( type >= 0x600 )
+        {
+            dissectEtherType( type, packet, offset + headerLength, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a radiotap header and the IEEE 802.11 frame
+     * that follows it. The frame check sequence is excluded from the
+     * payload if the flags field indicates it is present.
+     *
+     * @param lower the packet enclosing the header
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    RadiotapPacket parseRadiotapPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        if( capturedEnd - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_RADIOTAP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int length = readUnsignedShortLE( data, offset + 2 );
+        if( 0 != data[offset] || length < 8 || offset + length > capturedEnd )
+        {
+            markMalformed( lower, Packet.LAYER_RADIOTAP );
+            return null;
+        }
+        final int present = readIntLE( data, offset + 4 );
+
+        //Skip any extended present words to locate the first field
+        int position = offset + 4;
+        while( position + 8 <= offset + length && 0 != ( readIntLE( data, position ) & 0x80000000 ) )
+        {
+            position += 4;
+        }
+        position += 4;
+        int flags = 0;
+        if( 0 != ( present & RadiotapPacket.PRESENT_FLAGS ) )
+        {
+            //The flags follow the 8 byte aligned TSFT field if present
+            if( 0 != ( present & 0x1 ) )
+            {
+                position = offset + ( ( position - offset + 7 ) & ~7 ) + 8;
+            }
+            if( position < offset + length )
+            {
+                flags = data[position] & 0xFF;
+            }
+        }
+
+        final RadiotapPacket packet = new RadiotapPacket( length, present, flags );
+        final int trailer = packet.hasFCS() ? 4 : 0;
+        packet.setPayloadOffset( length );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - length - trailer ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        final IEEE80211Packet frame = parseIEEE80211Packet( packet, offset + length, raw );
+        if( null != frame )
+        {
+            frame.setLowerLayerPacket( packet );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse an IEEE 802.11 frame. Unprotected data frames
+     * carrying a LLC/SNAP header are decoded further using the ethertype.
+     *
+     * @param lower the packet enclosing the frame
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    IEEE80211Packet parseIEEE80211Packet( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        final int available = capturedEnd - offset;
+        if( available < 10 )
+        {
+            markMalformed( lower, Packet.LAYER_IEEE802_11 );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int frameControl = readUnsignedShort( data, offset );
+        final int frameType = ( frameControl >> 10 ) & 0x3;
+        final int subtype = ( frameControl >> 12 ) & 0xF;
+        final long address1 = readMacAddress( data, offset + 4 );
+        final long address2 = ( available >= 16 ) ? readMacAddress( data, offset + 10 ) : 0;
+        final long address3 = ( available >= 22 ) ? readMacAddress( data, offset + 16 ) : 0;
+
+        int headerLength = Math.min( 24, available );
+        int etherType = -1;
+        boolean truncated = false;
+        if( IEEE80211Packet.TYPE_DATA == frameType )
+        {
+            headerLength = 24;
+            if( 0x03 == ( frameControl & 0x03 ) )
+            {
+                headerLength += 6;
+            }
+            //QoS data subtypes carry QoS control and optionally HT control
+            if( 0 != ( subtype & 0x8 ) )
+            {
+                headerLength += 2;
+                if( 0 != ( frameControl & 0x80 ) )
+                {
+                    headerLength += 4;
+                }
+            }
+            final int snap = offset + headerLength;
+            if( snap > capturedEnd )
+            {
+                truncated = true;
+            }
+            else if( 0 == ( frameControl & 0x40 ) &&
+                     0 == ( subtype & 0x4 ) &&
+                     snap + 8 <= capturedEnd &&
+                     (byte) 0xAA == data[snap] &&
+                     (byte) 0xAA == data[snap + 1] &&
+                     0x03 == data[snap + 2] &&
+                     0 == data[snap + 3] &&
+                     0 == data[snap + 4] &&
+                     0 == data[snap + 5] )
+            {
+                etherType = readUnsignedShort( data, snap + 6 );
+                headerLength += 8;
+            }
+        }
+
+        final IEEE80211Packet packet =
+            new IEEE80211Packet( frameControl, address1, address2, address3, etherType );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        if( truncated )
+        {
+            markMalformed( packet, Packet.LAYER_IEEE802_11 );
+        }
+        else if( -1 != etherType )
+        {
+            dissectEtherType( etherType, packet, offset + headerLength, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse an ARP packet.
+     * Only ARP packets that map IPv4 addresses to Ethernet addresses are decoded.
+     *
+     * @param lower the packet enclosing the ARP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if not IPv4 over Ethernet ARP or truncated.
+     */
+    ARPPacket parseARPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 28 )
+        {
+            markMalformed( lower, Packet.LAYER_ARP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int hardwareType = readUnsignedShort( data, offset );
+        final int protocolType = readUnsignedShort( data, offset + 2 );
+        final short hardwareLength = readUnsignedByte( data, offset + 4 );
+        final short protocolLength = readUnsignedByte( data, offset + 5 );
+        if( ARPPacket.HARDWARE_ETHERNET != hardwareType ||
+            EthernetPacket.TYPE_IP != protocolType ||
+            6 != hardwareLength ||
+            4 != protocolLength )
+        {
+            return null;
+        }
+        final int operation = readUnsignedShort( data, offset + 6 );
+        final long senderHardwareAddress = readMacAddress( data, offset + 8 );
+        final int senderProtocolAddress = (int) readUnsignedInteger( data, offset + 14 );
+        final long targetHardwareAddress = readMacAddress( data, offset + 18 );
+        final int targetProtocolAddress = (int) readUnsignedInteger( data, offset + 24 );
+
+        final ARPPacket packet = new ARPPacket( hardwareType,
+                                                protocolType,
+                                                operation,
+                                                senderHardwareAddress,
+                                                senderProtocolAddress,
+                                                targetHardwareAddress,
+                                                targetProtocolAddress );
+        packet.setPayloadOffset( 28 );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - 28 ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a VLAN tag. The packet encapsulated by the
+     * tag is decoded using the ethertype of the tag, which may itself
+     * identify a further VLAN tag. Frames with more than MAX_VLAN_TAGS
+     * stacked tags are marked as malformed.
+     *
+     * @param lower the packet enclosing the tag
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated or stacked too deep.
+     */
+    VLANPacket parseVLANPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 4 || countVLANTags( raw ) >= MAX_VLAN_TAGS )
+        {
+            markMalformed( lower, Packet.LAYER_VLAN );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        //The ethertype that identified the tag immediately precedes it
+        final int tagType = readUnsignedShort( data, offset - 2 );
+        final int tci = readUnsignedShort( data, offset );
+        final byte priority = (byte) ( tci >> 13 );
+        final boolean dropEligible = ( tci & 0x1000 ) == 0x1000;
+        final int vlanId = tci & 0xFFF;
+        final int type = readUnsignedShort( data, offset + 2 );
+
+        final VLANPacket packet = new VLANPacket( tagType, priority, dropEligible, vlanId, type );
+        packet.setPayloadOffset( 4 );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - 4 ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        dissectEtherType( type, packet, offset + 4, raw );
+        return packet;
+    }
+
+    /**
+     * Return the number of VLAN tags stacked at the top of the layers
+     * decoded so far.
+     *
+     * @param raw the raw packet
+     * @return the number of VLAN tags
+     */
+    private static int countVLANTags( final RawPacket raw )
+    {
+        int count = 0;
+        for( int i = raw.getLayerCount() - 1; i >= 0; i-- )
+        {
+            if( Packet.LAYER_VLAN != raw.getLayerType( i ) )
+            {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of GRE, ERSPAN and VXLAN layers decoded so far.
+     *
+     * @param raw the raw packet
+     * @return the number of tunnel layers
+     */
+    private static int countTunnels( final RawPacket raw )
+    {
+        int count = 0;
+        for( int i = raw.getLayerCount() - 1; i >= 0; i-- )
+        {
+            final int layerType = raw.getLayerType( i );
+            if( Packet.LAYER_GRE == layerType ||
+                Packet.LAYER_ERSPAN == layerType ||
+                Packet.LAYER_VXLAN == layerType )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Utility method to parse a MPLS label stack. Each entry in the stack
+     * is represented by a separate packet and the first entry is returned.
+     * The packet following the bottom of the stack is decoded as IPv4 or
+     * IPv6 based on the version field. If the stack is truncated before
+     * the bottom of the stack then the last entry is marked as malformed.
+     *
+     * @param lower the packet enclosing the label stack
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    MPLSPacket parseMPLSPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        if( capturedEnd - offset < 4 )
+        {
+            markMalformed( lower, Packet.LAYER_MPLS );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int end = getEnd( lower );
+        MPLSPacket first = null;
+        MPLSPacket last = null;
+        int position = offset;
+        while( position + 4 <= capturedEnd )
+        {
+            final long entry = readUnsignedInteger( data, position );
+            final int label = (int) ( entry >> 12 );
+            final byte trafficClass = (byte) ( ( entry >> 9 ) & 0x7 );
+            final boolean bottomOfStack = ( entry & 0x100 ) == 0x100;
+            final short ttl = (short) ( entry & 0xFF );
+
+            final MPLSPacket packet = new MPLSPacket( label, trafficClass, bottomOfStack, ttl );
+            packet.setPayloadOffset( 4 );
+            packet.setPayloadLength( Math.max( 0, end - position - 4 ) );
+            packet.setData( data );
+            raw.addLayer( packet, position );
+            if( null == first )
+            {
+                first = packet;
+            }
+            else
+            {
+                packet.setLowerLayerPacket( last );
+            }
+            last = packet;
+            position += 4;
+
+            if( bottomOfStack )
+            {
+                if( position < capturedEnd )
+                {
+                    final int version = ( data[position] >> 4 ) & 0xF;
+                    if( 4 == version )
+                    {
+                        dissectEtherType( EthernetPacket.TYPE_IP, packet, position, raw );
+                    }
+                    else if( 6 == version )
+                    {
+                        dissectEtherType( EthernetPacket.TYPE_IP6, packet, position, raw );
+                    }
+                }
+                return first;
+            }
+        }
+        markMalformed( last, Packet.LAYER_MPLS );
+        return first;
+    }
+
+    /**
+     * Utility method to parse an IPv4 packet. The payload of the packet
+     * is limited by the total length field so that link layer padding is
+     * excluded. Only the first fragment of a packet is decoded further.
+     *
+     * @param lower the packet enclosing the IP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    IP4Packet parseIPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        if( capturedEnd - offset < 20 )
+        {
+            markMalformed( lower, Packet.LAYER_IP4 );
+            return null;
+        }
+        final byte[] data = raw.getData();
+
+        final int version = ( data[offset] >> 4 ) & 0xF;
+        if( version != 4 )
+        {
+            markMalformed( lower, Packet.LAYER_IP4 );
+            return null;
+        }
+        final int headerLength = ( data[offset] & 0xF ) * 4;
+        final byte typeOfService = data[offset + 1];
+        final int length = readUnsignedShort( data, offset + 2 );
+        final int id = readUnsignedShort( data, offset + 4 );
+        final boolean doNotFragmentFlag = ( data[offset + 6] & 0x40 ) == 0x40;
+        final boolean moreFlag = ( data[offset + 6] & 0x20 ) == 0x20;
+
+        final int fragment = ( readUnsignedShort( data, offset + 6 ) & 0x1FFF );
+        final short ttl = readUnsignedByte( data, offset + 8 );
+        final short protocol = readUnsignedByte( data, offset + 9 );
+        final int checksum = readUnsignedShort( data, offset + 10 );
+        final int source = (int) readUnsignedInteger( data, offset + 12 );
+        final int destination = (int) readUnsignedInteger( data, offset + 16 );
+        final IP4Packet packet = new IP4Packet( typeOfService,
+                                                length,
+                                                id,
+                                                moreFlag,
+                                                doNotFragmentFlag,
+                                                fragment,
+                                                ttl,
+                                                protocol,
+                                                checksum,
+                                                source,
+                                                destination );
+        final int end = Math.min( offset + length, getEnd( lower ) );
+        packet.setQuoted( isQuote( lower ) );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, end - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        if( headerLength < 20 || length < headerLength || offset + headerLength > capturedEnd )
+        {
+            markMalformed( packet, Packet.LAYER_IP4 );
+        }
+        else
+        {
+            if( m_validateChecksums &&
+                !packet.isQuoted() &&
+                0 != ChecksumUtil.checksum( data, offset, headerLength ) )
+            {
+                markChecksumError( packet, Packet.LAYER_IP4 );
+            }
+            if( 0 == fragment )
+            {
+                dissectIPProtocol( protocol, packet, offset + headerLength, raw );
+            }
+        }
+
+        return packet;
+    }
+
+    /**
+     * Utility method to parse an IPv6 packet. Extension headers are walked
+     * until the upper layer protocol is reached and the payload of the
+     * packet starts after the last extension header. The packet is marked
+     * as malformed if an extension header is truncated or the upper layer
+     * is not reached within MAX_IP6_EXTENSION_HEADERS headers.
+     *
+     * @param lower the packet enclosing the IP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    IP6Packet parseIP6Packet( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        if( capturedEnd - offset < 40 )
+        {
+            markMalformed( lower, Packet.LAYER_IP6 );
+            return null;
+        }
+        final byte[] data = raw.getData();
+
+        final int version = ( data[offset] >> 4 ) & 0xF;
+        if( version != 6 )
+        {
+            markMalformed( lower, Packet.LAYER_IP6 );
+            return null;
+        }
+        final long first = readUnsignedInteger( data, offset );
+        final short trafficClass = (short) ( ( first >> 20 ) & 0xFF );
+        final int flowLabel = (int) ( first & 0xFFFFF );
+        final int length = readUnsignedShort( data, offset + 4 );
+        final short nextHeader = readUnsignedByte( data, offset + 6 );
+        final short hopLimit = readUnsignedByte( data, offset + 7 );
+        final long sourceHigh = readLong( data, offset + 8 );
+        final long sourceLow = readLong( data, offset + 16 );
+        final long destinationHigh = readLong( data, offset + 24 );
+        final long destinationLow = readLong( data, offset + 32 );
+
+        //A zero length is used by jumbograms so the payload extends to the end of the frame
+        final int end = ( 0 == length ) ? getEnd( lower ) : Math.min( offset + 40 + length, getEnd( lower ) );
+        short protocol = nextHeader;
+        int payloadStart = offset + 40;
+        boolean fragment = false;
+        int fragmentOffset = 0;
+        boolean moreFlag = false;
+        long fragmentId = 0;
+        boolean upperLayer = false;
+        boolean truncated = false;
+        for( int i = 0; i < MAX_IP6_EXTENSION_HEADERS; i++ )
+        {
+            if( IP6Packet.HEADER_HOP_BY_HOP == protocol ||
+                IP6Packet.HEADER_ROUTING == protocol ||
+                IP6Packet.HEADER_DESTINATION_OPTIONS == protocol )
+            {
+                if( capturedEnd < payloadStart + 8 )
+                {
+                    truncated = true;
+                    break;
+                }
+                protocol = readUnsignedByte( data, payloadStart );
+                payloadStart += ( readUnsignedByte( data, payloadStart + 1 ) + 1 ) * 8;
+            }
+            else if( IP6Packet.HEADER_AUTHENTICATION == protocol )
+            {
+                if( capturedEnd < payloadStart + 8 )
+                {
+                    truncated = true;
+                    break;
+                }
+                protocol = readUnsignedByte( data, payloadStart );
+                payloadStart += ( readUnsignedByte( data, payloadStart + 1 ) + 2 ) * 4;
+            }
+            else if( IP6Packet.HEADER_FRAGMENT == protocol )
+            {
+                if( capturedEnd < payloadStart + 8 )
+                {
+                    truncated = true;
+                    break;
+                }
+                protocol = readUnsignedByte( data, payloadStart );
+                final int fragmentField = readUnsignedShort( data, payloadStart + 2 );
+                fragment = true;
+                fragmentOffset = fragmentField >> 3;
+                moreFlag = ( fragmentField & 0x1 ) == 0x1;
+                fragmentId = readUnsignedInteger( data, payloadStart + 4 );
+                payloadStart += 8;
+            }
+            else
+            {
+                upperLayer = true;
+                break;
+            }
+        }
+
+        final IP6Packet packet = new IP6Packet( trafficClass,
+                                                flowLabel,
+                                                length,
+                                                nextHeader,
+                                                hopLimit,
+                                                sourceHigh,
+                                                sourceLow,
+                                                destinationHigh,
+                                                destinationLow,
+                                                protocol,
+                                                fragment,
+                                                fragmentOffset,
+                                                moreFlag,
+                                                fragmentId );
+        final boolean quoted = isQuote( lower );
+        packet.setQuoted( quoted );
+        packet.setPayloadOffset( payloadStart - offset );
+        packet.setPayloadLength( Math.max( 0, end - payloadStart ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        //Quoted datagrams may be cut short within the extension headers
+        if( payloadStart > end || ( !upperLayer && !( truncated && quoted ) ) )
+        {
+            markMalformed( packet, Packet.LAYER_IP6 );
+        }
+        //Only the first fragment contains the upper layer header
+        else if( upperLayer && 0 == fragmentOffset && IP6Packet.HEADER_NONE != protocol )
+        {
+            dissectIPProtocol( protocol, packet, payloadStart, raw );
+        }
+
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a IGMP packet.
+     * The length of the message is required to distinguish IGMPv3
+     * queries from earlier versions.
+     *
+     * @param lower the packet enclosing the IGMP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    Packet parseIGMPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        if( capturedEnd - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_IGMP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int length = getEnd( lower ) - offset;
+
+        final byte type = (byte) data[offset + 0];
+        if( IGMPPacket.V3_REPORT == type )
+        {
+            final int checksum = readUnsignedShort( data, offset + 2 );
+            final int groupRecordCount = readUnsignedShort( data, offset + 6 );
+
+            final IGMP3ReportPacket packet = new IGMP3ReportPacket( checksum, groupRecordCount );
+            packet.setPayloadOffset( 8 );
+            packet.setPayloadLength( length - 8 );
+            packet.setData( data );
+            raw.addLayer( packet, offset );
+
+            return packet;
+        }
+        else if( IGMPPacket.QUERY == type &&
+                 length >= 12 &&
+                 capturedEnd - offset >= 12 )
+        {
+            final short maxResponseCode = readUnsignedByte( data, offset + 1 );
+            final int checksum = readUnsignedShort( data, offset + 2 );
+            final byte[] address = readBytes( data, offset + 4, 4 );
+            final boolean suppressRouterProcessing = ( data[offset + 8] & 0x08 ) == 0x08;
+            final byte robustness = (byte) ( data[offset + 8] & 0x07 );
+            final short queryIntervalCode = readUnsignedByte( data, offset + 9 );
+            final int sourceCount = readUnsignedShort( data, offset + 10 );
+
+            final IGMP3QueryPacket packet = new IGMP3QueryPacket( maxResponseCode,
+                                                                  checksum,
+                                                                  address,
+                                                                  suppressRouterProcessing,
+                                                                  robustness,
+                                                                  queryIntervalCode,
+                                                                  sourceCount );
+            final int headerLength = 12 + sourceCount * 4;
+            packet.setPayloadOffset( headerLength );
+            packet.setPayloadLength( Math.max( 0, length - headerLength ) );
+            packet.setData( data );
+            raw.addLayer( packet, offset );
+            if( headerLength > length )
+            {
+                markMalformed( packet, Packet.LAYER_IGMP );
+            }
+
+            return packet;
+        }
+        else
+        {
+            final short maxResponseTime = readUnsignedByte( data, offset + 1 );
+            final int checksum = readUnsignedShort( data, offset + 2 );
+            final byte[] address = readBytes( data, offset + 4, 4 );
+
+            final IGMPPacket packet = new IGMPPacket( type, maxResponseTime, checksum, address );
+            packet.setPayloadOffset( 8 );
+            packet.setPayloadLength( length - 8 );
+            packet.setData( data );
+            raw.addLayer( packet, offset );
+
+            return packet;
+        }
+    }
+
+    /**
+     * Utility method to parse a ICMP packet.
+     *
+     * @param lower the packet enclosing the ICMP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    ICMPPacket parseICMPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_ICMP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final byte type = data[offset + 0];
+        final byte code = data[offset + 1];
+        final int checksum = readUnsignedShort( data, offset + 2 );
+        final long param = readUnsignedInteger( data, offset + 4 );
+
+        final ICMPPacket packet = new ICMPPacket( type, code, checksum, param );
+        packet.setQuoted( lower.isQuoted() );
+        packet.setPayloadOffset( 8 );
+        packet.setPayloadLength( getEnd( lower ) - offset - 8 );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        //Errors about datagrams that were themselves quoted are not decoded
+        if( packet.isError() && !packet.isQuoted() && DEPTH_ALL <= m_depth )
+        {
+            dissectEtherType( EthernetPacket.TYPE_IP, packet, offset + 8, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a ICMPv6 packet.
+     *
+     * @param lower the packet enclosing the ICMPv6 packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    ICMP6Packet parseICMP6Packet( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_ICMP6 );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int type = readUnsignedByte( data, offset );
+        final int code = readUnsignedByte( data, offset + 1 );
+        final int checksum = readUnsignedShort( data, offset + 2 );
+        final long param = readUnsignedInteger( data, offset + 4 );
+
+        final ICMP6Packet packet = new ICMP6Packet( type, code, checksum, param );
+        packet.setQuoted( lower.isQuoted() );
+        packet.setPayloadOffset( 8 );
+        packet.setPayloadLength( getEnd( lower ) - offset - 8 );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        //Errors about datagrams that were themselves quoted are not decoded
+        if( packet.isError() && !packet.isQuoted() && DEPTH_ALL <= m_depth )
+        {
+            dissectEtherType( EthernetPacket.TYPE_IP6, packet, offset + 8, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a TCP packet.
+     *
+     * @param lower the packet enclosing the TCP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    TCPPacket parseTCPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final int capturedEnd = getCapturedEnd( lower, raw );
+        final boolean quoted = lower.isQuoted();
+        if( capturedEnd - offset < 20 )
+        {
+            //ICMP errors need only quote the first 8 bytes of the header
+            if( quoted && capturedEnd - offset >= 8 )
+            {
+                return parseQuotedTCPHeader( lower, offset, raw );
+            }
+            markMalformed( lower, Packet.LAYER_TCP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int sourcePort = readUnsignedShort( data, offset );
+        final int destinationPort = readUnsignedShort( data, offset + 2 );
+        final long seq = readUnsignedInteger( data, offset + 4 );
+        final long ack = readUnsignedInteger( data, offset + 8 );
+        final byte dataOffset = (byte) ( ( data[offset + 12] >> 4 ) & 0xF );
+
+        final boolean urgFlag = ( data[offset + 13] & 0x20 ) == 0x20;
+        final boolean ackFlag = ( data[offset + 13] & 0x10 ) == 0x10;
+        final boolean pshFlag = ( data[offset + 13] & 0x08 ) == 0x08;
+        final boolean rstFlag = ( data[offset + 13] & 0x04 ) == 0x04;
+        final boolean synFlag = ( data[offset + 13] & 0x02 ) == 0x02;
+        final boolean finFlag = ( data[offset + 13] & 0x01 ) == 0x01;
+
+        final int window = readUnsignedShort( data, offset + 14 );
+        final int checksum = readUnsignedShort( data, offset + 16 );
+        final int urgentPointer = readUnsignedShort( data, offset + 18 );
+
+        TCPPacket packet = new TCPPacket( sourcePort,
+                                          destinationPort,
+                                          seq,
+                                          ack,
+                                          dataOffset,
+                                          urgFlag,
+                                          ackFlag,
+                                          pshFlag,
+                                          rstFlag,
+                                          synFlag,
+                                          finFlag,
+                                          window,
+                                          checksum,
+                                          urgentPointer );
+        final int headerLength = dataOffset * 4;
+        final int end = getEnd( lower );
+        packet.setQuoted( quoted );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, end - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        if( headerLength < 20 ||
+            ( !quoted && ( offset + headerLength > end || offset + headerLength > capturedEnd ) ) )
+        {
+            markMalformed( packet, Packet.LAYER_TCP );
+        }
+        else if( !quoted )
+        {
+            if( m_validateChecksums )
+            {
+                validateChecksum( packet, lower, offset, end - offset, IP4Packet.PROTOCOL_TCP, raw );
+            }
+            dissectTCPPort( destinationPort, sourcePort, packet, offset + headerLength, raw );
+        }
+        return packet;
+    }
+
+    /**
+     * Utility method to parse the first 8 bytes of a TCP header quoted
+     * by an ICMP error message. Only the ports and sequence number are
+     * available and the remaining fields are zero.
+     *
+     * @param lower the packet enclosing the TCP header
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet
+     */
+    private TCPPacket parseQuotedTCPHeader( final Packet lower, final int offset, final RawPacket raw )
+    {
+        final byte[] data = raw.getData();
+        final int sourcePort = readUnsignedShort( data, offset );
+        final int destinationPort = readUnsignedShort( data, offset + 2 );
+        final long seq = readUnsignedInteger( data, offset + 4 );
+        final TCPPacket packet = new TCPPacket( sourcePort,
+                                                destinationPort,
+                                                seq,
+                                                0,
+                                                (byte) 0,
+                                                false,
+                                                false,
+                                                false,
+                                                false,
+                                                false,
+                                                false,
+                                                0,
+                                                0,
+                                                0 );
+        packet.setQuoted( true );
+        packet.setPayloadOffset( getCapturedEnd( lower, raw ) - offset );
+        packet.setPayloadLength( 0 );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
+        return packet;
+    }
+
+    /**
+     * Utility method to parse a UDP packet. The payload of the packet
+     * is limited by the length field. If the enclosing IP packet is the
+     * first fragment of a larger datagram then the payload is limited
+     * to the fragment.
+     *
+     * @param lower the packet enclosing the UDP packet
+     * @param offset the offset
+     * @param raw the raw packet
+     * @return the packet or null if truncated.
+     */
+    UDPPacket parseUDPPacket( final Packet lower, final int offset, final RawPacket raw )
+    {
+        if( getCapturedEnd( lower, raw ) - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_UDP );
+            return null;
+        }
+        final byte[] data = raw.getData();
+        final int sourcePort = readUnsignedShort( data, offset );
+        final int destinationPort = readUnsignedShort( data, offset + 2 );
+        final int length = readUnsignedShort( data, offset + 4 );
+        final int checksum = readUnsignedShort( data, offset + 6 );
+
+        final UDPPacket packet = new UDPPacket( sourcePort, destinationPort, length, checksum );
+        final int end = getEnd( lower );
+        final boolean quoted = lower.isQuoted();
+        packet.setQuoted( quoted );
+        packet.setPayloadOffset( 8 );
+        packet.setPayloadLength( Math.max( 0, Math.min( offset + length, end ) - offset - 8 ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
 
-        if( RawPacket.TYPE_802_3 == linkType && capturedLength >= 14 )
+        if( length < 8 || ( !quoted && !isFirstFragment( lower ) && offset + length > end ) )
         {
-            final EthernetPacket ethernet = parseEthernetFrame( raw );
-            ethernet.setLowerLayerPacket( raw );
+            markMalformed( packet, Packet.LAYER_UDP );
         }
-        return raw;
+        else if( !quoted )
+        {
+            //A zero checksum means the sender did not calculate one
+            if( m_validateChecksums && 0 != checksum )
+            {
+                validateChecksum( packet, lower, offset, length, IP4Packet.PROTOCOL_UDP, raw );
+            }
+            dissectUDPPort( destinationPort, sourcePort, packet, offset + 8, raw );
+        }
+        return packet;
     }
 
     /**
-     * Utility method to parse an EthernetPacket packet.
+     * Validate the checksum of a TCP or UDP packet, which also covers
+     * the pseudo header derived from the enclosing IP packet. The checksum
+     * is not validated if the packet was not fully captured or is the
+     * first fragment of a larger datagram.
      *
+     * @param packet the TCP or UDP packet
+     * @param lower the packet enclosing packet
+     * @param offset the offset of packet
+     * @param length the length of packet including header
+     * @param protocol the IP protocol of packet
      * @param raw the raw packet
-     * @return the packet.
      */
-    EthernetPacket parseEthernetFrame( final RawPacket raw )
+    private void validateChecksum( final Packet packet,
+                                   final Packet lower,
+                                   final int offset,
+                                   final int length,
+                                   final int protocol,
+                                   final RawPacket raw )
     {
-        final byte[] data = raw.getData();
-        final byte[] destination = readBytes( data, 0, 6 );
-        final byte[] source = readBytes( data, 6, 6 );
-        final int type = readUnsignedShort( data, 12 );
-        final EthernetPacket packet = new EthernetPacket( destination, source, type );
-        packet.setPayloadOffset( 14 );
-        packet.setPayloadLength( raw.getLength() - packet.getPayloadOffset() );
-        packet.setData( data );
+        if( offset + length > raw.getCapturedLength() )
+        {
+            return;
+        }
+        if( !( lower instanceof IPPacket ) || isFirstFragment( lower ) )
+        {
+            return;
+        }
+        final long sum = ChecksumUtil.pseudoHeaderSum( (IPPacket) lower, protocol, length ) +
+            ChecksumUtil.sum( raw.getData(), offset, length );
+        if( 0 != ChecksumUtil.toChecksum( sum ) )
+        {
+            markChecksumError( packet, packet.getLayerType() );
+        }
+    }
 
-        if( EthernetPacket.TYPE_IP == type && raw.getLength() >= 14 + 20 )
+    /**
+     * Return true if packet is an IP packet with the more fragments flag
+     * set. Only the first fragment is decoded above the IP layer so the
+     * upper layer is truncated to the fragment.
+     *
+     * @param packet the packet
+     * @return true if packet is the first fragment of a larger datagram
+     */
+    private static boolean isFirstFragment( final Packet packet )
+    {
+        if( packet instanceof IP4Packet )
         {
-            final IP4Packet ipPacket = parseIPPacket( 14, raw );
-            if( null != ipPacket )
-            {
-                ipPacket.setLowerLayerPacket( packet );
-            }
+            return ( (IP4Packet) packet ).isMoreFlagSet();
         }
-        return packet;
+        else if( packet instanceof IP6Packet )
+        {
+            return ( (IP6Packet) packet ).isMoreFlagSet();
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Record that the checksum of packet is incorrect.
+     *
+     * @param packet the packet
+     * @param layerType the type of packet. One of Packet.LAYER_*
+     */
+    private void markChecksumError( final Packet packet, final int layerType )
+    {
+        packet.setChecksumError( true );
+        m_checksumErrorCounts[layerType]++;
     }
 
     /**
-     * Utility method to parse an IPv4 packet.
+     * Utility method to parse a GRE header. The encapsulated packet is
+     * decoded in place using the dissector registered for the protocol
+     * ethertype, but only when decoding to DEPTH_ALL. A header nested
+     * within more than MAX_TUNNEL_DEPTH tunnels is marked as malformed.
      *
+     * @param lower the packet enclosing the header
      * @param offset the offset
      * @param raw the raw packet
-     * @return the packet.
+     * @return the packet or null if truncated.
      */
-    IP4Packet parseIPPacket( final int offset, final RawPacket raw )
+    GREPacket parseGREPacket( final Packet lower, final int offset, final RawPacket raw )
     {
-        final byte[] data = raw.getData();
-
-        final int version = ( data[offset] >> 4 ) & 0xF;
-        if( version != 4 )
+        final int available = getCapturedEnd( lower, raw ) - offset;
+        if( available < 4 )
         {
+            markMalformed( lower, Packet.LAYER_GRE );
             return null;
         }
-        final int headerLength = ( data[offset] & 0xF ) * 4;
-        final byte typeOfService = data[offset + 1];
-        final int length = readUnsignedShort( data, offset + 2 );
-        final int id = readUnsignedShort( data, offset + 4 );
-        final boolean doNotFragmentFlag = ( data[offset + 6] & 0x40 ) == 0x40;
-        final boolean moreFlag = ( data[offset + 6] & 0x20 ) == 0x20;
-
-        final int fragment = ( readUnsignedShort( data, offset + 6 ) & 0x1FFF );
-        final short ttl = readUnsignedByte( data, offset + 8 );
-        final short protocol = readUnsignedByte( data, offset + 9 );
-        final int checksum = readUnsignedShort( data, offset + 10 );
-        final byte[] source = readBytes( data, offset + 12, 4 );
-        final byte[] destination = readBytes( data, offset + 16, 4 );
-        final IP4Packet packet = new IP4Packet( typeOfService,
-                                                length,
-                                                id,
-                                                moreFlag,
-                                                doNotFragmentFlag,
-                                                fragment,
-                                                ttl,
-                                                protocol,
-                                                checksum,
-                                                source,
-                                                destination );
-        packet.setPayloadOffset( headerLength );
-        packet.setPayloadLength( raw.getLength() - offset - headerLength );
-        packet.setData( data );
+        final byte[] data = raw.getData();
+        final int flags = readUnsignedShort( data, offset );
+        final int protocol = readUnsignedShort( data, offset + 2 );
 
-        final int payloadStart = headerLength + offset;
-        if( IP4Packet.PROTOCOL_UDP == protocol && raw.getCapturedLength() >= payloadStart + 8 )
+        int headerLength = 4;
+        if( 0 != ( flags & GREPacket.FLAG_CHECKSUM ) )
         {
-            final UDPPacket udpPacket = parseUDPPacket( payloadStart, raw );
-            udpPacket.setLowerLayerPacket( packet );
+            headerLength += 4;
         }
-        else if( IP4Packet.PROTOCOL_TCP == protocol &&
-                 raw.getCapturedLength() >= payloadStart + 20 )
+        final int keyOffset = headerLength;
+        if( 0 != ( flags & GREPacket.FLAG_KEY ) )
         {
-            final TCPPacket tcpPacket = parseTCPPacket( payloadStart, raw );
-            tcpPacket.setLowerLayerPacket( packet );
+            headerLength += 4;
         }
-        else if( IP4Packet.PROTOCOL_ICMP == protocol &&
-                 raw.getCapturedLength() >= payloadStart + 8 )
+        final int sequenceOffset = headerLength;
+        if( 0 != ( flags & GREPacket.FLAG_SEQUENCE ) )
         {
-            final ICMPPacket icmpPacket = parseICMPPacket( payloadStart, raw );
-            icmpPacket.setLowerLayerPacket( packet );
+            headerLength += 4;
         }
-        else if( IP4Packet.PROTOCOL_IGMP == protocol &&
-                 raw.getCapturedLength() >= payloadStart + 8 )
+        //Enhanced GRE used by PPTP has an optional acknowledgment number
+        if( 1 == ( flags & 0x7 ) && 0 != ( flags & 0x80 ) )
         {
-            final Packet igmpPacket = parseIGMPPacket( payloadStart, raw );
-            if( null != igmpPacket )
-            {
-                igmpPacket.setLowerLayerPacket( packet );
-            }
+            headerLength += 4;
         }
+        if( available < headerLength )
+        {
+            markMalformed( lower, Packet.LAYER_GRE );
+            return null;
+        }
+
+        final long key =
+            ( 0 != ( flags & GREPacket.FLAG_KEY ) ) ? readUnsignedInteger( data, offset + keyOffset ) : -1;
+        final long sequence =
+            ( 0 != ( flags & GREPacket.FLAG_SEQUENCE ) ) ? readUnsignedInteger( data, offset + sequenceOffset ) : -1;
+        final GREPacket packet = new GREPacket( flags, protocol, key, sequence );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
 
+        if( countTunnels( raw ) > MAX_TUNNEL_DEPTH )
+        {
+            markMalformed( packet, Packet.LAYER_GRE );
+        }
+        else if( DEPTH_ALL <= m_depth )
+        {
+            dissectEtherType( protocol, packet, offset + headerLength, raw );
+        }
         return packet;
     }
 
     /**
-     * Utility method to parse a IGMP packet.
+     * Utility method to parse an ERSPAN type II or type III header.
+     * The mirrored Ethernet frame is decoded in place unless the header
+     * is nested within more than MAX_TUNNEL_DEPTH tunnels.
      *
+     * @param lower the packet enclosing the header
      * @param offset the offset
      * @param raw the raw packet
-     * @return the packet.
+     * @return the packet or null if truncated.
      */
-    Packet parseIGMPPacket( final int offset, final RawPacket raw )
+    ERSPANPacket parseERSPANPacket( final Packet lower, final int offset, final RawPacket raw )
     {
+        final int available = getCapturedEnd( lower, raw ) - offset;
+        if( available < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_ERSPAN );
+            return null;
+        }
         final byte[] data = raw.getData();
+        final long header = readUnsignedInteger( data, offset );
+        final int version = (int) ( header >>> 28 );
+        final int vlanId = (int) ( header >>> 16 ) & 0xFFF;
+        final boolean truncated = 0 != ( header & 0x400 );
+        final int sessionId = (int) header & 0x3FF;
 
-        final byte type = (byte) data[offset + 0];
-        if( IGMPPacket.V3_REPORT != type )
+        int headerLength = 8;
+        boolean ethernet = true;
+        if( ERSPANPacket.VERSION_3 == version )
         {
-            final short maxResponseTime = readUnsignedByte( data, offset + 1 );
-            final int checksum = readUnsignedShort( data, offset + 2 );
-            final byte[] address = readBytes( data, offset + 4, 4 );
+            headerLength = 12;
+            if( available >= 12 )
+            {
+                final int word = (int) readUnsignedInteger( data, offset + 8 );
+                //Frame types other than Ethernet are not decoded
+                ethernet = 0 == ( ( word >> 10 ) & 0x1F );
+                if( 0 != ( word & 0x1 ) )
+                {
+                    headerLength += 8;
+                }
+            }
+        }
+        else if( ERSPANPacket.VERSION_2 != version )
+        {
+            markMalformed( lower, Packet.LAYER_ERSPAN );
+            return null;
+        }
+        if( available < headerLength )
+        {
+            markMalformed( lower, Packet.LAYER_ERSPAN );
+            return null;
+        }
 
-            final IGMPPacket packet = new IGMPPacket( type, maxResponseTime, checksum, address );
-            packet.setPayloadOffset( 8 );
-            packet.setPayloadLength( raw.getLength() - offset - 8 );
-            packet.setData( data );
+        final ERSPANPacket packet = new ERSPANPacket( version, vlanId, sessionId, truncated );
+        packet.setPayloadOffset( headerLength );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - headerLength ) );
+        packet.setData( data );
+        raw.addLayer( packet, offset );
 
-            return packet;
+        if( countTunnels( raw ) > MAX_TUNNEL_DEPTH )
+        {
+            markMalformed( packet, Packet.LAYER_ERSPAN );
         }
-        else
+        else if( ethernet )
         {
-            //V3 Packets have a different format
-            return null;
+            dissectEtherType( EthernetPacket.TYPE_TRANSPARENT_ETHERNET, packet, offset + headerLength, raw );
         }
+        return packet;
     }
 
     /**
-     * Utility method to parse a ICMP packet.
+     * Utility method to parse a VXLAN header.
+     * The encapsulated Ethernet frame is decoded in place unless the
+     * header is nested within more than MAX_TUNNEL_DEPTH tunnels.
      *
+     * @param lower the packet enclosing the header
      * @param offset the offset
      * @param raw the raw packet
-     * @return the packet.
+     * @return the packet or null if truncated.
      */
-    ICMPPacket parseICMPPacket( final int offset, final RawPacket raw )
+    VXLANPacket parseVXLANPacket( final Packet lower, final int offset, final RawPacket raw )
     {
+        if( getCapturedEnd( lower, raw ) - offset < 8 )
+        {
+            markMalformed( lower, Packet.LAYER_VXLAN );
+            return null;
+        }
         final byte[] data = raw.getData();
-        final byte type = data[offset + 0];
-        final byte code = data[offset + 1];
-        final int checksum = readUnsignedShort( data, offset + 2 );
-        final long param = readUnsignedInteger( data, offset + 4 );
+        final int flags = readUnsignedByte( data, offset );
+        final int networkId = (int) ( readUnsignedInteger( data, offset + 4 ) >>> 8 );
 
-        final ICMPPacket packet = new ICMPPacket( type, code, checksum, param );
+        final VXLANPacket packet = new VXLANPacket( flags, networkId );
         packet.setPayloadOffset( 8 );
-        packet.setPayloadLength( raw.getLength() - offset - 8 );
+        packet.setPayloadLength( Math.max( 0, getEnd( lower ) - offset - 8 ) );
         packet.setData( data );
+        raw.addLayer( packet, offset );
+
+        if( 0 == ( flags & VXLANPacket.FLAG_VNI ) || countTunnels( raw ) > MAX_TUNNEL_DEPTH )
+        {
+            markMalformed( packet, Packet.LAYER_VXLAN );
+        }
+        else
+        {
+            dissectEtherType( EthernetPacket.TYPE_TRANSPARENT_ETHERNET, packet, offset + 8, raw );
+        }
         return packet;
     }
 
     /**
-     * Utility method to parse a TCP packet.
+     * Return true if packets decoded above specified packet are part of
+     * a datagram quoted by an ICMP error message.
      *
-     * @param offset the offset
+     * @param lower the enclosing packet
+     * @return true if enclosed packets are quoted
+     */
+    private static boolean isQuote( final Packet lower )
+    {
+        if( lower.isQuoted() )
+        {
+            return true;
+        }
+        else if( lower instanceof ICMPPacket )
+        {
+            return ( (ICMPPacket) lower ).isError();
+        }
+        else if( lower instanceof ICMP6Packet )
+        {
+            return ( (ICMP6Packet) lower ).isError();
+        }
+        else
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Decode the header at offset using the dissector registered for ethertype.
+     * The decoded packet is linked above the specified packet.
+     *
+     * @param type the ethertype
+     * @param packet the packet enclosing the header
+     * @param offset the offset of header
      * @param raw the raw packet
-     * @return the packet.
+     * @return the packet or null if no dissector registered or unable to decode
      */
-    TCPPacket parseTCPPacket( final int offset, final RawPacket raw )
+    public Packet dissectEtherType( final int type,
+                                    final Packet packet,
+                                    final int offset,
+                                    final RawPacket raw )
     {
-        final byte[] data = raw.getData();
-        final int sourcePort = readUnsignedShort( data, offset );
-        final int destinationPort = readUnsignedShort( data, offset + 2 );
-        final long seq = readUnsignedInteger( data, offset + 4 );
-        final long ack = readUnsignedInteger( data, offset + 8 );
-        final byte dataOffset = (byte) ( data[offset + 12] >> 4 );
+        if( m_registry.getEtherTypeDepth( type ) > m_depth )
+        {
+            return null;
+        }
+        return dissect( m_registry.getEtherTypeDissector( type ), packet, offset, raw );
+    }
 
-        final boolean urgFlag = ( data[offset + 13] & 0x04 ) == 0x04;
-        final boolean ackFlag = ( data[offset + 13] & 0x08 ) == 0x08;
-        final boolean pshFlag = ( data[offset + 13] & 0x10 ) == 0x10;
-        final boolean rstFlag = ( data[offset + 13] & 0x20 ) == 0x20;
-        final boolean synFlag = ( data[offset + 13] & 0x40 ) == 0x40;
-        final boolean finFlag = ( data[offset + 13] & 0x80 ) == 0x80;
+    /**
+     * Decode the header at offset using the dissector registered for IP protocol.
+     * The decoded packet is linked above the specified packet.
+     *
+     * @param protocol the IP protocol
+     * @param packet the packet enclosing the header
+     * @param offset the offset of header
+     * @param raw the raw packet
+     * @return the packet or null if no dissector registered or unable to decode
+     */
+    public Packet dissectIPProtocol( final int protocol,
+                                     final Packet packet,
+                                     final int offset,
+                                     final RawPacket raw )
+    {
+        if( DEPTH_TRANSPORT > m_depth )
+        {
+            return null;
+        }
+        return dissect( m_registry.getIPProtocolDissector( protocol ), packet, offset, raw );
+    }
 
-        final int window = readUnsignedShort( data, offset + 14 );
-        final int checksum = readUnsignedShort( data, offset + 16 );
-        final int urgentPointer = readUnsignedShort( data, offset + 18 );
+    /**
+     * Decode the TCP payload at offset using the dissector registered for
+     * the destination port or failing that the source port.
+     * The decoded packet is linked above the specified packet.
+     *
+     * @param destinationPort the destination port
+     * @param sourcePort the source port
+     * @param packet the packet enclosing the payload
+     * @param offset the offset of payload
+     * @param raw the raw packet
+     * @return the packet or null if no dissector registered or unable to decode
+     */
+    public Packet dissectTCPPort( final int destinationPort,
+                                  final int sourcePort,
+                                  final Packet packet,
+                                  final int offset,
+                                  final RawPacket raw )
+    {
+        if( DEPTH_ALL > m_depth )
+        {
+            return null;
+        }
+        Dissector dissector = m_registry.getTCPPortDissector( destinationPort );
+        if( null == dissector )
+        {
+            dissector = m_registry.getTCPPortDissector( sourcePort );
+        }
+        if( offset >= getCapturedEnd( packet, raw ) )
+        {
+            return null;
+        }
+        return dissect( dissector, packet, offset, raw );
+    }
 
-        //final int payloadStart = offset + (dataOffset * 4);
-        TCPPacket packet = new TCPPacket( sourcePort,
-                                          destinationPort,
-                                          seq,
-                                          ack,
-                                          dataOffset,
-                                          urgFlag,
-                                          ackFlag,
-                                          pshFlag,
-                                          rstFlag,
-                                          synFlag,
-                                          finFlag,
-                                          window,
-                                          checksum,
-                                          urgentPointer );
-        packet.setPayloadOffset( dataOffset * 4 );
-        packet.setPayloadLength( raw.getLength() - offset - (dataOffset * 4) );
-        packet.setData( data );
-        return packet;
+    /**
+     * Decode the UDP payload at offset using the dissector registered for
+     * the destination port or failing that the source port.
+     * The decoded packet is linked above the specified packet.
+     *
+     * @param destinationPort the destination port
+     * @param sourcePort the source port
+     * @param packet the packet enclosing the payload
+     * @param offset the offset of payload
+     * @param raw the raw packet
+     * @return the packet or null if no dissector registered or unable to decode
+     */
+    public Packet dissectUDPPort( final int destinationPort,
+                                  final int sourcePort,
+                                  final Packet packet,
+                                  final int offset,
+                                  final RawPacket raw )
+    {
+        if( DEPTH_ALL > m_depth )
+        {
+            return null;
+        }
+        Dissector dissector = m_registry.getUDPPortDissector( destinationPort );
+        if( null == dissector )
+        {
+            dissector = m_registry.getUDPPortDissector( sourcePort );
+        }
+        if( offset >= getCapturedEnd( packet, raw ) )
+        {
+            return null;
+        }
+        return dissect( dissector, packet, offset, raw );
     }
 
     /**
-     * Utility method to parse a UDP packet.
+     * Invoke dissector and link the resulting packet above the enclosing packet.
      *
-     * @param offset the offset
+     * @param dissector the dissector. May be null.
+     * @param packet the packet enclosing the header
+     * @param offset the offset of header
      * @param raw the raw packet
-     * @return the packet.
+     * @return the packet or null if no dissector or unable to decode
      */
-    UDPPacket parseUDPPacket( final int offset, final RawPacket raw )
+    private Packet dissect( final Dissector dissector,
+                            final Packet packet,
+                            final int offset,
+                            final RawPacket raw )
     {
-        final byte[] data = raw.getData();
-        final int sourcePort = readUnsignedShort( data, offset );
-        final int destinationPort = readUnsignedShort( data, offset + 2 );
-        final int length = readUnsignedShort( data, offset + 4 );
-        final int checksum = readUnsignedShort( data, offset + 6 );
+        if( null == dissector )
+        {
+            return null;
+        }
+        final Packet upper = dissector.dissect( this, packet, offset, raw );
+        if( null != upper )
+        {
+            upper.setLowerLayerPacket( packet );
+        }
+        return upper;
+    }
 
-        final UDPPacket packet = new UDPPacket( sourcePort, destinationPort, length, checksum );
-        packet.setPayloadOffset( 8 );
-        packet.setPayloadLength( raw.getLength() - offset - 8 );
-        packet.setData( data );
-        return packet;
+    /**
+     * Read a 48 bit MAC address.
+     *
+     * @param data the input data
+     * @param offset the offset in input data
+     * @return the address in the lower 48 bits
+     */
+    static long readMacAddress( final byte[] data, final int offset )
+    {
+        return ( (long) readUnsignedShort( data, offset ) << 32 ) |
+               readUnsignedInteger( data, offset + 2 );
+    }
+
+    /**
+     * Read a 64 bit value.
+     *
+     * @param data the input data
+     * @param offset the offset in input data
+     * @return the value
+     */
+    static long readLong( final byte[] data, final int offset )
+    {
+        return ( readUnsignedInteger( data, offset ) << 32 ) |
+               readUnsignedInteger( data, offset + 4 );
     }
 
     /**
@@ -307,6 +1887,30 @@ public class ModelPacketFactory
                  ( (long) ( data[offset + 3] & 0xff ) << 0 ) );
     }
 
+    /**
+     * Read a little endian unsigned short.
+     *
+     * @param data the input data
+     * @param offset the offset in input data
+     * @return the unsigned short
+     */
+    static int readUnsignedShortLE( final byte[] data, final int offset )
+    {
+        return ( data[offset] & 0xFF ) | ( ( data[offset + 1] & 0xFF ) << 8 );
+    }
+
+    /**
+     * Read a little endian 32 bit value.
+     *
+     * @param data the input data
+     * @param offset the offset in input data
+     * @return the value
+     */
+    static int readIntLE( final byte[] data, final int offset )
+    {
+        return readUnsignedShortLE( data, offset ) | ( readUnsignedShortLE( data, offset + 2 ) << 16 );
+    }
+
     /**
      * Read an unsigned short.
      *
@@ -0,0 +1,835 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import packetspy.model.ARPPacket;
+import packetspy.model.EthernetPacket;
+import packetspy.model.ICMP6Packet;
+import packetspy.model.ICMPPacket;
+import packetspy.model.IGMPPacket;
+import packetspy.model.IP4Packet;
+import packetspy.model.IP6Packet;
+import packetspy.model.IPPacket;
+import packetspy.model.MPLSPacket;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.RenderUtil;
+import packetspy.model.TCPPacket;
+import packetspy.model.UDPPacket;
+import packetspy.model.VLANPacket;
+
+/**
+ * Listener that writes a one line record for every packet to a channel.
+ * Records are either tcpdump style text or NDJSON objects and are
+ * rendered as US-ASCII directly into a reusable direct buffer that is
+ * written to the channel whenever it fills, so that no objects are
+ * created per packet.
+ *
+ * <p>The listener is not thread safe and is expected to be driven from
+ * the capture thread. As handlePacket can not throw an IOException, the
+ * first error writing to the channel is recorded, subsequent packets are
+ * dropped and the error is rethrown from flush() and close().</p>
+ */
+public class PacketExporter
+    implements ModelPacketListener
+{
+    /**
+     * Format records as tcpdump style text.
+     */
+    public static final int FORMAT_TEXT = 0;
+
+    /**
+     * Format records as newline delimited JSON objects.
+     */
+    public static final int FORMAT_NDJSON = 1;
+
+    /**
+     * The default size of the buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The maximum length of a single record. The buffer is written
+     * out when less than this space remains.
+     */
+    static final int MAX_RECORD_LENGTH = 1024;
+
+    /**
+     * The maximum number of VLAN tags and MPLS labels rendered in a
+     * record. Further entries are omitted so that a record never
+     * exceeds MAX_RECORD_LENGTH.
+     */
+    static final int MAX_STACK_LENGTH = 16;
+
+    private static final byte[] TEXT_IP = ascii( " IP " );
+    private static final byte[] TEXT_IP6 = ascii( " IP6 " );
+    private static final byte[] TEXT_ARP = ascii( " ARP, " );
+    private static final byte[] TEXT_ARROW = ascii( " > " );
+    private static final byte[] TEXT_TCP = ascii( ": Flags [" );
+    private static final byte[] TEXT_SEQ = ascii( "], seq " );
+    private static final byte[] TEXT_ACK = ascii( ", ack " );
+    private static final byte[] TEXT_WIN = ascii( ", win " );
+    private static final byte[] TEXT_UDP = ascii( ": UDP" );
+    private static final byte[] TEXT_ICMP = ascii( ": ICMP type " );
+    private static final byte[] TEXT_ICMP6 = ascii( ": ICMP6 type " );
+    private static final byte[] TEXT_CODE = ascii( " code " );
+    private static final byte[] TEXT_IGMP = ascii( ": IGMP type " );
+    private static final byte[] TEXT_PROTOCOL = ascii( ": ip-proto-" );
+    private static final byte[] TEXT_LENGTH = ascii( ", length " );
+    private static final byte[] TEXT_VLAN = ascii( " vlan " );
+    private static final byte[] TEXT_MPLS = ascii( " MPLS label " );
+    private static final byte[] TEXT_ETHERTYPE = ascii( " ethertype " );
+    private static final byte[] TEXT_REQUEST = ascii( "Request who-has " );
+    private static final byte[] TEXT_TELL = ascii( " tell " );
+    private static final byte[] TEXT_REPLY = ascii( "Reply " );
+    private static final byte[] TEXT_IS_AT = ascii( " is-at " );
+    private static final byte[] TEXT_OP = ascii( "op " );
+
+    private static final byte[] JSON_TS = ascii( "{\"ts\":" );
+    private static final byte[] JSON_LEN = ascii( ",\"len\":" );
+    private static final byte[] JSON_CAPLEN = ascii( ",\"caplen\":" );
+    private static final byte[] JSON_ETH_SRC = ascii( ",\"eth_src\":\"" );
+    private static final byte[] JSON_ETH_DST = ascii( "\",\"eth_dst\":\"" );
+    private static final byte[] JSON_ETH_TYPE = ascii( "\",\"eth_type\":" );
+    private static final byte[] JSON_VLAN = ascii( ",\"vlan\":[" );
+    private static final byte[] JSON_MPLS = ascii( ",\"mpls\":[" );
+    private static final byte[] JSON_ARP_OP = ascii( ",\"arp_op\":" );
+    private static final byte[] JSON_ARP_SHA = ascii( ",\"arp_sha\":\"" );
+    private static final byte[] JSON_ARP_SPA = ascii( "\",\"arp_spa\":\"" );
+    private static final byte[] JSON_ARP_THA = ascii( "\",\"arp_tha\":\"" );
+    private static final byte[] JSON_ARP_TPA = ascii( "\",\"arp_tpa\":\"" );
+    private static final byte[] JSON_IP_VERSION = ascii( ",\"ip_ver\":" );
+    private static final byte[] JSON_IP_SRC = ascii( ",\"ip_src\":\"" );
+    private static final byte[] JSON_IP_DST = ascii( "\",\"ip_dst\":\"" );
+    private static final byte[] JSON_IP_PROTO = ascii( "\",\"ip_proto\":" );
+    private static final byte[] JSON_TTL = ascii( ",\"ttl\":" );
+    private static final byte[] JSON_SPORT = ascii( ",\"sport\":" );
+    private static final byte[] JSON_DPORT = ascii( ",\"dport\":" );
+    private static final byte[] JSON_TCP_FLAGS = ascii( ",\"tcp_flags\":\"" );
+    private static final byte[] JSON_SEQ = ascii( "\",\"seq\":" );
+    private static final byte[] JSON_ACK = ascii( ",\"ack\":" );
+    private static final byte[] JSON_WIN = ascii( ",\"win\":" );
+    private static final byte[] JSON_ICMP_TYPE = ascii( ",\"icmp_type\":" );
+    private static final byte[] JSON_ICMP_CODE = ascii( ",\"icmp_code\":" );
+    private static final byte[] JSON_IGMP_TYPE = ascii( ",\"igmp_type\":" );
+    private static final byte[] JSON_PAYLOAD = ascii( ",\"payload\":" );
+
+    /**
+     * The channel records are written to.
+     */
+    private final WritableByteChannel m_channel;
+
+    /**
+     * The format of records. One of FORMAT_*.
+     */
+    private final int m_format;
+
+    /**
+     * The buffer records are rendered into.
+     */
+    private final ByteBuffer m_buffer;
+
+    /**
+     * The first error that occured writing to channel, if any.
+     */
+    private IOException m_error;
+
+    /**
+     * The number of records written into buffer.
+     */
+    private long m_recordCount;
+
+    /**
+     * The number of packets dropped after an error.
+     */
+    private long m_droppedCount;
+
+    /**
+     * Create exporter with the default buffer size.
+     *
+     * @param channel the channel to write to
+     * @param format the record format. One of FORMAT_*
+     */
+    public PacketExporter( final WritableByteChannel channel, final int format )
+    {
+        this( channel, format, DEFAULT_BUFFER_SIZE );
+    }
+
+    /**
+     * Create exporter.
+     *
+     * @param channel the channel to write to
+     * @param format the record format. One of FORMAT_*
+     * @param bufferSize the size of the buffer
+     */
+    public PacketExporter( final WritableByteChannel channel,
+                           final int format,
+                           final int bufferSize )
+    {
+        if( null == channel )
+        {
+            throw new NullPointerException( "channel" );
+        }
+        if( FORMAT_TEXT != format && FORMAT_NDJSON != format )
+        {
+            throw new IllegalArgumentException( "Unknown format: " + format );
+        }
+        if( bufferSize < MAX_RECORD_LENGTH )
+        {
+            throw new IllegalArgumentException( "bufferSize < " + MAX_RECORD_LENGTH );
+        }
+        m_channel = channel;
+        m_format = format;
+        m_buffer = ByteBuffer.allocateDirect( bufferSize );
+    }
+
+    /**
+     * Render packet into buffer, writing buffer out to channel if it fills.
+     *
+     * @param packet the packet
+     */
+    public void handlePacket( final Packet packet )
+    {
+        if( null != m_error )
+        {
+            m_droppedCount++;
+            return;
+        }
+        if( m_buffer.remaining() < MAX_RECORD_LENGTH )
+        {
+            try
+            {
+                writeBuffer();
+            }
+            catch( final IOException ioe )
+            {
+                m_error = ioe;
+                m_droppedCount++;
+                return;
+            }
+        }
+
+        Packet root = packet;
+        while( null != root.getLowerLayerPacket() )
+        {
+            root = root.getLowerLayerPacket();
+        }
+        if( FORMAT_TEXT == m_format )
+        {
+            writeText( root );
+        }
+        else
+        {
+            writeJSON( root );
+        }
+        m_buffer.put( (byte) '\n' );
+        m_recordCount++;
+    }
+
+    /**
+     * Write any buffered records to channel.
+     *
+     * @throws IOException if an error occured writing to channel now or
+     *         while handling an earlier packet
+     */
+    public void flush()
+        throws IOException
+    {
+        if( null != m_error )
+        {
+            throw m_error;
+        }
+        try
+        {
+            writeBuffer();
+        }
+        catch( final IOException ioe )
+        {
+            m_error = ioe;
+            throw ioe;
+        }
+    }
+
+    /**
+     * Flush buffered records and close the channel.
+     *
+     * @throws IOException if an error occured writing to or closing channel
+     */
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            m_channel.close();
+        }
+    }
+
+    /**
+     * Return the number of records written.
+     *
+     * @return the number of records written.
+     */
+    public long getRecordCount()
+    {
+        return m_recordCount;
+    }
+
+    /**
+     * Return the number of packets dropped due to an earlier error.
+     *
+     * @return the number of packets dropped.
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Return the first error that occured writing to channel, if any.
+     *
+     * @return the error or null.
+     */
+    public IOException getError()
+    {
+        return m_error;
+    }
+
+    /**
+     * Write the contents of buffer to the channel.
+     */
+    private void writeBuffer()
+        throws IOException
+    {
+        m_buffer.flip();
+        try
+        {
+            while( m_buffer.hasRemaining() )
+            {
+                m_channel.write( m_buffer );
+            }
+        }
+        finally
+        {
+            m_buffer.clear();
+        }
+    }
+
+    /**
+     * Render a tcpdump style record for packet hierarchy.
+     *
+     * @param root the lowest packet in hierarchy
+     */
+    private void writeText( final Packet root )
+    {
+        writeTimestamp( root );
+        int stacked = 0;
+        Packet packet = root.getUpperLayerPacket();
+        while( null != packet )
+        {
+            if( packet instanceof VLANPacket )
+            {
+                if( ++stacked <= MAX_STACK_LENGTH )
+                {
+                    m_buffer.put( TEXT_VLAN );
+                    RenderUtil.appendDecimal( m_buffer, ( (VLANPacket) packet ).getVlanId() );
+                    m_buffer.put( (byte) ',' );
+                }
+            }
+            else if( packet instanceof MPLSPacket )
+            {
+                if( ++stacked <= MAX_STACK_LENGTH )
+                {
+                    m_buffer.put( TEXT_MPLS );
+                    RenderUtil.appendDecimal( m_buffer, ( (MPLSPacket) packet ).getLabel() );
+                    m_buffer.put( (byte) ',' );
+                }
+            }
+            else if( packet instanceof ARPPacket )
+            {
+                writeARPText( (ARPPacket) packet );
+                return;
+            }
+            else if( packet instanceof IPPacket )
+            {
+                writeIPText( (IPPacket) packet );
+                return;
+            }
+            else if( null == packet.getUpperLayerPacket() && packet instanceof EthernetPacket )
+            {
+                m_buffer.put( TEXT_ETHERTYPE );
+                RenderUtil.appendDecimal( m_buffer, ( (EthernetPacket) packet ).getType() );
+                m_buffer.put( TEXT_LENGTH, 1, TEXT_LENGTH.length - 1 );
+                RenderUtil.appendDecimal( m_buffer, getLength( root ) );
+                return;
+            }
+            packet = packet.getUpperLayerPacket();
+        }
+        m_buffer.put( TEXT_LENGTH, 1, TEXT_LENGTH.length - 1 );
+        RenderUtil.appendDecimal( m_buffer, getLength( root ) );
+    }
+
+    /**
+     * Render text for an ARP packet.
+     */
+    private void writeARPText( final ARPPacket arp )
+    {
+        m_buffer.put( TEXT_ARP );
+        if( ARPPacket.OP_REQUEST == arp.getOperation() )
+        {
+            m_buffer.put( TEXT_REQUEST );
+            RenderUtil.appendIP( m_buffer, arp.getTargetProtocolAddress() );
+            m_buffer.put( TEXT_TELL );
+            RenderUtil.appendIP( m_buffer, arp.getSenderProtocolAddress() );
+        }
+        else if( ARPPacket.OP_REPLY == arp.getOperation() )
+        {
+            m_buffer.put( TEXT_REPLY );
+            RenderUtil.appendIP( m_buffer, arp.getSenderProtocolAddress() );
+            m_buffer.put( TEXT_IS_AT );
+            RenderUtil.appendMAC( m_buffer, arp.getSenderHardwareAddress() );
+        }
+        else
+        {
+            m_buffer.put( TEXT_OP );
+            RenderUtil.appendDecimal( m_buffer, arp.getOperation() );
+        }
+        m_buffer.put( TEXT_LENGTH );
+        RenderUtil.appendDecimal( m_buffer, 28 );
+    }
+
+    /**
+     * Render text for an IP packet and the packet it carries.
+     */
+    private void writeIPText( final IPPacket ip )
+    {
+        final Packet upper = ip.getUpperLayerPacket();
+        int sourcePort = -1;
+        int destinationPort = -1;
+        if( upper instanceof TCPPacket )
+        {
+            sourcePort = ( (TCPPacket) upper ).getSourcePort();
+            destinationPort = ( (TCPPacket) upper ).getDestinationPort();
+        }
+        else if( upper instanceof UDPPacket )
+        {
+            sourcePort = ( (UDPPacket) upper ).getSourcePort();
+            destinationPort = ( (UDPPacket) upper ).getDestinationPort();
+        }
+
+        m_buffer.put( ( ip instanceof IP6Packet ) ? TEXT_IP6 : TEXT_IP );
+        writeAddress( ip, true );
+        writePort( sourcePort );
+        m_buffer.put( TEXT_ARROW );
+        writeAddress( ip, false );
+        writePort( destinationPort );
+
+        if( upper instanceof TCPPacket )
+        {
+            final TCPPacket tcp = (TCPPacket) upper;
+            m_buffer.put( TEXT_TCP );
+            writeTCPFlags( tcp );
+            m_buffer.put( TEXT_SEQ );
+            RenderUtil.appendDecimal( m_buffer, tcp.getSequence() );
+            if( tcp.isAckFlagSet() )
+            {
+                m_buffer.put( TEXT_ACK );
+                RenderUtil.appendDecimal( m_buffer, tcp.getAck() );
+            }
+            m_buffer.put( TEXT_WIN );
+            RenderUtil.appendDecimal( m_buffer, tcp.getWindow() );
+        }
+        else if( upper instanceof UDPPacket )
+        {
+            m_buffer.put( TEXT_UDP );
+        }
+        else if( upper instanceof ICMPPacket )
+        {
+            m_buffer.put( TEXT_ICMP );
+            RenderUtil.appendDecimal( m_buffer, ( (ICMPPacket) upper ).getType() );
+            m_buffer.put( TEXT_CODE );
+            RenderUtil.appendDecimal( m_buffer, ( (ICMPPacket) upper ).getCode() );
+        }
+        else if( upper instanceof ICMP6Packet )
+        {
+            m_buffer.put( TEXT_ICMP6 );
+            RenderUtil.appendDecimal( m_buffer, ( (ICMP6Packet) upper ).getType() );
+            m_buffer.put( TEXT_CODE );
+            RenderUtil.appendDecimal( m_buffer, ( (ICMP6Packet) upper ).getCode() );
+        }
+        else if( upper instanceof IGMPPacket )
+        {
+            m_buffer.put( TEXT_IGMP );
+            RenderUtil.appendDecimal( m_buffer, ( (IGMPPacket) upper ).getType() & 0xFF );
+        }
+        else
+        {
+            m_buffer.put( TEXT_PROTOCOL );
+            RenderUtil.appendDecimal( m_buffer, ip.getProtocol() );
+        }
+        m_buffer.put( TEXT_LENGTH );
+        RenderUtil.appendDecimal( m_buffer, getPayloadLength( ( null != upper ) ? upper : ip ) );
+    }
+
+    /**
+     * Render a NDJSON record for packet hierarchy. Only the outermost IP
+     * packet and the packet it carries are rendered so that each key
+     * appears once per record.
+     *
+     * @param root the lowest packet in hierarchy
+     */
+    private void writeJSON( final Packet root )
+    {
+        m_buffer.put( JSON_TS );
+        writeTimestamp( root );
+        m_buffer.put( JSON_LEN );
+        RenderUtil.appendDecimal( m_buffer, getLength( root ) );
+        if( root instanceof RawPacket )
+        {
+            m_buffer.put( JSON_CAPLEN );
+            RenderUtil.appendDecimal( m_buffer, ( (RawPacket) root ).getCapturedLength() );
+        }
+
+        Packet last = root;
+        boolean inVlan = false;
+        boolean inMpls = false;
+        int stacked = 0;
+        for( Packet packet = root.getUpperLayerPacket();
+             null != packet;
+             packet = packet.getUpperLayerPacket() )
+        {
+            last = packet;
+            if( inVlan && !( packet instanceof VLANPacket ) ||
+                inMpls && !( packet instanceof MPLSPacket ) )
+            {
+                m_buffer.put( (byte) ']' );
+                inVlan = false;
+                inMpls = false;
+            }
+
+            if( packet instanceof EthernetPacket )
+            {
+                final EthernetPacket ethernet = (EthernetPacket) packet;
+                m_buffer.put( JSON_ETH_SRC );
+                RenderUtil.appendMAC( m_buffer, ethernet.getSourceAddress() );
+                m_buffer.put( JSON_ETH_DST );
+                RenderUtil.appendMAC( m_buffer, ethernet.getDestinationAddress() );
+                m_buffer.put( JSON_ETH_TYPE );
+                RenderUtil.appendDecimal( m_buffer, ethernet.getType() );
+            }
+            else if( packet instanceof VLANPacket )
+            {
+                if( ++stacked <= MAX_STACK_LENGTH )
+                {
+                    if( inVlan )
+                    {
+                        m_buffer.put( (byte) ',' );
+                    }
+                    else
+                    {
+                        m_buffer.put( JSON_VLAN );
+                        inVlan = true;
+                    }
+                    RenderUtil.appendDecimal( m_buffer, ( (VLANPacket) packet ).getVlanId() );
+                }
+            }
+            else if( packet instanceof MPLSPacket )
+            {
+                if( ++stacked <= MAX_STACK_LENGTH )
+                {
+                    if( inMpls )
+                    {
+                        m_buffer.put( (byte) ',' );
+                    }
+                    else
+                    {
+                        m_buffer.put( JSON_MPLS );
+                        inMpls = true;
+                    }
+                    RenderUtil.appendDecimal( m_buffer, ( (MPLSPacket) packet ).getLabel() );
+                }
+            }
+            else if( packet instanceof ARPPacket )
+            {
+                final ARPPacket arp = (ARPPacket) packet;
+                m_buffer.put( JSON_ARP_OP );
+                RenderUtil.appendDecimal( m_buffer, arp.getOperation() );
+                m_buffer.put( JSON_ARP_SHA );
+                RenderUtil.appendMAC( m_buffer, arp.getSenderHardwareAddress() );
+                m_buffer.put( JSON_ARP_SPA );
+                RenderUtil.appendIP( m_buffer, arp.getSenderProtocolAddress() );
+                m_buffer.put( JSON_ARP_THA );
+                RenderUtil.appendMAC( m_buffer, arp.getTargetHardwareAddress() );
+                m_buffer.put( JSON_ARP_TPA );
+                RenderUtil.appendIP( m_buffer, arp.getTargetProtocolAddress() );
+                m_buffer.put( (byte) '"' );
+            }
+            else if( packet instanceof IPPacket )
+            {
+                final IPPacket ip = (IPPacket) packet;
+                m_buffer.put( JSON_IP_VERSION );
+                m_buffer.put( (byte) ( ( ip instanceof IP6Packet ) ? '6' : '4' ) );
+                m_buffer.put( JSON_IP_SRC );
+                writeAddress( ip, true );
+                m_buffer.put( JSON_IP_DST );
+                writeAddress( ip, false );
+                m_buffer.put( JSON_IP_PROTO );
+                RenderUtil.appendDecimal( m_buffer, ip.getProtocol() );
+                m_buffer.put( JSON_TTL );
+                if( ip instanceof IP4Packet )
+                {
+                    RenderUtil.appendDecimal( m_buffer, ( (IP4Packet) ip ).getTimeToLive() );
+                }
+                else
+                {
+                    RenderUtil.appendDecimal( m_buffer, ( (IP6Packet) ip ).getHopLimit() );
+                }
+                //Quoted datagrams and tunnelled frames above the transport layer are not rendered
+                final Packet upper = ip.getUpperLayerPacket();
+                if( null != upper )
+                {
+                    writeJSONTransport( upper );
+                    last = upper;
+                }
+                break;
+            }
+        }
+        if( inVlan || inMpls )
+        {
+            m_buffer.put( (byte) ']' );
+        }
+        if( last != root )
+        {
+            m_buffer.put( JSON_PAYLOAD );
+            RenderUtil.appendDecimal( m_buffer, getPayloadLength( last ) );
+        }
+        m_buffer.put( (byte) '}' );
+    }
+
+    /**
+     * Render the fields of the packet carried by the outermost IP packet.
+     */
+    private void writeJSONTransport( final Packet packet )
+    {
+        if( packet instanceof TCPPacket )
+        {
+            final TCPPacket tcp = (TCPPacket) packet;
+            writeJSONPorts( tcp.getSourcePort(), tcp.getDestinationPort() );
+            m_buffer.put( JSON_TCP_FLAGS );
+            writeTCPFlags( tcp );
+            m_buffer.put( JSON_SEQ );
+            RenderUtil.appendDecimal( m_buffer, tcp.getSequence() );
+            m_buffer.put( JSON_ACK );
+            RenderUtil.appendDecimal( m_buffer, tcp.getAck() );
+            m_buffer.put( JSON_WIN );
+            RenderUtil.appendDecimal( m_buffer, tcp.getWindow() );
+        }
+        else if( packet instanceof UDPPacket )
+        {
+            final UDPPacket udp = (UDPPacket) packet;
+            writeJSONPorts( udp.getSourcePort(), udp.getDestinationPort() );
+        }
+        else if( packet instanceof ICMPPacket )
+        {
+            final ICMPPacket icmp = (ICMPPacket) packet;
+            writeJSONICMP( icmp.getType(), icmp.getCode() );
+        }
+        else if( packet instanceof ICMP6Packet )
+        {
+            final ICMP6Packet icmp = (ICMP6Packet) packet;
+            writeJSONICMP( icmp.getType(), icmp.getCode() );
+        }
+        else if( packet instanceof IGMPPacket )
+        {
+            m_buffer.put( JSON_IGMP_TYPE );
+            RenderUtil.appendDecimal( m_buffer, ( (IGMPPacket) packet ).getType() & 0xFF );
+        }
+    }
+
+    /**
+     * Render the source and destination ports as JSON fields.
+     */
+    private void writeJSONPorts( final int sourcePort, final int destinationPort )
+    {
+        m_buffer.put( JSON_SPORT );
+        RenderUtil.appendDecimal( m_buffer, sourcePort );
+        m_buffer.put( JSON_DPORT );
+        RenderUtil.appendDecimal( m_buffer, destinationPort );
+    }
+
+    /**
+     * Render the ICMP type and code as JSON fields.
+     */
+    private void writeJSONICMP( final int type, final int code )
+    {
+        m_buffer.put( JSON_ICMP_TYPE );
+        RenderUtil.appendDecimal( m_buffer, type );
+        m_buffer.put( JSON_ICMP_CODE );
+        RenderUtil.appendDecimal( m_buffer, code );
+    }
+
+    /**
+     * Render the capture timestamp as seconds with microsecond fraction.
+     * Packets not rooted in a RawPacket have a timestamp of 0.
+     */
+    private void writeTimestamp( final Packet root )
+    {
+        if( root instanceof RawPacket )
+        {
+            final RawPacket raw = (RawPacket) root;
+            RenderUtil.appendDecimal( m_buffer, raw.getSeconds() & 0xFFFFFFFFL );
+            m_buffer.put( (byte) '.' );
+            final int useconds = raw.getUseconds();
+            for( int divisor = 100000; divisor > 0; divisor /= 10 )
+            {
+                m_buffer.put( (byte) ( '0' + ( useconds / divisor ) % 10 ) );
+            }
+        }
+        else
+        {
+            m_buffer.put( (byte) '0' );
+        }
+    }
+
+    /**
+     * Render the source or destination address of IP packet.
+     */
+    private void writeAddress( final IPPacket ip, final boolean source )
+    {
+        if( ip instanceof IP4Packet )
+        {
+            final IP4Packet ip4 = (IP4Packet) ip;
+            RenderUtil.appendIP( m_buffer,
+                                 source ? ip4.getSourceAddress() : ip4.getDestinationAddress() );
+        }
+        else
+        {
+            final IP6Packet ip6 = (IP6Packet) ip;
+            if( source )
+            {
+                RenderUtil.appendIP6( m_buffer, ip6.getSourceHigh(), ip6.getSourceLow() );
+            }
+            else
+            {
+                RenderUtil.appendIP6( m_buffer, ip6.getDestinationHigh(), ip6.getDestinationLow() );
+            }
+        }
+    }
+
+    /**
+     * Render the port in tcpdump style if present.
+     */
+    private void writePort( final int port )
+    {
+        if( -1 != port )
+        {
+            m_buffer.put( (byte) '.' );
+            RenderUtil.appendDecimal( m_buffer, port );
+        }
+    }
+
+    /**
+     * Render TCP flags in tcpdump style, using '.' for ACK.
+     */
+    private void writeTCPFlags( final TCPPacket tcp )
+    {
+        final int start = m_buffer.position();
+        if( tcp.isFinFlagSet() )
+        {
+            m_buffer.put( (byte) 'F' );
+        }
+        if( tcp.isSynFlagSet() )
+        {
+            m_buffer.put( (byte) 'S' );
+        }
+        if( tcp.isRstFlagSet() )
+        {
+            m_buffer.put( (byte) 'R' );
+        }
+        if( tcp.isPshFlagSet() )
+        {
+            m_buffer.put( (byte) 'P' );
+        }
+        if( tcp.isUrgFlagSet() )
+        {
+            m_buffer.put( (byte) 'U' );
+        }
+        if( tcp.isAckFlagSet() )
+        {
+            m_buffer.put( (byte) '.' );
+        }
+        if( start == m_buffer.position() )
+        {
+            m_buffer.put( (byte) '-' );
+        }
+    }
+
+    /**
+     * Return the length of the packet on the wire.
+     */
+    private static int getLength( final Packet root )
+    {
+        if( root instanceof RawPacket )
+        {
+            return ( (RawPacket) root ).getLength();
+        }
+        else
+        {
+            return root.getPayloadOffset() + root.getPayloadLength();
+        }
+    }
+
+    /**
+     * Return the length of data carried by packet, using the length
+     * declared in the header where available.
+     */
+    private static int getPayloadLength( final Packet packet )
+    {
+        if( packet instanceof UDPPacket )
+        {
+            return Math.max( 0, ( (UDPPacket) packet ).getLength() - 8 );
+        }
+        else
+        {
+            return Math.max( 0, packet.getPayloadLength() );
+        }
+    }
+
+    /**
+     * Encode specified text as US-ASCII.
+     */
+    private static byte[] ascii( final String text )
+    {
+        final byte[] result = new byte[text.length()];
+        for( int i = 0; i < result.length; i++ )
+        {
+            result[i] = (byte) text.charAt( i );
+        }
+        return result;
+    }
+}
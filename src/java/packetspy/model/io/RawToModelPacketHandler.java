@@ -33,13 +33,25 @@ public class RawToModelPacketHandler
     /**
      * The underlying factory.
      */
-    private final ModelPacketFactory m_factory = new ModelPacketFactory();
+    private final ModelPacketFactory m_factory;
 
     /**
      * The listener to pass on built packets to.
      */
     private final ModelPacketListener m_listener;
 
+    /**
+     * The link type of the last packet handled. A capture handle
+     * has a single link type so the link layer dissector is only
+     * resolved when the first packet arrives.
+     */
+    private int m_linkType = -1;
+
+    /**
+     * The link layer dissector for m_linkType.
+     */
+    private Dissector m_linkDissector;
+
     /**
      * Create factory that passes on created packets to specified listener.
      *
@@ -47,10 +59,40 @@ public class RawToModelPacketHandler
      */
     public RawToModelPacketHandler( final ModelPacketListener listener )
     {
+        this( new ModelPacketFactory(), listener );
+    }
+
+    /**
+     * Create handler that decodes packets down to specified depth
+     * and passes on created packets to specified listener.
+     *
+     * @param listener the listener
+     * @param depth the deepest layer decoded. One of ModelPacketFactory.DEPTH_*
+     */
+    public RawToModelPacketHandler( final ModelPacketListener listener, final int depth )
+    {
+        this( new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), depth ), listener );
+    }
+
+    /**
+     * Create handler that uses specified factory to build packets and
+     * passes on created packets to specified listener.
+     *
+     * @param factory the factory
+     * @param listener the listener
+     */
+    public RawToModelPacketHandler( final ModelPacketFactory factory,
+                                    final ModelPacketListener listener )
+    {
+        if( null == factory )
+        {
+            throw new NullPointerException( "factory" );
+        }
         if( null == listener )
         {
             throw new NullPointerException( "listener" );
         }
+        m_factory = factory;
         m_listener = listener;
     }
 
@@ -65,7 +107,13 @@ public class RawToModelPacketHandler
                               final int useconds,
                               final byte[] data )
     {
-        final RawPacket raw = m_factory.parseRawPacket( linkType,
+        if( linkType != m_linkType )
+        {
+            m_linkDissector = m_factory.resolveLinkType( linkType );
+            m_linkType = linkType;
+        }
+        final RawPacket raw = m_factory.parseRawPacket( m_linkDissector,
+                                                        linkType,
                                                         length,
                                                         capturedLength,
                                                         seconds,
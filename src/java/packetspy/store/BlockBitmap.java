@@ -0,0 +1,717 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compressed set of block identifiers in the style of a Roaring bitmap.
+ * Identifiers are partitioned by their upper 16 bits into containers.
+ * Sparse containers store the lower 16 bits in a sorted array and dense
+ * containers use a 65536 bit bitmap, so a set never uses much more than
+ * 2 bytes per member or 1 bit per possible member.
+ *
+ * <p>Blocks are usually added in increasing order while a capture is
+ * written, so adding to the end of the last container takes constant
+ * time. The set is not thread safe.</p>
+ */
+public class BlockBitmap
+{
+    /**
+     * The maximum cardinality of an array container.
+     * Containers with more members are converted to bitmaps.
+     */
+    static final int ARRAY_MAX = 4096;
+
+    /**
+     * The number of words in a bitmap container.
+     */
+    private static final int BITMAP_WORDS = 1024;
+
+    /**
+     * The upper 16 bits of the members of each container, sorted.
+     */
+    private int[] m_keys = new int[4];
+
+    /**
+     * The array containers. Null for bitmap containers.
+     */
+    private char[][] m_arrays = new char[4][];
+
+    /**
+     * The bitmap containers. Null for array containers.
+     */
+    private long[][] m_bitmaps = new long[4][];
+
+    /**
+     * The number of members of each container.
+     */
+    private int[] m_cardinalities = new int[4];
+
+    /**
+     * The number of containers.
+     */
+    private int m_size;
+
+    /**
+     * Add block to set.
+     *
+     * @param block the block. Must not be negative.
+     */
+    public void add( final int block )
+    {
+        if( block < 0 )
+        {
+            throw new IllegalArgumentException( "block < 0" );
+        }
+        final int key = block >>> 16;
+        final char low = (char) block;
+        int index;
+        if( 0 != m_size && key == m_keys[m_size - 1] )
+        {
+            index = m_size - 1;
+        }
+        else
+        {
+            index = indexOf( key );
+            if( index < 0 )
+            {
+                index = -index - 1;
+                insertContainer( index, key );
+            }
+        }
+
+        if( null != m_bitmaps[index] )
+        {
+            final long[] bitmap = m_bitmaps[index];
+            final long bit = 1L << low;
+            if( 0 == ( bitmap[low >>> 6] & bit ) )
+            {
+                bitmap[low >>> 6] |= bit;
+                m_cardinalities[index]++;
+            }
+            return;
+        }
+
+        char[] array = m_arrays[index];
+        final int cardinality = m_cardinalities[index];
+        int position;
+        if( 0 == cardinality || array[cardinality - 1] < low )
+        {
+            position = cardinality;
+        }
+        else
+        {
+            position = binarySearch( array, cardinality, low );
+            if( position >= 0 )
+            {
+                return;
+            }
+            position = -position - 1;
+        }
+
+        if( cardinality == ARRAY_MAX )
+        {
+            final long[] bitmap = toBitmap( array, cardinality );
+            bitmap[low >>> 6] |= 1L << low;
+            m_bitmaps[index] = bitmap;
+            m_arrays[index] = null;
+        }
+        else
+        {
+            if( cardinality == array.length )
+            {
+                final char[] grown = new char[Math.min( ARRAY_MAX, array.length * 2 )];
+                System.arraycopy( array, 0, grown, 0, cardinality );
+                array = grown;
+                m_arrays[index] = array;
+            }
+            System.arraycopy( array, position, array, position + 1, cardinality - position );
+            array[position] = low;
+        }
+        m_cardinalities[index]++;
+    }
+
+    /**
+     * Return true if block is in set.
+     *
+     * @param block the block
+     * @return true if block is in set
+     */
+    public boolean contains( final int block )
+    {
+        if( block < 0 )
+        {
+            return false;
+        }
+        final int index = indexOf( block >>> 16 );
+        if( index < 0 )
+        {
+            return false;
+        }
+        final char low = (char) block;
+        if( null != m_bitmaps[index] )
+        {
+            return 0 != ( m_bitmaps[index][low >>> 6] & ( 1L << low ) );
+        }
+        return binarySearch( m_arrays[index], m_cardinalities[index], low ) >= 0;
+    }
+
+    /**
+     * Return the number of blocks in set.
+     *
+     * @return the number of blocks in set.
+     */
+    public int getCardinality()
+    {
+        int cardinality = 0;
+        for( int i = 0; i < m_size; i++ )
+        {
+            cardinality += m_cardinalities[i];
+        }
+        return cardinality;
+    }
+
+    /**
+     * Return true if the set is empty.
+     *
+     * @return true if the set is empty.
+     */
+    public boolean isEmpty()
+    {
+        return 0 == m_size;
+    }
+
+    /**
+     * Return the blocks in set in increasing order.
+     *
+     * @return the blocks in set
+     */
+    public int[] toArray()
+    {
+        final int[] blocks = new int[getCardinality()];
+        int count = 0;
+        for( int i = 0; i < m_size; i++ )
+        {
+            final int high = m_keys[i] << 16;
+            if( null != m_bitmaps[i] )
+            {
+                final long[] bitmap = m_bitmaps[i];
+                for( int w = 0; w < BITMAP_WORDS; w++ )
+                {
+                    long word = bitmap[w];
+                    while( 0 != word )
+                    {
+                        final long lowest = word & -word;
+                        blocks[count++] = high | ( w << 6 ) | bitIndex( lowest );
+                        word ^= lowest;
+                    }
+                }
+            }
+            else
+            {
+                final char[] array = m_arrays[i];
+                for( int j = 0; j < m_cardinalities[i]; j++ )
+                {
+                    blocks[count++] = high | array[j];
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Return a new set containing the blocks in both this set and other set.
+     *
+     * @param other the other set
+     * @return the intersection
+     */
+    public BlockBitmap and( final BlockBitmap other )
+    {
+        final BlockBitmap result = new BlockBitmap();
+        int i = 0;
+        int j = 0;
+        while( i < m_size && j < other.m_size )
+        {
+            if( m_keys[i] < other.m_keys[j] )
+            {
+                i++;
+            }
+            else if( m_keys[i] > other.m_keys[j] )
+            {
+                j++;
+            }
+            else
+            {
+                final int count = m_cardinalities[i];
+                final int otherCount = other.m_cardinalities[j];
+                if( null == m_bitmaps[i] || null == other.m_bitmaps[j] )
+                {
+                    //The result is no larger than the array container
+                    final char[] array = new char[Math.min( count, otherCount )];
+                    int cardinality = 0;
+                    if( null != m_bitmaps[i] )
+                    {
+                        cardinality = filter( other.m_arrays[j], otherCount, m_bitmaps[i], array );
+                    }
+                    else if( null != other.m_bitmaps[j] )
+                    {
+                        cardinality = filter( m_arrays[i], count, other.m_bitmaps[j], array );
+                    }
+                    else
+                    {
+                        cardinality = intersect( m_arrays[i], count, other.m_arrays[j], otherCount, array );
+                    }
+                    result.appendArray( m_keys[i], array, cardinality );
+                }
+                else
+                {
+                    final long[] bitmap = new long[BITMAP_WORDS];
+                    for( int w = 0; w < BITMAP_WORDS; w++ )
+                    {
+                        bitmap[w] = m_bitmaps[i][w] & other.m_bitmaps[j][w];
+                    }
+                    result.appendBitmap( m_keys[i], bitmap );
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a new set containing the blocks in either this set or other set.
+     *
+     * @param other the other set
+     * @return the union
+     */
+    public BlockBitmap or( final BlockBitmap other )
+    {
+        final BlockBitmap result = new BlockBitmap();
+        int i = 0;
+        int j = 0;
+        while( i < m_size || j < other.m_size )
+        {
+            if( j == other.m_size || ( i < m_size && m_keys[i] < other.m_keys[j] ) )
+            {
+                result.appendCopy( this, i );
+                i++;
+            }
+            else if( i == m_size || m_keys[i] > other.m_keys[j] )
+            {
+                result.appendCopy( other, j );
+                j++;
+            }
+            else
+            {
+                final int count = m_cardinalities[i];
+                final int otherCount = other.m_cardinalities[j];
+                if( null == m_bitmaps[i] && null == other.m_bitmaps[j] && count + otherCount <= ARRAY_MAX )
+                {
+                    final char[] array = new char[count + otherCount];
+                    final int cardinality = union( m_arrays[i], count, other.m_arrays[j], otherCount, array );
+                    result.appendArray( m_keys[i], array, cardinality );
+                }
+                else
+                {
+                    final long[] bitmap = toBitmap( this, i );
+                    if( null != other.m_bitmaps[j] )
+                    {
+                        for( int w = 0; w < BITMAP_WORDS; w++ )
+                        {
+                            bitmap[w] |= other.m_bitmaps[j][w];
+                        }
+                    }
+                    else
+                    {
+                        final char[] array = other.m_arrays[j];
+                        for( int k = 0; k < otherCount; k++ )
+                        {
+                            bitmap[array[k] >>> 6] |= 1L << array[k];
+                        }
+                    }
+                    result.appendBitmap( m_keys[i], bitmap );
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write set to output.
+     *
+     * @param output the output
+     * @throws IOException if unable to write set
+     */
+    public void write( final DataOutput output )
+        throws IOException
+    {
+        output.writeInt( m_size );
+        for( int i = 0; i < m_size; i++ )
+        {
+            output.writeShort( m_keys[i] );
+            output.writeInt( m_cardinalities[i] );
+            if( null != m_bitmaps[i] )
+            {
+                final long[] bitmap = m_bitmaps[i];
+                for( int w = 0; w < BITMAP_WORDS; w++ )
+                {
+                    output.writeLong( bitmap[w] );
+                }
+            }
+            else
+            {
+                final char[] array = m_arrays[i];
+                for( int j = 0; j < m_cardinalities[i]; j++ )
+                {
+                    output.writeChar( array[j] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read set previously written by {@link #write(DataOutput)}.
+     *
+     * @param input the input
+     * @return the set
+     * @throws IOException if unable to read set
+     */
+    public static BlockBitmap read( final DataInput input )
+        throws IOException
+    {
+        final BlockBitmap result = new BlockBitmap();
+        final int size = input.readInt();
+        for( int i = 0; i < size; i++ )
+        {
+            final int key = input.readUnsignedShort();
+            final int cardinality = input.readInt();
+            if( cardinality < 0 || cardinality > 65536 )
+            {
+                throw new IOException( "Corrupt bitmap container cardinality " + cardinality );
+            }
+            if( cardinality > ARRAY_MAX )
+            {
+                final long[] bitmap = new long[BITMAP_WORDS];
+                for( int w = 0; w < BITMAP_WORDS; w++ )
+                {
+                    bitmap[w] = input.readLong();
+                }
+                result.appendBitmap( key, bitmap );
+            }
+            else
+            {
+                final char[] array = new char[cardinality];
+                for( int j = 0; j < cardinality; j++ )
+                {
+                    array[j] = input.readChar();
+                }
+                result.appendArray( key, array, cardinality );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Append an array container. Empty containers are discarded.
+     */
+    private void appendArray( final int key, final char[] array, final int cardinality )
+    {
+        if( 0 != cardinality )
+        {
+            insertContainer( m_size, key );
+            m_arrays[m_size - 1] = array;
+            m_cardinalities[m_size - 1] = cardinality;
+        }
+    }
+
+    /**
+     * Append a bitmap container, converting it to an array container
+     * if it is sparse. Empty containers are discarded.
+     */
+    private void appendBitmap( final int key, final long[] bitmap )
+    {
+        int cardinality = 0;
+        for( int w = 0; w < BITMAP_WORDS; w++ )
+        {
+            cardinality += bitCount( bitmap[w] );
+        }
+        if( cardinality > ARRAY_MAX )
+        {
+            insertContainer( m_size, key );
+            m_arrays[m_size - 1] = null;
+            m_bitmaps[m_size - 1] = bitmap;
+            m_cardinalities[m_size - 1] = cardinality;
+        }
+        else
+        {
+            final char[] array = new char[cardinality];
+            int count = 0;
+            for( int w = 0; w < BITMAP_WORDS; w++ )
+            {
+                long word = bitmap[w];
+                while( 0 != word )
+                {
+                    final long lowest = word & -word;
+                    array[count++] = (char) ( ( w << 6 ) | bitIndex( lowest ) );
+                    word ^= lowest;
+                }
+            }
+            appendArray( key, array, cardinality );
+        }
+    }
+
+    /**
+     * Append a copy of the container at index in specified set.
+     */
+    private void appendCopy( final BlockBitmap source, final int index )
+    {
+        if( null != source.m_bitmaps[index] )
+        {
+            appendBitmap( source.m_keys[index], (long[]) source.m_bitmaps[index].clone() );
+        }
+        else
+        {
+            final int cardinality = source.m_cardinalities[index];
+            final char[] array = new char[cardinality];
+            System.arraycopy( source.m_arrays[index], 0, array, 0, cardinality );
+            appendArray( source.m_keys[index], array, cardinality );
+        }
+    }
+
+    /**
+     * Insert an empty array container at index.
+     */
+    private void insertContainer( final int index, final int key )
+    {
+        if( m_size == m_keys.length )
+        {
+            final int capacity = m_size * 2;
+            final int[] keys = new int[capacity];
+            final char[][] arrays = new char[capacity][];
+            final long[][] bitmaps = new long[capacity][];
+            final int[] cardinalities = new int[capacity];
+            System.arraycopy( m_keys, 0, keys, 0, m_size );
+            System.arraycopy( m_arrays, 0, arrays, 0, m_size );
+            System.arraycopy( m_bitmaps, 0, bitmaps, 0, m_size );
+            System.arraycopy( m_cardinalities, 0, cardinalities, 0, m_size );
+            m_keys = keys;
+            m_arrays = arrays;
+            m_bitmaps = bitmaps;
+            m_cardinalities = cardinalities;
+        }
+        final int moved = m_size - index;
+        System.arraycopy( m_keys, index, m_keys, index + 1, moved );
+        System.arraycopy( m_arrays, index, m_arrays, index + 1, moved );
+        System.arraycopy( m_bitmaps, index, m_bitmaps, index + 1, moved );
+        System.arraycopy( m_cardinalities, index, m_cardinalities, index + 1, moved );
+        m_keys[index] = key;
+        m_arrays[index] = new char[4];
+        m_bitmaps[index] = null;
+        m_cardinalities[index] = 0;
+        m_size++;
+    }
+
+    /**
+     * Return the index of the container with key, or (-(insertion point) - 1).
+     */
+    private int indexOf( final int key )
+    {
+        int low = 0;
+        int high = m_size - 1;
+        while( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if( m_keys[middle] < key )
+            {
+                low = middle + 1;
+            }
+            else if( m_keys[middle] > key )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    /**
+     * Return a bitmap containing the members of the container at index in set.
+     */
+    private static long[] toBitmap( final BlockBitmap source, final int index )
+    {
+        if( null != source.m_bitmaps[index] )
+        {
+            return (long[]) source.m_bitmaps[index].clone();
+        }
+        return toBitmap( source.m_arrays[index], source.m_cardinalities[index] );
+    }
+
+    /**
+     * Return a bitmap containing the members of array.
+     */
+    private static long[] toBitmap( final char[] array, final int cardinality )
+    {
+        final long[] bitmap = new long[BITMAP_WORDS];
+        for( int i = 0; i < cardinality; i++ )
+        {
+            bitmap[array[i] >>> 6] |= 1L << array[i];
+        }
+        return bitmap;
+    }
+
+    /**
+     * Copy the members of array that are in bitmap into result.
+     */
+    private static int filter( final char[] array,
+                               final int cardinality,
+                               final long[] bitmap,
+                               final char[] result )
+    {
+        int count = 0;
+        for( int i = 0; i < cardinality; i++ )
+        {
+            if( 0 != ( bitmap[array[i] >>> 6] & ( 1L << array[i] ) ) )
+            {
+                result[count++] = array[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy the members in both sorted arrays into result.
+     */
+    private static int intersect( final char[] a,
+                                  final int countA,
+                                  final char[] b,
+                                  final int countB,
+                                  final char[] result )
+    {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while( i < countA && j < countB )
+        {
+            if( a[i] < b[j] )
+            {
+                i++;
+            }
+            else if( a[i] > b[j] )
+            {
+                j++;
+            }
+            else
+            {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy the members in either sorted array into result.
+     */
+    private static int union( final char[] a,
+                              final int countA,
+                              final char[] b,
+                              final int countB,
+                              final char[] result )
+    {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while( i < countA || j < countB )
+        {
+            if( j == countB || ( i < countA && a[i] < b[j] ) )
+            {
+                result[count++] = a[i++];
+            }
+            else if( i == countA || a[i] > b[j] )
+            {
+                result[count++] = b[j++];
+            }
+            else
+            {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Search the first cardinality members of sorted array for value.
+     */
+    private static int binarySearch( final char[] array, final int cardinality, final char value )
+    {
+        int low = 0;
+        int high = cardinality - 1;
+        while( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if( array[middle] < value )
+            {
+                low = middle + 1;
+            }
+            else if( array[middle] > value )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    /**
+     * Return the number of bits set in word.
+     */
+    private static int bitCount( final long word )
+    {
+        long i = word - ( ( word >>> 1 ) & 0x5555555555555555L );
+        i = ( i & 0x3333333333333333L ) + ( ( i >>> 2 ) & 0x3333333333333333L );
+        i = ( i + ( i >>> 4 ) ) & 0x0F0F0F0F0F0F0F0FL;
+        return (int) ( ( i * 0x0101010101010101L ) >>> 56 );
+    }
+
+    /**
+     * Return the index of the only bit set in word.
+     */
+    private static int bitIndex( final long bit )
+    {
+        return bitCount( bit - 1 );
+    }
+}
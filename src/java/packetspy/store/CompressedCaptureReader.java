@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import packetspy.capture.RawPacketHandler;
+
+/**
+ * Reader for captures written by {@link CompressedCaptureWriter}. The
+ * block index at the end of the capture is used to decompress only the
+ * blocks that hold the records requested. If the capture was not closed
+ * cleanly the index is rebuilt from the block headers and any trailing
+ * partial block is ignored. The reader is not thread safe.
+ */
+public class CompressedCaptureReader
+{
+    /**
+     * The channel of the capture file.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The link type of the capture.
+     */
+    private final int m_linkType;
+
+    /**
+     * The maximum number of bytes stored of each packet.
+     */
+    private final int m_snapLength;
+
+    /**
+     * The index entries, each the offset of a block followed by its header.
+     */
+    private final ByteBuffer m_entries;
+
+    /**
+     * The number of blocks.
+     */
+    private final int m_blockCount;
+
+    /**
+     * True if the index was rebuilt from block headers.
+     */
+    private final boolean m_recovered;
+
+    /**
+     * The decompressor.
+     */
+    private final Inflater m_inflater = new Inflater();
+
+    /**
+     * Buffer holding the compressed data of the current block.
+     */
+    private byte[] m_compressed = new byte[0];
+
+    /**
+     * Buffer holding the uncompressed data of the current block.
+     */
+    private byte[] m_block;
+
+    /**
+     * Open capture.
+     *
+     * @param file the capture file
+     * @throws IOException if unable to read capture or it is not a compressed capture
+     */
+    public CompressedCaptureReader( final File file )
+        throws IOException
+    {
+        m_channel = new FileInputStream( file ).getChannel();
+        try
+        {
+            final long size = m_channel.size();
+            if( size < CompressedCaptureWriter.FILE_HEADER_LENGTH )
+            {
+                throw new IOException( "Truncated capture " + file );
+            }
+            final ByteBuffer header = ByteBuffer.allocate( CompressedCaptureWriter.FILE_HEADER_LENGTH );
+            read( header, 0 );
+            if( CompressedCaptureWriter.MAGIC != header.getInt( 0 ) )
+            {
+                throw new IOException( "Not a compressed capture " + file );
+            }
+            final int version = header.getInt( 4 );
+            if( CompressedCaptureWriter.VERSION != version )
+            {
+                throw new IOException( "Unsupported compressed capture version " + version );
+            }
+            m_linkType = header.getInt( 8 );
+            m_snapLength = header.getInt( 12 );
+            m_block = new byte[header.getInt( 16 )];
+
+            ByteBuffer entries = readIndex( size );
+            m_recovered = null == entries;
+            if( m_recovered )
+            {
+                entries = rebuildIndex( size );
+            }
+            m_entries = entries;
+            m_blockCount = entries.limit() / CompressedCaptureWriter.ENTRY_LENGTH;
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Return the link type of the capture.
+     *
+     * @return the link type of the capture
+     */
+    public int getLinkType()
+    {
+        return m_linkType;
+    }
+
+    /**
+     * Return the maximum number of bytes stored of each packet.
+     *
+     * @return the snap length
+     */
+    public int getSnapLength()
+    {
+        return m_snapLength;
+    }
+
+    /**
+     * Return the number of blocks.
+     *
+     * @return the number of blocks
+     */
+    public int getBlockCount()
+    {
+        return m_blockCount;
+    }
+
+    /**
+     * Return true if the index was rebuilt because the capture was not
+     * closed cleanly.
+     *
+     * @return true if the index was rebuilt
+     */
+    public boolean isRecovered()
+    {
+        return m_recovered;
+    }
+
+    /**
+     * Return the number of records in block.
+     *
+     * @param block the block
+     * @return the number of records
+     */
+    public int getRecordCount( final int block )
+    {
+        return m_entries.getInt( entry( block ) + 16 );
+    }
+
+    /**
+     * Return the timestamp of the first record in block.
+     *
+     * @param block the block
+     * @return the timestamp in microseconds since the epoch
+     */
+    public long getTimestamp( final int block )
+    {
+        return m_entries.getLong( entry( block ) + 20 );
+    }
+
+    /**
+     * Return the block that contains the record captured at timestamp.
+     * This is the last block whose first record was captured at or
+     * before timestamp, or the first block if there is none.
+     *
+     * @param timestamp the timestamp in microseconds since the epoch
+     * @return the block or -1 if the capture has no blocks
+     */
+    public int findBlock( final long timestamp )
+    {
+        int low = 0;
+        int high = m_blockCount - 1;
+        while( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if( getTimestamp( middle ) <= timestamp )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        if( 0 == m_blockCount )
+        {
+            return -1;
+        }
+        return Math.max( 0, low - 1 );
+    }
+
+    /**
+     * Pass every record in capture to handler.
+     *
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final RawPacketHandler handler )
+        throws IOException
+    {
+        long count = 0;
+        for( int i = 0; i < m_blockCount; i++ )
+        {
+            count += readBlock( i, Long.MIN_VALUE, Long.MAX_VALUE, handler );
+        }
+        return count;
+    }
+
+    /**
+     * Pass the records captured at or after start and before end to
+     * handler. Only the blocks that may contain such records are read.
+     *
+     * @param start the start of range in microseconds since the epoch
+     * @param end the end of range in microseconds since the epoch
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final long start, final long end, final RawPacketHandler handler )
+        throws IOException
+    {
+        if( 0 == m_blockCount )
+        {
+            return 0;
+        }
+        final int first = findBlock( start );
+        final int last = findBlock( end - 1 );
+        long count = 0;
+        for( int i = first; i <= last; i++ )
+        {
+            count += readBlock( i, start, end, handler );
+        }
+        return count;
+    }
+
+    /**
+     * Pass the records in the specified blocks to handler.
+     *
+     * @param blocks the blocks
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final BlockBitmap blocks, final RawPacketHandler handler )
+        throws IOException
+    {
+        final int[] members = blocks.toArray();
+        long count = 0;
+        for( int i = 0; i < members.length && members[i] < m_blockCount; i++ )
+        {
+            count += readBlock( members[i], Long.MIN_VALUE, Long.MAX_VALUE, handler );
+        }
+        return count;
+    }
+
+    /**
+     * Decompress block and pass the records captured at or after start
+     * and before end to handler.
+     *
+     * @param block the block
+     * @param start the start of range in microseconds since the epoch
+     * @param end the end of range in microseconds since the epoch
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture or block is corrupt
+     */
+    public long readBlock( final int block,
+                           final long start,
+                           final long end,
+                           final RawPacketHandler handler )
+        throws IOException
+    {
+        final int entry = entry( block );
+        final long offset = m_entries.getLong( entry );
+        final int compressedLength = m_entries.getInt( entry + 8 );
+        final int size = m_entries.getInt( entry + 12 );
+        final int recordCount = m_entries.getInt( entry + 16 );
+        if( m_block.length < size )
+        {
+            m_block = new byte[size];
+        }
+        if( compressedLength == size )
+        {
+            read( ByteBuffer.wrap( m_block, 0, size ), offset + CompressedCaptureWriter.BLOCK_HEADER_LENGTH );
+        }
+        else
+        {
+            if( m_compressed.length < compressedLength )
+            {
+                m_compressed = new byte[compressedLength];
+            }
+            read( ByteBuffer.wrap( m_compressed, 0, compressedLength ),
+                  offset + CompressedCaptureWriter.BLOCK_HEADER_LENGTH );
+            m_inflater.reset();
+            m_inflater.setInput( m_compressed, 0, compressedLength );
+            try
+            {
+                if( size != m_inflater.inflate( m_block, 0, size ) )
+                {
+                    throw new IOException( "Corrupt block " + block );
+                }
+            }
+            catch( final DataFormatException dfe )
+            {
+                throw new IOException( "Corrupt block " + block + ": " + dfe.getMessage() );
+            }
+        }
+
+        final byte[] buffer = m_block;
+        int position = 0;
+        long count = 0;
+        for( int i = 0; i < recordCount; i++ )
+        {
+            if( position + PcapWriter.RECORD_HEADER_LENGTH > size )
+            {
+                throw new IOException( "Corrupt block " + block );
+            }
+            final int seconds = getInt( buffer, position );
+            final int useconds = getInt( buffer, position + 4 );
+            final int capturedLength = getInt( buffer, position + 8 );
+            final int length = getInt( buffer, position + 12 );
+            position += PcapWriter.RECORD_HEADER_LENGTH;
+            if( capturedLength < 0 || position + capturedLength > size )
+            {
+                throw new IOException( "Corrupt block " + block );
+            }
+            final long timestamp = PcapWriter.toTimestamp( seconds, useconds );
+            if( timestamp >= start && timestamp < end )
+            {
+                final byte[] data = new byte[capturedLength];
+                System.arraycopy( buffer, position, data, 0, capturedLength );
+                handler.handlePacket( m_linkType, length, capturedLength, seconds, useconds, data );
+                count++;
+            }
+            position += capturedLength;
+        }
+        return count;
+    }
+
+    /**
+     * Close the capture.
+     *
+     * @throws IOException if unable to close capture
+     */
+    public void close()
+        throws IOException
+    {
+        m_inflater.end();
+        m_channel.close();
+    }
+
+    /**
+     * Read the index described by the trailer of the capture.
+     *
+     * @param size the size of the capture
+     * @return the index entries or null if the capture has no valid trailer
+     */
+    private ByteBuffer readIndex( final long size )
+        throws IOException
+    {
+        if( size < CompressedCaptureWriter.FILE_HEADER_LENGTH + CompressedCaptureWriter.TRAILER_LENGTH )
+        {
+            return null;
+        }
+        final ByteBuffer trailer = ByteBuffer.allocate( CompressedCaptureWriter.TRAILER_LENGTH );
+        read( trailer, size - CompressedCaptureWriter.TRAILER_LENGTH );
+        final int blockCount = trailer.getInt( 0 );
+        final long indexOffset = trailer.getLong( 4 );
+        if( CompressedCaptureWriter.MAGIC != trailer.getInt( 12 ) ||
+            blockCount < 0 ||
+            indexOffset + (long) blockCount * CompressedCaptureWriter.ENTRY_LENGTH +
+            CompressedCaptureWriter.TRAILER_LENGTH != size )
+        {
+            return null;
+        }
+        final ByteBuffer entries = ByteBuffer.allocate( blockCount * CompressedCaptureWriter.ENTRY_LENGTH );
+        read( entries, indexOffset );
+        entries.flip();
+        return entries;
+    }
+
+    /**
+     * Rebuild the index by walking the block headers.
+     *
+     * @param size the size of the capture
+     * @return the index entries
+     */
+    private ByteBuffer rebuildIndex( final long size )
+        throws IOException
+    {
+        ByteBuffer entries = ByteBuffer.allocate( 1024 * CompressedCaptureWriter.ENTRY_LENGTH );
+        final ByteBuffer header = ByteBuffer.allocate( CompressedCaptureWriter.BLOCK_HEADER_LENGTH );
+        long position = CompressedCaptureWriter.FILE_HEADER_LENGTH;
+        while( position + CompressedCaptureWriter.BLOCK_HEADER_LENGTH <= size )
+        {
+            header.clear();
+            read( header, position );
+            final int compressedLength = header.getInt( 0 );
+            final int uncompressedLength = header.getInt( 4 );
+            final long next = position + CompressedCaptureWriter.BLOCK_HEADER_LENGTH + compressedLength;
+            if( compressedLength <= 0 || compressedLength > uncompressedLength || next > size )
+            {
+                //Block was truncated when capture was interrupted
+                break;
+            }
+            if( entries.remaining() < CompressedCaptureWriter.ENTRY_LENGTH )
+            {
+                final ByteBuffer grown = ByteBuffer.allocate( entries.capacity() * 2 );
+                entries.flip();
+                grown.put( entries );
+                entries = grown;
+            }
+            entries.putLong( position );
+            header.flip();
+            entries.put( header );
+            position = next;
+        }
+        entries.flip();
+        return entries;
+    }
+
+    /**
+     * Return the position of the index entry of block.
+     *
+     * @param block the block
+     * @return the position of the entry
+     */
+    private int entry( final int block )
+    {
+        if( block < 0 || block >= m_blockCount )
+        {
+            throw new IndexOutOfBoundsException( "block " + block );
+        }
+        return block * CompressedCaptureWriter.ENTRY_LENGTH;
+    }
+
+    /**
+     * Fill buffer from capture starting at position.
+     *
+     * @param buffer the buffer
+     * @param position the position
+     */
+    private void read( final ByteBuffer buffer, final long position )
+        throws IOException
+    {
+        long offset = position;
+        while( buffer.hasRemaining() )
+        {
+            final int count = m_channel.read( buffer, offset );
+            if( count < 0 )
+            {
+                throw new IOException( "Truncated capture at offset " + offset );
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Read a big endian int from buffer.
+     *
+     * @param buffer the buffer
+     * @param index the index of int
+     * @return the int
+     */
+    private static int getInt( final byte[] buffer, final int index )
+    {
+        return ( buffer[index] << 24 ) |
+            ( ( buffer[index + 1] & 0xFF ) << 16 ) |
+            ( ( buffer[index + 2] & 0xFF ) << 8 ) |
+            ( buffer[index + 3] & 0xFF );
+    }
+}
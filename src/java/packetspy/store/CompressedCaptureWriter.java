@@ -0,0 +1,679 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+import packetspy.capture.RawPacketHandler;
+
+/**
+ * Handler that stores raw packets in a capture file made of
+ * independently compressed blocks. Each block holds whole records in the
+ * libpcap record format and is compressed with Deflate, so any block can
+ * be decompressed without reading the blocks before it. An index of the
+ * blocks is appended when the capture is closed and can be rebuilt from
+ * the block headers if it is missing.
+ *
+ * <p>The capture thread only copies records into a preallocated block
+ * buffer. Full blocks are compressed and written by a background thread.
+ * The capture thread waits only if every buffer is waiting to be
+ * compressed.</p>
+ *
+ * <p>The file consists of:</p>
+ * <ul>
+ *   <li>a header of magic, version, link type, snap length and block size.</li>
+ *   <li>blocks, each a header of compressed length, uncompressed length,
+ *       record count and first and last timestamp followed by the data.
+ *       A block whose compressed length equals its uncompressed length
+ *       is stored uncompressed.</li>
+ *   <li>the index, one entry per block of the offset of the block
+ *       followed by a copy of its header.</li>
+ *   <li>a trailer of the number of blocks, the offset of the index and magic.</li>
+ * </ul>
+ */
+public class CompressedCaptureWriter
+    implements RawPacketHandler
+{
+    /**
+     * Magic number at the start and end of a capture.
+     */
+    public static final int MAGIC = 0x5053435A;
+
+    /**
+     * The default uncompressed size of a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    /**
+     * The default number of block buffers.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The length of the file header.
+     */
+    static final int FILE_HEADER_LENGTH = 20;
+
+    /**
+     * The length of the header of a block.
+     */
+    static final int BLOCK_HEADER_LENGTH = 4 + 4 + 4 + 8 + 8;
+
+    /**
+     * The length of an index entry.
+     */
+    static final int ENTRY_LENGTH = 8 + BLOCK_HEADER_LENGTH;
+
+    /**
+     * The length of the trailer.
+     */
+    static final int TRAILER_LENGTH = 4 + 8 + 4;
+
+    /**
+     * The capture file.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The link type of the capture.
+     */
+    private final int m_linkType;
+
+    /**
+     * The maximum number of bytes stored of each packet.
+     */
+    private final int m_snapLength;
+
+    /**
+     * The compressor used by the background thread.
+     */
+    private final Deflater m_deflater;
+
+    /**
+     * The block buffers.
+     */
+    private final byte[][] m_buffers;
+
+    /**
+     * The number of bytes used in each buffer.
+     */
+    private final int[] m_sizes;
+
+    /**
+     * The number of records in each buffer.
+     */
+    private final int[] m_recordCounts;
+
+    /**
+     * The timestamp of the first record in each buffer.
+     */
+    private final long[] m_firstTimestamps;
+
+    /**
+     * The timestamp of the last record in each buffer.
+     */
+    private final long[] m_lastTimestamps;
+
+    /**
+     * The buffer compressed data is written to by the background thread.
+     */
+    private final byte[] m_compressed;
+
+    /**
+     * The header of the block being written.
+     */
+    private final ByteBuffer m_blockHeader = ByteBuffer.allocate( BLOCK_HEADER_LENGTH );
+
+    /**
+     * The index of the blocks written.
+     */
+    private ByteBuffer m_index = ByteBuffer.allocate( 1024 * ENTRY_LENGTH );
+
+    /**
+     * The background thread.
+     */
+    private final Thread m_thread;
+
+    /**
+     * The offset at which the next block is written. Only used by background thread.
+     */
+    private long m_position = FILE_HEADER_LENGTH;
+
+    /**
+     * The number of buffers taken by background thread. Guarded by this.
+     */
+    private long m_head;
+
+    /**
+     * The number of buffers filled by capture thread. Guarded by this.
+     * The buffer being filled is m_tail modulo the number of buffers.
+     */
+    private long m_tail;
+
+    /**
+     * Set when writer is closed. Guarded by this.
+     */
+    private boolean m_closed;
+
+    /**
+     * The first error writing the capture. Guarded by this.
+     */
+    private IOException m_error;
+
+    /**
+     * Set by capture thread once it has seen an error. Avoids taking the
+     * lock for every packet.
+     */
+    private boolean m_failed;
+
+    /**
+     * The number of records added to blocks.
+     */
+    private long m_recordCount;
+
+    /**
+     * The number of packets dropped.
+     */
+    private long m_droppedCount;
+
+    /**
+     * The number of blocks written. Guarded by this.
+     */
+    private int m_blockCount;
+
+    /**
+     * The number of uncompressed bytes in blocks written. Guarded by this.
+     */
+    private long m_uncompressedSize;
+
+    /**
+     * The number of bytes of the blocks written. Guarded by this.
+     */
+    private long m_compressedSize;
+
+    /**
+     * Create capture with default block size, buffer count and fastest compression.
+     *
+     * @param file the capture file
+     * @param linkType the link type of the capture
+     * @param snapLength the maximum number of bytes stored of each packet
+     * @throws IOException if unable to create capture
+     */
+    public CompressedCaptureWriter( final File file, final int linkType, final int snapLength )
+        throws IOException
+    {
+        this( file, linkType, snapLength, DEFAULT_BLOCK_SIZE, DEFAULT_BUFFER_COUNT, Deflater.BEST_SPEED );
+    }
+
+    /**
+     * Create capture.
+     *
+     * @param file the capture file
+     * @param linkType the link type of the capture
+     * @param snapLength the maximum number of bytes stored of each packet
+     * @param blockSize the uncompressed size of a block
+     * @param bufferCount the number of block buffers
+     * @param level the Deflate compression level from 1 to 9
+     * @throws IOException if unable to create capture
+     */
+    public CompressedCaptureWriter( final File file,
+                                    final int linkType,
+                                    final int snapLength,
+                                    final int blockSize,
+                                    final int bufferCount,
+                                    final int level )
+        throws IOException
+    {
+        if( snapLength <= 0 )
+        {
+            throw new IllegalArgumentException( "snapLength <= 0" );
+        }
+        if( blockSize < PcapWriter.RECORD_HEADER_LENGTH + snapLength )
+        {
+            throw new IllegalArgumentException( "blockSize must hold a record of snapLength bytes" );
+        }
+        if( bufferCount < 2 )
+        {
+            throw new IllegalArgumentException( "bufferCount < 2" );
+        }
+        m_linkType = linkType;
+        m_snapLength = snapLength;
+        m_deflater = new Deflater( level );
+        m_buffers = new byte[bufferCount][blockSize];
+        m_sizes = new int[bufferCount];
+        m_recordCounts = new int[bufferCount];
+        m_firstTimestamps = new long[bufferCount];
+        m_lastTimestamps = new long[bufferCount];
+        m_compressed = new byte[blockSize + blockSize / 8 + 64];
+
+        m_channel = new FileOutputStream( file ).getChannel();
+        final ByteBuffer header = ByteBuffer.allocate( FILE_HEADER_LENGTH );
+        header.putInt( MAGIC );
+        header.putInt( VERSION );
+        header.putInt( linkType );
+        header.putInt( snapLength );
+        header.putInt( blockSize );
+        header.flip();
+        try
+        {
+            write( header );
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+
+        m_thread = new Thread( "CompressedCaptureWriter" )
+        {
+            public void run()
+            {
+                drain();
+            }
+        };
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Append packet to the current block. Packets with a link type other
+     * than the link type of the capture are dropped.
+     */
+    public void handlePacket( final int linkType,
+                              final int length,
+                              final int capturedLength,
+                              final int seconds,
+                              final int useconds,
+                              final byte[] data )
+    {
+        if( linkType != m_linkType || m_failed )
+        {
+            m_droppedCount++;
+            return;
+        }
+        final int stored = Math.min( m_snapLength, Math.min( capturedLength, data.length ) );
+        int slot = (int) ( m_tail % m_buffers.length );
+        if( m_sizes[slot] + PcapWriter.RECORD_HEADER_LENGTH + stored > m_buffers[slot].length )
+        {
+            submit();
+            slot = (int) ( m_tail % m_buffers.length );
+        }
+        final byte[] buffer = m_buffers[slot];
+        int position = m_sizes[slot];
+        position = putInt( buffer, position, seconds );
+        position = putInt( buffer, position, useconds );
+        position = putInt( buffer, position, stored );
+        position = putInt( buffer, position, length );
+        System.arraycopy( data, 0, buffer, position, stored );
+        m_sizes[slot] = position + stored;
+
+        final long timestamp = PcapWriter.toTimestamp( seconds, useconds );
+        if( 0 == m_recordCounts[slot] )
+        {
+            m_firstTimestamps[slot] = timestamp;
+        }
+        m_lastTimestamps[slot] = timestamp;
+        m_recordCounts[slot]++;
+        m_recordCount++;
+    }
+
+    /**
+     * Compress and write the current block and wait until every block
+     * has been written.
+     *
+     * @throws IOException if an error occured writing capture now or
+     *         while handling an earlier packet
+     */
+    public void flush()
+        throws IOException
+    {
+        if( 0 != m_recordCounts[(int) ( m_tail % m_buffers.length )] )
+        {
+            submit();
+        }
+        synchronized( this )
+        {
+            while( m_head != m_tail && null == m_error )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    throw new IOException( "Interrupted waiting for blocks to be written" );
+                }
+            }
+            if( null != m_error )
+            {
+                throw m_error;
+            }
+        }
+    }
+
+    /**
+     * Write remaining blocks, the index and the trailer and close the capture.
+     *
+     * @throws IOException if an error occured writing or closing capture
+     */
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            synchronized( this )
+            {
+                m_closed = true;
+                notifyAll();
+            }
+            boolean interrupted = false;
+            while( m_thread.isAlive() )
+            {
+                try
+                {
+                    m_thread.join();
+                }
+                catch( final InterruptedException ie )
+                {
+                    interrupted = true;
+                }
+            }
+            if( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+            try
+            {
+                if( null == getError() )
+                {
+                    writeIndex();
+                }
+            }
+            finally
+            {
+                m_deflater.end();
+                m_channel.close();
+            }
+        }
+    }
+
+    /**
+     * Return the number of records added to capture.
+     *
+     * @return the number of records added to capture
+     */
+    public long getRecordCount()
+    {
+        return m_recordCount;
+    }
+
+    /**
+     * Return the number of packets dropped due to mismatched link
+     * types or errors writing the capture.
+     *
+     * @return the number of packets dropped
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Return the number of blocks written.
+     *
+     * @return the number of blocks written
+     */
+    public synchronized int getBlockCount()
+    {
+        return m_blockCount;
+    }
+
+    /**
+     * Return the uncompressed size of the blocks written.
+     *
+     * @return the uncompressed size of the blocks written
+     */
+    public synchronized long getUncompressedSize()
+    {
+        return m_uncompressedSize;
+    }
+
+    /**
+     * Return the size of the blocks written including block headers.
+     *
+     * @return the size of the blocks written
+     */
+    public synchronized long getCompressedSize()
+    {
+        return m_compressedSize;
+    }
+
+    /**
+     * Return the first error writing the capture.
+     *
+     * @return the error or null if no error has occured
+     */
+    public synchronized IOException getError()
+    {
+        return m_error;
+    }
+
+    /**
+     * Pass the current buffer to the background thread and wait
+     * for the next buffer to be free.
+     */
+    private void submit()
+    {
+        synchronized( this )
+        {
+            m_tail++;
+            notifyAll();
+            while( m_tail - m_head == m_buffers.length && null == m_error )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    //Blocks must not be discarded so keep waiting
+                }
+            }
+            m_failed = null != m_error;
+        }
+        final int slot = (int) ( m_tail % m_buffers.length );
+        m_sizes[slot] = 0;
+        m_recordCounts[slot] = 0;
+    }
+
+    /**
+     * Compress and write submitted buffers until writer is closed.
+     */
+    private void drain()
+    {
+        while( true )
+        {
+            final int slot;
+            synchronized( this )
+            {
+                while( m_head == m_tail && !m_closed )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch( final InterruptedException ie )
+                    {
+                        //Only stop once closed
+                    }
+                }
+                if( m_head == m_tail )
+                {
+                    return;
+                }
+                slot = (int) ( m_head % m_buffers.length );
+            }
+
+            try
+            {
+                writeBlock( slot );
+            }
+            catch( final IOException ioe )
+            {
+                synchronized( this )
+                {
+                    m_error = ioe;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized( this )
+            {
+                m_head++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Compress and write the block in buffer.
+     *
+     * @param slot the buffer
+     */
+    private void writeBlock( final int slot )
+        throws IOException
+    {
+        final int size = m_sizes[slot];
+        m_deflater.reset();
+        m_deflater.setInput( m_buffers[slot], 0, size );
+        m_deflater.finish();
+        int compressedLength = 0;
+        while( !m_deflater.finished() && compressedLength < size )
+        {
+            compressedLength +=
+                m_deflater.deflate( m_compressed, compressedLength, m_compressed.length - compressedLength );
+        }
+
+        final ByteBuffer data;
+        if( m_deflater.finished() && compressedLength < size )
+        {
+            data = ByteBuffer.wrap( m_compressed, 0, compressedLength );
+        }
+        else
+        {
+            //Incompressible so store the block as is
+            compressedLength = size;
+            data = ByteBuffer.wrap( m_buffers[slot], 0, size );
+        }
+
+        m_blockHeader.clear();
+        m_blockHeader.putInt( compressedLength );
+        m_blockHeader.putInt( size );
+        m_blockHeader.putInt( m_recordCounts[slot] );
+        m_blockHeader.putLong( m_firstTimestamps[slot] );
+        m_blockHeader.putLong( m_lastTimestamps[slot] );
+        m_blockHeader.flip();
+
+        if( m_index.remaining() < ENTRY_LENGTH )
+        {
+            final ByteBuffer index = ByteBuffer.allocate( m_index.capacity() * 2 );
+            m_index.flip();
+            index.put( m_index );
+            m_index = index;
+        }
+        m_index.putLong( m_position );
+        m_index.put( m_blockHeader );
+        m_blockHeader.flip();
+
+        write( m_blockHeader );
+        write( data );
+        m_position += BLOCK_HEADER_LENGTH + compressedLength;
+        synchronized( this )
+        {
+            m_blockCount++;
+            m_uncompressedSize += size;
+            m_compressedSize += BLOCK_HEADER_LENGTH + compressedLength;
+        }
+    }
+
+    /**
+     * Append the index and trailer to capture.
+     */
+    private void writeIndex()
+        throws IOException
+    {
+        final int blockCount = m_index.position() / ENTRY_LENGTH;
+        m_index.flip();
+        write( m_index );
+        final ByteBuffer trailer = ByteBuffer.allocate( TRAILER_LENGTH );
+        trailer.putInt( blockCount );
+        trailer.putLong( m_position );
+        trailer.putInt( MAGIC );
+        trailer.flip();
+        write( trailer );
+    }
+
+    /**
+     * Write the content of buffer to the capture.
+     *
+     * @param buffer the buffer
+     */
+    private void write( final ByteBuffer buffer )
+        throws IOException
+    {
+        while( buffer.hasRemaining() )
+        {
+            m_channel.write( buffer );
+        }
+    }
+
+    /**
+     * Store a big endian int in buffer.
+     *
+     * @param buffer the buffer
+     * @param position the position to store int at
+     * @param value the int
+     * @return the position after the int
+     */
+    private static int putInt( final byte[] buffer, final int position, final int value )
+    {
+        buffer[position] = (byte) ( value >> 24 );
+        buffer[position + 1] = (byte) ( value >> 16 );
+        buffer[position + 2] = (byte) ( value >> 8 );
+        buffer[position + 3] = (byte) value;
+        return position + 4;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import packetspy.model.IP4Packet;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.TCPPacket;
+import packetspy.model.UDPPacket;
+
+/**
+ * Index from IPv4 address, TCP or UDP port and IP protocol to the blocks
+ * of a capture that contain matching packets. Blocks are the same blocks
+ * described by the {@link TimeIndex} of the capture so the result of a
+ * query can be passed to {@link PcapReader#read(BlockBitmap, packetspy.capture.RawPacketHandler)}
+ * to read only the blocks that contain matching packets.
+ *
+ * <p>Addresses are held in an open addressing hash table keyed directly
+ * by the packed address while ports and protocols are held in arrays
+ * indexed by the port or protocol. The index is not thread safe.</p>
+ */
+public class FlowIndex
+{
+    /**
+     * The suffix appended to the name of the capture file to
+     * create the name of the flow index file.
+     */
+    public static final String SUFFIX = ".flows";
+
+    /**
+     * The magic number at the start of a flow index file.
+     */
+    private static final int MAGIC = 0x50534658;
+
+    /**
+     * The version of the flow index format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The initial number of slots in the address table. Must be a power of 2.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * The set returned when no blocks match.
+     */
+    private static final BlockBitmap EMPTY = new BlockBitmap();
+
+    /**
+     * The addresses in each slot of the address table.
+     */
+    private int[] m_addresses = new int[INITIAL_CAPACITY];
+
+    /**
+     * The blocks for each slot of the address table. Null indicates an empty slot.
+     */
+    private BlockBitmap[] m_addressBlocks = new BlockBitmap[INITIAL_CAPACITY];
+
+    /**
+     * The number of addresses in table.
+     */
+    private int m_addressCount;
+
+    /**
+     * The blocks indexed by port.
+     */
+    private final BlockBitmap[] m_portBlocks = new BlockBitmap[0x10000];
+
+    /**
+     * The blocks indexed by IP protocol.
+     */
+    private final BlockBitmap[] m_protocolBlocks = new BlockBitmap[0x100];
+
+    /**
+     * Return the flow index file for specified capture file.
+     *
+     * @param capture the capture file
+     * @return the flow index file
+     */
+    public static File getIndexFile( final File capture )
+    {
+        return new File( capture.getPath() + SUFFIX );
+    }
+
+    /**
+     * Index the addresses, ports and protocols of every IPv4, TCP and UDP
+     * layer decoded from raw packet. Layers inside tunnels are only
+     * present if raw was decoded to ModelPacketFactory.DEPTH_ALL,
+     * so {@link FlowIndexer} indexes the outer headers only.
+     *
+     * @param raw the raw packet
+     * @param block the block containing packet
+     */
+    public void add( final RawPacket raw, final int block )
+    {
+        final int count = raw.getLayerCount();
+        for( int i = 1; i < count; i++ )
+        {
+            final int layerType = raw.getLayerType( i );
+            if( Packet.LAYER_IP4 == layerType )
+            {
+                final IP4Packet ip = (IP4Packet) raw.getLayer( i );
+                addAddress( ip.getSourceAddress(), block );
+                addAddress( ip.getDestinationAddress(), block );
+                addProtocol( ip.getProtocol(), block );
+            }
+            else if( Packet.LAYER_TCP == layerType )
+            {
+                final TCPPacket tcp = (TCPPacket) raw.getLayer( i );
+                addPort( tcp.getSourcePort(), block );
+                addPort( tcp.getDestinationPort(), block );
+            }
+            else if( Packet.LAYER_UDP == layerType )
+            {
+                final UDPPacket udp = (UDPPacket) raw.getLayer( i );
+                addPort( udp.getSourcePort(), block );
+                addPort( udp.getDestinationPort(), block );
+            }
+        }
+    }
+
+    /**
+     * Record that block contains packets to or from address.
+     *
+     * @param address the IPv4 address
+     * @param block the block
+     */
+    public void addAddress( final int address, final int block )
+    {
+        //slotFor may rehash so it must run before m_addressBlocks is read
+        final int slot = slotFor( address );
+        m_addressBlocks[slot].add( block );
+    }
+
+    /**
+     * Record that block contains packets to or from port.
+     *
+     * @param port the TCP or UDP port
+     * @param block the block
+     */
+    public void addPort( final int port, final int block )
+    {
+        add( m_portBlocks, port, block );
+    }
+
+    /**
+     * Record that block contains packets of IP protocol.
+     *
+     * @param protocol the IP protocol
+     * @param block the block
+     */
+    public void addProtocol( final int protocol, final int block )
+    {
+        add( m_protocolBlocks, protocol, block );
+    }
+
+    /**
+     * Return the blocks that contain packets to or from address.
+     * The result must not be modified.
+     *
+     * @param address the IPv4 address
+     * @return the blocks
+     */
+    public BlockBitmap getAddressBlocks( final int address )
+    {
+        final BlockBitmap blocks = m_addressBlocks[indexOf( m_addresses, m_addressBlocks, address )];
+        return ( null == blocks ) ? EMPTY : blocks;
+    }
+
+    /**
+     * Return the blocks that contain packets to or from port.
+     * The result must not be modified.
+     *
+     * @param port the TCP or UDP port
+     * @return the blocks
+     */
+    public BlockBitmap getPortBlocks( final int port )
+    {
+        final BlockBitmap blocks = m_portBlocks[port & 0xFFFF];
+        return ( null == blocks ) ? EMPTY : blocks;
+    }
+
+    /**
+     * Return the blocks that contain packets of IP protocol.
+     * The result must not be modified.
+     *
+     * @param protocol the IP protocol
+     * @return the blocks
+     */
+    public BlockBitmap getProtocolBlocks( final int protocol )
+    {
+        final BlockBitmap blocks = m_protocolBlocks[protocol & 0xFF];
+        return ( null == blocks ) ? EMPTY : blocks;
+    }
+
+    /**
+     * Return the number of addresses indexed.
+     *
+     * @return the number of addresses indexed.
+     */
+    public int getAddressCount()
+    {
+        return m_addressCount;
+    }
+
+    /**
+     * Write index to file.
+     *
+     * @param file the file
+     * @throws IOException if unable to write index
+     */
+    public void write( final File file )
+        throws IOException
+    {
+        final DataOutputStream output =
+            new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+        try
+        {
+            output.writeInt( MAGIC );
+            output.writeInt( VERSION );
+            output.writeInt( m_addressCount );
+            for( int i = 0; i < m_addressBlocks.length; i++ )
+            {
+                if( null != m_addressBlocks[i] )
+                {
+                    output.writeInt( m_addresses[i] );
+                    m_addressBlocks[i].write( output );
+                }
+            }
+            write( output, m_portBlocks );
+            write( output, m_protocolBlocks );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * Load index from file.
+     *
+     * @param file the file
+     * @return the index
+     * @throws IOException if unable to read index or the file is not a flow index
+     */
+    public static FlowIndex load( final File file )
+        throws IOException
+    {
+        final DataInputStream input =
+            new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if( MAGIC != input.readInt() )
+            {
+                throw new IOException( "Not a flow index " + file );
+            }
+            final int version = input.readInt();
+            if( VERSION != version )
+            {
+                throw new IOException( "Unsupported flow index version " + version );
+            }
+            final FlowIndex index = new FlowIndex();
+            final int addressCount = input.readInt();
+            for( int i = 0; i < addressCount; i++ )
+            {
+                final int address = input.readInt();
+                final BlockBitmap blocks = BlockBitmap.read( input );
+                final int slot = index.slotFor( address );
+                index.m_addressBlocks[slot] = blocks;
+            }
+            read( input, index.m_portBlocks );
+            read( input, index.m_protocolBlocks );
+            return index;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Add block to the set at key in table, creating the set if required.
+     */
+    private static void add( final BlockBitmap[] table, final int key, final int block )
+    {
+        BlockBitmap blocks = table[key];
+        if( null == blocks )
+        {
+            blocks = new BlockBitmap();
+            table[key] = blocks;
+        }
+        blocks.add( block );
+    }
+
+    /**
+     * Write the non empty sets in table with their keys.
+     */
+    private static void write( final DataOutputStream output, final BlockBitmap[] table )
+        throws IOException
+    {
+        int count = 0;
+        for( int i = 0; i < table.length; i++ )
+        {
+            if( null != table[i] )
+            {
+                count++;
+            }
+        }
+        output.writeInt( count );
+        for( int i = 0; i < table.length; i++ )
+        {
+            if( null != table[i] )
+            {
+                output.writeInt( i );
+                table[i].write( output );
+            }
+        }
+    }
+
+    /**
+     * Read sets written by write() into table.
+     */
+    private static void read( final DataInputStream input, final BlockBitmap[] table )
+        throws IOException
+    {
+        final int count = input.readInt();
+        for( int i = 0; i < count; i++ )
+        {
+            final int key = input.readInt();
+            if( key < 0 || key >= table.length )
+            {
+                throw new IOException( "Corrupt flow index key " + key );
+            }
+            table[key] = BlockBitmap.read( input );
+        }
+    }
+
+    /**
+     * Return the slot of address in the address table, adding
+     * the address with an empty set of blocks if not present.
+     */
+    private int slotFor( final int address )
+    {
+        int index = indexOf( m_addresses, m_addressBlocks, address );
+        if( null == m_addressBlocks[index] )
+        {
+            m_addresses[index] = address;
+            m_addressBlocks[index] = new BlockBitmap();
+            m_addressCount++;
+            if( m_addressCount * 4 > m_addressBlocks.length * 3 )
+            {
+                rehash();
+                index = indexOf( m_addresses, m_addressBlocks, address );
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Double the capacity of the address table.
+     */
+    private void rehash()
+    {
+        final int[] addresses = m_addresses;
+        final BlockBitmap[] blocks = m_addressBlocks;
+        m_addresses = new int[addresses.length * 2];
+        m_addressBlocks = new BlockBitmap[blocks.length * 2];
+        for( int i = 0; i < blocks.length; i++ )
+        {
+            if( null != blocks[i] )
+            {
+                final int index = indexOf( m_addresses, m_addressBlocks, addresses[i] );
+                m_addresses[index] = addresses[i];
+                m_addressBlocks[index] = blocks[i];
+            }
+        }
+    }
+
+    /**
+     * Return the slot containing address or the empty slot where it should be added.
+     */
+    private static int indexOf( final int[] addresses, final BlockBitmap[] blocks, final int address )
+    {
+        final int mask = blocks.length - 1;
+        final int h = address * 0x9E3779B9;
+        int index = ( h ^ ( h >>> 16 ) ) & mask;
+        while( null != blocks[index] && addresses[index] != address )
+        {
+            index = ( index + 1 ) & mask;
+        }
+        return index;
+    }
+}
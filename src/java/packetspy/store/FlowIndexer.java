@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.IOException;
+import packetspy.capture.RawPacketHandler;
+import packetspy.model.RawPacket;
+import packetspy.model.io.DissectorRegistry;
+import packetspy.model.io.ModelPacketFactory;
+
+/**
+ * Handler that writes raw packets using a {@link PcapWriter} and builds a
+ * {@link FlowIndex} of the blocks written. To keep the cost on the capture
+ * thread low, the capture thread only copies the start of each packet into
+ * a preallocated ring and a background thread decodes the headers and
+ * updates the index. The capture thread waits only if the ring is full.
+ * Only the outer headers are indexed as the headers are not decoded to
+ * {@link ModelPacketFactory#DEPTH_ALL}, which follows tunnels.
+ *
+ * <p>The index must not be used until the indexer is closed.</p>
+ */
+public class FlowIndexer
+    implements RawPacketHandler
+{
+    /**
+     * The default number of packets in ring.
+     */
+    public static final int DEFAULT_RING_SIZE = 8192;
+
+    /**
+     * The number of bytes of each packet copied into ring. This is
+     * enough to hold the link, network and transport headers of
+     * almost all packets.
+     */
+    static final int HEADER_LENGTH = 128;
+
+    /**
+     * The writer.
+     */
+    private final PcapWriter m_writer;
+
+    /**
+     * The index being built.
+     */
+    private final FlowIndex m_index;
+
+    /**
+     * The factory used by background thread to decode headers.
+     */
+    private final ModelPacketFactory m_factory =
+        new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), ModelPacketFactory.DEPTH_TRANSPORT );
+
+    /**
+     * The start of each packet in ring.
+     */
+    private final byte[][] m_headers;
+
+    /**
+     * The link type of each packet in ring.
+     */
+    private final int[] m_linkTypes;
+
+    /**
+     * The length of each packet in ring.
+     */
+    private final int[] m_lengths;
+
+    /**
+     * The number of bytes copied of each packet in ring.
+     */
+    private final int[] m_capturedLengths;
+
+    /**
+     * The block of each packet in ring.
+     */
+    private final int[] m_blocks;
+
+    /**
+     * The background thread.
+     */
+    private final Thread m_thread;
+
+    /**
+     * The number of packets taken from ring by background thread.
+     * Guarded by this.
+     */
+    private long m_head;
+
+    /**
+     * The number of packets added to ring. Guarded by this.
+     */
+    private long m_tail;
+
+    /**
+     * Set when indexer is closed. Guarded by this.
+     */
+    private boolean m_closed;
+
+    /**
+     * Create indexer with the default ring size.
+     *
+     * @param writer the writer
+     */
+    public FlowIndexer( final PcapWriter writer )
+    {
+        this( writer, new FlowIndex(), DEFAULT_RING_SIZE );
+    }
+
+    /**
+     * Create indexer.
+     *
+     * @param writer the writer
+     * @param index the index to add blocks to
+     * @param ringSize the number of packets in ring
+     */
+    public FlowIndexer( final PcapWriter writer, final FlowIndex index, final int ringSize )
+    {
+        if( null == writer )
+        {
+            throw new NullPointerException( "writer" );
+        }
+        if( null == index )
+        {
+            throw new NullPointerException( "index" );
+        }
+        if( ringSize <= 0 )
+        {
+            throw new IllegalArgumentException( "ringSize <= 0" );
+        }
+        m_writer = writer;
+        m_index = index;
+        m_headers = new byte[ringSize][HEADER_LENGTH];
+        m_linkTypes = new int[ringSize];
+        m_lengths = new int[ringSize];
+        m_capturedLengths = new int[ringSize];
+        m_blocks = new int[ringSize];
+        m_thread = new Thread( "FlowIndexer" )
+        {
+            public void run()
+            {
+                drain();
+            }
+        };
+        m_thread.setDaemon( true );
+        m_thread.start();
+    }
+
+    /**
+     * Write packet and queue its headers for indexing.
+     */
+    public void handlePacket( final int linkType,
+                              final int length,
+                              final int capturedLength,
+                              final int seconds,
+                              final int useconds,
+                              final byte[] data )
+    {
+        final long recordCount = m_writer.getRecordCount();
+        m_writer.handlePacket( linkType, length, capturedLength, seconds, useconds, data );
+        if( recordCount == m_writer.getRecordCount() )
+        {
+            //Packet was dropped by writer so is not in any block
+            return;
+        }
+        final int block = m_writer.getBlockCount() - 1;
+        final int copied = Math.min( HEADER_LENGTH, Math.min( capturedLength, data.length ) );
+
+        synchronized( this )
+        {
+            while( m_tail - m_head == m_headers.length )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    //Index must include every packet so keep waiting
+                }
+            }
+            final int slot = (int) ( m_tail % m_headers.length );
+            System.arraycopy( data, 0, m_headers[slot], 0, copied );
+            m_linkTypes[slot] = linkType;
+            m_lengths[slot] = length;
+            m_capturedLengths[slot] = copied;
+            m_blocks[slot] = block;
+            m_tail++;
+            if( m_tail - m_head == 1 )
+            {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Return the index being built.
+     *
+     * @return the index
+     */
+    public FlowIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Wait for the background thread to index all queued packets
+     * and close the writer.
+     *
+     * @throws IOException if an error occured writing capture
+     */
+    public void close()
+        throws IOException
+    {
+        synchronized( this )
+        {
+            m_closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while( m_thread.isAlive() )
+        {
+            try
+            {
+                m_thread.join();
+            }
+            catch( final InterruptedException ie )
+            {
+                interrupted = true;
+            }
+        }
+        if( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        m_writer.close();
+    }
+
+    /**
+     * Index queued packets until indexer is closed and ring is empty.
+     */
+    private void drain()
+    {
+        while( true )
+        {
+            final long head;
+            final long tail;
+            synchronized( this )
+            {
+                while( m_head == m_tail && !m_closed )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch( final InterruptedException ie )
+                    {
+                        //Only stop once closed
+                    }
+                }
+                if( m_head == m_tail )
+                {
+                    return;
+                }
+                head = m_head;
+                tail = m_tail;
+            }
+
+            //Slots between head and tail are not modified by the capture thread
+            for( long i = head; i < tail; i++ )
+            {
+                final int slot = (int) ( i % m_headers.length );
+                final RawPacket raw = m_factory.parseRawPacket( m_linkTypes[slot],
+                                                                m_lengths[slot],
+                                                                m_capturedLengths[slot],
+                                                                0,
+                                                                0,
+                                                                m_headers[slot] );
+                m_index.add( raw, m_blocks[slot] );
+            }
+
+            synchronized( this )
+            {
+                final boolean full = m_tail - m_head == m_headers.length;
+                m_head = tail;
+                if( full )
+                {
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
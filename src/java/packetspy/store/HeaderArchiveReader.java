@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reader that scans an archive written by {@link HeaderArchiveWriter}.
+ * A scan reads only the columns that the query and predicate use, skips
+ * row groups whose column bounds rule out the predicate and passes each
+ * remaining row group to a {@link HeaderBatchListener} along with the
+ * rows that matched. The reader is not thread safe.
+ */
+public class HeaderArchiveReader
+{
+    /**
+     * The archive file.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The size of the archive.
+     */
+    private final long m_size;
+
+    /**
+     * Buffer holding the header of the current row group.
+     */
+    private final ByteBuffer m_header = ByteBuffer.allocate( HeaderArchiveWriter.GROUP_HEADER_LENGTH );
+
+    /**
+     * The encoding of each column of the current row group.
+     */
+    private final int[] m_encodings = new int[HeaderColumns.COLUMN_COUNT];
+
+    /**
+     * The minimum value of each column of the current row group.
+     */
+    private final long[] m_min = new long[HeaderColumns.COLUMN_COUNT];
+
+    /**
+     * The maximum value of each column of the current row group.
+     */
+    private final long[] m_max = new long[HeaderColumns.COLUMN_COUNT];
+
+    /**
+     * The length of each column of the current row group.
+     */
+    private final int[] m_lengths = new int[HeaderColumns.COLUMN_COUNT];
+
+    /**
+     * The decoded columns of the current row group.
+     */
+    private final HeaderColumns m_columns = new HeaderColumns( HeaderArchiveWriter.DEFAULT_ROW_GROUP_SIZE );
+
+    /**
+     * The rows of the current row group that match the predicate.
+     */
+    private int[] m_selection = new int[HeaderArchiveWriter.DEFAULT_ROW_GROUP_SIZE];
+
+    /**
+     * Buffer holding the data of the column being decoded.
+     */
+    private byte[] m_data = new byte[HeaderArchiveWriter.DEFAULT_ROW_GROUP_SIZE * 4];
+
+    /**
+     * The number of row groups skipped by the last scan.
+     */
+    private int m_skippedCount;
+
+    /**
+     * Open archive.
+     *
+     * @param file the archive file
+     * @throws IOException if unable to read archive or it is not an archive
+     */
+    public HeaderArchiveReader( final File file )
+        throws IOException
+    {
+        m_channel = new FileInputStream( file ).getChannel();
+        m_size = m_channel.size();
+        try
+        {
+            final ByteBuffer header = ByteBuffer.allocate( HeaderArchiveWriter.FILE_HEADER_LENGTH );
+            read( header, 0 );
+            if( HeaderArchiveWriter.MAGIC != header.getInt( 0 ) )
+            {
+                throw new IOException( "Not a header archive " + file );
+            }
+            final int version = header.getInt( 4 );
+            if( HeaderArchiveWriter.VERSION != version )
+            {
+                throw new IOException( "Unsupported header archive version " + version );
+            }
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Scan archive and pass the rows that match predicate to listener
+     * one row group at a time.
+     *
+     * @param predicate the predicate or null to match every row
+     * @param columns the columns listener uses as a mask of (1 &lt;&lt; column) bits
+     * @param listener the listener
+     * @return the number of rows that matched
+     * @throws IOException if unable to read archive or it is corrupt
+     */
+    public long scan( final HeaderPredicate predicate,
+                      final int columns,
+                      final HeaderBatchListener listener )
+        throws IOException
+    {
+        final int needed = columns | ( ( null == predicate ) ? 0 : predicate.getColumns() );
+        long position = HeaderArchiveWriter.FILE_HEADER_LENGTH;
+        long matched = 0;
+        m_skippedCount = 0;
+        while( position < m_size )
+        {
+            final int rows = readGroupHeader( position );
+            final long dataLength = m_header.getInt( 4 ) & 0xFFFFFFFFL;
+            final long data = position + HeaderArchiveWriter.GROUP_HEADER_LENGTH;
+            position = data + dataLength;
+            if( null != predicate && !predicate.mayMatch( m_min, m_max ) )
+            {
+                m_skippedCount++;
+                continue;
+            }
+
+            m_columns.ensureCapacity( rows );
+            long columnPosition = data;
+            for( int i = 0; i < HeaderColumns.COLUMN_COUNT; i++ )
+            {
+                if( 0 != ( needed & ( 1 << i ) ) )
+                {
+                    decodeColumn( i, rows, columnPosition );
+                }
+                columnPosition += m_lengths[i];
+            }
+            m_columns.setSize( rows );
+
+            if( m_selection.length < rows )
+            {
+                m_selection = new int[rows];
+            }
+            for( int i = 0; i < rows; i++ )
+            {
+                m_selection[i] = i;
+            }
+            final int count = ( null == predicate ) ? rows : predicate.select( m_columns, m_selection, rows );
+            if( 0 != count )
+            {
+                listener.handleBatch( m_columns, m_selection, count );
+                matched += count;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Return the number of row groups skipped by the last scan
+     * because no row could match the predicate.
+     *
+     * @return the number of row groups skipped
+     */
+    public int getSkippedCount()
+    {
+        return m_skippedCount;
+    }
+
+    /**
+     * Close the archive.
+     *
+     * @throws IOException if unable to close archive
+     */
+    public void close()
+        throws IOException
+    {
+        m_channel.close();
+    }
+
+    /**
+     * Read the header of the row group at position.
+     *
+     * @param position the position of the row group
+     * @return the number of rows in the group
+     */
+    private int readGroupHeader( final long position )
+        throws IOException
+    {
+        m_header.clear();
+        read( m_header, position );
+        final int rows = m_header.getInt( 0 );
+        if( rows < 0 )
+        {
+            throw new IOException( "Corrupt row group at offset " + position );
+        }
+        for( int i = 0; i < HeaderColumns.COLUMN_COUNT; i++ )
+        {
+            final int offset = 8 + i * HeaderArchiveWriter.COLUMN_HEADER_LENGTH;
+            m_encodings[i] = m_header.get( offset );
+            m_min[i] = m_header.getLong( offset + 1 );
+            m_max[i] = m_header.getLong( offset + 9 );
+            m_lengths[i] = m_header.getInt( offset + 17 );
+            if( m_lengths[i] < 0 )
+            {
+                throw new IOException( "Corrupt row group at offset " + position );
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Decode a column of the current row group into m_columns.
+     *
+     * @param column the column
+     * @param rows the number of rows
+     * @param position the position of the column data
+     */
+    private void decodeColumn( final int column, final int rows, final long position )
+        throws IOException
+    {
+        final int length = m_lengths[column];
+        if( m_data.length < length )
+        {
+            m_data = new byte[length];
+        }
+        read( ByteBuffer.wrap( m_data, 0, length ), position );
+        final byte[] data = m_data;
+        final int encoding = m_encodings[column];
+        if( HeaderColumns.COLUMN_TIMESTAMP == column )
+        {
+            final long[] values = m_columns.getTimestamps();
+            if( HeaderArchiveWriter.ENCODING_CONSTANT == encoding )
+            {
+                Arrays.fill( values, 0, rows, m_min[column] );
+            }
+            else if( HeaderArchiveWriter.ENCODING_DELTA == encoding )
+            {
+                long previous = m_min[column];
+                int index = 0;
+                for( int i = 0; i < rows; i++ )
+                {
+                    long encoded = 0;
+                    int shift = 0;
+                    int b;
+                    do
+                    {
+                        b = data[index++];
+                        encoded |= (long) ( b & 0x7F ) << shift;
+                        shift += 7;
+                    }
+                    while( b < 0 );
+                    previous += ( encoded >>> 1 ) ^ -( encoded & 1 );
+                    values[i] = previous;
+                }
+            }
+            else
+            {
+                throw new IOException( "Unknown encoding " + encoding + " of column " + column );
+            }
+            return;
+        }
+
+        final int[] values = m_columns.getColumn( column );
+        if( HeaderArchiveWriter.ENCODING_CONSTANT == encoding )
+        {
+            Arrays.fill( values, 0, rows, (int) m_min[column] );
+        }
+        else if( HeaderArchiveWriter.ENCODING_PLAIN == encoding )
+        {
+            for( int i = 0, index = 0; i < rows; i++, index += 4 )
+            {
+                values[i] = readInt( data, index );
+            }
+        }
+        else if( HeaderArchiveWriter.ENCODING_DICTIONARY == encoding )
+        {
+            final int size = readInt( data, 0 );
+            final int[] dictionary = new int[size];
+            for( int i = 0; i < size; i++ )
+            {
+                dictionary[i] = readInt( data, 4 + i * 4 );
+            }
+            final int start = 4 + size * 4;
+            if( size <= 0x100 )
+            {
+                for( int i = 0; i < rows; i++ )
+                {
+                    values[i] = dictionary[data[start + i] & 0xFF];
+                }
+            }
+            else
+            {
+                for( int i = 0; i < rows; i++ )
+                {
+                    final int index = start + i * 2;
+                    values[i] = dictionary[( ( data[index] & 0xFF ) << 8 ) | ( data[index + 1] & 0xFF )];
+                }
+            }
+        }
+        else
+        {
+            throw new IOException( "Unknown encoding " + encoding + " of column " + column );
+        }
+    }
+
+    /**
+     * Fill buffer from archive starting at position.
+     *
+     * @param buffer the buffer
+     * @param position the position
+     */
+    private void read( final ByteBuffer buffer, final long position )
+        throws IOException
+    {
+        long offset = position;
+        while( buffer.hasRemaining() )
+        {
+            final int count = m_channel.read( buffer, offset );
+            if( count < 0 )
+            {
+                throw new IOException( "Truncated header archive at offset " + offset );
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Read a big endian int from data.
+     *
+     * @param data the data
+     * @param index the index of int
+     * @return the int
+     */
+    private static int readInt( final byte[] data, final int index )
+    {
+        return ( data[index] << 24 ) |
+            ( ( data[index + 1] & 0xFF ) << 16 ) |
+            ( ( data[index + 2] & 0xFF ) << 8 ) |
+            ( data[index + 3] & 0xFF );
+    }
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Listener that archives the headers of decoded packets in a columnar
+ * format. Rows are collected into {@link HeaderColumns}, one decoded
+ * packet at a time or in batches from a {@link HeaderBatchDecoder}, and
+ * written as row groups in which every column is stored separately so that a
+ * {@link HeaderArchiveReader} only reads the columns a query uses.
+ *
+ * <p>Each column of a row group records its minimum and maximum value
+ * and is encoded with whichever of the following suits its values:</p>
+ * <ul>
+ *   <li>constant: every row has the same value and nothing is stored.</li>
+ *   <li>delta: zigzag variable length deltas between rows. Used for timestamps.</li>
+ *   <li>dictionary: the distinct values followed by a one or two byte
+ *       index per row. Used when fewer bytes than plain.</li>
+ *   <li>plain: four bytes per row.</li>
+ * </ul>
+ */
+public class HeaderArchiveWriter
+    implements ModelPacketListener, HeaderBatchListener
+{
+    /**
+     * The default number of rows in a row group.
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 64 * 1024;
+
+    /**
+     * Magic number at the start of an archive.
+     */
+    static final int MAGIC = 0x50534843;
+
+    /**
+     * The version of the archive format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The length of the archive header.
+     */
+    static final int FILE_HEADER_LENGTH = 8;
+
+    /**
+     * The length of the header of each column in a row group.
+     */
+    static final int COLUMN_HEADER_LENGTH = 1 + 8 + 8 + 4;
+
+    /**
+     * The length of the header of a row group.
+     */
+    static final int GROUP_HEADER_LENGTH = 4 + 4 + HeaderColumns.COLUMN_COUNT * COLUMN_HEADER_LENGTH;
+
+    /**
+     * Every row of the column has the minimum value.
+     */
+    static final int ENCODING_CONSTANT = 0;
+
+    /**
+     * Column stored as four bytes per row.
+     */
+    static final int ENCODING_PLAIN = 1;
+
+    /**
+     * Column stored as a dictionary and an index per row.
+     */
+    static final int ENCODING_DICTIONARY = 2;
+
+    /**
+     * Column stored as variable length deltas from the previous row.
+     */
+    static final int ENCODING_DELTA = 3;
+
+    /**
+     * The largest dictionary. Indexes must fit in two bytes.
+     */
+    static final int DICTIONARY_LIMIT = 0x10000;
+
+    /**
+     * The number of slots in the dictionary hash table. Must be a power of 2.
+     */
+    private static final int DICTIONARY_SLOTS = DICTIONARY_LIMIT * 2;
+
+    /**
+     * The archive file.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The rows of the current row group.
+     */
+    private final HeaderColumns m_columns;
+
+    /**
+     * Buffer the current row group is encoded into.
+     */
+    private final ByteBuffer m_buffer;
+
+    /**
+     * The dictionary of the column being encoded in order of first use.
+     */
+    private final int[] m_dictionary = new int[DICTIONARY_LIMIT];
+
+    /**
+     * The hash table slot of each dictionary entry.
+     */
+    private final int[] m_dictionarySlots = new int[DICTIONARY_LIMIT];
+
+    /**
+     * Hash table of dictionary index + 1 keyed by value. 0 marks an empty slot.
+     */
+    private final int[] m_slots = new int[DICTIONARY_SLOTS];
+
+    /**
+     * The dictionary index of each row of the column being encoded.
+     */
+    private final int[] m_indexes;
+
+    /**
+     * The number of rows written.
+     */
+    private long m_rowCount;
+
+    /**
+     * The number of row groups written.
+     */
+    private int m_groupCount;
+
+    /**
+     * The number of packets dropped because of an error writing the archive.
+     */
+    private long m_droppedCount;
+
+    /**
+     * The first error writing the archive.
+     */
+    private IOException m_error;
+
+    /**
+     * Create archive with the default row group size.
+     *
+     * @param file the archive file
+     * @throws IOException if unable to create archive
+     */
+    public HeaderArchiveWriter( final File file )
+        throws IOException
+    {
+        this( file, DEFAULT_ROW_GROUP_SIZE );
+    }
+
+    /**
+     * Create archive.
+     *
+     * @param file the archive file
+     * @param rowGroupSize the number of rows in a row group
+     * @throws IOException if unable to create archive
+     */
+    public HeaderArchiveWriter( final File file, final int rowGroupSize )
+        throws IOException
+    {
+        if( rowGroupSize < 1 )
+        {
+            throw new IllegalArgumentException( "rowGroupSize must be positive" );
+        }
+        m_columns = new HeaderColumns( rowGroupSize );
+        m_indexes = new int[rowGroupSize];
+        //Timestamp deltas take at most 10 bytes and other columns at most plain encoding
+        m_buffer = ByteBuffer.allocate( GROUP_HEADER_LENGTH +
+                                        rowGroupSize * 10 +
+                                        ( HeaderColumns.COLUMN_COUNT - 1 ) * rowGroupSize * 4 );
+        m_channel = new FileOutputStream( file ).getChannel();
+        m_buffer.putInt( MAGIC );
+        m_buffer.putInt( VERSION );
+        m_buffer.flip();
+        try
+        {
+            write();
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Append the headers of raw packet to archive.
+     *
+     * @param packet the raw packet
+     */
+    public void handlePacket( final Packet packet )
+    {
+        if( null != m_error )
+        {
+            m_droppedCount++;
+            return;
+        }
+        m_columns.add( (RawPacket) packet );
+        writeRowGroupIfFull();
+    }
+
+    /**
+     * Append the selected rows of batch to archive.
+     */
+    public void handleBatch( final HeaderColumns columns, final int[] selection, final int count )
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            if( null != m_error )
+            {
+                m_droppedCount += count - i;
+                return;
+            }
+            m_columns.add( columns, selection[i] );
+            writeRowGroupIfFull();
+        }
+    }
+
+    /**
+     * Write the rows collected so far as a row group.
+     *
+     * @throws IOException if an error occured writing archive now or
+     *         while handling an earlier packet
+     */
+    public void flush()
+        throws IOException
+    {
+        if( null != m_error )
+        {
+            throw m_error;
+        }
+        if( 0 != m_columns.size() )
+        {
+            try
+            {
+                writeRowGroup();
+            }
+            catch( final IOException ioe )
+            {
+                m_error = ioe;
+                throw ioe;
+            }
+        }
+    }
+
+    /**
+     * Flush collected rows and close the archive.
+     *
+     * @throws IOException if an error occured writing or closing archive
+     */
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            m_channel.close();
+        }
+    }
+
+    /**
+     * Return the number of rows written to archive.
+     *
+     * @return the number of rows written to archive
+     */
+    public long getRowCount()
+    {
+        return m_rowCount;
+    }
+
+    /**
+     * Return the number of row groups written to archive.
+     *
+     * @return the number of row groups written to archive
+     */
+    public int getGroupCount()
+    {
+        return m_groupCount;
+    }
+
+    /**
+     * Return the number of packets dropped due to errors writing the archive.
+     *
+     * @return the number of packets dropped
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Return the first error writing the archive.
+     *
+     * @return the error or null if no error has occured
+     */
+    public IOException getError()
+    {
+        return m_error;
+    }
+
+    /**
+     * Write the collected rows if they fill a row group, recording
+     * any error and dropping the rows.
+     */
+    private void writeRowGroupIfFull()
+    {
+        if( m_columns.isFull() )
+        {
+            try
+            {
+                writeRowGroup();
+            }
+            catch( final IOException ioe )
+            {
+                m_error = ioe;
+                m_droppedCount += m_columns.size();
+                m_columns.clear();
+            }
+        }
+    }
+
+    /**
+     * Encode and write the collected rows as a row group.
+     */
+    private void writeRowGroup()
+        throws IOException
+    {
+        final int rows = m_columns.size();
+        m_buffer.clear();
+        m_buffer.position( GROUP_HEADER_LENGTH );
+        encodeTimestamps( rows );
+        for( int i = 1; i < HeaderColumns.COLUMN_COUNT; i++ )
+        {
+            encodeColumn( i, rows );
+        }
+        m_buffer.putInt( 0, rows );
+        m_buffer.putInt( 4, m_buffer.position() - GROUP_HEADER_LENGTH );
+        m_buffer.flip();
+        write();
+        m_columns.clear();
+        m_rowCount += rows;
+        m_groupCount++;
+    }
+
+    /**
+     * Encode the timestamp column as deltas.
+     *
+     * @param rows the number of rows
+     */
+    private void encodeTimestamps( final int rows )
+    {
+        final long[] values = m_columns.getTimestamps();
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for( int i = 0; i < rows; i++ )
+        {
+            min = Math.min( min, values[i] );
+            max = Math.max( max, values[i] );
+        }
+        final int start = m_buffer.position();
+        int encoding = ENCODING_CONSTANT;
+        if( min != max )
+        {
+            encoding = ENCODING_DELTA;
+            long previous = min;
+            for( int i = 0; i < rows; i++ )
+            {
+                final long delta = values[i] - previous;
+                putVarLong( ( delta << 1 ) ^ ( delta >> 63 ) );
+                previous = values[i];
+            }
+        }
+        putColumnHeader( HeaderColumns.COLUMN_TIMESTAMP, encoding, min, max, start );
+    }
+
+    /**
+     * Encode an int column using a dictionary if that is smaller than
+     * plain encoding.
+     *
+     * @param column the column
+     * @param rows the number of rows
+     */
+    private void encodeColumn( final int column, final int rows )
+    {
+        final int[] values = m_columns.getColumn( column );
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for( int i = 0; i < rows; i++ )
+        {
+            final long value = values[i] & 0xFFFFFFFFL;
+            min = Math.min( min, value );
+            max = Math.max( max, value );
+        }
+        final int start = m_buffer.position();
+        if( min == max )
+        {
+            putColumnHeader( column, ENCODING_CONSTANT, min, max, start );
+            return;
+        }
+
+        final int size = buildDictionary( values, rows );
+        final int width = ( size <= 0x100 ) ? 1 : 2;
+        if( -1 != size && 4 + size * 4 + rows * width < rows * 4 )
+        {
+            m_buffer.putInt( size );
+            for( int i = 0; i < size; i++ )
+            {
+                m_buffer.putInt( m_dictionary[i] );
+            }
+            for( int i = 0; i < rows; i++ )
+            {
+                if( 1 == width )
+                {
+                    m_buffer.put( (byte) m_indexes[i] );
+                }
+                else
+                {
+                    m_buffer.putShort( (short) m_indexes[i] );
+                }
+            }
+            putColumnHeader( column, ENCODING_DICTIONARY, min, max, start );
+        }
+        else
+        {
+            for( int i = 0; i < rows; i++ )
+            {
+                m_buffer.putInt( values[i] );
+            }
+            putColumnHeader( column, ENCODING_PLAIN, min, max, start );
+        }
+    }
+
+    /**
+     * Build the dictionary of column values and the index of each row.
+     *
+     * @param values the column
+     * @param rows the number of rows
+     * @return the size of the dictionary or -1 if there are too many distinct values
+     */
+    private int buildDictionary( final int[] values, final int rows )
+    {
+        final int mask = DICTIONARY_SLOTS - 1;
+        int size = 0;
+        try
+        {
+            for( int i = 0; i < rows; i++ )
+            {
+                final int value = values[i];
+                int h = value * 0x9E3779B9;
+                int slot = ( h ^ ( h >>> 16 ) ) & mask;
+                while( true )
+                {
+                    final int index = m_slots[slot];
+                    if( 0 == index )
+                    {
+                        if( DICTIONARY_LIMIT == size )
+                        {
+                            return -1;
+                        }
+                        m_dictionary[size] = value;
+                        m_dictionarySlots[size] = slot;
+                        m_indexes[i] = size;
+                        size++;
+                        m_slots[slot] = size;
+                        break;
+                    }
+                    else if( m_dictionary[index - 1] == value )
+                    {
+                        m_indexes[i] = index - 1;
+                        break;
+                    }
+                    slot = ( slot + 1 ) & mask;
+                }
+            }
+            return size;
+        }
+        finally
+        {
+            for( int i = 0; i < size; i++ )
+            {
+                m_slots[m_dictionarySlots[i]] = 0;
+            }
+        }
+    }
+
+    /**
+     * Fill in the header of column.
+     *
+     * @param column the column
+     * @param encoding the ENCODING_* constant
+     * @param min the minimum value
+     * @param max the maximum value
+     * @param start the position of the data of column
+     */
+    private void putColumnHeader( final int column,
+                                  final int encoding,
+                                  final long min,
+                                  final long max,
+                                  final int start )
+    {
+        final int offset = 8 + column * COLUMN_HEADER_LENGTH;
+        m_buffer.put( offset, (byte) encoding );
+        m_buffer.putLong( offset + 1, min );
+        m_buffer.putLong( offset + 9, max );
+        m_buffer.putInt( offset + 17, m_buffer.position() - start );
+    }
+
+    /**
+     * Append value as a variable length integer of 7 bits per byte.
+     *
+     * @param value the value
+     */
+    private void putVarLong( final long value )
+    {
+        long remaining = value;
+        while( 0 != ( remaining & ~0x7FL ) )
+        {
+            m_buffer.put( (byte) ( ( remaining & 0x7F ) | 0x80 ) );
+            remaining >>>= 7;
+        }
+        m_buffer.put( (byte) remaining );
+    }
+
+    /**
+     * Write the content of the buffer to the archive.
+     */
+    private void write()
+        throws IOException
+    {
+        while( m_buffer.hasRemaining() )
+        {
+            m_channel.write( m_buffer );
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import packetspy.capture.RawPacketHandler;
+import packetspy.model.EthernetPacket;
+import packetspy.model.IP4Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.DissectorRegistry;
+import packetspy.model.io.ModelPacketFactory;
+
+/**
+ * Handler that decodes the common headers of raw packets directly into
+ * {@link HeaderColumns} without building a packet model, and passes
+ * each full batch to a {@link HeaderBatchListener}. The start of each
+ * packet is copied into a preallocated buffer and the batch is decoded
+ * one layer at a time: the link layer of every packet, then the network
+ * layer of every packet and finally the transport layer of every packet.
+ * Each pass is a short loop over primitive arrays that reads fields at
+ * the offsets found by the previous pass.
+ *
+ * <p>The columns are the same as those produced by
+ * {@link HeaderColumns#add(RawPacket)}. Ethernet frames carrying up to
+ * two VLAN tags, then ARP or IPv4 or IPv6 without extension headers,
+ * then TCP or UDP are decoded directly. Any other packet, including
+ * those that are truncated or malformed, is decoded by a
+ * {@link ModelPacketFactory} so the result is the same either way.</p>
+ *
+ * <p>Only the first {@link #HEADER_LENGTH} bytes of each packet are
+ * decoded. The decoder is not thread safe.</p>
+ */
+public class HeaderBatchDecoder
+    implements RawPacketHandler
+{
+    /**
+     * The default number of packets in a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /**
+     * The number of bytes of each packet decoded.
+     */
+    public static final int HEADER_LENGTH = 128;
+
+    /**
+     * The listener that receives batches.
+     */
+    private final HeaderBatchListener m_listener;
+
+    /**
+     * The batch being filled.
+     */
+    private final HeaderColumns m_columns;
+
+    /**
+     * The start of each packet in batch. Packet n starts at n * HEADER_LENGTH.
+     */
+    private final byte[] m_data;
+
+    /**
+     * The link type of each packet in batch.
+     */
+    private final int[] m_linkTypes;
+
+    /**
+     * The number of bytes of each packet in batch that were captured and
+     * copied, which is the end of the captured data relative to the start
+     * of the packet.
+     */
+    private final int[] m_capturedEnds;
+
+    /**
+     * The end of each packet in batch as it was on the wire.
+     */
+    private final int[] m_ends;
+
+    /**
+     * The offset of the header each pass decodes in each packet or -1 if
+     * there is nothing more to decode in packet.
+     */
+    private final int[] m_offsets;
+
+    /**
+     * The ethertype or IP protocol of the header at each offset.
+     */
+    private final int[] m_types;
+
+    /**
+     * The rows that must be decoded by factory.
+     */
+    private final int[] m_fallbackRows;
+
+    /**
+     * The number of rows in m_fallbackRows.
+     */
+    private int m_fallbackCount;
+
+    /**
+     * All rows of the batch in order, passed as the selection to listener.
+     */
+    private final int[] m_selection;
+
+    /**
+     * The buffer a packet is copied to when it is decoded by factory.
+     */
+    private final byte[] m_packet = new byte[HEADER_LENGTH];
+
+    /**
+     * The factory that decodes packets not handled directly.
+     */
+    private final ModelPacketFactory m_factory =
+        new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), ModelPacketFactory.DEPTH_TRANSPORT );
+
+    /**
+     * The number of packets decoded.
+     */
+    private long m_packetCount;
+
+    /**
+     * The number of packets decoded by factory.
+     */
+    private long m_fallbackTotal;
+
+    /**
+     * Create decoder with the default batch size.
+     *
+     * @param listener the listener that receives batches
+     */
+    public HeaderBatchDecoder( final HeaderBatchListener listener )
+    {
+        this( listener, DEFAULT_BATCH_SIZE );
+    }
+
+    /**
+     * Create decoder.
+     *
+     * @param listener the listener that receives batches
+     * @param batchSize the number of packets in a batch
+     */
+    public HeaderBatchDecoder( final HeaderBatchListener listener, final int batchSize )
+    {
+        if( null == listener )
+        {
+            throw new NullPointerException( "listener" );
+        }
+        if( batchSize <= 0 )
+        {
+            throw new IllegalArgumentException( "batchSize <= 0" );
+        }
+        m_listener = listener;
+        m_columns = new HeaderColumns( batchSize );
+        m_data = new byte[batchSize * HEADER_LENGTH];
+        m_linkTypes = new int[batchSize];
+        m_capturedEnds = new int[batchSize];
+        m_ends = new int[batchSize];
+        m_offsets = new int[batchSize];
+        m_types = new int[batchSize];
+        m_fallbackRows = new int[batchSize];
+        m_selection = new int[batchSize];
+        for( int i = 0; i < batchSize; i++ )
+        {
+            m_selection[i] = i;
+        }
+    }
+
+    /**
+     * Add packet to batch, decoding and passing the batch to listener
+     * if it is full.
+     */
+    public void handlePacket( final int linkType,
+                              final int length,
+                              final int capturedLength,
+                              final int seconds,
+                              final int useconds,
+                              final byte[] data )
+    {
+        final int row = m_columns.addRow( PcapWriter.toTimestamp( seconds, useconds ), length );
+        final int copied = Math.max( 0, Math.min( HEADER_LENGTH, Math.min( capturedLength, data.length ) ) );
+        System.arraycopy( data, 0, m_data, row * HEADER_LENGTH, copied );
+        m_linkTypes[row] = linkType;
+        m_capturedEnds[row] = copied;
+        m_ends[row] = Math.max( length, copied );
+        if( m_columns.isFull() )
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Decode the packets added since the last batch and pass them to
+     * listener as a batch.
+     */
+    public void flush()
+    {
+        final int size = m_columns.size();
+        if( 0 == size )
+        {
+            return;
+        }
+        m_fallbackCount = 0;
+        decodeLinkLayer( size );
+        decodeNetworkLayer( size );
+        decodeTransportLayer( size );
+        decodeFallbackRows();
+        m_packetCount += size;
+        m_fallbackTotal += m_fallbackCount;
+        m_listener.handleBatch( m_columns, m_selection, size );
+        m_columns.clear();
+    }
+
+    /**
+     * Return the number of packets decoded.
+     *
+     * @return the number of packets decoded
+     */
+    public long getPacketCount()
+    {
+        return m_packetCount;
+    }
+
+    /**
+     * Return the number of packets that were not decoded directly
+     * and were decoded by a {@link ModelPacketFactory}.
+     *
+     * @return the number of packets decoded by factory
+     */
+    public long getFallbackCount()
+    {
+        return m_fallbackTotal;
+    }
+
+    /**
+     * Find the ethertype and offset of the network layer of each packet,
+     * skipping VLAN tags.
+     */
+    private void decodeLinkLayer( final int size )
+    {
+        final int[] etherTypes = m_columns.getColumn( HeaderColumns.COLUMN_ETHER_TYPE );
+        final int[] vlans = m_columns.getColumn( HeaderColumns.COLUMN_VLAN );
+        for( int row = 0; row < size; row++ )
+        {
+            final int base = row * HEADER_LENGTH;
+            final int capturedEnd = m_capturedEnds[row];
+            if( RawPacket.TYPE_802_3 != m_linkTypes[row] || capturedEnd < 14 )
+            {
+                fallback( row );
+                continue;
+            }
+            int offset = 14;
+            int type = readUnsignedShort( base + 12 );
+            for( int tag = 0; tag < 2 && isVLAN( type ); tag++ )
+            {
+                if( capturedEnd < offset + 4 )
+                {
+                    break;
+                }
+                if( 0 == vlans[row] )
+                {
+                    vlans[row] = readUnsignedShort( base + offset ) & 0xFFF;
+                }
+                type = readUnsignedShort( base + offset + 2 );
+                offset += 4;
+            }
+            etherTypes[row] = type;
+            if( EthernetPacket.TYPE_IP == type || EthernetPacket.TYPE_IP6 == type )
+            {
+                m_offsets[row] = offset;
+                m_types[row] = type;
+            }
+            else if( EthernetPacket.TYPE_ARP == type )
+            {
+                m_offsets[row] = -1;
+            }
+            else
+            {
+                fallback( row );
+            }
+        }
+    }
+
+    /**
+     * Decode the IPv4 or IPv6 header of each packet and find the
+     * protocol and offset of the transport layer.
+     */
+    private void decodeNetworkLayer( final int size )
+    {
+        final int[] protocols = m_columns.getColumn( HeaderColumns.COLUMN_PROTOCOL );
+        final int[] sources = m_columns.getColumn( HeaderColumns.COLUMN_SOURCE_ADDRESS );
+        final int[] destinations = m_columns.getColumn( HeaderColumns.COLUMN_DESTINATION_ADDRESS );
+        for( int row = 0; row < size; row++ )
+        {
+            final int offset = m_offsets[row];
+            if( offset < 0 )
+            {
+                continue;
+            }
+            final int base = row * HEADER_LENGTH;
+            final int capturedEnd = m_capturedEnds[row];
+            final int first = m_data[base + offset] & 0xFF;
+            final int protocol;
+            final int headerLength;
+            final int end;
+            if( EthernetPacket.TYPE_IP == m_types[row] )
+            {
+                headerLength = ( first & 0xF ) * 4;
+                final int length = readUnsignedShort( base + offset + 2 );
+                if( capturedEnd - offset < 20 ||
+                    4 != ( first >> 4 ) ||
+                    headerLength < 20 ||
+                    length < headerLength ||
+                    offset + headerLength > capturedEnd )
+                {
+                    fallback( row );
+                    continue;
+                }
+                protocol = m_data[base + offset + 9] & 0xFF;
+                protocols[row] = protocol;
+                sources[row] = readInt( base + offset + 12 );
+                destinations[row] = readInt( base + offset + 16 );
+                if( 0 != ( readUnsignedShort( base + offset + 6 ) & 0x1FFF ) )
+                {
+                    //Only the first fragment contains the transport header
+                    m_offsets[row] = -1;
+                    continue;
+                }
+                end = Math.min( offset + length, m_ends[row] );
+            }
+            else
+            {
+                headerLength = 40;
+                final int length = readUnsignedShort( base + offset + 4 );
+                if( capturedEnd - offset < 40 || 6 != ( first >> 4 ) )
+                {
+                    fallback( row );
+                    continue;
+                }
+                protocol = m_data[base + offset + 6] & 0xFF;
+                //A zero length is used by jumbograms
+                end = ( 0 == length ) ? m_ends[row] : Math.min( offset + 40 + length, m_ends[row] );
+            }
+
+            if( ( IP4Packet.PROTOCOL_TCP != protocol && IP4Packet.PROTOCOL_UDP != protocol ) ||
+                offset + headerLength > end )
+            {
+                fallback( row );
+                continue;
+            }
+            m_offsets[row] = offset + headerLength;
+            m_types[row] = protocol;
+            //The transport header must lie within both the IP packet and the captured data
+            m_ends[row] = Math.min( end, capturedEnd );
+        }
+    }
+
+    /**
+     * Decode the ports and flags of the TCP or UDP header of each packet.
+     */
+    private void decodeTransportLayer( final int size )
+    {
+        final int[] sourcePorts = m_columns.getColumn( HeaderColumns.COLUMN_SOURCE_PORT );
+        final int[] destinationPorts = m_columns.getColumn( HeaderColumns.COLUMN_DESTINATION_PORT );
+        final int[] flags = m_columns.getColumn( HeaderColumns.COLUMN_TCP_FLAGS );
+        for( int row = 0; row < size; row++ )
+        {
+            final int offset = m_offsets[row];
+            if( offset < 0 )
+            {
+                continue;
+            }
+            final int position = row * HEADER_LENGTH + offset;
+            final int available = m_ends[row] - offset;
+            if( IP4Packet.PROTOCOL_TCP == m_types[row] )
+            {
+                if( available >= 20 )
+                {
+                    sourcePorts[row] = readUnsignedShort( position );
+                    destinationPorts[row] = readUnsignedShort( position + 2 );
+                    //The low six bits of the flags byte match the TCP_* constants
+                    flags[row] = m_data[position + 13] & 0x3F;
+                }
+            }
+            else if( available >= 8 )
+            {
+                sourcePorts[row] = readUnsignedShort( position );
+                destinationPorts[row] = readUnsignedShort( position + 2 );
+            }
+        }
+    }
+
+    /**
+     * Decode the rows that were not decoded directly using factory.
+     */
+    private void decodeFallbackRows()
+    {
+        for( int i = 0; i < m_fallbackCount; i++ )
+        {
+            final int row = m_fallbackRows[i];
+            final int copied = m_capturedEnds[row];
+            System.arraycopy( m_data, row * HEADER_LENGTH, m_packet, 0, copied );
+            final RawPacket raw =
+                m_factory.parseRawPacket( m_linkTypes[row],
+                                          m_columns.getColumn( HeaderColumns.COLUMN_LENGTH )[row],
+                                          copied,
+                                          0,
+                                          0,
+                                          m_packet );
+            m_columns.setHeaders( row, raw );
+        }
+    }
+
+    /**
+     * Queue row to be decoded by factory and skip it in later passes.
+     */
+    private void fallback( final int row )
+    {
+        m_offsets[row] = -1;
+        m_fallbackRows[m_fallbackCount++] = row;
+    }
+
+    /**
+     * Return true if type is an ethertype of a VLAN tag.
+     */
+    private static boolean isVLAN( final int type )
+    {
+        return EthernetPacket.TYPE_VLAN == type ||
+            EthernetPacket.TYPE_QINQ == type ||
+            EthernetPacket.TYPE_QINQ_LEGACY == type;
+    }
+
+    private int readUnsignedShort( final int position )
+    {
+        return ( ( m_data[position] & 0xFF ) << 8 ) | ( m_data[position + 1] & 0xFF );
+    }
+
+    private int readInt( final int position )
+    {
+        return ( ( m_data[position] & 0xFF ) << 24 ) |
+            ( ( m_data[position + 1] & 0xFF ) << 16 ) |
+            ( ( m_data[position + 2] & 0xFF ) << 8 ) |
+            ( m_data[position + 3] & 0xFF );
+    }
+}
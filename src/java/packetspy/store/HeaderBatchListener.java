@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+/**
+ * Interface implemented to receive batches of packet headers.
+ */
+public interface HeaderBatchListener
+{
+    /**
+     * Method where batches are passed to listener. Only the rows listed
+     * in selection belong to the batch and only the columns requested
+     * by the producer of the batch are guaranteed to be populated. The
+     * columns and selection are reused once the method returns.
+     *
+     * @param columns the columns
+     * @param selection the selected rows in ascending order
+     * @param count the number of selected rows
+     */
+    void handleBatch( HeaderColumns columns, int[] selection, int count );
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import packetspy.model.EthernetPacket;
+import packetspy.model.IP4Packet;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.TCPPacket;
+import packetspy.model.UDPPacket;
+import packetspy.model.VLANPacket;
+
+/**
+ * A batch of packet headers stored column by column. Each column is a
+ * primitive array indexed by row so that filters and aggregates can be
+ * evaluated over one column at a time. Timestamps are held as longs and
+ * every other column as ints, with 0 for fields the packet did not have.
+ * Addresses are packed IPv4 addresses and are compared as unsigned values.
+ */
+public class HeaderColumns
+{
+    /**
+     * Column of capture timestamps in microseconds since the epoch.
+     */
+    public static final int COLUMN_TIMESTAMP = 0;
+
+    /**
+     * Column of packet lengths on the wire.
+     */
+    public static final int COLUMN_LENGTH = 1;
+
+    /**
+     * Column of ethertypes of the network layer.
+     */
+    public static final int COLUMN_ETHER_TYPE = 2;
+
+    /**
+     * Column of VLAN ids of the outermost VLAN tag.
+     */
+    public static final int COLUMN_VLAN = 3;
+
+    /**
+     * Column of IP protocols.
+     */
+    public static final int COLUMN_PROTOCOL = 4;
+
+    /**
+     * Column of IPv4 source addresses.
+     */
+    public static final int COLUMN_SOURCE_ADDRESS = 5;
+
+    /**
+     * Column of IPv4 destination addresses.
+     */
+    public static final int COLUMN_DESTINATION_ADDRESS = 6;
+
+    /**
+     * Column of TCP or UDP source ports.
+     */
+    public static final int COLUMN_SOURCE_PORT = 7;
+
+    /**
+     * Column of TCP or UDP destination ports.
+     */
+    public static final int COLUMN_DESTINATION_PORT = 8;
+
+    /**
+     * Column of TCP flags. A combination of TCP_* constants.
+     */
+    public static final int COLUMN_TCP_FLAGS = 9;
+
+    /**
+     * The number of columns.
+     */
+    public static final int COLUMN_COUNT = 10;
+
+    /**
+     * Mask that selects every column.
+     */
+    public static final int ALL_COLUMNS = ( 1 << COLUMN_COUNT ) - 1;
+
+    /**
+     * TCP FIN flag.
+     */
+    public static final int TCP_FIN = 0x01;
+
+    /**
+     * TCP SYN flag.
+     */
+    public static final int TCP_SYN = 0x02;
+
+    /**
+     * TCP RST flag.
+     */
+    public static final int TCP_RST = 0x04;
+
+    /**
+     * TCP PSH flag.
+     */
+    public static final int TCP_PSH = 0x08;
+
+    /**
+     * TCP ACK flag.
+     */
+    public static final int TCP_ACK = 0x10;
+
+    /**
+     * TCP URG flag.
+     */
+    public static final int TCP_URG = 0x20;
+
+    /**
+     * The timestamp column.
+     */
+    private long[] m_timestamps;
+
+    /**
+     * The int columns indexed by column. The entry for COLUMN_TIMESTAMP is null.
+     */
+    private final int[][] m_columns = new int[COLUMN_COUNT][];
+
+    /**
+     * The number of rows.
+     */
+    private int m_size;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param capacity the maximum number of rows
+     */
+    public HeaderColumns( final int capacity )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive" );
+        }
+        m_timestamps = new long[capacity];
+        for( int i = 1; i < COLUMN_COUNT; i++ )
+        {
+            m_columns[i] = new int[capacity];
+        }
+    }
+
+    /**
+     * Return the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the maximum number of rows.
+     *
+     * @return the maximum number of rows
+     */
+    public int getCapacity()
+    {
+        return m_timestamps.length;
+    }
+
+    /**
+     * Return true if no more rows can be added.
+     *
+     * @return true if no more rows can be added
+     */
+    public boolean isFull()
+    {
+        return m_size == m_timestamps.length;
+    }
+
+    /**
+     * Remove all rows.
+     */
+    public void clear()
+    {
+        m_size = 0;
+    }
+
+    /**
+     * Return the timestamp column. The array may be longer than the
+     * number of rows.
+     *
+     * @return the timestamp column
+     */
+    public long[] getTimestamps()
+    {
+        return m_timestamps;
+    }
+
+    /**
+     * Return an int column. The array may be longer than the number of rows.
+     *
+     * @param column one of the COLUMN_* constants other than COLUMN_TIMESTAMP
+     * @return the column
+     */
+    public int[] getColumn( final int column )
+    {
+        if( COLUMN_TIMESTAMP == column )
+        {
+            throw new IllegalArgumentException( "Timestamp column is not an int column" );
+        }
+        return m_columns[column];
+    }
+
+    /**
+     * Append a row with the specified timestamp and length and with
+     * every other column set to 0.
+     *
+     * @param timestamp the timestamp in microseconds since the epoch
+     * @param length the length of packet on the wire
+     * @return the row
+     */
+    public int addRow( final long timestamp, final int length )
+    {
+        if( isFull() )
+        {
+            throw new IllegalStateException( "Columns are full" );
+        }
+        final int row = m_size++;
+        m_timestamps[row] = timestamp;
+        m_columns[COLUMN_LENGTH][row] = length;
+        for( int i = COLUMN_LENGTH + 1; i < COLUMN_COUNT; i++ )
+        {
+            m_columns[i][row] = 0;
+        }
+        return row;
+    }
+
+    /**
+     * Set the value of an int column in row.
+     *
+     * @param column one of the COLUMN_* constants other than COLUMN_TIMESTAMP
+     * @param row the row
+     * @param value the value
+     */
+    public void set( final int column, final int row, final int value )
+    {
+        getColumn( column )[row] = value;
+    }
+
+    /**
+     * Append a row for the headers decoded from raw packet. The fields
+     * are taken from the outermost Ethernet, VLAN and IPv4 layers and the
+     * TCP or UDP layer carried by the outermost IP packet, so the headers
+     * of tunnelled packets and ICMP quoted datagrams are ignored.
+     *
+     * @param raw the raw packet
+     * @return the row
+     */
+    public int add( final RawPacket raw )
+    {
+        final int row =
+            addRow( PcapWriter.toTimestamp( raw.getSeconds(), raw.getUseconds() ), raw.getLength() );
+        setHeaders( row, raw );
+        return row;
+    }
+
+    /**
+     * Append a copy of a row of another batch.
+     *
+     * @param source the batch containing row
+     * @param row the row in source
+     * @return the row in this batch
+     */
+    public int add( final HeaderColumns source, final int row )
+    {
+        if( isFull() )
+        {
+            throw new IllegalStateException( "Columns are full" );
+        }
+        final int target = m_size++;
+        m_timestamps[target] = source.m_timestamps[row];
+        for( int i = 1; i < COLUMN_COUNT; i++ )
+        {
+            m_columns[i][target] = source.m_columns[i][row];
+        }
+        return target;
+    }
+
+    /**
+     * Set every column of row other than the timestamp and length
+     * from the headers decoded from raw packet.
+     *
+     * @param row the row
+     * @param raw the raw packet
+     */
+    void setHeaders( final int row, final RawPacket raw )
+    {
+        for( int i = COLUMN_LENGTH + 1; i < COLUMN_COUNT; i++ )
+        {
+            m_columns[i][row] = 0;
+        }
+        final int count = raw.getLayerCount();
+        for( int i = 1; i < count; i++ )
+        {
+            final int layerType = raw.getLayerType( i );
+            if( Packet.LAYER_ETHERNET == layerType )
+            {
+                m_columns[COLUMN_ETHER_TYPE][row] = ( (EthernetPacket) raw.getLayer( i ) ).getType();
+            }
+            else if( Packet.LAYER_VLAN == layerType )
+            {
+                final VLANPacket vlan = (VLANPacket) raw.getLayer( i );
+                if( 0 == m_columns[COLUMN_VLAN][row] )
+                {
+                    m_columns[COLUMN_VLAN][row] = vlan.getVlanId();
+                }
+                m_columns[COLUMN_ETHER_TYPE][row] = vlan.getType();
+            }
+            else if( Packet.LAYER_IP4 == layerType || Packet.LAYER_IP6 == layerType )
+            {
+                if( Packet.LAYER_IP4 == layerType )
+                {
+                    final IP4Packet ip = (IP4Packet) raw.getLayer( i );
+                    m_columns[COLUMN_PROTOCOL][row] = ip.getProtocol();
+                    m_columns[COLUMN_SOURCE_ADDRESS][row] = ip.getSourceAddress();
+                    m_columns[COLUMN_DESTINATION_ADDRESS][row] = ip.getDestinationAddress();
+                }
+                //Only the layer carried directly by the outermost IP packet is the
+                //transport layer, not a quoted datagram or a tunnelled packet
+                if( i + 1 < count )
+                {
+                    setTransportHeaders( row, raw.getLayer( i + 1 ) );
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set the port and flag columns of row from a TCP or UDP packet.
+     *
+     * @param row the row
+     * @param packet the packet carried by the outermost IP packet
+     */
+    private void setTransportHeaders( final int row, final Packet packet )
+    {
+        if( packet.isQuoted() )
+        {
+            return;
+        }
+        if( packet instanceof TCPPacket )
+        {
+            final TCPPacket tcp = (TCPPacket) packet;
+            m_columns[COLUMN_SOURCE_PORT][row] = tcp.getSourcePort();
+            m_columns[COLUMN_DESTINATION_PORT][row] = tcp.getDestinationPort();
+            m_columns[COLUMN_TCP_FLAGS][row] = getFlags( tcp );
+        }
+        else if( packet instanceof UDPPacket )
+        {
+            final UDPPacket udp = (UDPPacket) packet;
+            m_columns[COLUMN_SOURCE_PORT][row] = udp.getSourcePort();
+            m_columns[COLUMN_DESTINATION_PORT][row] = udp.getDestinationPort();
+        }
+    }
+
+    /**
+     * Set the number of rows after the columns have been filled directly.
+     *
+     * @param size the number of rows
+     */
+    void setSize( final int size )
+    {
+        m_size = size;
+    }
+
+    /**
+     * Grow the columns so they hold at least capacity rows. Discards
+     * the content of the columns.
+     *
+     * @param capacity the capacity
+     */
+    void ensureCapacity( final int capacity )
+    {
+        if( capacity > m_timestamps.length )
+        {
+            m_timestamps = new long[capacity];
+            for( int i = 1; i < COLUMN_COUNT; i++ )
+            {
+                m_columns[i] = new int[capacity];
+            }
+            m_size = 0;
+        }
+    }
+
+    /**
+     * Return the TCP_* flags set in tcp packet.
+     *
+     * @param tcp the packet
+     * @return the flags
+     */
+    private static int getFlags( final TCPPacket tcp )
+    {
+        int flags = 0;
+        if( tcp.isFinFlagSet() )
+        {
+            flags |= TCP_FIN;
+        }
+        if( tcp.isSynFlagSet() )
+        {
+            flags |= TCP_SYN;
+        }
+        if( tcp.isRstFlagSet() )
+        {
+            flags |= TCP_RST;
+        }
+        if( tcp.isPshFlagSet() )
+        {
+            flags |= TCP_PSH;
+        }
+        if( tcp.isAckFlagSet() )
+        {
+            flags |= TCP_ACK;
+        }
+        if( tcp.isUrgFlagSet() )
+        {
+            flags |= TCP_URG;
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+/**
+ * Predicate evaluated over a batch of packet headers one column at a
+ * time. A predicate narrows a selection vector of rows in place rather
+ * than being invoked once per row, and can rule out a whole batch from
+ * the minimum and maximum values of its columns.
+ *
+ * <p>Int column values are compared as unsigned 32 bit values so that
+ * address ranges behave as expected.</p>
+ */
+public abstract class HeaderPredicate
+{
+    /**
+     * Return predicate that matches rows where column equals value.
+     *
+     * @param column one of the HeaderColumns.COLUMN_* constants
+     * @param value the value
+     * @return the predicate
+     */
+    public static HeaderPredicate equal( final int column, final long value )
+    {
+        return range( column, value, value );
+    }
+
+    /**
+     * Return predicate that matches rows where column is between
+     * min and max inclusive.
+     *
+     * @param column one of the HeaderColumns.COLUMN_* constants
+     * @param min the minimum value
+     * @param max the maximum value
+     * @return the predicate
+     */
+    public static HeaderPredicate range( final int column, final long min, final long max )
+    {
+        if( column < 0 || column >= HeaderColumns.COLUMN_COUNT )
+        {
+            throw new IllegalArgumentException( "Unknown column " + column );
+        }
+        return new RangePredicate( column, min, max );
+    }
+
+    /**
+     * Return predicate that matches TCP packets with all of the flags in mask set.
+     *
+     * @param mask a combination of the HeaderColumns.TCP_* constants
+     * @return the predicate
+     */
+    public static HeaderPredicate flags( final int mask )
+    {
+        return new FlagsPredicate( mask );
+    }
+
+    /**
+     * Return predicate that matches rows matched by both predicates.
+     *
+     * @param first the first predicate
+     * @param second the second predicate
+     * @return the predicate
+     */
+    public static HeaderPredicate and( final HeaderPredicate first, final HeaderPredicate second )
+    {
+        return new AndPredicate( first, second );
+    }
+
+    /**
+     * Return predicate that matches rows matched by either predicate.
+     *
+     * @param first the first predicate
+     * @param second the second predicate
+     * @return the predicate
+     */
+    public static HeaderPredicate or( final HeaderPredicate first, final HeaderPredicate second )
+    {
+        return new OrPredicate( first, second );
+    }
+
+    /**
+     * Return the columns read by predicate as a mask of (1 &lt;&lt; column) bits.
+     *
+     * @return the columns read by predicate
+     */
+    public abstract int getColumns();
+
+    /**
+     * Return false if no row of a batch whose columns lie within the
+     * specified bounds can match.
+     *
+     * @param min the minimum value of each column
+     * @param max the maximum value of each column
+     * @return false if no row can match
+     */
+    public abstract boolean mayMatch( long[] min, long[] max );
+
+    /**
+     * Remove the rows that do not match from selection.
+     *
+     * @param columns the columns
+     * @param selection the selected rows in ascending order
+     * @param count the number of selected rows
+     * @return the number of rows still selected
+     */
+    public abstract int select( HeaderColumns columns, int[] selection, int count );
+
+    /**
+     * Predicate that matches a range of values in a column.
+     */
+    private static final class RangePredicate
+        extends HeaderPredicate
+    {
+        private final int m_column;
+        private final long m_min;
+        private final long m_max;
+
+        RangePredicate( final int column, final long min, final long max )
+        {
+            m_column = column;
+            m_min = min;
+            m_max = max;
+        }
+
+        public int getColumns()
+        {
+            return 1 << m_column;
+        }
+
+        public boolean mayMatch( final long[] min, final long[] max )
+        {
+            return max[m_column] >= m_min && min[m_column] <= m_max;
+        }
+
+        public int select( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            final long min = m_min;
+            final long max = m_max;
+            int selected = 0;
+            if( HeaderColumns.COLUMN_TIMESTAMP == m_column )
+            {
+                final long[] values = columns.getTimestamps();
+                for( int i = 0; i < count; i++ )
+                {
+                    final int row = selection[i];
+                    final long value = values[row];
+                    if( value >= min && value <= max )
+                    {
+                        selection[selected++] = row;
+                    }
+                }
+            }
+            else
+            {
+                final int[] values = columns.getColumn( m_column );
+                for( int i = 0; i < count; i++ )
+                {
+                    final int row = selection[i];
+                    final long value = values[row] & 0xFFFFFFFFL;
+                    if( value >= min && value <= max )
+                    {
+                        selection[selected++] = row;
+                    }
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Predicate that matches rows with all of a set of TCP flags.
+     */
+    private static final class FlagsPredicate
+        extends HeaderPredicate
+    {
+        private final int m_mask;
+
+        FlagsPredicate( final int mask )
+        {
+            m_mask = mask;
+        }
+
+        public int getColumns()
+        {
+            return 1 << HeaderColumns.COLUMN_TCP_FLAGS;
+        }
+
+        public boolean mayMatch( final long[] min, final long[] max )
+        {
+            //A value with every bit of mask set is at least mask
+            return max[HeaderColumns.COLUMN_TCP_FLAGS] >= m_mask;
+        }
+
+        public int select( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            final int mask = m_mask;
+            final int[] values = columns.getColumn( HeaderColumns.COLUMN_TCP_FLAGS );
+            int selected = 0;
+            for( int i = 0; i < count; i++ )
+            {
+                final int row = selection[i];
+                if( mask == ( values[row] & mask ) )
+                {
+                    selection[selected++] = row;
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Predicate that matches rows matched by two predicates.
+     */
+    private static final class AndPredicate
+        extends HeaderPredicate
+    {
+        private final HeaderPredicate m_first;
+        private final HeaderPredicate m_second;
+
+        AndPredicate( final HeaderPredicate first, final HeaderPredicate second )
+        {
+            m_first = first;
+            m_second = second;
+        }
+
+        public int getColumns()
+        {
+            return m_first.getColumns() | m_second.getColumns();
+        }
+
+        public boolean mayMatch( final long[] min, final long[] max )
+        {
+            return m_first.mayMatch( min, max ) && m_second.mayMatch( min, max );
+        }
+
+        public int select( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            final int selected = m_first.select( columns, selection, count );
+            return ( 0 == selected ) ? 0 : m_second.select( columns, selection, selected );
+        }
+    }
+
+    /**
+     * Predicate that matches rows matched by either of two predicates.
+     */
+    private static final class OrPredicate
+        extends HeaderPredicate
+    {
+        private final HeaderPredicate m_first;
+        private final HeaderPredicate m_second;
+
+        OrPredicate( final HeaderPredicate first, final HeaderPredicate second )
+        {
+            m_first = first;
+            m_second = second;
+        }
+
+        public int getColumns()
+        {
+            return m_first.getColumns() | m_second.getColumns();
+        }
+
+        public boolean mayMatch( final long[] min, final long[] max )
+        {
+            return m_first.mayMatch( min, max ) || m_second.mayMatch( min, max );
+        }
+
+        public int select( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            final int[] first = new int[count];
+            System.arraycopy( selection, 0, first, 0, count );
+            final int firstCount = m_first.select( columns, first, count );
+
+            //Only the rows rejected by the first predicate are passed to the second
+            final int[] second = new int[count - firstCount];
+            int secondCount = 0;
+            int j = 0;
+            for( int i = 0; i < count; i++ )
+            {
+                if( j < firstCount && first[j] == selection[i] )
+                {
+                    j++;
+                }
+                else
+                {
+                    second[secondCount++] = selection[i];
+                }
+            }
+            secondCount = m_second.select( columns, second, secondCount );
+
+            //Merge the two ascending selections
+            int selected = 0;
+            int a = 0;
+            int b = 0;
+            while( a < firstCount || b < secondCount )
+            {
+                if( b == secondCount || ( a < firstCount && first[a] < second[b] ) )
+                {
+                    selection[selected++] = first[a++];
+                }
+                else
+                {
+                    selection[selected++] = second[b++];
+                }
+            }
+            return selected;
+        }
+    }
+}
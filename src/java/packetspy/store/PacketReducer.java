@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import packetspy.model.io.ModelPacketListener;
+
+/**
+ * Listener that accumulates a partial result from a sequence of packets
+ * and that can combine partial results. {@link ParallelPcapReader} gives
+ * each chunk of a capture its own partial and merges the partials in
+ * capture order, so merge must be associative but need not be commutative.
+ */
+public interface PacketReducer
+    extends ModelPacketListener
+{
+    /**
+     * Create an empty reducer of the same kind as this reducer.
+     *
+     * @return the new reducer
+     */
+    PacketReducer createPartial();
+
+    /**
+     * Merge the result of a reducer created by {@link #createPartial()}
+     * into this reducer. The packets seen by partial follow the packets
+     * already seen by this reducer.
+     *
+     * @param partial the reducer
+     */
+    void merge( PacketReducer partial );
+}
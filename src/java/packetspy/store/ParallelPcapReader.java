@@ -0,0 +1,654 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.IOException;
+import packetspy.model.Packet;
+import packetspy.model.io.DissectorRegistry;
+import packetspy.model.io.ModelPacketFactory;
+import packetspy.model.io.ModelPacketListener;
+import packetspy.model.io.RawToModelPacketHandler;
+
+/**
+ * Reader that decodes a capture file on several threads. The capture is
+ * split into chunks that start on record boundaries, taken from the
+ * {@link TimeIndex} if present or found by resynchronizing on record
+ * headers otherwise. Each thread has its own {@link PcapReader} and
+ * {@link ModelPacketFactory} and decodes whole chunks.
+ *
+ * <p>Results are combined either by delivering the decoded packets to a
+ * single listener in capture order, or by merging per chunk
+ * {@link PacketReducer} partials in capture order.</p>
+ */
+public class ParallelPcapReader
+{
+    /**
+     * The default size of a chunk in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The capture file.
+     */
+    private final File m_file;
+
+    /**
+     * The number of threads that decode chunks.
+     */
+    private final int m_threadCount;
+
+    /**
+     * The deepest layer decoded. One of ModelPacketFactory.DEPTH_*.
+     */
+    private final int m_depth;
+
+    /**
+     * The offset of the start of each chunk followed by the size of the capture.
+     */
+    private final long[] m_chunks;
+
+    /**
+     * Create reader that fully decodes capture.
+     *
+     * @param file the capture file
+     * @param threadCount the number of threads that decode chunks
+     * @throws IOException if unable to read the capture
+     */
+    public ParallelPcapReader( final File file, final int threadCount )
+        throws IOException
+    {
+        this( file, threadCount, ModelPacketFactory.DEPTH_ALL, DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Create reader that decodes capture down to specified depth.
+     *
+     * @param file the capture file
+     * @param threadCount the number of threads that decode chunks
+     * @param depth the deepest layer decoded. One of ModelPacketFactory.DEPTH_*
+     * @param chunkSize the approximate size of a chunk in bytes
+     * @throws IOException if unable to read the capture
+     */
+    public ParallelPcapReader( final File file,
+                               final int threadCount,
+                               final int depth,
+                               final int chunkSize )
+        throws IOException
+    {
+        if( null == file )
+        {
+            throw new NullPointerException( "file" );
+        }
+        if( threadCount < 1 )
+        {
+            throw new IllegalArgumentException( "threadCount must be positive" );
+        }
+        if( chunkSize < 1 )
+        {
+            throw new IllegalArgumentException( "chunkSize must be positive" );
+        }
+        m_file = file;
+        m_threadCount = threadCount;
+        m_depth = depth;
+        final PcapReader reader = new PcapReader( file );
+        try
+        {
+            m_chunks = split( reader, chunkSize );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Return the number of chunks the capture was split into.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount()
+    {
+        return m_chunks.length - 1;
+    }
+
+    /**
+     * Decode capture and pass the packets to listener in capture order.
+     * The listener is invoked on the calling thread. At most two chunks
+     * per thread are held in memory waiting to be delivered.
+     *
+     * @param listener the listener
+     * @return the number of packets passed to listener
+     * @throws IOException if unable to read capture or a record is corrupt
+     */
+    public long read( final ModelPacketListener listener )
+        throws IOException
+    {
+        final OrderedJob job = new OrderedJob( m_threadCount * 2 );
+        final Thread[] threads = start( job );
+        long count = 0;
+        try
+        {
+            for( int chunk = 0; chunk < getChunkCount(); chunk++ )
+            {
+                final PacketBuffer packets = job.take( chunk );
+                if( null == packets )
+                {
+                    break;
+                }
+                final Packet[] buffered = packets.m_packets;
+                final int size = packets.m_size;
+                for( int i = 0; i < size; i++ )
+                {
+                    listener.handlePacket( buffered[i] );
+                }
+                count += size;
+            }
+        }
+        finally
+        {
+            //Stops the workers early if listener failed
+            job.fail( null );
+            join( threads );
+        }
+        job.rethrow();
+        return count;
+    }
+
+    /**
+     * Decode capture and merge the result of every chunk into result.
+     * Each chunk is reduced by a partial created from result. Partials
+     * are merged in capture order as soon as the chunks before them
+     * have been merged.
+     *
+     * @param result the reducer that receives the merged result
+     * @return the number of packets reduced
+     * @throws IOException if unable to read capture or a record is corrupt
+     */
+    public long reduce( final PacketReducer result )
+        throws IOException
+    {
+        final ReduceJob job = new ReduceJob( result );
+        join( start( job ) );
+        job.rethrow();
+        return job.m_count;
+    }
+
+    /**
+     * Start the threads that run job.
+     *
+     * @param job the job
+     * @return the threads
+     */
+    private Thread[] start( final Job job )
+    {
+        final int threadCount = Math.min( m_threadCount, Math.max( 1, getChunkCount() ) );
+        final Thread[] threads = new Thread[threadCount];
+        for( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread( job, "PcapReader-" + i );
+            threads[i].setDaemon( true );
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    /**
+     * Wait for threads to complete.
+     *
+     * @param threads the threads
+     * @throws IOException if interrupted while waiting
+     */
+    private static void join( final Thread[] threads )
+        throws IOException
+    {
+        for( int i = 0; i < threads.length; i++ )
+        {
+            try
+            {
+                threads[i].join();
+            }
+            catch( final InterruptedException ie )
+            {
+                throw new IOException( "Interrupted waiting for " + threads[i].getName() );
+            }
+        }
+    }
+
+    /**
+     * Split capture into chunks of approximately chunkSize bytes.
+     *
+     * @param reader the reader of the capture
+     * @param chunkSize the approximate size of a chunk
+     * @return the offset of the start of each chunk followed by the size of the capture
+     */
+    private static long[] split( final PcapReader reader, final int chunkSize )
+        throws IOException
+    {
+        final long size = reader.getSize();
+        final TimeIndex index = reader.getIndex();
+        //The offset of the start of each chunk followed by the size of the capture
+        long[] chunks = new long[16];
+        int count = 0;
+        long previous = -1;
+        if( null != index )
+        {
+            //Blocks start on records so no resynchronization is required
+            final int blockCount = index.size();
+            for( int i = 0; i < blockCount; i++ )
+            {
+                final long offset = index.getOffset( i );
+                if( -1 == previous || offset - previous >= chunkSize )
+                {
+                    chunks = append( chunks, count++, offset );
+                    previous = offset;
+                }
+            }
+        }
+        else if( size > PcapWriter.FILE_HEADER_LENGTH )
+        {
+            //The first record follows the file header and need not pass the
+            //resynchronization heuristic that locates later boundaries
+            chunks = append( chunks, count++, PcapWriter.FILE_HEADER_LENGTH );
+            previous = PcapWriter.FILE_HEADER_LENGTH;
+            long offset = PcapWriter.FILE_HEADER_LENGTH + chunkSize;
+            while( offset < size )
+            {
+                final long start = reader.findRecord( offset );
+                if( start > previous && start < size )
+                {
+                    chunks = append( chunks, count++, start );
+                    previous = start;
+                }
+                offset += chunkSize;
+            }
+        }
+
+        chunks = append( chunks, count++, size );
+        final long[] result = new long[count];
+        System.arraycopy( chunks, 0, result, 0, count );
+        return result;
+    }
+
+    /**
+     * Store value at index of array, growing array if it is full.
+     *
+     * @param array the array
+     * @param index the index
+     * @param value the value
+     * @return the array or its replacement if it grew
+     */
+    private static long[] append( final long[] array, final int index, final long value )
+    {
+        long[] result = array;
+        if( index == array.length )
+        {
+            result = new long[array.length * 2];
+            System.arraycopy( array, 0, result, 0, array.length );
+        }
+        result[index] = value;
+        return result;
+    }
+
+    /**
+     * Work shared by the decoding threads. Threads claim chunks in
+     * order until every chunk is claimed or a thread fails.
+     */
+    private abstract class Job
+        implements Runnable
+    {
+        /**
+         * The next chunk to claim.
+         */
+        private int m_next;
+
+        /**
+         * The first failure of a thread.
+         */
+        private Throwable m_error;
+
+        /**
+         * True once the job has been stopped.
+         */
+        private boolean m_stopped;
+
+        public void run()
+        {
+            try
+            {
+                final ModelPacketFactory factory =
+                    new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), m_depth );
+                final PcapReader reader = new PcapReader( m_file );
+                try
+                {
+                    int chunk = claim();
+                    while( -1 != chunk )
+                    {
+                        process( chunk, reader, factory );
+                        chunk = claim();
+                    }
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+            catch( final Throwable t )
+            {
+                fail( t );
+            }
+        }
+
+        /**
+         * Claim the next chunk.
+         *
+         * @return the chunk or -1 if there are no more chunks to process
+         */
+        private synchronized int claim()
+        {
+            while( !m_stopped && m_next < getChunkCount() && !isReady( m_next ) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    m_stopped = true;
+                }
+            }
+            if( m_stopped || m_next >= getChunkCount() )
+            {
+                return -1;
+            }
+            return m_next++;
+        }
+
+        /**
+         * Read the records of chunk and decode them into listener.
+         *
+         * @param chunk the chunk
+         * @param reader the reader owned by the current thread
+         * @param factory the factory owned by the current thread
+         * @param listener the listener
+         * @throws IOException if unable to read capture or a record is corrupt
+         */
+        final void read( final int chunk,
+                         final PcapReader reader,
+                         final ModelPacketFactory factory,
+                         final ModelPacketListener listener )
+            throws IOException
+        {
+            reader.read( m_chunks[chunk],
+                         m_chunks[chunk + 1],
+                         Long.MIN_VALUE,
+                         Long.MAX_VALUE,
+                         new RawToModelPacketHandler( factory, listener ) );
+        }
+
+        /**
+         * Stop the job recording error if it is the first failure.
+         *
+         * @param error the failure or null if the job was stopped without failing
+         */
+        final synchronized void fail( final Throwable error )
+        {
+            if( null == m_error && !m_stopped )
+            {
+                m_error = error;
+            }
+            m_stopped = true;
+            notifyAll();
+        }
+
+        /**
+         * Return true if the job has been stopped.
+         *
+         * @return true if the job has been stopped
+         */
+        final boolean isStopped()
+        {
+            return m_stopped;
+        }
+
+        /**
+         * Rethrow the failure of a thread, if any.
+         *
+         * @throws IOException if a thread failed to read the capture
+         */
+        final synchronized void rethrow()
+            throws IOException
+        {
+            if( m_error instanceof IOException )
+            {
+                throw (IOException) m_error;
+            }
+            else if( m_error instanceof RuntimeException )
+            {
+                throw (RuntimeException) m_error;
+            }
+            else if( m_error instanceof Error )
+            {
+                throw (Error) m_error;
+            }
+        }
+
+        /**
+         * Return true if chunk may be claimed. Called while holding the
+         * lock of the job.
+         *
+         * @param chunk the chunk
+         * @return true if chunk may be claimed
+         */
+        boolean isReady( final int chunk )
+        {
+            return true;
+        }
+
+        /**
+         * Process chunk.
+         *
+         * @param chunk the chunk
+         * @param reader the reader owned by the current thread
+         * @param factory the factory owned by the current thread
+         * @throws IOException if unable to read capture or a record is corrupt
+         */
+        abstract void process( int chunk, PcapReader reader, ModelPacketFactory factory )
+            throws IOException;
+    }
+
+    /**
+     * Job that buffers the packets of each chunk until the listener
+     * has consumed the chunks before it.
+     */
+    private class OrderedJob
+        extends Job
+    {
+        /**
+         * The decoded packets of the chunks waiting to be delivered,
+         * indexed by chunk modulo the length of the array.
+         */
+        private final PacketBuffer[] m_pending;
+
+        /**
+         * The number of chunks taken by the listener thread.
+         */
+        private int m_taken;
+
+        OrderedJob( final int window )
+        {
+            m_pending = new PacketBuffer[window];
+        }
+
+        boolean isReady( final int chunk )
+        {
+            return chunk < m_taken + m_pending.length;
+        }
+
+        void process( final int chunk, final PcapReader reader, final ModelPacketFactory factory )
+            throws IOException
+        {
+            final PacketBuffer packets = new PacketBuffer();
+            read( chunk, reader, factory, packets );
+            synchronized( this )
+            {
+                m_pending[chunk % m_pending.length] = packets;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait for the packets of chunk.
+         *
+         * @param chunk the chunk
+         * @return the packets or null if the job was stopped
+         */
+        synchronized PacketBuffer take( final int chunk )
+        {
+            final int slot = chunk % m_pending.length;
+            while( !isStopped() && null == m_pending[slot] )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ie )
+                {
+                    fail( new IOException( "Interrupted waiting for chunk " + chunk ) );
+                }
+            }
+            final PacketBuffer packets = m_pending[slot];
+            if( null == packets )
+            {
+                return null;
+            }
+            m_pending[slot] = null;
+            m_taken = chunk + 1;
+            notifyAll();
+            return packets;
+        }
+    }
+
+    /**
+     * Job that reduces each chunk into a partial and merges the
+     * partials in chunk order.
+     */
+    private class ReduceJob
+        extends Job
+    {
+        /**
+         * The reducer that receives the merged result.
+         */
+        private final PacketReducer m_result;
+
+        /**
+         * The partials of reduced chunks waiting for the chunks before them.
+         */
+        private final PacketReducer[] m_partials;
+
+        /**
+         * The number of records of each chunk waiting to be merged.
+         */
+        private final long[] m_counts;
+
+        /**
+         * The number of chunks merged into result.
+         */
+        private int m_merged;
+
+        /**
+         * The number of packets merged into result.
+         */
+        private long m_count;
+
+        ReduceJob( final PacketReducer result )
+        {
+            m_result = result;
+            m_partials = new PacketReducer[getChunkCount()];
+            m_counts = new long[getChunkCount()];
+        }
+
+        void process( final int chunk, final PcapReader reader, final ModelPacketFactory factory )
+            throws IOException
+        {
+            final PacketReducer partial = m_result.createPartial();
+            final PacketCounter counter = new PacketCounter( partial );
+            read( chunk, reader, factory, counter );
+            synchronized( this )
+            {
+                m_partials[chunk] = partial;
+                m_counts[chunk] = counter.m_count;
+                while( m_merged < m_partials.length && null != m_partials[m_merged] )
+                {
+                    m_result.merge( m_partials[m_merged] );
+                    m_count += m_counts[m_merged];
+                    m_partials[m_merged] = null;
+                    m_merged++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener that retains the packets passed to it.
+     */
+    private static class PacketBuffer
+        implements ModelPacketListener
+    {
+        private Packet[] m_packets = new Packet[256];
+
+        private int m_size;
+
+        public void handlePacket( final Packet packet )
+        {
+            if( m_size == m_packets.length )
+            {
+                final Packet[] packets = new Packet[m_size * 2];
+                System.arraycopy( m_packets, 0, packets, 0, m_size );
+                m_packets = packets;
+            }
+            m_packets[m_size++] = packet;
+        }
+    }
+
+    /**
+     * Listener that counts the packets passed on to another listener.
+     */
+    private static class PacketCounter
+        implements ModelPacketListener
+    {
+        private final ModelPacketListener m_listener;
+
+        private long m_count;
+
+        PacketCounter( final ModelPacketListener listener )
+        {
+            m_listener = listener;
+        }
+
+        public void handlePacket( final Packet packet )
+        {
+            m_count++;
+            m_listener.handlePacket( packet );
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import packetspy.capture.RawPacketHandler;
+
+/**
+ * Reader for capture files in the libpcap format. The file is memory
+ * mapped in windows so files larger than the address space of a single
+ * mapping can be read. If a {@link TimeIndex} is present alongside the
+ * capture, records captured during a time range are located by seeking
+ * directly to the block that contains the start of the range rather
+ * than scanning from the start of the file.
+ *
+ * <p>Both byte orders and the nanosecond variant of the format are
+ * supported. The reader is not thread safe.</p>
+ */
+public class PcapReader
+{
+    /**
+     * The size of each mapped window of the capture.
+     */
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The largest record accepted. Larger records indicate a corrupt file.
+     */
+    private static final int MAX_RECORD_LENGTH = 256 * 1024;
+
+    /**
+     * The number of consecutive plausible record headers required to
+     * accept an offset as the start of a record when resynchronizing.
+     */
+    private static final int RESYNC_RECORD_COUNT = 4;
+
+    /**
+     * The largest gap in seconds accepted between consecutive records
+     * when resynchronizing.
+     */
+    private static final int RESYNC_MAX_GAP = 24 * 60 * 60;
+
+    /**
+     * The channel of the capture file.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The size of the capture file.
+     */
+    private final long m_size;
+
+    /**
+     * The byte order of the capture.
+     */
+    private final ByteOrder m_order;
+
+    /**
+     * True if timestamps are in nanoseconds rather than microseconds.
+     */
+    private final boolean m_nanoseconds;
+
+    /**
+     * The link type of the capture.
+     */
+    private final int m_linkType;
+
+    /**
+     * The maximum number of bytes stored of each packet.
+     */
+    private final int m_snapLength;
+
+    /**
+     * The index of the capture. May be null.
+     */
+    private final TimeIndex m_index;
+
+    /**
+     * The currently mapped window.
+     */
+    private ByteBuffer m_window;
+
+    /**
+     * The offset in the capture of the start of the window.
+     */
+    private long m_windowStart;
+
+    /**
+     * Open capture and the index alongside it, if present.
+     *
+     * @param file the capture file
+     * @throws IOException if unable to read the capture or index
+     */
+    public PcapReader( final File file )
+        throws IOException
+    {
+        this( file, loadIndex( file ) );
+    }
+
+    /**
+     * Open capture using specified index.
+     *
+     * @param file the capture file
+     * @param index the index. May be null.
+     * @throws IOException if unable to read the capture or it is not a pcap file
+     */
+    public PcapReader( final File file, final TimeIndex index )
+        throws IOException
+    {
+        m_channel = new FileInputStream( file ).getChannel();
+        m_size = m_channel.size();
+        m_index = index;
+        try
+        {
+            if( m_size < PcapWriter.FILE_HEADER_LENGTH )
+            {
+                throw new IOException( "Truncated capture " + file );
+            }
+            final ByteBuffer header = ByteBuffer.allocate( PcapWriter.FILE_HEADER_LENGTH );
+            while( header.hasRemaining() )
+            {
+                if( -1 == m_channel.read( header, header.position() ) )
+                {
+                    throw new IOException( "Truncated capture " + file );
+                }
+            }
+            final int magic = header.getInt( 0 );
+            if( PcapWriter.MAGIC == magic || PcapWriter.MAGIC_NANOSECONDS == magic )
+            {
+                m_order = ByteOrder.BIG_ENDIAN;
+            }
+            else if( PcapWriter.MAGIC == swap( magic ) || PcapWriter.MAGIC_NANOSECONDS == swap( magic ) )
+            {
+                m_order = ByteOrder.LITTLE_ENDIAN;
+            }
+            else
+            {
+                throw new IOException( "Not a pcap file " + file );
+            }
+            header.order( m_order );
+            m_nanoseconds = PcapWriter.MAGIC_NANOSECONDS == header.getInt( 0 );
+            m_snapLength = header.getInt( 16 );
+            m_linkType = header.getInt( 20 ) & 0x0FFFFFFF;
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Return the link type of the capture.
+     *
+     * @return the link type of the capture.
+     */
+    public int getLinkType()
+    {
+        return m_linkType;
+    }
+
+    /**
+     * Return the maximum number of bytes stored of each packet.
+     *
+     * @return the maximum number of bytes stored of each packet.
+     */
+    public int getSnapLength()
+    {
+        return m_snapLength;
+    }
+
+    /**
+     * Return the size of the capture file.
+     *
+     * @return the size of the capture file.
+     */
+    public long getSize()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the index of the capture.
+     *
+     * @return the index or null if capture is not indexed.
+     */
+    public TimeIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Pass every record in capture to handler.
+     *
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final RawPacketHandler handler )
+        throws IOException
+    {
+        return read( PcapWriter.FILE_HEADER_LENGTH, m_size, Long.MIN_VALUE, Long.MAX_VALUE, handler );
+    }
+
+    /**
+     * Pass the records captured at or after start and before end to
+     * handler. If the capture is indexed only the blocks that may
+     * contain such records are read.
+     *
+     * @param start the start of range in microseconds since the epoch
+     * @param end the end of range in microseconds since the epoch
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final long start, final long end, final RawPacketHandler handler )
+        throws IOException
+    {
+        if( null == m_index || 0 == m_index.size() )
+        {
+            return read( PcapWriter.FILE_HEADER_LENGTH, m_size, start, end, handler );
+        }
+        final int first = m_index.findBlock( start );
+        final int last = m_index.findBlock( end - 1 );
+        final long offset = m_index.getOffset( first );
+        final long limit = ( last + 1 < m_index.size() ) ? m_index.getOffset( last + 1 ) : m_size;
+        return read( offset, limit, start, end, handler );
+    }
+
+    /**
+     * Pass the records in the specified blocks to handler. Blocks are
+     * usually the result of querying a {@link FlowIndex}. If the capture
+     * is not indexed every record is passed to handler.
+     *
+     * @param blocks the blocks
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture
+     */
+    public long read( final BlockBitmap blocks, final RawPacketHandler handler )
+        throws IOException
+    {
+        if( null == m_index )
+        {
+            return read( handler );
+        }
+        final int[] members = blocks.toArray();
+        final int size = m_index.size();
+        long count = 0;
+        for( int i = 0; i < members.length && members[i] < size; i++ )
+        {
+            final int block = members[i];
+            final long offset = m_index.getOffset( block );
+            final long limit = ( block + 1 < size ) ? m_index.getOffset( block + 1 ) : m_size;
+            count += read( offset, limit, Long.MIN_VALUE, Long.MAX_VALUE, handler );
+        }
+        return count;
+    }
+
+    /**
+     * Pass the records whose headers start at or after offset and before
+     * limit and that were captured at or after start and before end to
+     * handler. The offset must be the start of a record.
+     *
+     * @param offset the offset of the first record
+     * @param limit the offset at which to stop reading
+     * @param start the start of range in microseconds since the epoch
+     * @param end the end of range in microseconds since the epoch
+     * @param handler the handler
+     * @return the number of records passed to handler
+     * @throws IOException if unable to read capture or a record is corrupt
+     */
+    public long read( final long offset,
+                      final long limit,
+                      final long start,
+                      final long end,
+                      final RawPacketHandler handler )
+        throws IOException
+    {
+        final long stop = Math.min( limit, m_size );
+        final int divisor = m_nanoseconds ? 1000 : 1;
+        long position = offset;
+        long count = 0;
+        while( position < stop && position + PcapWriter.RECORD_HEADER_LENGTH <= m_size )
+        {
+            ByteBuffer window = map( position, PcapWriter.RECORD_HEADER_LENGTH );
+            int index = (int) ( position - m_windowStart );
+            final int seconds = window.getInt( index );
+            final int useconds = window.getInt( index + 4 ) / divisor;
+            final int capturedLength = window.getInt( index + 8 );
+            final int length = window.getInt( index + 12 );
+            if( capturedLength < 0 || capturedLength > MAX_RECORD_LENGTH )
+            {
+                throw new IOException( "Corrupt record at offset " + position );
+            }
+            final long next = position + PcapWriter.RECORD_HEADER_LENGTH + capturedLength;
+            if( next > m_size )
+            {
+                //Record was truncated when capture was interrupted
+                break;
+            }
+            final long timestamp = PcapWriter.toTimestamp( seconds, useconds );
+            if( timestamp >= start && timestamp < end )
+            {
+                window = map( position, PcapWriter.RECORD_HEADER_LENGTH + capturedLength );
+                index = (int) ( position - m_windowStart );
+                final byte[] data = new byte[capturedLength];
+                window.position( index + PcapWriter.RECORD_HEADER_LENGTH );
+                window.get( data );
+                handler.handlePacket( m_linkType, length, capturedLength, seconds, useconds, data );
+                count++;
+            }
+            position = next;
+        }
+        return count;
+    }
+
+    /**
+     * Return the offset of the first record that starts at or after
+     * offset. The pcap format has no record marker so a candidate offset
+     * is accepted when it and the records that follow it have plausible
+     * headers. This allows a capture to be split at arbitrary offsets and
+     * the pieces read independently.
+     *
+     * @param offset the offset to search from
+     * @return the offset of the record or the size of the capture if there is none
+     * @throws IOException if unable to read capture
+     */
+    public long findRecord( final long offset )
+        throws IOException
+    {
+        long position = Math.max( offset, PcapWriter.FILE_HEADER_LENGTH );
+        while( position + PcapWriter.RECORD_HEADER_LENGTH <= m_size )
+        {
+            if( isRecordChain( position ) )
+            {
+                return position;
+            }
+            position++;
+        }
+        return m_size;
+    }
+
+    /**
+     * Return true if a plausible chain of record headers starts at offset.
+     *
+     * @param offset the offset
+     * @return true if a plausible chain of record headers starts at offset
+     */
+    private boolean isRecordChain( final long offset )
+        throws IOException
+    {
+        final int fractionLimit = m_nanoseconds ? 1000000000 : 1000000;
+        final int maxCapturedLength =
+            ( m_snapLength > 0 ) ? Math.min( m_snapLength, MAX_RECORD_LENGTH ) : MAX_RECORD_LENGTH;
+        long position = offset;
+        int previousSeconds = 0;
+        for( int i = 0; i < RESYNC_RECORD_COUNT; i++ )
+        {
+            if( position + PcapWriter.RECORD_HEADER_LENGTH > m_size )
+            {
+                //The chain ran into the end of the capture
+                return i > 0;
+            }
+            final ByteBuffer window = map( position, PcapWriter.RECORD_HEADER_LENGTH );
+            final int index = (int) ( position - m_windowStart );
+            final int seconds = window.getInt( index );
+            final int fraction = window.getInt( index + 4 );
+            final int capturedLength = window.getInt( index + 8 );
+            final int length = window.getInt( index + 12 );
+            if( fraction < 0 || fraction >= fractionLimit ||
+                capturedLength < 0 || capturedLength > maxCapturedLength ||
+                length < capturedLength || length > MAX_RECORD_LENGTH ||
+                ( i > 0 && Math.abs( seconds - previousSeconds ) > RESYNC_MAX_GAP ) )
+            {
+                return false;
+            }
+            previousSeconds = seconds;
+            position += PcapWriter.RECORD_HEADER_LENGTH + capturedLength;
+        }
+        return true;
+    }
+
+    /**
+     * Close the capture.
+     *
+     * @throws IOException if unable to close capture
+     */
+    public void close()
+        throws IOException
+    {
+        m_window = null;
+        m_channel.close();
+    }
+
+    /**
+     * Return a window that contains the specified region of the capture.
+     *
+     * @param position the offset of region
+     * @param length the length of region
+     * @return the window
+     */
+    private ByteBuffer map( final long position, final int length )
+        throws IOException
+    {
+        if( null == m_window ||
+            position < m_windowStart ||
+            position + length > m_windowStart + m_window.limit() )
+        {
+            final long size = Math.min( Math.max( WINDOW_SIZE, length ), m_size - position );
+            m_window = m_channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+            m_window.order( m_order );
+            m_windowStart = position;
+        }
+        return m_window;
+    }
+
+    /**
+     * Load the index alongside capture if present.
+     *
+     * @param file the capture file
+     * @return the index or null if capture is not indexed
+     */
+    private static TimeIndex loadIndex( final File file )
+        throws IOException
+    {
+        final File indexFile = TimeIndex.getIndexFile( file );
+        if( indexFile.exists() )
+        {
+            return TimeIndex.load( indexFile );
+        }
+        return null;
+    }
+
+    /**
+     * Reverse the byte order of value.
+     *
+     * @param value the value
+     * @return the value with byte order reversed
+     */
+    private static int swap( final int value )
+    {
+        return ( value >>> 24 ) |
+            ( ( value >> 8 ) & 0xFF00 ) |
+            ( ( value << 8 ) & 0xFF0000 ) |
+            ( value << 24 );
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import packetspy.capture.RawPacketHandler;
+
+/**
+ * Handler that writes raw packets to a file in the libpcap format and
+ * maintains a {@link TimeIndex} in a sidecar file as it goes. Index
+ * entries are appended when each block is started so an index written
+ * by an interrupted capture covers all the records that were flushed.
+ *
+ * <p>The writer is not thread safe and is expected to be driven from
+ * the capture thread. As handlePacket can not throw an IOException, the
+ * first error writing the capture is recorded, subsequent packets are
+ * dropped and the error is rethrown from flush() and close().</p>
+ */
+public class PcapWriter
+    implements RawPacketHandler
+{
+    /**
+     * The magic number of a pcap file with microsecond timestamps.
+     */
+    public static final int MAGIC = 0xA1B2C3D4;
+
+    /**
+     * The magic number of a pcap file with nanosecond timestamps.
+     */
+    public static final int MAGIC_NANOSECONDS = 0xA1B23C4D;
+
+    /**
+     * The length of the pcap file header.
+     */
+    public static final int FILE_HEADER_LENGTH = 24;
+
+    /**
+     * The length of the header preceding each record.
+     */
+    public static final int RECORD_HEADER_LENGTH = 16;
+
+    /**
+     * The default interval of capture time covered by each block. (1 second)
+     */
+    public static final long DEFAULT_INTERVAL = 1000 * 1000;
+
+    /**
+     * The default maximum number of bytes in each block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the buffer records are written into.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The channel the capture is written to.
+     */
+    private final FileChannel m_channel;
+
+    /**
+     * The channel the index is written to.
+     */
+    private final FileChannel m_indexChannel;
+
+    /**
+     * The buffer records are written into.
+     */
+    private final ByteBuffer m_buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+    /**
+     * The buffer index entries are written into.
+     */
+    private final ByteBuffer m_indexBuffer = ByteBuffer.allocate( 64 * TimeIndex.ENTRY_LENGTH );
+
+    /**
+     * The link type of the capture.
+     */
+    private final int m_linkType;
+
+    /**
+     * The maximum number of bytes stored of each packet.
+     */
+    private final int m_snapLength;
+
+    /**
+     * The interval of capture time covered by each block in microseconds.
+     */
+    private final long m_interval;
+
+    /**
+     * The maximum number of bytes in each block.
+     */
+    private final int m_blockSize;
+
+    /**
+     * The offset in the capture file of the next record.
+     */
+    private long m_position;
+
+    /**
+     * The offset in the capture file of the current block.
+     */
+    private long m_blockOffset;
+
+    /**
+     * The timestamp in the index of the current block.
+     */
+    private long m_blockTimestamp;
+
+    /**
+     * The number of blocks started.
+     */
+    private int m_blockCount;
+
+    /**
+     * The first error that occured writing capture, if any.
+     */
+    private IOException m_error;
+
+    /**
+     * The number of records written.
+     */
+    private long m_recordCount;
+
+    /**
+     * The number of packets dropped.
+     */
+    private long m_droppedCount;
+
+    /**
+     * Create writer with the default block interval and size.
+     *
+     * @param file the capture file
+     * @param linkType the link type of the capture
+     * @param snapLength the maximum number of bytes stored of each packet
+     * @throws IOException if unable to create capture or index file
+     */
+    public PcapWriter( final File file, final int linkType, final int snapLength )
+        throws IOException
+    {
+        this( file, linkType, snapLength, DEFAULT_INTERVAL, DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     * Create writer. The index file is created alongside the capture file.
+     *
+     * @param file the capture file
+     * @param linkType the link type of the capture
+     * @param snapLength the maximum number of bytes stored of each packet
+     * @param interval the interval of capture time covered by each block in microseconds
+     * @param blockSize the maximum number of bytes in each block
+     * @throws IOException if unable to create capture or index file
+     */
+    public PcapWriter( final File file,
+                       final int linkType,
+                       final int snapLength,
+                       final long interval,
+                       final int blockSize )
+        throws IOException
+    {
+        if( snapLength <= 0 )
+        {
+            throw new IllegalArgumentException( "snapLength <= 0" );
+        }
+        if( interval <= 0 )
+        {
+            throw new IllegalArgumentException( "interval <= 0" );
+        }
+        if( blockSize <= 0 )
+        {
+            throw new IllegalArgumentException( "blockSize <= 0" );
+        }
+        m_linkType = linkType;
+        m_snapLength = snapLength;
+        m_interval = interval;
+        m_blockSize = blockSize;
+
+        m_channel = new FileOutputStream( file ).getChannel();
+        try
+        {
+            m_indexChannel = new FileOutputStream( TimeIndex.getIndexFile( file ) ).getChannel();
+        }
+        catch( final IOException ioe )
+        {
+            m_channel.close();
+            throw ioe;
+        }
+
+        m_buffer.putInt( MAGIC );
+        m_buffer.putShort( (short) 2 );
+        m_buffer.putShort( (short) 4 );
+        m_buffer.putInt( 0 );
+        m_buffer.putInt( 0 );
+        m_buffer.putInt( snapLength );
+        m_buffer.putInt( linkType );
+        m_position = FILE_HEADER_LENGTH;
+        TimeIndex.writeHeader( m_indexBuffer, interval );
+    }
+
+    /**
+     * Append packet to capture. Packets with a link type other than the
+     * link type of the capture are dropped.
+     */
+    public void handlePacket( final int linkType,
+                              final int length,
+                              final int capturedLength,
+                              final int seconds,
+                              final int useconds,
+                              final byte[] data )
+    {
+        if( null != m_error || linkType != m_linkType )
+        {
+            m_droppedCount++;
+            return;
+        }
+        final int stored = Math.min( m_snapLength, Math.min( capturedLength, data.length ) );
+        final long timestamp = toTimestamp( seconds, useconds );
+        try
+        {
+            if( 0 == m_blockCount ||
+                timestamp - m_blockTimestamp >= m_interval ||
+                m_position - m_blockOffset >= m_blockSize )
+            {
+                startBlock( timestamp );
+            }
+            if( m_buffer.remaining() < RECORD_HEADER_LENGTH + stored )
+            {
+                writeBuffer();
+            }
+            m_buffer.putInt( seconds );
+            m_buffer.putInt( useconds );
+            m_buffer.putInt( stored );
+            m_buffer.putInt( length );
+            if( stored > m_buffer.remaining() )
+            {
+                writeBuffer();
+                final ByteBuffer record = ByteBuffer.wrap( data, 0, stored );
+                while( record.hasRemaining() )
+                {
+                    m_channel.write( record );
+                }
+            }
+            else
+            {
+                m_buffer.put( data, 0, stored );
+            }
+        }
+        catch( final IOException ioe )
+        {
+            m_error = ioe;
+            m_droppedCount++;
+            return;
+        }
+        m_position += RECORD_HEADER_LENGTH + stored;
+        m_recordCount++;
+    }
+
+    /**
+     * Write any buffered records and index entries to disk.
+     *
+     * @throws IOException if an error occured writing capture now or
+     *         while handling an earlier packet
+     */
+    public void flush()
+        throws IOException
+    {
+        if( null != m_error )
+        {
+            throw m_error;
+        }
+        try
+        {
+            writeBuffer();
+            writeIndexBuffer();
+        }
+        catch( final IOException ioe )
+        {
+            m_error = ioe;
+            throw ioe;
+        }
+    }
+
+    /**
+     * Flush buffered records and close the capture and index files.
+     *
+     * @throws IOException if an error occured writing or closing files
+     */
+    public void close()
+        throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            try
+            {
+                m_channel.close();
+            }
+            finally
+            {
+                m_indexChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Return the number of records written.
+     *
+     * @return the number of records written.
+     */
+    public long getRecordCount()
+    {
+        return m_recordCount;
+    }
+
+    /**
+     * Return the number of packets dropped due to an earlier error
+     * or an unexpected link type.
+     *
+     * @return the number of packets dropped.
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Return the number of blocks started. The last record written
+     * is in block getBlockCount() - 1.
+     *
+     * @return the number of blocks started.
+     */
+    public int getBlockCount()
+    {
+        return m_blockCount;
+    }
+
+    /**
+     * Return the first error that occured writing capture, if any.
+     *
+     * @return the error or null.
+     */
+    public IOException getError()
+    {
+        return m_error;
+    }
+
+    /**
+     * Convert a capture time into microseconds since the epoch.
+     *
+     * @param seconds the capture time in seconds
+     * @param useconds the capture time micro seconds
+     * @return the timestamp
+     */
+    public static long toTimestamp( final int seconds, final int useconds )
+    {
+        return ( seconds & 0xFFFFFFFFL ) * 1000000L + useconds;
+    }
+
+    /**
+     * Start a new block at the current position. The timestamps in
+     * the index never decrease so that the index can be searched even
+     * if records are not written in time order.
+     *
+     * @param timestamp the timestamp of the first record in block
+     */
+    private void startBlock( final long timestamp )
+        throws IOException
+    {
+        if( 0 == m_blockCount || timestamp > m_blockTimestamp )
+        {
+            m_blockTimestamp = timestamp;
+        }
+        m_blockOffset = m_position;
+        m_blockCount++;
+        if( !m_indexBuffer.hasRemaining() )
+        {
+            writeIndexBuffer();
+        }
+        m_indexBuffer.putLong( m_blockTimestamp );
+        m_indexBuffer.putLong( m_blockOffset );
+    }
+
+    /**
+     * Write the contents of buffer to the capture file.
+     */
+    private void writeBuffer()
+        throws IOException
+    {
+        m_buffer.flip();
+        try
+        {
+            while( m_buffer.hasRemaining() )
+            {
+                m_channel.write( m_buffer );
+            }
+        }
+        finally
+        {
+            m_buffer.clear();
+        }
+    }
+
+    /**
+     * Write the contents of index buffer to the index file. The index is only
+     * written after the records it refers to so that it never refers to
+     * records that are not on disk.
+     */
+    private void writeIndexBuffer()
+        throws IOException
+    {
+        writeBuffer();
+        m_indexBuffer.flip();
+        try
+        {
+            while( m_indexBuffer.hasRemaining() )
+            {
+                m_indexChannel.write( m_indexBuffer );
+            }
+        }
+        finally
+        {
+            m_indexBuffer.clear();
+        }
+    }
+}
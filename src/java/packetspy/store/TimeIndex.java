@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sidecar index of a capture file that maps time to file offsets.
+ * The capture is divided into blocks of consecutive records and the
+ * index holds the timestamp of the first record of each block and the
+ * offset of that record in the capture file. A new block is started when
+ * the interval of capture time or the block size is exceeded, so locating
+ * a point in time requires a binary search of the index followed by a
+ * scan of at most one block.
+ *
+ * <p>The index is memory mapped and the binary search reads the mapped
+ * entries directly, so the cost of opening and searching the index does
+ * not depend on the size of the capture.</p>
+ *
+ * <pre>
+ * Semantic:  | Magic | Version | Interval | Entry (Timestamp | Offset) ... |
+ * Length:    |     4 |       4 |        8 |               8 |      8      |
+ * </pre>
+ */
+public class TimeIndex
+{
+    /**
+     * The magic number at the start of an index file.
+     */
+    static final int MAGIC = 0x50534958;
+
+    /**
+     * The version of the index format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The length of the index header.
+     */
+    static final int HEADER_LENGTH = 16;
+
+    /**
+     * The length of each entry.
+     */
+    static final int ENTRY_LENGTH = 16;
+
+    /**
+     * The suffix appended to the name of the capture file to
+     * create the name of the index file.
+     */
+    public static final String SUFFIX = ".idx";
+
+    /**
+     * The entries of the index.
+     */
+    private final ByteBuffer m_entries;
+
+    /**
+     * The number of entries.
+     */
+    private final int m_size;
+
+    /**
+     * The interval of capture time covered by each block in microseconds.
+     */
+    private final long m_interval;
+
+    /**
+     * Create an index over specified entries.
+     *
+     * @param entries the entries
+     * @param interval the interval covered by each block in microseconds
+     */
+    TimeIndex( final ByteBuffer entries, final long interval )
+    {
+        m_entries = entries;
+        m_size = entries.remaining() / ENTRY_LENGTH;
+        m_interval = interval;
+    }
+
+    /**
+     * Return the index file for specified capture file.
+     *
+     * @param capture the capture file
+     * @return the index file
+     */
+    public static File getIndexFile( final File capture )
+    {
+        return new File( capture.getPath() + SUFFIX );
+    }
+
+    /**
+     * Load the index from specified file. Entries partially written
+     * when the writer was interrupted are ignored.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if unable to read index or the file is not an index
+     */
+    public static TimeIndex load( final File file )
+        throws IOException
+    {
+        final FileInputStream input = new FileInputStream( file );
+        try
+        {
+            final FileChannel channel = input.getChannel();
+            final long length = channel.size();
+            if( length < HEADER_LENGTH )
+            {
+                throw new IOException( "Truncated index " + file );
+            }
+            final ByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, length );
+            if( MAGIC != buffer.getInt( 0 ) )
+            {
+                throw new IOException( "Not an index " + file );
+            }
+            if( VERSION != buffer.getInt( 4 ) )
+            {
+                throw new IOException( "Unsupported index version " + buffer.getInt( 4 ) );
+            }
+            final long interval = buffer.getLong( 8 );
+            final int size = (int) ( ( length - HEADER_LENGTH ) / ENTRY_LENGTH );
+            buffer.position( HEADER_LENGTH );
+            buffer.limit( HEADER_LENGTH + size * ENTRY_LENGTH );
+            return new TimeIndex( buffer.slice(), interval );
+        }
+        finally
+        {
+            //The mapping remains valid after the channel is closed
+            input.close();
+        }
+    }
+
+    /**
+     * Write the index header into buffer.
+     *
+     * @param buffer the buffer
+     * @param interval the interval covered by each block in microseconds
+     */
+    static void writeHeader( final ByteBuffer buffer, final long interval )
+    {
+        buffer.putInt( MAGIC );
+        buffer.putInt( VERSION );
+        buffer.putLong( interval );
+    }
+
+    /**
+     * Return the number of blocks in index.
+     *
+     * @return the number of blocks in index.
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Return the interval of capture time covered by each block.
+     *
+     * @return the interval in microseconds.
+     */
+    public long getInterval()
+    {
+        return m_interval;
+    }
+
+    /**
+     * Return the timestamp of the first record in block.
+     *
+     * @param block the block
+     * @return the timestamp in microseconds since the epoch
+     */
+    public long getTimestamp( final int block )
+    {
+        checkBlock( block );
+        return m_entries.getLong( block * ENTRY_LENGTH );
+    }
+
+    /**
+     * Return the offset of the first record in block.
+     *
+     * @param block the block
+     * @return the offset in the capture file
+     */
+    public long getOffset( final int block )
+    {
+        checkBlock( block );
+        return m_entries.getLong( block * ENTRY_LENGTH + 8 );
+    }
+
+    /**
+     * Return the last block whose first record was captured at or
+     * before specified time. This is the block that must be scanned
+     * to find the first record captured at the time.
+     *
+     * @param timestamp the time in microseconds since the epoch
+     * @return the block or 0 if time is before the first block
+     *         or -1 if the index is empty
+     */
+    public int findBlock( final long timestamp )
+    {
+        int low = 0;
+        int high = m_size - 1;
+        while( low <= high )
+        {
+            final int middle = ( low + high ) >>> 1;
+            if( m_entries.getLong( middle * ENTRY_LENGTH ) <= timestamp )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        if( 0 == m_size )
+        {
+            return -1;
+        }
+        return Math.max( 0, low - 1 );
+    }
+
+    /**
+     * Make sure that block is in the index.
+     *
+     * @param block the block
+     */
+    private void checkBlock( final int block )
+    {
+        if( block < 0 || block >= m_size )
+        {
+            throw new IndexOutOfBoundsException( "block " + block );
+        }
+    }
+}
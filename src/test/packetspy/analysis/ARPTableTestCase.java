@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import junit.framework.TestCase;
+import packetspy.model.ARPPacket;
+import packetspy.model.EthernetPacket;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketFactory;
+
+public class ARPTableTestCase
+    extends TestCase
+{
+    private static final int IP1 = 0xC0A80001;
+    private static final int IP2 = 0xC0A800F0;
+    private static final long MAC1 = 0x0050BAC168E2L;
+    private static final long MAC2 = 0x000CF1E0AD5EL;
+
+    public void testUpdateAndLookup()
+        throws Exception
+    {
+        final ARPTable table = new ARPTable();
+        assertEquals( "lookup empty", -1, table.lookup( IP1 ) );
+
+        assertEquals( "update new", ARPTable.BINDING_NEW, table.update( IP1, MAC1 ) );
+        assertEquals( "update same", ARPTable.BINDING_UNCHANGED, table.update( IP1, MAC1 ) );
+        assertEquals( "lookup", MAC1, table.lookup( IP1 ) );
+        assertEquals( "isConflicting", false, table.isConflicting( IP1 ) );
+        assertEquals( "size", 1, table.size() );
+
+        assertEquals( "update conflict", ARPTable.BINDING_CONFLICT, table.update( IP1, MAC2 ) );
+        assertEquals( "lookup after conflict", MAC2, table.lookup( IP1 ) );
+        assertEquals( "isConflicting after conflict", true, table.isConflicting( IP1 ) );
+        assertEquals( "getConflictCount", 1, table.getConflictCount() );
+        assertEquals( "size after conflict", 1, table.size() );
+    }
+
+    public void testManyBindings()
+        throws Exception
+    {
+        final ARPTable table = new ARPTable();
+        for( int i = 0; i < 10000; i++ )
+        {
+            table.update( 0x0A000000 + i, i );
+        }
+        assertEquals( "size", 10000, table.size() );
+        for( int i = 0; i < 10000; i++ )
+        {
+            assertEquals( "lookup " + i, i, table.lookup( 0x0A000000 + i ) );
+        }
+
+        final int[] addresses = new int[20000];
+        final long[] macs = new long[20000];
+        assertEquals( "copyBindings", 10000, table.copyBindings( addresses, macs ) );
+        for( int i = 0; i < 10000; i++ )
+        {
+            assertEquals( "copied binding", addresses[i] - 0x0A000000, macs[i] );
+        }
+    }
+
+    public void testLearnFromARPReply()
+        throws Exception
+    {
+        final byte[] data = new byte[42];
+        final byte[] header = new byte[]{0x00, 0x01, 0x08, 0x00, 6, 4, 0x00, 0x02};
+        System.arraycopy( header, 0, data, 14, header.length );
+        data[12] = 0x08;
+        data[13] = 0x06;
+        writeMac( data, 22, MAC1 );
+        writeInt( data, 28, IP1 );
+        writeMac( data, 32, MAC2 );
+        writeInt( data, 38, IP2 );
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+        final EthernetPacket ethernet = (EthernetPacket) raw.getUpperLayerPacket();
+        final ARPPacket arp = (ARPPacket) ethernet.getUpperLayerPacket();
+        assertEquals( "arp.getOperation()", ARPPacket.OP_REPLY, arp.getOperation() );
+        assertEquals( "arp.getSenderHardwareAddress()", MAC1, arp.getSenderHardwareAddress() );
+        assertEquals( "arp.getSenderProtocolAddress()", IP1, arp.getSenderProtocolAddress() );
+        assertEquals( "arp.getTargetHardwareAddress()", MAC2, arp.getTargetHardwareAddress() );
+        assertEquals( "arp.getTargetProtocolAddress()", IP2, arp.getTargetProtocolAddress() );
+        assertEquals( "arp.toString()",
+                      "ARP[ OP=2 00:50:BA:C1:68:E2/192.168.0.1 ===> 00:0C:F1:E0:AD:5E/192.168.0.240]",
+                      arp.toString() );
+
+        final ARPTable table = new ARPTable();
+        table.handlePacket( raw );
+        assertEquals( "lookup sender", MAC1, table.lookup( IP1 ) );
+        assertEquals( "lookup target", -1, table.lookup( IP2 ) );
+    }
+
+    private static void writeMac( final byte[] data, final int offset, final long mac )
+    {
+        for( int i = 0; i < 6; i++ )
+        {
+            data[offset + i] = (byte) ( mac >>> ( 40 - i * 8 ) );
+        }
+    }
+
+    private static void writeInt( final byte[] data, final int offset, final int value )
+    {
+        for( int i = 0; i < 4; i++ )
+        {
+            data[offset + i] = (byte) ( value >>> ( 24 - i * 8 ) );
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import java.util.Random;
+import junit.framework.TestCase;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketFactory;
+
+public class HeavyHittersTestCase
+    extends TestCase
+{
+    private static final int ATTACKER = 0x01020304;
+    private static final int VICTIM = 0xC0A80001;
+
+    public void testCountMinBounds()
+        throws Exception
+    {
+        final CountMinSketch sketch = new CountMinSketch( 4, 1024 );
+        final long[] exact = new long[20000];
+        final Random random = new Random( 1 );
+        for( int i = 0; i < 100000; i++ )
+        {
+            final int key = random.nextInt( exact.length );
+            sketch.add( 0x0A000000 + key, key % 7 );
+            exact[key] += key % 7;
+        }
+        //e / width of the total, which should hold for almost every key
+        final long bound = (long) ( Math.E * sketch.getTotal() / sketch.getWidth() );
+        int outside = 0;
+        for( int key = 0; key < exact.length; key++ )
+        {
+            final long estimate = sketch.estimate( 0x0A000000 + key );
+            assertTrue( "estimate " + key, estimate >= exact[key] );
+            if( estimate - exact[key] > bound )
+            {
+                outside++;
+            }
+        }
+        assertTrue( "outside", outside < exact.length / 50 );
+
+        final long total = sketch.getTotal();
+        final CountMinSketch other = new CountMinSketch( 4, 1024 );
+        other.add( 0x0A000005, 1000000 );
+        sketch.merge( other );
+        assertTrue( "merged estimate", sketch.estimate( 0x0A000005 ) >= exact[5] + 1000000 );
+        assertEquals( "getTotal()", total + 1000000, sketch.getTotal() );
+
+        sketch.clear();
+        assertEquals( "cleared", 0, sketch.estimate( 0x0A000005 ) );
+    }
+
+    public void testTopTalkersDuringFlood()
+        throws Exception
+    {
+        final HeavyHitters[] threads = new HeavyHitters[]{new HeavyHitters( 64, 4, 1024 ),
+                                                          new HeavyHitters( 64, 4, 1024 )};
+        final Random random = new Random( 3 );
+        long attackerBytes = 0;
+        for( int i = 0; i < 200000; i++ )
+        {
+            final HeavyHitters hitters = threads[i & 1];
+            if( 0 == i % 5 )
+            {
+                hitters.add( ATTACKER, VICTIM, 1500 );
+                attackerBytes += 1500;
+            }
+            else
+            {
+                //Spoofed sources send small packets to the victim
+                hitters.add( random.nextInt(), VICTIM, 64 );
+            }
+        }
+        final HeavyHitters hitters = threads[0];
+        hitters.merge( threads[1] );
+        assertEquals( "getPacketCount()", 200000, hitters.getPacketCount() );
+
+        final int[] addresses = new int[2];
+        final long[] counts = new long[2];
+        final long[] errors = new long[2];
+        assertEquals( "copyTop",
+                      2,
+                      hitters.copyTop( HeavyHitters.KEY_SOURCE, HeavyHitters.MEASURE_BYTES, addresses, counts, errors ) );
+        assertEquals( "top source", ATTACKER, addresses[0] );
+        assertTrue( "top source bytes", counts[0] >= attackerBytes && counts[0] - errors[0] <= attackerBytes );
+
+        assertEquals( "copyTop",
+                      1,
+                      hitters.copyTop( HeavyHitters.KEY_DESTINATION, HeavyHitters.MEASURE_PACKETS, addresses, counts, errors ) );
+        assertEquals( "top destination", VICTIM, addresses[0] );
+        assertEquals( "top destination packets", 200000, counts[0] );
+
+        final long estimate = hitters.estimate( HeavyHitters.KEY_SOURCE, HeavyHitters.MEASURE_PACKETS, ATTACKER );
+        assertTrue( "estimate", estimate >= 40000 && estimate < 40000 + 200000 / 64 );
+
+        hitters.clear();
+        assertEquals( "cleared", 0, hitters.getByteCount() );
+    }
+
+    public void testCountIP4Packet()
+        throws Exception
+    {
+        final byte[] data = new byte[14 + 20 + 8];
+        data[12] = 0x08;
+        data[14] = 0x45;
+        data[17] = 28;
+        data[23] = 17;
+        writeInt( data, 26, ATTACKER );
+        writeInt( data, 30, VICTIM );
+        data[39] = 8;
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw = factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+        final HeavyHitters hitters = new HeavyHitters();
+        hitters.handlePacket( raw );
+        hitters.handlePacket( raw );
+        assertEquals( "getPacketCount()", 2, hitters.getPacketCount() );
+        assertEquals( "getByteCount()", 56, hitters.getByteCount() );
+        assertEquals( "source bytes",
+                      56,
+                      hitters.estimate( HeavyHitters.KEY_SOURCE, HeavyHitters.MEASURE_BYTES, ATTACKER ) );
+        assertEquals( "destination packets",
+                      2,
+                      hitters.estimate( HeavyHitters.KEY_DESTINATION, HeavyHitters.MEASURE_PACKETS, VICTIM ) );
+        assertEquals( "other source",
+                      0,
+                      hitters.estimate( HeavyHitters.KEY_SOURCE, HeavyHitters.MEASURE_PACKETS, VICTIM ) );
+    }
+
+    private static void writeInt( final byte[] data, final int offset, final int value )
+    {
+        for( int i = 0; i < 4; i++ )
+        {
+            data[offset + i] = (byte) ( value >>> ( 24 - i * 8 ) );
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import junit.framework.TestCase;
+
+public class HyperLogLogTableTestCase
+    extends TestCase
+{
+    public void testAccuracy()
+        throws Exception
+    {
+        final int[] sizes = new int[]{1, 10, 100, 1000, 10000, 100000, 1000000};
+        final HyperLogLogTable table = new HyperLogLogTable( sizes.length );
+        for( int key = 0; key < sizes.length; key++ )
+        {
+            for( int i = 0; i < sizes[key]; i++ )
+            {
+                table.add( key, i );
+                //Repeated elements are not counted again
+                table.add( key, i );
+            }
+        }
+        assertEquals( "size()", sizes.length, table.size() );
+        for( int key = 0; key < sizes.length; key++ )
+        {
+            //Three standard errors at the default precision
+            final double error = Math.abs( table.estimate( key ) - sizes[key] ) / (double) sizes[key];
+            assertTrue( "error for " + sizes[key] + " was " + error, error < 0.1 );
+        }
+        assertEquals( "estimate( missing )", 0, table.estimate( 99 ) );
+    }
+
+    public void testMerge()
+        throws Exception
+    {
+        final HyperLogLogTable first = new HyperLogLogTable( 4, 12 );
+        final HyperLogLogTable second = new HyperLogLogTable( 4, 12 );
+        final HyperLogLogTable both = new HyperLogLogTable( 4, 12 );
+        for( int i = 0; i < 30000; i++ )
+        {
+            //Overlapping ranges of elements for key 1 and a key only in second
+            first.add( 1, i );
+            second.add( 1, i + 20000 );
+            second.add( 2, i );
+            both.add( 1, i );
+            both.add( 1, i + 20000 );
+            both.add( 2, i );
+        }
+        first.merge( second );
+        assertEquals( "merged estimate( 1 )", both.estimate( 1 ), first.estimate( 1 ) );
+        assertEquals( "merged estimate( 2 )", both.estimate( 2 ), first.estimate( 2 ) );
+        assertTrue( "estimate( 1 )", Math.abs( first.estimate( 1 ) - 50000 ) < 2500 );
+
+        try
+        {
+            first.merge( new HyperLogLogTable( 4 ) );
+            fail( "Expected merge of different precisions to fail" );
+        }
+        catch( final IllegalArgumentException iae )
+        {
+        }
+    }
+
+    public void testFullTable()
+        throws Exception
+    {
+        final HyperLogLogTable table = new HyperLogLogTable( 2, HyperLogLogTable.MIN_PRECISION );
+        table.add( 1, 1 );
+        table.add( 2, 1 );
+        table.add( 3, 1 );
+        table.add( 1, 2 );
+        assertEquals( "size()", 2, table.size() );
+        assertEquals( "getDroppedCount()", 1, table.getDroppedCount() );
+        assertFalse( "contains( 3 )", table.contains( 3 ) );
+        assertEquals( "estimate( 1 )", 2, table.estimate( 1 ) );
+
+        final int[] keys = new int[2];
+        final long[] estimates = new long[2];
+        assertEquals( "copyKeysAbove", 1, table.copyKeysAbove( 2, keys, estimates ) );
+        assertEquals( "keys[0]", 1, keys[0] );
+        assertEquals( "estimates[0]", 2, estimates[0] );
+
+        table.clear();
+        assertEquals( "size()", 0, table.size() );
+        assertEquals( "getDroppedCount()", 0, table.getDroppedCount() );
+        table.add( 3, 1 );
+        assertEquals( "estimate( 3 )", 1, table.estimate( 3 ) );
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class RollupTableTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final long BASE = 1072915200L;
+
+    public void testTiersMatchExactCounts()
+        throws Exception
+    {
+        final int[] periodCounts = new int[]{30, 12, 4};
+        final RollupTable table = new RollupTable( 4, periodCounts );
+        final int seconds = 400;
+        final long[][] packets = new long[3][seconds];
+        final long[][] bytes = new long[3][seconds];
+        final Random random = new Random( 1 );
+        long second = BASE;
+        for( int i = 0; i < 20000; i++ )
+        {
+            if( 0 == random.nextInt( 50 ) && second < BASE + seconds - 1 )
+            {
+                second++;
+            }
+            //Some packets arrive slightly out of order
+            final long time = Math.max( BASE, second - ( ( 0 == random.nextInt( 10 ) ) ? random.nextInt( 5 ) : 0 ) );
+            final int key = random.nextInt( 3 );
+            final int length = 60 + random.nextInt( 1400 );
+            table.add( key, time, length );
+            packets[key][(int) ( time - BASE )]++;
+            bytes[key][(int) ( time - BASE )] += length;
+        }
+        assertEquals( "getLatestSecond()", second, table.getLatestSecond() );
+        assertEquals( "getLateCount()", 0, table.getLateCount() );
+
+        for( int tier = 0; tier < RollupTable.TIER_COUNT; tier++ )
+        {
+            final int resolution = RollupTable.getResolution( tier );
+            final long latest = second / resolution;
+            final long first = latest - periodCounts[tier] + 1;
+            final long[] actualPackets = new long[periodCounts[tier] + 2];
+            final long[] actualBytes = new long[actualPackets.length];
+            for( int key = 0; key < 3; key++ )
+            {
+                //One period either side of those kept
+                final int retained = table.copyPeriods( key,
+                                                        tier,
+                                                        ( first - 1 ) * resolution,
+                                                        actualPackets,
+                                                        actualBytes,
+                                                        actualPackets.length );
+                assertEquals( "retained", periodCounts[tier], retained );
+                assertEquals( "before first", 0, actualPackets[0] );
+                assertEquals( "after latest", 0, actualPackets[actualPackets.length - 1] );
+                for( int i = 1; i <= periodCounts[tier]; i++ )
+                {
+                    final long period = first - 1 + i;
+                    long expectedPackets = 0;
+                    long expectedBytes = 0;
+                    for( long s = period * resolution; s < ( period + 1 ) * resolution; s++ )
+                    {
+                        if( s >= BASE && s < BASE + seconds )
+                        {
+                            expectedPackets += packets[key][(int) ( s - BASE )];
+                            expectedBytes += bytes[key][(int) ( s - BASE )];
+                        }
+                    }
+                    assertEquals( "packets tier " + tier + " period " + period, expectedPackets, actualPackets[i] );
+                    assertEquals( "bytes tier " + tier + " period " + period, expectedBytes, actualBytes[i] );
+                }
+            }
+        }
+    }
+
+    public void testLateAndSkippedPeriods()
+        throws Exception
+    {
+        final RollupTable table = new RollupTable( 2, new int[]{5, 3, 2} );
+        table.add( 7, BASE, 100 );
+        table.add( 7, BASE + 1, 100 );
+        //Too old for the second tier
+        table.add( 7, BASE - 5, 100 );
+        assertEquals( "getLateCount()", 1, table.getLateCount() );
+        assertEquals( "second", 1, table.getPackets( 7, RollupTable.TIER_SECOND, BASE ) );
+        assertEquals( "minute", 200, table.getBytes( 7, RollupTable.TIER_MINUTE, BASE ) );
+
+        //A gap longer than every tier clears all periods
+        table.add( 7, BASE + 1000, 50 );
+        assertEquals( "old second", 0, table.getPackets( 7, RollupTable.TIER_SECOND, BASE + 1 ) );
+        assertEquals( "old minute", 0, table.getPackets( 7, RollupTable.TIER_MINUTE, BASE ) );
+        assertEquals( "new minute", 50, table.getBytes( 7, RollupTable.TIER_MINUTE, BASE + 1000 ) );
+
+        //Gaps shorter than the ring clear the slots of the skipped periods
+        for( int i = 1; i <= 12; i++ )
+        {
+            table.add( 7, BASE + 1000 + i * 3, 1 );
+        }
+        final long[] packets = new long[5];
+        assertEquals( "copyPeriods", 5, table.copyPeriods( 7, RollupTable.TIER_SECOND, BASE + 1032, packets, null, 5 ) );
+        assertEquals( "packets[0]", 0, packets[0] );
+        assertEquals( "packets[1]", 1, packets[1] );
+        assertEquals( "packets[2]", 0, packets[2] );
+        assertEquals( "packets[3]", 0, packets[3] );
+        assertEquals( "packets[4]", 1, packets[4] );
+
+        table.add( 8, BASE + 1036, 1 );
+        table.add( 9, BASE + 1036, 1 );
+        assertEquals( "getDroppedCount()", 1, table.getDroppedCount() );
+        final int[] keys = new int[4];
+        assertEquals( "copyKeys", 2, table.copyKeys( keys ) );
+        assertEquals( "keys[0]", 7, keys[0] );
+        assertEquals( "keys[1]", 8, keys[1] );
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import junit.framework.TestCase;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketFactory;
+
+public class ScanDetectorTestCase
+    extends TestCase
+{
+    private static final int SCANNER = 0x01020304;
+    private static final int SERVER = 0xC0A80001;
+
+    public void testScansAndFlood()
+        throws Exception
+    {
+        final ScanDetector[] threads = new ScanDetector[]{new ScanDetector( 1024, 10 ), new ScanDetector( 1024, 10 )};
+        int packet = 0;
+        //Ordinary clients each using a few services
+        for( int client = 0; client < 500; client++ )
+        {
+            for( int i = 0; i < 20; i++ )
+            {
+                threads[packet++ & 1].add( 0x0A000000 + client, SERVER + ( i % 3 ), 80 );
+            }
+        }
+        //Vertical scan of the ports of one server
+        for( int port = 1; port <= 5000; port++ )
+        {
+            threads[packet++ & 1].add( SCANNER, SERVER, port );
+        }
+        //Horizontal scan of one port across a network
+        for( int host = 0; host < 5000; host++ )
+        {
+            threads[packet++ & 1].add( SCANNER + 1, 0xAC100000 + host, 22 );
+        }
+        final ScanDetector detector = threads[0];
+        detector.merge( threads[1] );
+
+        assertTrue( "getFanOut( SCANNER )", Math.abs( detector.getFanOut( SCANNER ) - 5000 ) < 500 );
+        assertTrue( "getFanOut( SCANNER + 1 )", Math.abs( detector.getFanOut( SCANNER + 1 ) - 5000 ) < 500 );
+        assertEquals( "getFanOut( client )", 3, detector.getFanOut( 0x0A000000 ) );
+        assertTrue( "getFanIn( SERVER )", Math.abs( detector.getFanIn( SERVER ) - 501 ) < 50 );
+
+        final int[] sources = new int[10];
+        final long[] estimates = new long[10];
+        assertEquals( "copyScanners", 2, detector.copyScanners( 1000, sources, estimates ) );
+        assertEquals( "sources[0]", SCANNER, sources[0] );
+        assertEquals( "sources[1]", SCANNER + 1, sources[1] );
+        assertEquals( "copyTargets", 3, detector.copyTargets( 100, sources, estimates ) );
+        //The horizontal scan reaches more destinations than are tracked
+        assertTrue( "getDroppedCount()", detector.getDroppedCount() > 0 );
+
+        detector.clear();
+        assertEquals( "cleared", 0, detector.getFanOut( SCANNER ) );
+    }
+
+    public void testCountTCPPorts()
+        throws Exception
+    {
+        final byte[] data = new byte[14 + 20 + 20];
+        data[12] = 0x08;
+        data[14] = 0x45;
+        data[17] = 40;
+        data[23] = 6;
+        writeInt( data, 26, SCANNER );
+        writeInt( data, 30, SERVER );
+        data[46] = 0x50;
+        data[47] = 0x02;
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final ScanDetector detector = new ScanDetector();
+        for( int port = 1; port <= 100; port++ )
+        {
+            data[36] = (byte) ( port >> 8 );
+            data[37] = (byte) port;
+            final RawPacket raw = factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+            detector.handlePacket( raw );
+            detector.handlePacket( raw );
+        }
+        assertTrue( "getFanOut()", Math.abs( detector.getFanOut( SCANNER ) - 100 ) <= 5 );
+        assertEquals( "getFanIn()", 1, detector.getFanIn( SERVER ) );
+    }
+
+    private static void writeInt( final byte[] data, final int offset, final int value )
+    {
+        for( int i = 0; i < 4; i++ )
+        {
+            data[offset + i] = (byte) ( value >>> ( 24 - i * 8 ) );
+        }
+    }
+}
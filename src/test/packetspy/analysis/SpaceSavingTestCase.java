@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class SpaceSavingTestCase
+    extends TestCase
+{
+    public void testExactBelowCapacity()
+        throws Exception
+    {
+        final SpaceSaving summary = new SpaceSaving( 10 );
+        for( int i = 0; i < 10; i++ )
+        {
+            summary.add( i, i * 10 );
+            summary.add( i, 1 );
+        }
+        assertEquals( "size()", 10, summary.size() );
+        assertEquals( "getMinimumCount()", 1, summary.getMinimumCount() );
+        assertEquals( "getTotal()", 460, summary.getTotal() );
+        assertEquals( "estimate( 3 )", 31, summary.estimate( 3 ) );
+
+        final int[] keys = new int[3];
+        final long[] counts = new long[3];
+        final long[] errors = new long[3];
+        assertEquals( "copyTop", 3, summary.copyTop( keys, counts, errors ) );
+        assertEquals( "keys[0]", 9, keys[0] );
+        assertEquals( "keys[1]", 8, keys[1] );
+        assertEquals( "keys[2]", 7, keys[2] );
+        assertEquals( "counts[0]", 91, counts[0] );
+        assertEquals( "errors[0]", 0, errors[0] );
+    }
+
+    public void testBoundsWithManyKeys()
+        throws Exception
+    {
+        final SpaceSaving summary = new SpaceSaving( 100 );
+        final HashMap exact = new HashMap();
+        final Random random = new Random( 1 );
+        for( int i = 0; i < 200000; i++ )
+        {
+            //A few heavy keys among many light keys
+            final int key = ( 0 == random.nextInt( 4 ) ) ? random.nextInt( 10 ) : 1000 + random.nextInt( 50000 );
+            final long count = 1 + random.nextInt( 1500 );
+            summary.add( key, count );
+            final Integer k = new Integer( key );
+            final Long current = (Long) exact.get( k );
+            exact.put( k, new Long( count + ( ( null == current ) ? 0 : current.longValue() ) ) );
+        }
+        assertEquals( "size()", 100, summary.size() );
+        checkBounds( summary, exact );
+
+        final int[] keys = new int[10];
+        final long[] counts = new long[10];
+        assertEquals( "copyTop", 10, summary.copyTop( keys, counts, null ) );
+        for( int i = 0; i < 10; i++ )
+        {
+            assertTrue( "heavy key " + keys[i], keys[i] < 10 );
+        }
+    }
+
+    public void testMerge()
+        throws Exception
+    {
+        final SpaceSaving[] parts = new SpaceSaving[]{new SpaceSaving( 50 ), new SpaceSaving( 50 )};
+        final HashMap exact = new HashMap();
+        final Random random = new Random( 2 );
+        for( int i = 0; i < 100000; i++ )
+        {
+            //Each part sees a different mix of keys
+            final int part = i & 1;
+            final int key = ( 0 == random.nextInt( 3 ) ) ? random.nextInt( 5 ) + part * 3 : 100 + random.nextInt( 10000 );
+            parts[part].add( key, 1 );
+            final Integer k = new Integer( key );
+            final Long current = (Long) exact.get( k );
+            exact.put( k, new Long( 1 + ( ( null == current ) ? 0 : current.longValue() ) ) );
+        }
+        parts[0].merge( parts[1] );
+        assertEquals( "getTotal()", 100000, parts[0].getTotal() );
+        checkBounds( parts[0], exact );
+        for( int key = 0; key < 8; key++ )
+        {
+            assertTrue( "contains( " + key + " )", parts[0].contains( key ) );
+        }
+    }
+
+    public void testClear()
+        throws Exception
+    {
+        final SpaceSaving summary = new SpaceSaving( 4 );
+        for( int i = 0; i < 100; i++ )
+        {
+            summary.add( i, 1 );
+        }
+        summary.clear();
+        assertEquals( "size()", 0, summary.size() );
+        assertEquals( "getTotal()", 0, summary.getTotal() );
+        assertFalse( "contains( 99 )", summary.contains( 99 ) );
+        summary.add( 7, 3 );
+        assertEquals( "estimate( 7 )", 3, summary.estimate( 7 ) );
+    }
+
+    //Check every tracked count bounds the true count and that every key
+    //with more than 1/capacity of the total is tracked
+    private static void checkBounds( final SpaceSaving summary, final Map exact )
+    {
+        final int[] keys = new int[summary.getCapacity()];
+        final long[] counts = new long[keys.length];
+        final long[] errors = new long[keys.length];
+        final int size = summary.copyTop( keys, counts, errors );
+        assertEquals( "copyTop", summary.size(), size );
+        final long threshold = summary.getTotal() / summary.getCapacity();
+        for( int i = 0; i < size; i++ )
+        {
+            final Long value = (Long) exact.get( new Integer( keys[i] ) );
+            final long actual = ( null == value ) ? 0 : value.longValue();
+            assertTrue( "count " + keys[i], counts[i] >= actual );
+            assertTrue( "error " + keys[i], counts[i] - errors[i] <= actual );
+            assertTrue( "error bound " + keys[i], errors[i] <= threshold );
+            assertEquals( "estimate " + keys[i], counts[i], summary.estimate( keys[i] ) );
+            if( i > 0 )
+            {
+                assertTrue( "order " + i, counts[i] <= counts[i - 1] );
+            }
+        }
+        final Iterator entries = exact.entrySet().iterator();
+        while( entries.hasNext() )
+        {
+            final Map.Entry entry = (Map.Entry) entries.next();
+            final int key = ( (Integer) entry.getKey() ).intValue();
+            final long actual = ( (Long) entry.getValue() ).longValue();
+            if( actual > threshold )
+            {
+                assertTrue( "contains( " + key + " )", summary.contains( key ) );
+            }
+            assertTrue( "estimate " + key, summary.estimate( key ) >= actual );
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.analysis;
+
+import junit.framework.TestCase;
+import packetspy.model.IP4Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketFactory;
+
+public class TrafficRollupTestCase
+    extends TestCase
+{
+    private static final int SECONDS = 1072915200;
+
+    public void testRollupByProtocolInterfaceAndVLAN()
+        throws Exception
+    {
+        //VLAN 100 tagged UDP packet
+        final byte[] udp = new byte[14 + 4 + 20 + 8];
+        udp[12] = (byte) 0x81;
+        udp[15] = 100;
+        udp[16] = 0x08;
+        udp[18] = 0x45;
+        udp[21] = 28;
+        udp[27] = IP4Packet.PROTOCOL_UDP;
+        udp[43] = 8;
+        //Untagged ARP packet
+        final byte[] arp = new byte[42];
+        arp[12] = 0x08;
+        arp[13] = 0x06;
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final TrafficRollup rollup = new TrafficRollup( 3 );
+        for( int i = 0; i < 10; i++ )
+        {
+            rollup.handlePacket( factory.parseRawPacket( RawPacket.TYPE_802_3, 1000, udp.length, SECONDS + i, i, udp ) );
+            rollup.handlePacket( factory.parseRawPacket( RawPacket.TYPE_802_3, 60, arp.length, SECONDS + i, i, arp ) );
+        }
+
+        final RollupTable protocols = rollup.getProtocols();
+        assertEquals( "udp packets", 1, protocols.getPackets( IP4Packet.PROTOCOL_UDP, RollupTable.TIER_SECOND, SECONDS ) );
+        assertEquals( "udp bytes", 10000, protocols.getBytes( IP4Packet.PROTOCOL_UDP, RollupTable.TIER_MINUTE, SECONDS ) );
+        assertEquals( "not ip packets",
+                      10,
+                      protocols.getPackets( TrafficRollup.PROTOCOL_NOT_IP, RollupTable.TIER_TEN_SECONDS, SECONDS + 5 ) );
+        assertEquals( "interface packets", 20, rollup.getInterfaces().getPackets( 3, RollupTable.TIER_MINUTE, SECONDS ) );
+        assertEquals( "vlan 100 bytes", 10000, rollup.getVlans().getBytes( 100, RollupTable.TIER_MINUTE, SECONDS ) );
+        assertEquals( "untagged bytes", 600, rollup.getVlans().getBytes( 0, RollupTable.TIER_MINUTE, SECONDS ) );
+    }
+}
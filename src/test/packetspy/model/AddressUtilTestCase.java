@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class AddressUtilTestCase
+    extends TestCase
+{
+    public void test_IP4RoundTrip()
+        throws Exception
+    {
+        final byte[] bytes = new byte[]{(byte)192, (byte)168, 0, (byte)240};
+        final int address = AddressUtil.toIP4Address( bytes );
+        assertEquals( "address", 0xC0A800F0, address );
+        assertTrue( "bytes", Arrays.equals( bytes, AddressUtil.ip4ToBytes( address ) ) );
+        assertEquals( "parse", address, AddressUtil.parseIP4Address( "192.168.0.240" ) );
+        assertEquals( "render", "192.168.0.240", RenderUtil.ipToString( address ) );
+    }
+
+    public void test_MACRoundTrip()
+        throws Exception
+    {
+        final byte[] bytes =
+            new byte[]{(byte)0xFF, (byte)0xE1, (byte)0xD2, (byte)0xC3, (byte)0xB4, (byte)0xA5};
+        final long address = AddressUtil.toMACAddress( bytes );
+        assertEquals( "address", 0xFFE1D2C3B4A5L, address );
+        assertTrue( "bytes", Arrays.equals( bytes, AddressUtil.macToBytes( address ) ) );
+        assertTrue( "isGroupMAC", AddressUtil.isGroupMAC( address ) );
+        assertFalse( "isGroupMAC(unicast)", AddressUtil.isGroupMAC( 0x000CF1E0AD5EL ) );
+    }
+
+    public void test_parseIP4Address_rejectsInvalid()
+        throws Exception
+    {
+        final String[] invalid = new String[]{"", "1.2.3", "1.2.3.4.5", "1.2.3.256", "1..2.3", "1.2.3.a", "1.2.3.0004"};
+        for( int i = 0; i < invalid.length; i++ )
+        {
+            try
+            {
+                AddressUtil.parseIP4Address( invalid[ i ] );
+                fail( "Expected IllegalArgumentException for " + invalid[ i ] );
+            }
+            catch( final IllegalArgumentException iae )
+            {
+                assertEquals( "iae.getMessage()", "Invalid address: " + invalid[ i ], iae.getMessage() );
+            }
+        }
+    }
+
+    public void test_subnetsAndOrdering()
+        throws Exception
+    {
+        final int network = AddressUtil.parseIP4Address( "10.1.0.0" );
+        assertEquals( "toNetmask(16)", 0xFFFF0000, AddressUtil.toNetmask( 16 ) );
+        assertEquals( "toNetmask(0)", 0, AddressUtil.toNetmask( 0 ) );
+        assertTrue( "in subnet", AddressUtil.isInSubnet( AddressUtil.parseIP4Address( "10.1.200.3" ), network, 16 ) );
+        assertFalse( "not in subnet", AddressUtil.isInSubnet( AddressUtil.parseIP4Address( "10.2.0.1" ), network, 16 ) );
+        assertTrue( "multicast", AddressUtil.isMulticastIP4( AddressUtil.parseIP4Address( "224.0.0.22" ) ) );
+
+        final int high = AddressUtil.parseIP4Address( "192.168.0.1" );
+        assertTrue( "unsigned order", AddressUtil.compareIP4( network, high ) < 0 );
+        assertTrue( "unsigned order reversed", AddressUtil.compareIP4( high, network ) > 0 );
+        assertEquals( "equal", 0, AddressUtil.compareIP4( high, high ) );
+        assertTrue( "mac order", AddressUtil.compareMAC( 1, AddressUtil.BROADCAST_MAC ) < 0 );
+    }
+}
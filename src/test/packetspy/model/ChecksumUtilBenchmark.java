@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+import java.util.Random;
+
+/**
+ * Compare ChecksumUtil.sum() with summing one 16 bit word at a time
+ * over full sized and minimum sized packets.
+ */
+public class ChecksumUtilBenchmark
+{
+    private static final long BYTES = 2000000000L;
+
+    public static void main( final String[] args )
+    {
+        final byte[] data = new byte[1500];
+        new Random( 1 ).nextBytes( data );
+        final int[] lengths = new int[]{1500, 64, 20};
+        for( int round = 0; round < 3; round++ )
+        {
+            for( int i = 0; i < lengths.length; i++ )
+            {
+                final int length = lengths[i];
+                final int iterations = (int) ( BYTES / length );
+
+                long sum = 0;
+                long start = System.currentTimeMillis();
+                for( int j = 0; j < iterations; j++ )
+                {
+                    sum += ChecksumUtil.sum( data, j & 1, length - 1 );
+                }
+                final long unrolled = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                for( int j = 0; j < iterations; j++ )
+                {
+                    sum += wordSum( data, j & 1, length - 1 );
+                }
+                final long words = System.currentTimeMillis() - start;
+
+                System.out.println( length + " bytes: sum " + ( BYTES / 1000 / Math.max( 1, unrolled ) ) + " MB/s, " +
+                                    "word loop " + ( BYTES / 1000 / Math.max( 1, words ) ) + " MB/s (" +
+                                    ( sum & 1 ) + ")" );
+            }
+        }
+    }
+
+    private static long wordSum( final byte[] data, final int offset, final int length )
+    {
+        long sum = 0;
+        final int end = offset + length;
+        int i = offset;
+        while( i + 1 < end )
+        {
+            sum += ( ( data[i] & 0xFF ) << 8 ) | ( data[i + 1] & 0xFF );
+            i += 2;
+        }
+        if( i < end )
+        {
+            sum += ( data[i] & 0xFF ) << 8;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class ChecksumUtilTestCase
+    extends TestCase
+{
+    public void test_RFC1071Example()
+        throws Exception
+    {
+        final byte[] data = new byte[]{0x00, 0x01, (byte)0xF2, 0x03, (byte)0xF4, (byte)0xF5, (byte)0xF6, (byte)0xF7};
+        assertEquals( "sum", 0x2DDF0, ChecksumUtil.sum( data, 0, data.length ) );
+        assertEquals( "checksum", 0x220D, ChecksumUtil.checksum( data, 0, data.length ) );
+    }
+
+    public void test_IP4HeaderSumsToZero()
+        throws Exception
+    {
+        final byte[] header = new byte[]{0x45, 0x00, 0x00, 0x73, 0x00, 0x00, 0x40, 0x00, 0x40, 0x11,
+                                         (byte)0xB8, 0x61, (byte)0xC0, (byte)0xA8, 0x00, 0x01,
+                                         (byte)0xC0, (byte)0xA8, 0x00, (byte)0xC7};
+        assertEquals( "checksum", 0, ChecksumUtil.checksum( header, 0, header.length ) );
+        header[8] = 0x3F;
+        assertTrue( "checksum after TTL change", 0 != ChecksumUtil.checksum( header, 0, header.length ) );
+    }
+
+    public void test_OddLengthPadsLastByte()
+        throws Exception
+    {
+        final byte[] data = new byte[]{0x12, 0x34, 0x56};
+        assertEquals( "sum", 0x1234 + 0x5600, ChecksumUtil.sum( data, 0, data.length ) );
+    }
+
+    public void test_MatchesWordAtATimeSum()
+        throws Exception
+    {
+        final Random random = new Random( 1 );
+        final byte[] data = new byte[2000];
+        random.nextBytes( data );
+        for( int length = 0; length < 100; length++ )
+        {
+            for( int offset = 0; offset < 9; offset++ )
+            {
+                assertEquals( "sum( " + offset + ", " + length + " )",
+                              toChecksum( wordSum( data, offset, length ) ),
+                              ChecksumUtil.checksum( data, offset, length ) );
+            }
+        }
+        assertEquals( "sum( 1, 1999 )",
+                      toChecksum( wordSum( data, 1, 1999 ) ),
+                      ChecksumUtil.checksum( data, 1, 1999 ) );
+    }
+
+    public void test_PseudoHeaderSum()
+        throws Exception
+    {
+        //192.168.0.1 -> 192.168.0.199, UDP, length 0x5F
+        assertEquals( "sum",
+                      0xC0A8 + 0x0001 + 0xC0A8 + 0x00C7 + 17 + 0x5F,
+                      ChecksumUtil.pseudoHeaderSum( 0xC0A80001, 0xC0A800C7, 17, 0x5F ) );
+    }
+
+    //Straightforward sum of 16 bit words with folding as in RFC 1071
+    private static long wordSum( final byte[] data, final int offset, final int length )
+    {
+        long sum = 0;
+        for( int i = 0; i < length; i += 2 )
+        {
+            final int high = data[offset + i] & 0xFF;
+            final int low = ( i + 1 < length ) ? data[offset + i + 1] & 0xFF : 0;
+            sum += ( high << 8 ) | low;
+            sum = ( sum & 0xFFFF ) + ( sum >>> 16 );
+        }
+        return sum;
+    }
+
+    private static int toChecksum( final long sum )
+    {
+        return (int)( ~( ( sum & 0xFFFF ) + ( sum >>> 16 ) ) & 0xFFFF );
+    }
+}
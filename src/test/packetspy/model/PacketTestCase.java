@@ -21,6 +21,7 @@
  */
 package packetspy.model;
 
+import java.nio.ByteBuffer;
 import junit.framework.TestCase;
 
 public class PacketTestCase
@@ -79,4 +80,50 @@ public class PacketTestCase
         assertEquals( "outer.getPayloadData().length POST Data2", 21, outer.getPayloadData().length );
     }
 
+    public void testPayloadView()
+        throws Exception
+    {
+        final byte[] data = "HEADERGET /index.html HTTP/1.0".getBytes();
+        final Packet outer = new Packet();
+        outer.setPayloadOffset( 6 );
+        outer.setPayloadLength( 40 );
+        outer.setData( data );
+
+        assertEquals( "getCapturedPayloadLength()", 24, outer.getCapturedPayloadLength() );
+
+        final ByteBuffer buffer = outer.getPayloadBuffer();
+        assertTrue( "buffer.isReadOnly()", buffer.isReadOnly() );
+        assertEquals( "buffer.remaining()", 24, buffer.remaining() );
+        assertEquals( "buffer.get( 0 )", 'G', buffer.get( 0 ) );
+
+        assertEquals( "getPayloadByte( 4 )", '/', outer.getPayloadByte( 4 ) );
+        assertTrue( "payloadStartsWith", outer.payloadStartsWith( "GET ".getBytes() ) );
+        assertFalse( "payloadStartsWith", outer.payloadStartsWith( "POST".getBytes() ) );
+        assertTrue( "payloadRegionMatches",
+                    outer.payloadRegionMatches( 16, "HTTP/1.0".getBytes(), 0, 8 ) );
+        assertFalse( "payloadRegionMatches past end",
+                     outer.payloadRegionMatches( 17, "HTTP/1.0".getBytes(), 0, 8 ) );
+        assertEquals( "indexOfPayload", 16, outer.indexOfPayload( "HTTP".getBytes() ) );
+        assertEquals( "indexOfPayload from", -1, outer.indexOfPayload( "GET".getBytes(), 1 ) );
+        assertEquals( "indexOfPayload missing", -1, outer.indexOfPayload( "HTTPS".getBytes() ) );
+
+        final byte[] copy = new byte[4];
+        outer.copyPayload( 5, copy, 0, 4 );
+        assertEquals( "copyPayload", "inde", new String( copy ) );
+
+        try
+        {
+            outer.getPayloadByte( 24 );
+            fail( "Expected IndexOutOfBoundsException for index past captured payload" );
+        }
+        catch( final IndexOutOfBoundsException ioobe )
+        {
+        }
+
+        final Packet empty = new Packet();
+        assertEquals( "empty.getPayloadBuffer().remaining()",
+                      0,
+                      empty.getPayloadBuffer().remaining() );
+    }
+
 }
@@ -21,6 +21,8 @@
  */
 package packetspy.model;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import junit.framework.TestCase;
 
 public class RenderUtilTestCase
@@ -82,6 +84,72 @@ public class RenderUtilTestCase
         assertEquals( macString, "123.21.35.17" );
     }
 
+    public void test_ip6ToString()
+        throws Exception
+    {
+        assertEquals( "::1", RenderUtil.ip6ToString( 0, 1 ) );
+        assertEquals( "::", RenderUtil.ip6ToString( 0, 0 ) );
+        assertEquals( "2001:db8::1", RenderUtil.ip6ToString( 0x20010DB800000000L, 1 ) );
+        assertEquals( "fe80::", RenderUtil.ip6ToString( 0xFE80000000000000L, 0 ) );
+        assertEquals( "2001:db8:0:1:1:1:1:1",
+                      RenderUtil.ip6ToString( 0x20010DB800000001L, 0x0001000100010001L ) );
+        assertEquals( "2001:0:0:1::1",
+                      RenderUtil.ip6ToString( 0x2001000000000001L, 1 ) );
+
+        final byte[] address = new byte[16];
+        address[0] = (byte)0xFE;
+        address[1] = (byte)0x80;
+        address[15] = 1;
+        assertEquals( "fe80::1", RenderUtil.ipToString( address ) );
+    }
+
+    public void test_appendToStringBuffer()
+        throws Exception
+    {
+        final StringBuffer sb = new StringBuffer();
+        RenderUtil.appendIP( sb, 0xC0A800F0 );
+        sb.append( ' ' );
+        RenderUtil.appendMAC( sb, 0x000CF1E0AD5EL );
+        sb.append( ' ' );
+        RenderUtil.appendIP6( sb, 0x20010DB800000000L, 1 );
+        assertEquals( "192.168.0.240 00:0C:F1:E0:AD:5E 2001:db8::1", sb.toString() );
+    }
+
+    public void test_appendToCharBuffer()
+        throws Exception
+    {
+        final CharBuffer buffer = CharBuffer.allocate( 128 );
+        RenderUtil.appendIP( buffer, 0x7F000001 );
+        buffer.put( ' ' );
+        RenderUtil.appendMAC( buffer, 0xFFE1D2C3B4A5L );
+        buffer.put( ' ' );
+        RenderUtil.appendIP6( buffer, 0, 0 );
+        buffer.put( ' ' );
+        RenderUtil.appendDecimal( buffer, 0 );
+        buffer.put( ' ' );
+        RenderUtil.appendDecimal( buffer, -4000000000L );
+        buffer.put( ' ' );
+        RenderUtil.appendDecimal( buffer, Long.MIN_VALUE );
+        buffer.flip();
+        assertEquals( "127.0.0.1 FF:E1:D2:C3:B4:A5 :: 0 -4000000000 -9223372036854775808",
+                      buffer.toString() );
+    }
+
+    public void test_appendToByteBuffer()
+        throws Exception
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate( 128 );
+        RenderUtil.appendIP( buffer, 0x0A000001 );
+        RenderUtil.appendASCII( buffer, " " );
+        RenderUtil.appendMAC( buffer, 0x000CF1E0AD5EL );
+        RenderUtil.appendASCII( buffer, " " );
+        RenderUtil.appendIP6( buffer, 0xFE80000000000000L, 0 );
+        RenderUtil.appendASCII( buffer, " \u00e9 " );
+        RenderUtil.appendDecimal( buffer, 65535 );
+        final String text = new String( buffer.array(), 0, buffer.position(), "US-ASCII" );
+        assertEquals( "10.0.0.1 00:0C:F1:E0:AD:5E fe80:: ? 65535", text );
+    }
+
 
 
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import packetspy.model.RawPacket;
+
+/**
+ * Measure the cost of decoding a VLAN tagged UDP packet at each parse depth,
+ * with checksum validation and of decoding truncated frames.
+ */
+public class ModelPacketFactoryBenchmark
+{
+    private static final int ITERATIONS = 5000000;
+
+    private static final String[] DEPTH_NAMES =
+        new String[]{"raw", "link", "network", "transport", "all"};
+
+    public static void main( final String[] args )
+    {
+        final byte[] data = ModelPacketFactoryTestCase.encapsulate( "81000064" + "0800" );
+        for( int round = 0; round < 3; round++ )
+        {
+            for( int depth = ModelPacketFactory.DEPTH_RAW;
+                 depth <= ModelPacketFactory.DEPTH_ALL;
+                 depth++ )
+            {
+                final ModelPacketFactory factory =
+                    new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), depth );
+                int layers = 0;
+                final long start = System.currentTimeMillis();
+                for( int i = 0; i < ITERATIONS; i++ )
+                {
+                    final RawPacket raw =
+                        factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+                    layers += raw.getLayerCount();
+                }
+                final long duration = System.currentTimeMillis() - start;
+                System.out.println( DEPTH_NAMES[depth] + ": " +
+                                    ( duration * 1000000L / ITERATIONS ) + " ns/packet " +
+                                    ( layers / ITERATIONS ) + " layers" );
+            }
+
+            final ModelPacketFactory validating = new ModelPacketFactory();
+            validating.setValidateChecksums( true );
+            final long validateStart = System.currentTimeMillis();
+            for( int i = 0; i < ITERATIONS; i++ )
+            {
+                validating.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+            }
+            final long validateDuration = System.currentTimeMillis() - validateStart;
+            System.out.println( "validated: " + ( validateDuration * 1000000L / ITERATIONS ) + " ns/packet " +
+                                validating.getChecksumErrorCount() + " errors" );
+
+            //Every captured length from empty frame to complete frame
+            final ModelPacketFactory factory = new ModelPacketFactory();
+            final long start = System.currentTimeMillis();
+            for( int i = 0; i < ITERATIONS; i++ )
+            {
+                final int captured = i % ( data.length + 1 );
+                factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, captured, 0, 0, data );
+            }
+            final long duration = System.currentTimeMillis() - start;
+            System.out.println( "truncated: " + ( duration * 1000000L / ITERATIONS ) + " ns/packet " +
+                                factory.getMalformedCount() + " malformed" );
+        }
+    }
+}
@@ -21,12 +21,31 @@
  */
 package packetspy.model.io;
 
+import java.util.Random;
 import junit.framework.TestCase;
+import packetspy.model.ChecksumUtil;
+import packetspy.model.ERSPANPacket;
 import packetspy.model.EthernetPacket;
+import packetspy.model.GREPacket;
+import packetspy.model.ICMPPacket;
+import packetspy.model.IEEE80211Packet;
+import packetspy.model.IGMP3GroupRecord;
+import packetspy.model.IGMP3QueryPacket;
+import packetspy.model.IGMP3ReportPacket;
+import packetspy.model.IGMPPacket;
 import packetspy.model.IP4Packet;
+import packetspy.model.IP6Packet;
+import packetspy.model.LinuxCookedPacket;
+import packetspy.model.LoopbackPacket;
+import packetspy.model.MPLSPacket;
+import packetspy.model.Packet;
+import packetspy.model.RadiotapPacket;
 import packetspy.model.RawPacket;
 import packetspy.model.RenderUtil;
+import packetspy.model.TCPPacket;
 import packetspy.model.UDPPacket;
+import packetspy.model.VLANPacket;
+import packetspy.model.VXLANPacket;
 
 public class ModelPacketFactoryTestCase
     extends TestCase
@@ -68,6 +87,7 @@ public class ModelPacketFactoryTestCase
         assertEquals( "ethernet.getDestination()",
                       "00:50:BA:C1:68:E2",
                       RenderUtil.macToString( ethernet.getDestination() ) );
+        assertEquals( "ethernet.getSourceAddress()", 0x000CF1E0AD5EL, ethernet.getSourceAddress() );
 
         assertEquals( "ethernet.getPayloadStart()", 14, ethernet.getPayloadStart() );
         assertEquals( "ethernet.getPayloadOffset()", 14, ethernet.getPayloadOffset() );
@@ -90,6 +110,8 @@ public class ModelPacketFactoryTestCase
         assertEquals( "ip.getDestination()",
                       "192.168.0.1",
                       RenderUtil.ipToString( ip.getDestination() ) );
+        assertEquals( "ip.getSourceAddress()", 0xC0A800F0, ip.getSourceAddress() );
+        assertEquals( "ip.getDestinationAddress()", 0xC0A80001, ip.getDestinationAddress() );
         assertEquals( "ip.getTypeOfService()", 0, ip.getTypeOfService() );
         assertEquals( "ip.getTimeToLive()", 128, ip.getTimeToLive() );
         assertEquals( "ip.getChecksum()", 19727, ip.getChecksum() );
@@ -134,6 +156,851 @@ public class ModelPacketFactoryTestCase
         assertEquals( "udp.getPayloadData()", "Hello", message );
     }
 
+    public void testUDPPortDissector()
+        throws Exception
+    {
+        final DissectorRegistry registry = DissectorRegistry.createDefaultRegistry();
+        final Packet marker = new Packet();
+        final int[] offsets = new int[]{-1};
+        registry.registerUDPPortDissector( 5317, new Dissector()
+        {
+            public Packet dissect( final ModelPacketFactory factory,
+                                   final Packet packet,
+                                   final int offset,
+                                   final RawPacket raw )
+            {
+                offsets[0] = offset;
+                return marker;
+            }
+        } );
+
+        final ModelPacketFactory factory = new ModelPacketFactory( registry );
+        final int length = UDP_PACKET.length;
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, length, length, 0, 0, UDP_PACKET );
+
+        final Packet udp = raw.getUpperLayerPacket().getUpperLayerPacket().getUpperLayerPacket();
+        assertTrue( "udp instanceof UDPPacket", udp instanceof UDPPacket );
+        assertEquals( "offset", 14 + 20 + 8, offsets[0] );
+        assertEquals( "udp.getUpperLayerPacket()", marker, udp.getUpperLayerPacket() );
+    }
+
+    public void testParseDepth()
+        throws Exception
+    {
+        final byte[] data = encapsulate( "81000064" + "0800" );
+        final int[] expected = new int[]{1, 3, 4, 5, 5};
+        final int[] types = new int[]{Packet.LAYER_RAW,
+                                      Packet.LAYER_VLAN,
+                                      Packet.LAYER_IP4,
+                                      Packet.LAYER_UDP,
+                                      Packet.LAYER_UDP};
+        for( int depth = ModelPacketFactory.DEPTH_RAW; depth <= ModelPacketFactory.DEPTH_ALL; depth++ )
+        {
+            final ModelPacketFactory factory =
+                new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), depth );
+            final RawPacket raw =
+                factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+            assertEquals( "raw.getLayerCount() at " + depth, expected[depth], raw.getLayerCount() );
+            assertEquals( "top layer at " + depth,
+                          types[depth],
+                          raw.getLayerType( raw.getLayerCount() - 1 ) );
+        }
+
+        try
+        {
+            new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), 5 );
+            fail( "Expected IllegalArgumentException for bad depth" );
+        }
+        catch( final IllegalArgumentException iae )
+        {
+            assertEquals( "iae.getMessage()", "depth out of range: 5", iae.getMessage() );
+        }
+    }
+
+    public void testTruncatedFramesAreMarkedMalformed()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final int length = UDP_PACKET.length;
+        for( int captured = 0; captured < length; captured++ )
+        {
+            final byte[] data = new byte[captured];
+            System.arraycopy( UDP_PACKET, 0, data, 0, captured );
+            final RawPacket raw =
+                factory.parseRawPacket( RawPacket.TYPE_802_3, length, captured, 0, 0, data );
+            final Packet top = raw.getLayer( raw.getLayerCount() - 1 );
+            if( captured < 14 + 20 + 8 )
+            {
+                assertTrue( "top.isMalformed() at " + captured, top.isMalformed() );
+            }
+            else
+            {
+                assertTrue( "top instanceof UDPPacket at " + captured, top instanceof UDPPacket );
+                assertFalse( "top.isMalformed() at " + captured, top.isMalformed() );
+                assertEquals( "top.getPayloadLength() at " + captured, 5, top.getPayloadLength() );
+            }
+        }
+        assertEquals( "LAYER_ETHERNET", 14, factory.getMalformedCount( Packet.LAYER_ETHERNET ) );
+        assertEquals( "LAYER_IP4", 20, factory.getMalformedCount( Packet.LAYER_IP4 ) );
+        assertEquals( "LAYER_UDP", 8, factory.getMalformedCount( Packet.LAYER_UDP ) );
+        assertEquals( "getMalformedCount()", 42, factory.getMalformedCount() );
+    }
+
+    public void testInconsistentHeadersAreMarkedMalformed()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+
+        //Captured length larger than the data supplied
+        final RawPacket raw = factory.parseRawPacket( RawPacket.TYPE_802_3, 100, 100, 0, 0, UDP_PACKET );
+        assertTrue( "raw.isMalformed()", raw.isMalformed() );
+        assertEquals( "raw.getLayerCount()", 1, raw.getLayerCount() );
+
+        //IP header length of 4 bytes
+        final byte[] data = (byte[]) UDP_PACKET.clone();
+        data[14] = 0x41;
+        final RawPacket raw2 =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+        assertEquals( "raw2.getLayerCount()", 3, raw2.getLayerCount() );
+        assertTrue( "ip.isMalformed()", raw2.getLayer( 2 ).isMalformed() );
+
+        //UDP length larger than the IP payload
+        final byte[] data3 = (byte[]) UDP_PACKET.clone();
+        data3[14 + 20 + 4] = 0x7F;
+        final RawPacket raw3 =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data3.length, data3.length, 0, 0, data3 );
+        final Packet udp = raw3.findLayer( Packet.LAYER_UDP );
+        assertTrue( "udp.isMalformed()", udp.isMalformed() );
+        assertEquals( "udp.getPayloadLength()", 5, udp.getPayloadLength() );
+
+        assertEquals( "getMalformedCount()", 3, factory.getMalformedCount() );
+    }
+
+    public void testEthernetPaddingIsExcludedFromPayload()
+        throws Exception
+    {
+        final byte[] data = new byte[60];
+        System.arraycopy( UDP_PACKET, 0, data, 0, UDP_PACKET.length );
+        final Packet udp = parseIPPayload( data );
+        assertTrue( "udp instanceof UDPPacket", udp instanceof UDPPacket );
+        assertEquals( "udp.getPayloadLength()", 5, udp.getPayloadLength() );
+        assertEquals( "ip.getPayloadLength()", 13, udp.getLowerLayerPacket().getPayloadLength() );
+        assertEquals( "ethernet.getPayloadLength()",
+                      46,
+                      udp.getLowerLayerPacket().getLowerLayerPacket().getPayloadLength() );
+    }
+
+    public void testRandomDataDoesNotThrow()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final Random random = new Random( 42 );
+        final byte[][] templates = new byte[][]{UDP_PACKET, UDP6_PACKET, encapsulate( "81000064" + "0800" )};
+        for( int i = 0; i < 20000; i++ )
+        {
+            final byte[] template = templates[i % templates.length];
+            final byte[] data = (byte[]) template.clone();
+            //Corrupt a few bytes after the ethernet header
+            for( int j = 0; j < 4; j++ )
+            {
+                data[12 + random.nextInt( data.length - 12 )] = (byte) random.nextInt( 256 );
+            }
+            final int captured = random.nextInt( data.length + 1 );
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, captured, 0, 0, data );
+        }
+    }
+
+    public void testUnregisteredEtherType()
+        throws Exception
+    {
+        final DissectorRegistry registry = DissectorRegistry.createDefaultRegistry();
+        registry.registerEtherTypeDissector( EthernetPacket.TYPE_IP, null );
+
+        final ModelPacketFactory factory = new ModelPacketFactory( registry );
+        final int length = UDP_PACKET.length;
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, length, length, 0, 0, UDP_PACKET );
+
+        final Packet ethernet = raw.getUpperLayerPacket();
+        assertTrue( "ethernet instanceof EthernetPacket", ethernet instanceof EthernetPacket );
+        assertNull( "ethernet.getUpperLayerPacket()", ethernet.getUpperLayerPacket() );
+    }
+
+    public void testIP6WithExtensionHeader()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final int length = UDP6_PACKET.length;
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, length, length, 0, 0, UDP6_PACKET );
+
+        final EthernetPacket ethernet = (EthernetPacket) raw.getUpperLayerPacket();
+        assertEquals( "ethernet.getType()", EthernetPacket.TYPE_IP6, ethernet.getType() );
+        assertTrue( "ethernet.getUpperLayerPacket() instanceof IP6",
+                    ethernet.getUpperLayerPacket() instanceof IP6Packet );
+
+        final IP6Packet ip = (IP6Packet) ethernet.getUpperLayerPacket();
+        assertEquals( "ip.getSource()", "2001:db8::1", RenderUtil.ipToString( ip.getSource() ) );
+        assertEquals( "ip.getSourceHigh()", 0x20010DB800000000L, ip.getSourceHigh() );
+        assertEquals( "ip.getSourceLow()", 1, ip.getSourceLow() );
+        assertEquals( "ip.getDestinationHigh()", 0xFE80000000000000L, ip.getDestinationHigh() );
+        assertEquals( "ip.getDestinationLow()", 2, ip.getDestinationLow() );
+        assertEquals( "ip.getNextHeader()", IP6Packet.HEADER_HOP_BY_HOP, ip.getNextHeader() );
+        assertEquals( "ip.getProtocol()", IP4Packet.PROTOCOL_UDP, ip.getProtocol() );
+        assertEquals( "ip.getHopLimit()", 64, ip.getHopLimit() );
+        assertEquals( "ip.getLength()", 21, ip.getLength() );
+        assertEquals( "ip.isFragment()", false, ip.isFragment() );
+        assertEquals( "ip.getPayloadOffset()", 48, ip.getPayloadOffset() );
+        assertEquals( "ip.getPayloadLength()", 13, ip.getPayloadLength() );
+
+        assertTrue( "ip.getUpperLayerPacket() instanceof UDP",
+                    ip.getUpperLayerPacket() instanceof UDPPacket );
+        final UDPPacket udp = (UDPPacket) ip.getUpperLayerPacket();
+        assertEquals( "udp.getSourcePort()", 1655, udp.getSourcePort() );
+        assertEquals( "udp.getDestinationPort()", 5317, udp.getDestinationPort() );
+        assertEquals( "udp.getPayloadStart()", 14 + 48 + 8, udp.getPayloadStart() );
+        assertEquals( "udp.getPayloadData()", "Hello", new String( udp.getPayloadData() ) );
+        assertEquals( "udp.toString()",
+                      "UDP[ 2001:db8::1:1655 ===> fe80::2:5317 L=13 CHK=0]",
+                      udp.toString() );
+    }
+
+    public void testIP6TruncatedExtensionHeader()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final int length = UDP6_PACKET.length;
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, length, 14 + 40 + 4, 0, 0, UDP6_PACKET );
+
+        final IP6Packet ip = (IP6Packet) raw.getLayer( 2 );
+        assertTrue( "ip.isMalformed()", ip.isMalformed() );
+        assertNull( "ip.getUpperLayerPacket()", ip.getUpperLayerPacket() );
+        assertEquals( "LAYER_IP6", 1, factory.getMalformedCount( Packet.LAYER_IP6 ) );
+    }
+
+    public void testIP6TooManyExtensionHeaders()
+        throws Exception
+    {
+        final int headers = 17;
+        final byte[] data = new byte[14 + 40 + headers * 8];
+        System.arraycopy( UDP6_PACKET, 0, data, 0, 14 + 40 );
+        data[18] = 0;
+        data[19] = (byte) ( headers * 8 );
+        data[20] = (byte) IP6Packet.HEADER_DESTINATION_OPTIONS;
+        for( int i = 0; i < headers; i++ )
+        {
+            data[14 + 40 + i * 8] = (byte) IP6Packet.HEADER_DESTINATION_OPTIONS;
+        }
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+
+        final IP6Packet ip = (IP6Packet) raw.getLayer( 2 );
+        assertTrue( "ip.isMalformed()", ip.isMalformed() );
+        assertNull( "ip.getUpperLayerPacket()", ip.getUpperLayerPacket() );
+        assertEquals( "LAYER_IP6", 1, factory.getMalformedCount( Packet.LAYER_IP6 ) );
+    }
+
+    public void testStackedVLAN()
+        throws Exception
+    {
+        final byte[] data = encapsulate( "88A8" + "0064" + "8100" + "A00A" + "0800" );
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+
+        final EthernetPacket ethernet = (EthernetPacket) raw.getUpperLayerPacket();
+        assertEquals( "ethernet.getType()", EthernetPacket.TYPE_QINQ, ethernet.getType() );
+
+        final VLANPacket outer = (VLANPacket) ethernet.getUpperLayerPacket();
+        assertEquals( "outer.getTagType()", EthernetPacket.TYPE_QINQ, outer.getTagType() );
+        assertEquals( "outer.getVlanId()", 100, outer.getVlanId() );
+        assertEquals( "outer.getType()", EthernetPacket.TYPE_VLAN, outer.getType() );
+
+        final VLANPacket inner = (VLANPacket) outer.getUpperLayerPacket();
+        assertEquals( "inner.getTagType()", EthernetPacket.TYPE_VLAN, inner.getTagType() );
+        assertEquals( "inner.getVlanId()", 10, inner.getVlanId() );
+        assertEquals( "inner.getPriority()", 5, inner.getPriority() );
+        assertEquals( "inner.isDropEligible()", false, inner.isDropEligible() );
+        assertEquals( "inner.getType()", EthernetPacket.TYPE_IP, inner.getType() );
+
+        assertEquals( "findVlanId", 100, VLANPacket.findVlanId( raw ) );
+        assertEquals( "findVlanId inner", 10, VLANPacket.findVlanId( inner ) );
+
+        final IP4Packet ip = (IP4Packet) inner.getUpperLayerPacket();
+        assertEquals( "ip.getPayloadStart()", 14 + 8 + 20, ip.getPayloadStart() );
+        final UDPPacket udp = (UDPPacket) ip.getUpperLayerPacket();
+        assertEquals( "udp.getPayloadData()", "Hello", new String( udp.getPayloadData() ) );
+
+        assertEquals( "raw.getLayerCount()", 6, raw.getLayerCount() );
+        assertEquals( "raw.getLayer( 2 )", outer, raw.getLayer( 2 ) );
+        assertEquals( "raw.getLayer( 3 )", inner, raw.getLayer( 3 ) );
+        assertEquals( "raw.getLayerType( 4 )", Packet.LAYER_IP4, raw.getLayerType( 4 ) );
+        assertEquals( "raw.findLayer( LAYER_UDP )", udp, raw.findLayer( Packet.LAYER_UDP ) );
+        assertEquals( "raw.findLayer( LAYER_TCP )", null, raw.findLayer( Packet.LAYER_TCP ) );
+        assertEquals( "inner.getHeaderStart()", 18, inner.getHeaderStart() );
+        assertEquals( "udp.getHeaderStart()", 14 + 8 + 20, udp.getHeaderStart() );
+    }
+
+    public void testTooManyVLANTags()
+        throws Exception
+    {
+        final StringBuffer tags = new StringBuffer( "8100" );
+        for( int i = 0; i < 4000; i++ )
+        {
+            tags.append( "0064" ).append( "8100" );
+        }
+        final byte[] data = encapsulate( tags.toString() );
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+
+        assertEquals( "raw.getLayerCount()", 2 + 8, raw.getLayerCount() );
+        assertTrue( "raw.getLayer( 9 ).isMalformed()", raw.getLayer( 9 ).isMalformed() );
+        assertEquals( "LAYER_VLAN", 1, factory.getMalformedCount( Packet.LAYER_VLAN ) );
+        assertEquals( "raw.findLayer( LAYER_IP4 )", null, raw.findLayer( Packet.LAYER_IP4 ) );
+    }
+
+    public void testTooManyNestedTunnels()
+        throws Exception
+    {
+        byte[] ip = new byte[UDP_PACKET.length - 14];
+        System.arraycopy( UDP_PACKET, 14, ip, 0, ip.length );
+        for( int i = 0; i < 2000; i++ )
+        {
+            //IPv4 carrying GRE carrying the previous IPv4 packet
+            final byte[] outer = new byte[20 + 4 + ip.length];
+            System.arraycopy( UDP_PACKET, 14, outer, 0, 20 );
+            outer[2] = (byte) ( outer.length >> 8 );
+            outer[3] = (byte) outer.length;
+            outer[9] = 47;
+            outer[22] = 0x08;
+            System.arraycopy( ip, 0, outer, 24, ip.length );
+            ip = outer;
+        }
+        final byte[] data = new byte[14 + ip.length];
+        System.arraycopy( UDP_PACKET, 0, data, 0, 14 );
+        System.arraycopy( ip, 0, data, 14, ip.length );
+
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+
+        assertEquals( "raw.getLayerCount()", 2 + 9 * 2, raw.getLayerCount() );
+        assertEquals( "raw.getLayerType( 19 )", Packet.LAYER_GRE, raw.getLayerType( 19 ) );
+        assertTrue( "raw.getLayer( 19 ).isMalformed()", raw.getLayer( 19 ).isMalformed() );
+        assertEquals( "LAYER_GRE", 1, factory.getMalformedCount( Packet.LAYER_GRE ) );
+        assertEquals( "raw.findLayer( LAYER_UDP )", null, raw.findLayer( Packet.LAYER_UDP ) );
+    }
+
+    public void testMPLSLabelStack()
+        throws Exception
+    {
+        final byte[] data = encapsulate( "8847" + "00010040" + "0001113F" );
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+
+        assertEquals( "findVlanId", -1, VLANPacket.findVlanId( raw ) );
+
+        final MPLSPacket top = (MPLSPacket) raw.getUpperLayerPacket().getUpperLayerPacket();
+        assertEquals( "top.getLabel()", 16, top.getLabel() );
+        assertEquals( "top.isBottomOfStack()", false, top.isBottomOfStack() );
+        assertEquals( "top.getTimeToLive()", 64, top.getTimeToLive() );
+
+        final MPLSPacket bottom = (MPLSPacket) top.getUpperLayerPacket();
+        assertEquals( "bottom.getLabel()", 17, bottom.getLabel() );
+        assertEquals( "bottom.isBottomOfStack()", true, bottom.isBottomOfStack() );
+        assertEquals( "bottom.getTimeToLive()", 63, bottom.getTimeToLive() );
+
+        final IP4Packet ip = (IP4Packet) bottom.getUpperLayerPacket();
+        assertEquals( "ip.getPayloadStart()", 14 + 8 + 20, ip.getPayloadStart() );
+        assertTrue( "ip.getUpperLayerPacket() instanceof UDP",
+                    ip.getUpperLayerPacket() instanceof UDPPacket );
+    }
+
+    public void testIGMP3Report()
+        throws Exception
+    {
+        final byte[] data =
+            toBytes( "01005E000016" + "000CF1E0AD5E" + "0800" +
+                     "46C00038000040000102" + "0000" + "C0A800F0" + "E0000016" + "94040000" +
+                     "2200000000000002" +
+                     "04000000EF010101" +
+                     "01000002EF0202020A0000010A000002" +
+                     "AAAA" );
+        final IGMP3ReportPacket report = (IGMP3ReportPacket) parseIPPayload( data );
+        assertEquals( "report.getGroupRecordCount()", 2, report.getGroupRecordCount() );
+        assertEquals( "report.getPayloadLength()", 24, report.getPayloadLength() );
+
+        final IGMP3GroupRecord record = new IGMP3GroupRecord();
+        record.reset( report );
+        assertTrue( "record 1", record.next() );
+        assertEquals( "record 1 type",
+                      IGMP3GroupRecord.CHANGE_TO_EXCLUDE_MODE,
+                      record.getRecordType() );
+        assertEquals( "record 1 group", 0xEF010101, record.getMulticastAddress() );
+        assertEquals( "record 1 sources", 0, record.getSourceCount() );
+
+        assertTrue( "record 2", record.next() );
+        assertEquals( "record 2 type", IGMP3GroupRecord.MODE_IS_INCLUDE, record.getRecordType() );
+        assertEquals( "record 2 group", 0xEF020202, record.getMulticastAddress() );
+        assertEquals( "record 2 sources", 2, record.getSourceCount() );
+        assertEquals( "record 2 source 0", 0x0A000001, record.getSource( 0 ) );
+        assertEquals( "record 2 source 1", 0x0A000002, record.getSource( 1 ) );
+
+        assertFalse( "no more records", record.next() );
+    }
+
+    public void testIGMP3Query()
+        throws Exception
+    {
+        final byte[] data =
+            toBytes( "01005E000001" + "000CF1E0AD5E" + "0800" +
+                     "46C00028000040000102" + "0000" + "C0A800F0" + "E0000001" + "94040000" +
+                     "11640000E00000010A7D00010A000001" );
+        final IGMP3QueryPacket query = (IGMP3QueryPacket) parseIPPayload( data );
+        assertEquals( "query.getType()", IGMPPacket.QUERY, query.getType() );
+        assertEquals( "query.getMaxResponseDelay()", 100, query.getMaxResponseDelay() );
+        assertEquals( "query.isSuppressRouterProcessingSet()",
+                      true,
+                      query.isSuppressRouterProcessingSet() );
+        assertEquals( "query.getRobustness()", 2, query.getRobustness() );
+        assertEquals( "query.getQueryInterval()", 125, query.getQueryInterval() );
+        assertEquals( "query.getSourceCount()", 1, query.getSourceCount() );
+        assertEquals( "query.getSource( 0 )", 0x0A000001, query.getSource( 0 ) );
+
+        assertEquals( "decodeTimeCode", ( 0x1 | 0x10 ) << ( 2 + 3 ),
+                      IGMP3QueryPacket.decodeTimeCode( 0xA1 ) );
+    }
+
+    public void testPaddedIGMP2Query()
+        throws Exception
+    {
+        final byte[] data =
+            toBytes( "01005E000001" + "000CF1E0AD5E" + "0800" +
+                     "46C00020000040000102" + "0000" + "C0A800F0" + "E0000001" + "94040000" +
+                     "11640000E0000001" +
+                     "0000000000000000000000000000" );
+        final Packet igmp = parseIPPayload( data );
+        assertTrue( "igmp instanceof IGMPPacket", igmp instanceof IGMPPacket );
+        assertFalse( "igmp instanceof IGMP3QueryPacket", igmp instanceof IGMP3QueryPacket );
+    }
+
+    public void testLinuxCookedCapture()
+        throws Exception
+    {
+        final byte[] data = prefixIP( UDP_PACKET, "0004" + "0001" + "0006" + "0050bac1e1730000" + "0800" );
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_LINUX_SLL, data );
+        final LinuxCookedPacket sll = (LinuxCookedPacket) raw.getUpperLayerPacket();
+        assertEquals( "sll.getPacketType()", LinuxCookedPacket.PACKET_OUTGOING, sll.getPacketType() );
+        assertEquals( "sll.getHardwareType()", 1, sll.getHardwareType() );
+        assertEquals( "sll.getAddressLength()", 6, sll.getAddressLength() );
+        assertEquals( "sll.getAddress()", 0x0050BAC1E173L, sll.getAddress() );
+        assertEquals( "sll.getType()", EthernetPacket.TYPE_IP, sll.getType() );
+        assertEquals( "sll.getInterfaceIndex()", -1, sll.getInterfaceIndex() );
+        assertEquals( "sll.getPayloadLength()", UDP_PACKET.length - 14, sll.getPayloadLength() );
+        assertUDPLayers( raw, Packet.LAYER_LINUX_COOKED );
+
+        final byte[] data2 =
+            prefixIP( UDP_PACKET, "0800" + "0000" + "00000003" + "0001" + "00" + "06" + "0050bac1e1730000" );
+        final RawPacket raw2 = parseRawPacket( RawPacket.TYPE_LINUX_SLL2, data2 );
+        final LinuxCookedPacket sll2 = (LinuxCookedPacket) raw2.getUpperLayerPacket();
+        assertEquals( "sll2.getPacketType()", LinuxCookedPacket.PACKET_HOST, sll2.getPacketType() );
+        assertEquals( "sll2.getAddress()", 0x0050BAC1E173L, sll2.getAddress() );
+        assertEquals( "sll2.getInterfaceIndex()", 3, sll2.getInterfaceIndex() );
+        assertUDPLayers( raw2, Packet.LAYER_LINUX_COOKED );
+    }
+
+    public void testLoopbackCapture()
+        throws Exception
+    {
+        final String[] headers = new String[]{"02000000", "00000002"};
+        for( int i = 0; i < headers.length; i++ )
+        {
+            final RawPacket raw = parseRawPacket( RawPacket.TYPE_NULL, prefixIP( UDP_PACKET, headers[i] ) );
+            final LoopbackPacket loopback = (LoopbackPacket) raw.getUpperLayerPacket();
+            assertEquals( "loopback.getFamily()", LoopbackPacket.FAMILY_INET, loopback.getFamily() );
+            assertUDPLayers( raw, Packet.LAYER_LOOPBACK );
+        }
+
+        final RawPacket loop = parseRawPacket( RawPacket.TYPE_LOOP, prefixIP( UDP_PACKET, "00000002" ) );
+        assertUDPLayers( loop, Packet.LAYER_LOOPBACK );
+
+        final RawPacket raw6 = parseRawPacket( RawPacket.TYPE_NULL, prefixIP( UDP6_PACKET, "1e000000" ) );
+        assertTrue( "isIP6()", ( (LoopbackPacket) raw6.getUpperLayerPacket() ).isIP6() );
+        assertEquals( "raw6.getLayerType( 2 )", Packet.LAYER_IP6, raw6.getLayerType( 2 ) );
+    }
+
+    public void testRawIPCapture()
+        throws Exception
+    {
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_RAW, prefixIP( UDP_PACKET, "" ) );
+        assertEquals( "raw.getLayerCount()", 3, raw.getLayerCount() );
+        assertEquals( "raw.getLayerType( 1 )", Packet.LAYER_IP4, raw.getLayerType( 1 ) );
+        assertEquals( "raw.getLayerType( 2 )", Packet.LAYER_UDP, raw.getLayerType( 2 ) );
+
+        final RawPacket raw6 = parseRawPacket( RawPacket.TYPE_IPV6, prefixIP( UDP6_PACKET, "" ) );
+        assertEquals( "raw6.getLayerType( 1 )", Packet.LAYER_IP6, raw6.getLayerType( 1 ) );
+
+        final byte[] bad = prefixIP( UDP_PACKET, "" );
+        bad[0] = 0x55;
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket malformed = factory.parseRawPacket( RawPacket.TYPE_RAW, bad.length, bad.length, 0, 0, bad );
+        assertTrue( "malformed.isMalformed()", malformed.isMalformed() );
+        assertEquals( "malformed.getLayerCount()", 1, malformed.getLayerCount() );
+    }
+
+    public void testRadiotapCapture()
+        throws Exception
+    {
+        final String radiotap = "00000c00" + "02000000" + "10000000";
+        final String header = "0801" + "0000" + "0050bac1e173" + "00e0293b4d7a" + "0050bac1e173" + "0000";
+        final String snap = "aaaa03000000" + "0800";
+        final byte[] frame = prefixIP( UDP_PACKET, radiotap + header + snap );
+        final byte[] data = new byte[frame.length + 4];
+        System.arraycopy( frame, 0, data, 0, frame.length );
+
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_IEEE802_11_RADIOTAP, data );
+        final RadiotapPacket radio = (RadiotapPacket) raw.getUpperLayerPacket();
+        assertEquals( "radio.getLength()", 12, radio.getLength() );
+        assertTrue( "radio.hasFCS()", radio.hasFCS() );
+        assertEquals( "radio.getPayloadLength()", data.length - 12 - 4, radio.getPayloadLength() );
+
+        final IEEE80211Packet wlan = (IEEE80211Packet) radio.getUpperLayerPacket();
+        assertEquals( "wlan.getType()", IEEE80211Packet.TYPE_DATA, wlan.getType() );
+        assertTrue( "wlan.isToDS()", wlan.isToDS() );
+        assertFalse( "wlan.isProtected()", wlan.isProtected() );
+        assertEquals( "wlan.getAddress2()", 0x00E0293B4D7AL, wlan.getAddress2() );
+        assertEquals( "wlan.getEtherType()", EthernetPacket.TYPE_IP, wlan.getEtherType() );
+        assertEquals( "raw.getLayerType( 3 )", Packet.LAYER_IP4, raw.getLayerType( 3 ) );
+        assertEquals( "raw.getLayerType( 4 )", Packet.LAYER_UDP, raw.getLayerType( 4 ) );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+
+        final byte[] truncated = new byte[12 + 20];
+        System.arraycopy( data, 0, truncated, 0, truncated.length );
+        final RawPacket raw2 = parseRawPacket( RawPacket.TYPE_IEEE802_11_RADIOTAP, truncated );
+        assertEquals( "raw2.getLayerCount()", 3, raw2.getLayerCount() );
+        assertTrue( "truncated frame isMalformed()", raw2.getLayer( 2 ).isMalformed() );
+    }
+
+    public void testLinkTypeDispatch()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        assertNotNull( "ethernet", factory.resolveLinkType( RawPacket.TYPE_802_3 ) );
+        assertNull( "unknown", factory.resolveLinkType( 9999 ) );
+        assertNull( "negative", factory.resolveLinkType( -1 ) );
+
+        final RawPacket raw =
+            factory.parseRawPacket( 9999, UDP_PACKET.length, UDP_PACKET.length, 0, 0, UDP_PACKET );
+        assertEquals( "raw.getLayerCount()", 1, raw.getLayerCount() );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+    }
+
+    public void testGRETunnel()
+        throws Exception
+    {
+        final byte[] data = tunnel( 47, "2000" + "6558" + "0000002a", UDP_PACKET );
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+        assertEquals( "raw.getLayerCount()", 7, raw.getLayerCount() );
+        final GREPacket gre = (GREPacket) raw.getLayer( 3 );
+        assertEquals( "gre.getProtocol()", EthernetPacket.TYPE_TRANSPARENT_ETHERNET, gre.getProtocol() );
+        assertEquals( "gre.getKey()", 42, gre.getKey() );
+        assertEquals( "gre.getSequence()", -1, gre.getSequence() );
+        assertSame( "raw.findTunnel()", gre, raw.findTunnel() );
+        assertEquals( "raw.getLayerType( 4 )", Packet.LAYER_ETHERNET, raw.getLayerType( 4 ) );
+        assertSame( "inner.getLowerLayerPacket()", gre, raw.getLayer( 4 ).getLowerLayerPacket() );
+        assertEquals( "raw.getLayerType( 5 )", Packet.LAYER_IP4, raw.getLayerType( 5 ) );
+        final UDPPacket udp = (UDPPacket) raw.getLayer( 6 );
+        assertEquals( "udp.getDestinationPort()", 5317, udp.getDestinationPort() );
+        assertSame( "udp.getData()", data, udp.getData() );
+        assertEquals( "udp.getPayloadStart()", data.length - 5, udp.getPayloadStart() );
+
+        final byte[] ip = prefixIP( UDP_PACKET, "" );
+        final RawPacket raw2 = parseRawPacket( RawPacket.TYPE_802_3, tunnel( 47, "0000" + "0800", ip ) );
+        assertEquals( "raw2.getLayerCount()", 6, raw2.getLayerCount() );
+        assertEquals( "raw2.getLayerType( 4 )", Packet.LAYER_IP4, raw2.getLayerType( 4 ) );
+        assertEquals( "raw2.findTunnel().getTunnelId()", -1, raw2.findTunnel().getTunnelId() );
+
+        final ModelPacketFactory factory =
+            new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), ModelPacketFactory.DEPTH_TRANSPORT );
+        final RawPacket raw3 = factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+        assertEquals( "raw3.getLayerCount()", 4, raw3.getLayerCount() );
+    }
+
+    public void testERSPANTunnel()
+        throws Exception
+    {
+        final byte[] data = tunnel( 47, "1000" + "88be" + "00000001" + "10640155" + "00000000", UDP_PACKET );
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertEquals( "raw.getLayerCount()", 8, raw.getLayerCount() );
+        assertEquals( "gre.getSequence()", 1, ( (GREPacket) raw.getLayer( 3 ) ).getSequence() );
+        final ERSPANPacket erspan = (ERSPANPacket) raw.getLayer( 4 );
+        assertEquals( "erspan.getVersion()", ERSPANPacket.VERSION_2, erspan.getVersion() );
+        assertEquals( "erspan.getVlanId()", 100, erspan.getVlanId() );
+        assertEquals( "erspan.getSessionId()", 0x155, erspan.getSessionId() );
+        assertEquals( "raw.getLayerType( 5 )", Packet.LAYER_ETHERNET, raw.getLayerType( 5 ) );
+        assertEquals( "raw.getLayerType( 7 )", Packet.LAYER_UDP, raw.getLayerType( 7 ) );
+
+        final byte[] data3 = tunnel( 47, "0000" + "22eb" + "20640155" + "00000000" + "00000000", UDP_PACKET );
+        final RawPacket raw3 = parseRawPacket( RawPacket.TYPE_802_3, data3 );
+        assertEquals( "raw3.getLayerCount()", 8, raw3.getLayerCount() );
+        assertEquals( "erspan3.getVersion()",
+                      ERSPANPacket.VERSION_3,
+                      ( (ERSPANPacket) raw3.getLayer( 4 ) ).getVersion() );
+    }
+
+    public void testVXLANTunnel()
+        throws Exception
+    {
+        final byte[] data = tunnel( 17, "d43112b5" + "0000" + "0000" + "08000000" + "00138800", UDP_PACKET );
+        //Fix up the outer UDP length
+        final int udpLength = data.length - 14 - 20;
+        data[14 + 20 + 4] = (byte) ( udpLength >> 8 );
+        data[14 + 20 + 5] = (byte) udpLength;
+
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+        assertEquals( "raw.getLayerCount()", 8, raw.getLayerCount() );
+        final VXLANPacket vxlan = (VXLANPacket) raw.getLayer( 4 );
+        assertEquals( "vxlan.getNetworkId()", 5000, vxlan.getNetworkId() );
+        assertSame( "raw.findTunnel()", vxlan, raw.findTunnel() );
+        assertEquals( "raw.getLayerType( 5 )", Packet.LAYER_ETHERNET, raw.getLayerType( 5 ) );
+        assertEquals( "raw.getLayerType( 6 )", Packet.LAYER_IP4, raw.getLayerType( 6 ) );
+        assertEquals( "raw.getLayerType( 7 )", Packet.LAYER_UDP, raw.getLayerType( 7 ) );
+
+        data[14 + 20 + 8] = 0;
+        final RawPacket raw2 = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertEquals( "raw2.getLayerCount()", 5, raw2.getLayerCount() );
+        assertTrue( "vxlan.isMalformed()", raw2.getLayer( 4 ).isMalformed() );
+    }
+
+    public void testUDPFirstFragment()
+        throws Exception
+    {
+        final byte[] data = tunnel( 17, "d43112b5" + "0000" + "0000" + "08000000" + "00138800", UDP_PACKET );
+        //The UDP length covers the whole datagram rather than the first fragment
+        final int fragmentLength = data.length - 14 - 20;
+        final int udpLength = fragmentLength + 1000;
+        data[14 + 20 + 4] = (byte) ( udpLength >> 8 );
+        data[14 + 20 + 5] = (byte) udpLength;
+        //More fragments
+        data[20] = 0x20;
+
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+        assertTrue( "ip.isMoreFlagSet()", ( (IP4Packet) raw.getLayer( 2 ) ).isMoreFlagSet() );
+        final UDPPacket udp = (UDPPacket) raw.getLayer( 3 );
+        assertFalse( "udp.isMalformed()", udp.isMalformed() );
+        assertEquals( "udp.getLength()", udpLength, udp.getLength() );
+        assertEquals( "udp.getPayloadLength()", fragmentLength - 8, udp.getPayloadLength() );
+        assertEquals( "raw.getLayerCount()", 8, raw.getLayerCount() );
+        assertEquals( "raw.getLayerType( 4 )", Packet.LAYER_VXLAN, raw.getLayerType( 4 ) );
+    }
+
+    public void testICMPErrorQuotesDatagram()
+        throws Exception
+    {
+        final byte[] udpQuote = new byte[28];
+        System.arraycopy( UDP_PACKET, 14, udpQuote, 0, udpQuote.length );
+        final byte[] data = tunnel( 1, "0303" + "0000" + "00000000", udpQuote );
+        final RawPacket raw = parseRawPacket( RawPacket.TYPE_802_3, data );
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+        assertEquals( "raw.getLayerCount()", 6, raw.getLayerCount() );
+        final ICMPPacket icmp = (ICMPPacket) raw.getLayer( 3 );
+        assertTrue( "icmp.isError()", icmp.isError() );
+        assertFalse( "icmp.isQuoted()", icmp.isQuoted() );
+        final IP4Packet quoted = (IP4Packet) icmp.getQuotedDatagram();
+        assertSame( "quoted", raw.getLayer( 4 ), quoted );
+        assertTrue( "quoted.isQuoted()", quoted.isQuoted() );
+        assertFalse( "quoted.isMalformed()", quoted.isMalformed() );
+        assertEquals( "quoted.getSourceAddress()",
+                      ( (IP4Packet) raw.getLayer( 2 ) ).getSourceAddress(),
+                      quoted.getSourceAddress() );
+        final UDPPacket udp = (UDPPacket) raw.getLayer( 5 );
+        assertTrue( "udp.isQuoted()", udp.isQuoted() );
+        assertFalse( "udp.isMalformed()", udp.isMalformed() );
+        assertEquals( "udp.getSourcePort()", 1655, udp.getSourcePort() );
+        assertEquals( "udp.getDestinationPort()", 5317, udp.getDestinationPort() );
+
+        final byte[] tcpQuote = (byte[]) udpQuote.clone();
+        tcpQuote[9] = 6;
+        System.arraycopy( toBytes( "0050d431" + "00000064" ), 0, tcpQuote, 20, 8 );
+        final byte[] data2 = tunnel( 1, "0b00" + "0000" + "00000000", tcpQuote );
+        final RawPacket raw2 = parseRawPacket( RawPacket.TYPE_802_3, data2 );
+        assertEquals( "raw2.getLayerCount()", 6, raw2.getLayerCount() );
+        final TCPPacket tcp = (TCPPacket) raw2.getLayer( 5 );
+        assertTrue( "tcp.isQuoted()", tcp.isQuoted() );
+        assertFalse( "tcp.isMalformed()", tcp.isMalformed() );
+        assertEquals( "tcp.getSourcePort()", 80, tcp.getSourcePort() );
+        assertEquals( "tcp.getDestinationPort()", 54321, tcp.getDestinationPort() );
+        assertEquals( "tcp.getSequence()", 100, tcp.getSequence() );
+
+        final byte[] echoData = tunnel( 1, "0800" + "0000" + "00000000", udpQuote );
+        final RawPacket echo = parseRawPacket( RawPacket.TYPE_802_3, echoData );
+        assertEquals( "echo.getLayerCount()", 4, echo.getLayerCount() );
+        assertNull( "echo.getQuotedDatagram()", ( (ICMPPacket) echo.getLayer( 3 ) ).getQuotedDatagram() );
+    }
+
+    public void testTCPFlags()
+        throws Exception
+    {
+        //SYN+ACK
+        final byte[] data = tunnel( 6, "0050d431" + "00000064" + "00000001" + "5012ffff" + "00000000", new byte[0] );
+        final TCPPacket tcp = (TCPPacket) parseRawPacket( RawPacket.TYPE_802_3, data ).getLayer( 3 );
+        assertTrue( "tcp.isSynFlagSet()", tcp.isSynFlagSet() );
+        assertTrue( "tcp.isAckFlagSet()", tcp.isAckFlagSet() );
+        assertFalse( "tcp.isFinFlagSet()", tcp.isFinFlagSet() );
+        assertFalse( "tcp.isRstFlagSet()", tcp.isRstFlagSet() );
+        assertFalse( "tcp.isPshFlagSet()", tcp.isPshFlagSet() );
+        assertFalse( "tcp.isUrgFlagSet()", tcp.isUrgFlagSet() );
+        assertEquals( "tcp.getWindow()", 0xFFFF, tcp.getWindow() );
+    }
+
+    public void testChecksumValidation()
+        throws Exception
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        RawPacket raw = parseChecksummed( factory, UDP_PACKET );
+        assertFalse( "ip.isChecksumError()", raw.getLayer( 2 ).isChecksumError() );
+        assertFalse( "udp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+        raw = parseChecksummed( factory, UDP6_PACKET );
+        assertFalse( "udp6.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+        assertEquals( "getChecksumErrorCount()", 0, factory.getChecksumErrorCount() );
+
+        final byte[] payload = (byte[]) UDP_PACKET.clone();
+        payload[payload.length - 1] ^= 1;
+        raw = parseChecksummed( factory, payload );
+        assertFalse( "ip.isChecksumError()", raw.getLayer( 2 ).isChecksumError() );
+        assertTrue( "udp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+
+        final byte[] ttl = (byte[]) UDP_PACKET.clone();
+        ttl[22]--;
+        raw = parseChecksummed( factory, ttl );
+        assertTrue( "ip.isChecksumError()", raw.getLayer( 2 ).isChecksumError() );
+        //TTL is not part of the pseudo header
+        assertFalse( "udp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+
+        final byte[] tcp = tunnel( 6, "0050d431" + "00000064" + "00000001" + "5002ffff" + "00000000", toBytes( "616263" ) );
+        tcp[24] = 0;
+        tcp[25] = 0;
+        setChecksum( tcp, 24, ChecksumUtil.sum( tcp, 14, 20 ) );
+        setChecksum( tcp, 50, ChecksumUtil.pseudoHeaderSum( 0xC0A800F0, 0xC0A80001, 6, 23 ) +
+                              ChecksumUtil.sum( tcp, 34, 23 ) );
+        raw = parseChecksummed( factory, tcp );
+        assertFalse( "tcp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+        tcp[tcp.length - 1] = 'd';
+        raw = parseChecksummed( factory, tcp );
+        assertTrue( "tcp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+
+        //Truncated captures cannot be validated
+        raw = factory.parseRawPacket( RawPacket.TYPE_802_3, payload.length, payload.length - 1, 0, 0, payload );
+        assertFalse( "truncated udp.isChecksumError()", raw.getLayer( 3 ).isChecksumError() );
+
+        assertEquals( "getChecksumErrorCount( LAYER_IP4 )", 1, factory.getChecksumErrorCount( Packet.LAYER_IP4 ) );
+        assertEquals( "getChecksumErrorCount( LAYER_UDP )", 1, factory.getChecksumErrorCount( Packet.LAYER_UDP ) );
+        assertEquals( "getChecksumErrorCount( LAYER_TCP )", 1, factory.getChecksumErrorCount( Packet.LAYER_TCP ) );
+
+        //Checksums are not validated by default
+        assertFalse( "default", parseRawPacket( RawPacket.TYPE_802_3, payload ).getLayer( 3 ).isChecksumError() );
+    }
+
+    static RawPacket parseRawPacket( final int linkType, final byte[] data )
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        return factory.parseRawPacket( linkType, data.length, data.length, 0, 0, data );
+    }
+
+    //Verify the IP and UDP layers of UDP_PACKET are present above the link layer
+    static void assertUDPLayers( final RawPacket raw, final int linkLayer )
+    {
+        assertFalse( "raw.isMalformed()", raw.isMalformed() );
+        assertEquals( "raw.getLayerCount()", 4, raw.getLayerCount() );
+        assertEquals( "raw.getLayerType( 1 )", linkLayer, raw.getLayerType( 1 ) );
+        assertEquals( "raw.getLayerType( 2 )", Packet.LAYER_IP4, raw.getLayerType( 2 ) );
+        assertEquals( "raw.getLayerType( 3 )", Packet.LAYER_UDP, raw.getLayerType( 3 ) );
+        final UDPPacket udp = (UDPPacket) raw.getLayer( 3 );
+        assertEquals( "udp.getDestinationPort()", 5317, udp.getDestinationPort() );
+    }
+
+    static RawPacket parseChecksummed( final ModelPacketFactory factory, final byte[] data )
+    {
+        factory.setValidateChecksums( true );
+        return factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+    }
+
+    //Store the checksum of sum at offset, which must be zero when summed
+    static void setChecksum( final byte[] data, final int offset, final long sum )
+    {
+        final int checksum = ChecksumUtil.toChecksum( sum );
+        data[offset] = (byte) ( checksum >> 8 );
+        data[offset + 1] = (byte) checksum;
+    }
+
+    //Create IPv4 frame with the addresses of UDP_PACKET carrying the
+    //specified protocol and headers, followed by the encapsulated packet
+    static byte[] tunnel( final int protocol, final String hex, final byte[] inner )
+    {
+        final byte[] headers = toBytes( hex );
+        final byte[] data = new byte[14 + 20 + headers.length + inner.length];
+        System.arraycopy( UDP_PACKET, 0, data, 0, 34 );
+        final int length = data.length - 14;
+        data[16] = (byte) ( length >> 8 );
+        data[17] = (byte) length;
+        data[20] = 0;
+        data[21] = 0;
+        data[23] = (byte) protocol;
+        System.arraycopy( headers, 0, data, 34, headers.length );
+        System.arraycopy( inner, 0, data, 34 + headers.length, inner.length );
+        return data;
+    }
+
+    //Create packet with the specified link layer header
+    //followed by the IP packet of the specified ethernet frame
+    static byte[] prefixIP( final byte[] frame, final String hex )
+    {
+        final byte[] header = toBytes( hex );
+        final byte[] data = new byte[header.length + frame.length - 14];
+        System.arraycopy( header, 0, data, 0, header.length );
+        System.arraycopy( frame, 14, data, header.length, frame.length - 14 );
+        return data;
+    }
+
+    static Packet parseIPPayload( final byte[] data )
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket raw =
+            factory.parseRawPacket( RawPacket.TYPE_802_3, data.length, data.length, 0, 0, data );
+        return raw.getUpperLayerPacket().getUpperLayerPacket().getUpperLayerPacket();
+    }
+
+    //Create frame with the addresses of UDP_PACKET, then the specified
+    //ethertype and headers, followed by the IP packet of UDP_PACKET
+    static byte[] encapsulate( final String hex )
+    {
+        final byte[] headers = toBytes( hex );
+        final byte[] data = new byte[UDP_PACKET.length + headers.length - 2];
+        System.arraycopy( UDP_PACKET, 0, data, 0, 12 );
+        System.arraycopy( headers, 0, data, 12, headers.length );
+        System.arraycopy( UDP_PACKET, 14, data, 12 + headers.length, UDP_PACKET.length - 14 );
+        return data;
+    }
+
+    static byte[] toBytes( final String hex )
+    {
+        final byte[] data = new byte[hex.length() / 2];
+        for( int i = 0; i < data.length; i++ )
+        {
+            data[i] = toByte( Integer.parseInt( hex.substring( i * 2, i * 2 + 2 ), 16 ) );
+        }
+        return data;
+    }
+
     static byte toByte( final int val )
     {
         final int iv = val & 0xFF;
@@ -158,4 +1025,12 @@ public class ModelPacketFactoryTestCase
                                     0x3E ), toByte( 0x84 ), toByte( 0x48 ), toByte( 0x65 ), toByte(
                                         0x6C ), toByte( 0x6C ), toByte( 0x6F )};
 
+    static final byte[] UDP6_PACKET =
+        toBytes( "0050BAC168E2" + "000CF1E0AD5E" + "86DD" +
+                 "60000000" + "0015" + "00" + "40" +
+                 "20010DB8000000000000000000000001" +
+                 "FE800000000000000000000000000002" +
+                 "1100010400000000" +
+                 "067714C5000D0000" + "48656C6C6F" );
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import packetspy.model.RawPacket;
+
+/**
+ * Measure the cost of exporting decoded TCP, UDP and IPv6 packets as text
+ * and NDJSON records to a channel that discards them.
+ */
+public class PacketExporterBenchmark
+{
+    private static final int ITERATIONS = 5000000;
+
+    private static final String[] FORMAT_NAMES = new String[]{"text", "ndjson"};
+
+    public static void main( final String[] args )
+        throws Exception
+    {
+        final byte[] tcp =
+            ModelPacketFactoryTestCase.tunnel( 6, "0050d431" + "00000064" + "00000001" + "5018ffff" + "00000000",
+                                               new byte[100] );
+        final byte[][] frames = new byte[][]{
+            ModelPacketFactoryTestCase.encapsulate( "81000064" + "0800" ),
+            ModelPacketFactoryTestCase.UDP6_PACKET,
+            tcp};
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final RawPacket[] packets = new RawPacket[frames.length];
+        for( int i = 0; i < frames.length; i++ )
+        {
+            final int length = frames[i].length;
+            packets[i] = factory.parseRawPacket( RawPacket.TYPE_802_3, length, length, 1100000000, i, frames[i] );
+        }
+
+        for( int round = 0; round < 3; round++ )
+        {
+            for( int format = PacketExporter.FORMAT_TEXT; format <= PacketExporter.FORMAT_NDJSON; format++ )
+            {
+                final NullChannel channel = new NullChannel();
+                final PacketExporter exporter = new PacketExporter( channel, format );
+                final long start = System.currentTimeMillis();
+                for( int i = 0; i < ITERATIONS; i++ )
+                {
+                    exporter.handlePacket( packets[i % packets.length] );
+                }
+                exporter.flush();
+                final long duration = Math.max( 1, System.currentTimeMillis() - start );
+                System.out.println( FORMAT_NAMES[format] + ": " +
+                                    ( duration * 1000000L / ITERATIONS ) + " ns/packet " +
+                                    ( ITERATIONS * 1000L / duration ) + " packets/s " +
+                                    ( channel.m_written / ITERATIONS ) + " bytes/record" );
+            }
+        }
+    }
+
+    /**
+     * Channel that counts and discards the bytes written to it.
+     */
+    private static class NullChannel
+        implements WritableByteChannel
+    {
+        long m_written;
+
+        public int write( final ByteBuffer src )
+        {
+            final int count = src.remaining();
+            src.position( src.limit() );
+            m_written += count;
+            return count;
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.model.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+import packetspy.model.RawPacket;
+
+public class PacketExporterTestCase
+    extends TestCase
+{
+    public void testTextFormat()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PacketExporter exporter =
+            new PacketExporter( Channels.newChannel( output ), PacketExporter.FORMAT_TEXT );
+        exporter.handlePacket( parse( ModelPacketFactoryTestCase.UDP_PACKET, 1100000000, 123 ) );
+        exporter.handlePacket( parse( ModelPacketFactoryTestCase.encapsulate( "81000064" + "0800" ), 5, 0 ) );
+        exporter.handlePacket( parse( ModelPacketFactoryTestCase.UDP6_PACKET, 7, 999999 ) );
+        exporter.flush();
+
+        assertEquals( "getRecordCount()", 3, exporter.getRecordCount() );
+        assertEquals( "output",
+                      "1100000000.000123 IP 192.168.0.240.1655 > 192.168.0.1.5317: UDP, length 5\n" +
+                      "5.000000 vlan 100, IP 192.168.0.240.1655 > 192.168.0.1.5317: UDP, length 5\n" +
+                      "7.999999 IP6 2001:db8::1.1655 > fe80::2.5317: UDP, length 5\n",
+                      output.toString( "US-ASCII" ) );
+    }
+
+    public void testJSONFormat()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PacketExporter exporter =
+            new PacketExporter( Channels.newChannel( output ), PacketExporter.FORMAT_NDJSON );
+        exporter.handlePacket( parse( ModelPacketFactoryTestCase.encapsulate( "81000064" + "0800" ), 5, 0 ) );
+        exporter.close();
+
+        assertEquals( "output",
+                      "{\"ts\":5.000000,\"len\":51,\"caplen\":51," +
+                      "\"eth_src\":\"00:0C:F1:E0:AD:5E\",\"eth_dst\":\"00:50:BA:C1:68:E2\",\"eth_type\":33024," +
+                      "\"vlan\":[100]," +
+                      "\"ip_ver\":4,\"ip_src\":\"192.168.0.240\",\"ip_dst\":\"192.168.0.1\",\"ip_proto\":17,\"ttl\":128," +
+                      "\"sport\":1655,\"dport\":5317,\"payload\":5}\n",
+                      output.toString( "US-ASCII" ) );
+    }
+
+    public void testJSONKeysAreUnique()
+        throws Exception
+    {
+        final byte[] udp = ModelPacketFactoryTestCase.UDP_PACKET;
+        final byte[] udpQuote = new byte[28];
+        System.arraycopy( udp, 14, udpQuote, 0, udpQuote.length );
+        final byte[] icmpError = ModelPacketFactoryTestCase.tunnel( 1, "0303" + "0000" + "00000000", udpQuote );
+        final byte[] vxlan =
+            ModelPacketFactoryTestCase.tunnel( 17, "d43112b5" + "0000" + "0000" + "08000000" + "00138800", udp );
+        vxlan[14 + 20 + 4] = (byte) ( ( vxlan.length - 14 - 20 ) >> 8 );
+        vxlan[14 + 20 + 5] = (byte) ( vxlan.length - 14 - 20 );
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PacketExporter exporter =
+            new PacketExporter( Channels.newChannel( output ), PacketExporter.FORMAT_NDJSON );
+        exporter.handlePacket( parse( icmpError, 0, 0 ) );
+        exporter.handlePacket( parse( vxlan, 0, 0 ) );
+        exporter.close();
+
+        final String[] lines = output.toString( "US-ASCII" ).split( "\n" );
+        assertEquals( "lines.length", 2, lines.length );
+        assertTrue( "icmp_type", lines[0].indexOf( "\"icmp_type\":3,\"icmp_code\":3" ) != -1 );
+        assertEquals( "sport in ICMP error", -1, lines[0].indexOf( "\"sport\"" ) );
+        assertTrue( "outer ports", lines[1].indexOf( "\"sport\":54321,\"dport\":4789" ) != -1 );
+        for( int i = 0; i < lines.length; i++ )
+        {
+            final Set keys = new HashSet();
+            final Matcher matcher = Pattern.compile( "\"(\\w+)\":" ).matcher( lines[i] );
+            while( matcher.find() )
+            {
+                assertTrue( "duplicate key " + matcher.group( 1 ) + " in " + lines[i],
+                            keys.add( matcher.group( 1 ) ) );
+            }
+        }
+    }
+
+    public void testBufferIsWrittenWhenFull()
+        throws Exception
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final PacketExporter exporter =
+            new PacketExporter( Channels.newChannel( output ),
+                                PacketExporter.FORMAT_TEXT,
+                                PacketExporter.MAX_RECORD_LENGTH );
+        final RawPacket raw = parse( ModelPacketFactoryTestCase.UDP_PACKET, 0, 0 );
+        for( int i = 0; i < 1000; i++ )
+        {
+            exporter.handlePacket( raw );
+        }
+        assertTrue( "written before flush", output.size() > 0 );
+        exporter.flush();
+
+        final String line = "0.000000 IP 192.168.0.240.1655 > 192.168.0.1.5317: UDP, length 5\n";
+        assertEquals( "output.size()", line.length() * 1000, output.size() );
+    }
+
+    public void testLongLabelStackIsBounded()
+        throws Exception
+    {
+        final StringBuffer labels = new StringBuffer( "8847" );
+        for( int i = 0; i < 375; i++ )
+        {
+            labels.append( "00064000" );
+        }
+        final RawPacket raw = parse( ModelPacketFactoryTestCase.encapsulate( labels.toString() ), 0, 0 );
+        final int[] formats = new int[]{PacketExporter.FORMAT_TEXT, PacketExporter.FORMAT_NDJSON};
+        for( int i = 0; i < formats.length; i++ )
+        {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final PacketExporter exporter =
+                new PacketExporter( Channels.newChannel( output ),
+                                    formats[i],
+                                    PacketExporter.MAX_RECORD_LENGTH );
+            for( int j = 0; j < 10; j++ )
+            {
+                exporter.handlePacket( raw );
+            }
+            exporter.flush();
+
+            assertEquals( "getRecordCount()", 10, exporter.getRecordCount() );
+            final String line = output.toString( "US-ASCII" ).substring( 0, output.size() / 10 );
+            assertTrue( "line.length() <= MAX_RECORD_LENGTH", line.length() <= PacketExporter.MAX_RECORD_LENGTH );
+            assertEquals( "labels rendered",
+                          PacketExporter.MAX_STACK_LENGTH,
+                          ( line.length() - line.replaceAll( "100", "" ).length() ) / 3 );
+        }
+    }
+
+    public void testErrorIsRethrownOnFlush()
+        throws Exception
+    {
+        final IOException error = new IOException( "disk full" );
+        final WritableByteChannel channel = new WritableByteChannel()
+        {
+            public int write( final ByteBuffer src )
+                throws IOException
+            {
+                throw error;
+            }
+
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            public void close()
+            {
+            }
+        };
+        final PacketExporter exporter =
+            new PacketExporter( channel,
+                                PacketExporter.FORMAT_TEXT,
+                                PacketExporter.MAX_RECORD_LENGTH );
+        final RawPacket raw = parse( ModelPacketFactoryTestCase.UDP_PACKET, 0, 0 );
+        for( int i = 0; i < 100; i++ )
+        {
+            exporter.handlePacket( raw );
+        }
+        assertSame( "getError()", error, exporter.getError() );
+        assertTrue( "getDroppedCount() > 0", exporter.getDroppedCount() > 0 );
+        try
+        {
+            exporter.flush();
+            fail( "Expected flush to rethrow error" );
+        }
+        catch( final IOException ioe )
+        {
+            assertSame( "ioe", error, ioe );
+        }
+    }
+
+    private static RawPacket parse( final byte[] data, final int seconds, final int useconds )
+    {
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        return factory.parseRawPacket( RawPacket.TYPE_802_3,
+                                       data.length,
+                                       data.length,
+                                       seconds,
+                                       useconds,
+                                       data );
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+public class BlockBitmapTestCase
+    extends TestCase
+{
+    public void testAddAndContains()
+        throws Exception
+    {
+        final BlockBitmap bitmap = new BlockBitmap();
+        assertTrue( "isEmpty()", bitmap.isEmpty() );
+        bitmap.add( 5 );
+        bitmap.add( 5 );
+        bitmap.add( 3 );
+        bitmap.add( 70000 );
+        assertEquals( "getCardinality()", 3, bitmap.getCardinality() );
+        assertTrue( "contains( 3 )", bitmap.contains( 3 ) );
+        assertTrue( "contains( 70000 )", bitmap.contains( 70000 ) );
+        assertFalse( "contains( 4 )", bitmap.contains( 4 ) );
+        assertFalse( "contains( -1 )", bitmap.contains( -1 ) );
+        assertArrayEquals( new int[]{3, 5, 70000}, bitmap.toArray() );
+
+        try
+        {
+            bitmap.add( -1 );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch( final IllegalArgumentException iae )
+        {
+        }
+    }
+
+    public void testDenseContainer()
+        throws Exception
+    {
+        final BlockBitmap bitmap = new BlockBitmap();
+        for( int i = 0; i < 20000; i += 2 )
+        {
+            bitmap.add( i );
+        }
+        assertEquals( "getCardinality()", 10000, bitmap.getCardinality() );
+        assertTrue( "contains( 19998 )", bitmap.contains( 19998 ) );
+        assertFalse( "contains( 19999 )", bitmap.contains( 19999 ) );
+        final int[] members = bitmap.toArray();
+        assertEquals( "members.length", 10000, members.length );
+        assertEquals( "members[9999]", 19998, members[9999] );
+    }
+
+    public void testSetOperationsMatchTreeSet()
+        throws Exception
+    {
+        final Random random = new Random( 42 );
+        for( int round = 0; round < 20; round++ )
+        {
+            //Alternate between sparse and dense sets spread across containers
+            final int range = ( 0 == round % 2 ) ? 200000 : 12000;
+            final BlockBitmap a = new BlockBitmap();
+            final BlockBitmap b = new BlockBitmap();
+            final TreeSet setA = new TreeSet();
+            final TreeSet setB = new TreeSet();
+            for( int i = 0; i < 9000; i++ )
+            {
+                final int valueA = random.nextInt( range );
+                final int valueB = random.nextInt( range );
+                a.add( valueA );
+                b.add( valueB );
+                setA.add( new Integer( valueA ) );
+                setB.add( new Integer( valueB ) );
+            }
+            assertArrayEquals( toArray( setA ), a.toArray() );
+
+            final TreeSet intersection = new TreeSet( setA );
+            intersection.retainAll( setB );
+            assertArrayEquals( toArray( intersection ), a.and( b ).toArray() );
+
+            final TreeSet union = new TreeSet( setA );
+            union.addAll( setB );
+            assertArrayEquals( toArray( union ), a.or( b ).toArray() );
+            assertArrayEquals( toArray( union ), b.or( a ).toArray() );
+        }
+    }
+
+    public void testWriteAndRead()
+        throws Exception
+    {
+        final BlockBitmap bitmap = new BlockBitmap();
+        for( int i = 0; i < 10000; i++ )
+        {
+            bitmap.add( i * 3 );
+        }
+        bitmap.add( 1000000 );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream( bytes );
+        bitmap.write( output );
+        output.close();
+
+        final DataInputStream input = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        final BlockBitmap result = BlockBitmap.read( input );
+        assertArrayEquals( bitmap.toArray(), result.toArray() );
+    }
+
+    private static int[] toArray( final TreeSet set )
+    {
+        final Object[] values = set.toArray();
+        final int[] result = new int[values.length];
+        for( int i = 0; i < values.length; i++ )
+        {
+            result[i] = ( (Integer) values[i] ).intValue();
+        }
+        return result;
+    }
+
+    private static void assertArrayEquals( final int[] expected, final int[] actual )
+    {
+        assertEquals( "length", expected.length, actual.length );
+        for( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( "[" + i + "]", expected[i], actual[i] );
+        }
+    }
+}
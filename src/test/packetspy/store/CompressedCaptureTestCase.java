@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.Deflater;
+import junit.framework.TestCase;
+import packetspy.capture.RawPacketHandler;
+import packetspy.model.RawPacket;
+
+public class CompressedCaptureTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final int BASE_SECONDS = 1072915200;
+
+    private static final int PACKET_COUNT = 5000;
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "packetspy", ".pcz" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        m_file.delete();
+    }
+
+    public void testWriteAndReadAll()
+        throws Exception
+    {
+        final CompressedCaptureWriter writer = writeCapture( false, Deflater.BEST_SPEED );
+        assertEquals( "getRecordCount()", PACKET_COUNT, writer.getRecordCount() );
+        assertEquals( "getDroppedCount()", 1, writer.getDroppedCount() );
+        assertTrue( "getBlockCount()", writer.getBlockCount() > 20 );
+        assertTrue( "compression ratio", writer.getCompressedSize() * 4 < writer.getUncompressedSize() );
+        assertNull( "getError()", writer.getError() );
+
+        final CompressedCaptureReader reader = new CompressedCaptureReader( m_file );
+        try
+        {
+            assertEquals( "getLinkType()", RawPacket.TYPE_802_3, reader.getLinkType() );
+            assertEquals( "getSnapLength()", 256, reader.getSnapLength() );
+            assertEquals( "getBlockCount()", writer.getBlockCount(), reader.getBlockCount() );
+            assertFalse( "isRecovered()", reader.isRecovered() );
+
+            final Collector collector = new Collector();
+            assertEquals( "read()", PACKET_COUNT, reader.read( collector ) );
+            for( int i = 0; i < PACKET_COUNT; i++ )
+            {
+                final byte[] data = collector.m_data[i];
+                assertEquals( "data.length", frameLength( i ), data.length );
+                assertEquals( "data[0]", (byte) i, data[0] );
+                assertEquals( "length", frameLength( i ) + 100, collector.m_lengths[i] );
+                assertEquals( "timestamp", timestamp( i ), collector.m_timestamps[i] );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testReadRange()
+        throws Exception
+    {
+        writeCapture( false, Deflater.BEST_SPEED );
+        final CompressedCaptureReader reader = new CompressedCaptureReader( m_file );
+        try
+        {
+            final long start = timestamp( 1234 );
+            final long end = timestamp( 2345 );
+            final Collector collector = new Collector();
+            assertEquals( "read( start, end )", 2345 - 1234, reader.read( start, end, collector ) );
+            assertEquals( "m_timestamps[0]", start, collector.m_timestamps[0] );
+
+            final int block = reader.findBlock( start );
+            assertTrue( "getTimestamp( block )", reader.getTimestamp( block ) <= start );
+            assertTrue( "getTimestamp( block + 1 )", reader.getTimestamp( block + 1 ) > start );
+
+            final BlockBitmap blocks = new BlockBitmap();
+            blocks.add( 0 );
+            blocks.add( 2 );
+            assertEquals( "read( blocks )",
+                          reader.getRecordCount( 0 ) + reader.getRecordCount( 2 ),
+                          reader.read( blocks, new Collector() ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testIncompressibleBlocksAreStored()
+        throws Exception
+    {
+        //Deflate without compression adds framing so every block is stored as is
+        final CompressedCaptureWriter writer = writeCapture( true, Deflater.NO_COMPRESSION );
+        assertEquals( "getCompressedSize()",
+                      writer.getUncompressedSize() + writer.getBlockCount() * CompressedCaptureWriter.BLOCK_HEADER_LENGTH,
+                      writer.getCompressedSize() );
+        final CompressedCaptureReader reader = new CompressedCaptureReader( m_file );
+        try
+        {
+            assertEquals( "read()", PACKET_COUNT, reader.read( new Collector() ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testRecoverWithoutIndex()
+        throws Exception
+    {
+        final CompressedCaptureWriter writer = writeCapture( false, Deflater.BEST_SPEED );
+        final int blockCount = writer.getBlockCount();
+        final CompressedCaptureReader complete = new CompressedCaptureReader( m_file );
+        final int lastRecords = complete.getRecordCount( blockCount - 1 );
+        complete.close();
+
+        //Remove the index, the trailer and the end of the last block
+        final RandomAccessFile file = new RandomAccessFile( m_file, "rw" );
+        try
+        {
+            file.setLength( file.length() -
+                            CompressedCaptureWriter.TRAILER_LENGTH -
+                            blockCount * CompressedCaptureWriter.ENTRY_LENGTH -
+                            5 );
+        }
+        finally
+        {
+            file.close();
+        }
+
+        final CompressedCaptureReader reader = new CompressedCaptureReader( m_file );
+        try
+        {
+            assertTrue( "isRecovered()", reader.isRecovered() );
+            assertEquals( "getBlockCount()", blockCount - 1, reader.getBlockCount() );
+            assertEquals( "read()", PACKET_COUNT - lastRecords, reader.read( new Collector() ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private CompressedCaptureWriter writeCapture( final boolean random, final int level )
+        throws Exception
+    {
+        final Random generator = new Random( 3 );
+        final CompressedCaptureWriter writer =
+            new CompressedCaptureWriter( m_file, RawPacket.TYPE_802_3, 256, 16 * 1024, 3, level );
+        for( int i = 0; i < PACKET_COUNT; i++ )
+        {
+            final byte[] data = new byte[frameLength( i )];
+            if( random )
+            {
+                generator.nextBytes( data );
+            }
+            else
+            {
+                //Repetitive like headers of packets in the same flows
+                for( int j = 0; j < data.length; j++ )
+                {
+                    data[j] = (byte) ( j % 7 );
+                }
+            }
+            data[0] = (byte) i;
+            writer.handlePacket( RawPacket.TYPE_802_3,
+                                 data.length + 100,
+                                 data.length,
+                                 BASE_SECONDS + i / 1000,
+                                 ( i % 1000 ) * 1000,
+                                 data );
+        }
+        writer.handlePacket( RawPacket.TYPE_RAW, 20, 20, BASE_SECONDS, 0, new byte[20] );
+        writer.close();
+        return writer;
+    }
+
+    private static int frameLength( final int packet )
+    {
+        return 60 + packet % 190;
+    }
+
+    private static long timestamp( final int packet )
+    {
+        return PcapWriter.toTimestamp( BASE_SECONDS + packet / 1000, ( packet % 1000 ) * 1000 );
+    }
+
+    private static class Collector
+        implements RawPacketHandler
+    {
+        int m_count;
+        final byte[][] m_data = new byte[PACKET_COUNT][];
+        final long[] m_timestamps = new long[PACKET_COUNT];
+        final int[] m_lengths = new int[PACKET_COUNT];
+
+        public void handlePacket( final int linkType,
+                                  final int length,
+                                  final int capturedLength,
+                                  final int seconds,
+                                  final int useconds,
+                                  final byte[] data )
+        {
+            m_data[m_count] = data;
+            m_timestamps[m_count] = PcapWriter.toTimestamp( seconds, useconds );
+            m_lengths[m_count] = length;
+            m_count++;
+        }
+    }
+}
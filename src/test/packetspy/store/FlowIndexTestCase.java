@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import junit.framework.TestCase;
+import packetspy.capture.RawPacketHandler;
+import packetspy.model.IP4Packet;
+import packetspy.model.RawPacket;
+
+public class FlowIndexTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final int BASE_SECONDS = 1072915200;
+
+    private static final int HOST1 = 0x0A000001;
+    private static final int HOST2 = 0x0A000002;
+    private static final int SERVER = 0xC0A80001;
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "packetspy", ".pcap" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        TimeIndex.getIndexFile( m_file ).delete();
+        FlowIndex.getIndexFile( m_file ).delete();
+        m_file.delete();
+    }
+
+    public void testIndexWhileWriting()
+        throws Exception
+    {
+        final PcapWriter writer = new PcapWriter( m_file, RawPacket.TYPE_802_3, 96 );
+        final FlowIndexer indexer = new FlowIndexer( writer, new FlowIndex(), 16 );
+        //10 seconds of traffic, HOST2 only talks during seconds 3 and 7
+        for( int i = 0; i < 1000; i++ )
+        {
+            final int second = i / 100;
+            final boolean host2 = ( 3 == second || 7 == second ) && 0 == i % 10;
+            final byte[] frame = host2 ? udpFrame( HOST2, SERVER, 5000, 53 ) : udpFrame( HOST1, SERVER, 6000, 80 );
+            indexer.handlePacket( RawPacket.TYPE_802_3,
+                                  frame.length,
+                                  frame.length,
+                                  BASE_SECONDS + second,
+                                  ( i % 100 ) * 10000,
+                                  frame );
+        }
+        indexer.close();
+        assertEquals( "writer.getBlockCount()", 10, writer.getBlockCount() );
+
+        final FlowIndex index = indexer.getIndex();
+        assertEquals( "getAddressCount()", 3, index.getAddressCount() );
+        assertEquals( "HOST1 blocks", 10, index.getAddressBlocks( HOST1 ).getCardinality() );
+        assertBlocks( new int[]{3, 7}, index.getAddressBlocks( HOST2 ).toArray() );
+        assertBlocks( new int[]{3, 7}, index.getPortBlocks( 53 ).toArray() );
+        assertEquals( "port 80", 10, index.getPortBlocks( 80 ).getCardinality() );
+        assertEquals( "UDP", 10, index.getProtocolBlocks( IP4Packet.PROTOCOL_UDP ).getCardinality() );
+        assertTrue( "TCP", index.getProtocolBlocks( IP4Packet.PROTOCOL_TCP ).isEmpty() );
+        assertTrue( "unknown address", index.getAddressBlocks( 0x01020304 ).isEmpty() );
+
+        index.write( FlowIndex.getIndexFile( m_file ) );
+        final FlowIndex loaded = FlowIndex.load( FlowIndex.getIndexFile( m_file ) );
+        final BlockBitmap query =
+            loaded.getAddressBlocks( HOST2 ).and( loaded.getPortBlocks( 53 ) );
+        assertBlocks( new int[]{3, 7}, query.toArray() );
+
+        final PcapReader reader = new PcapReader( m_file );
+        try
+        {
+            final int[] count = new int[1];
+            final long read = reader.read( query, new RawPacketHandler()
+            {
+                public void handlePacket( final int linkType,
+                                          final int length,
+                                          final int capturedLength,
+                                          final int seconds,
+                                          final int useconds,
+                                          final byte[] data )
+                {
+                    count[0]++;
+                }
+            } );
+            assertEquals( "records read", 200, read );
+            assertEquals( "count", 200, count[0] );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testManyAddresses()
+        throws Exception
+    {
+        final FlowIndex index = new FlowIndex();
+        for( int i = 0; i < 10000; i++ )
+        {
+            index.addAddress( 0x0A000000 + i, i / 100 );
+        }
+        assertEquals( "getAddressCount()", 10000, index.getAddressCount() );
+        assertBlocks( new int[]{42}, index.getAddressBlocks( 0x0A000000 + 4242 ).toArray() );
+    }
+
+    private static void assertBlocks( final int[] expected, final int[] actual )
+    {
+        assertEquals( "length", expected.length, actual.length );
+        for( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( "[" + i + "]", expected[i], actual[i] );
+        }
+    }
+
+    //Create an Ethernet frame containing a UDP packet with 8 bytes of payload
+    static byte[] udpFrame( final int source,
+                            final int destination,
+                            final int sourcePort,
+                            final int destinationPort )
+    {
+        final byte[] frame = new byte[14 + 20 + 8 + 8];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[17] = 20 + 8 + 8;
+        frame[22] = 64;
+        frame[23] = IP4Packet.PROTOCOL_UDP;
+        putInt( frame, 26, source );
+        putInt( frame, 30, destination );
+        frame[34] = (byte) ( sourcePort >> 8 );
+        frame[35] = (byte) sourcePort;
+        frame[36] = (byte) ( destinationPort >> 8 );
+        frame[37] = (byte) destinationPort;
+        frame[39] = 8 + 8;
+        return frame;
+    }
+
+    private static void putInt( final byte[] data, final int offset, final int value )
+    {
+        data[offset] = (byte) ( value >> 24 );
+        data[offset + 1] = (byte) ( value >> 16 );
+        data[offset + 2] = (byte) ( value >> 8 );
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import junit.framework.TestCase;
+import packetspy.model.EthernetPacket;
+import packetspy.model.IP4Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.RawToModelPacketHandler;
+
+public class HeaderArchiveTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final int BASE_SECONDS = 1072915200;
+
+    private static final int PACKET_COUNT = 10000;
+
+    private static final int SERVER1 = 0xC0A80001;
+    private static final int SERVER2 = 0xC0A80002;
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "packetspy", ".hdr" );
+        final HeaderArchiveWriter writer = new HeaderArchiveWriter( m_file, 1000 );
+        final RawToModelPacketHandler handler = new RawToModelPacketHandler( writer );
+        for( int i = 0; i < PACKET_COUNT; i++ )
+        {
+            final byte[] frame;
+            if( 0 == i % 10 )
+            {
+                frame = FlowIndexTestCase.udpFrame( source( i ), destination( i ), sourcePort( i ), 53 );
+            }
+            else
+            {
+                frame = tcpFrame( source( i ), destination( i ), sourcePort( i ), 80, flags( i ) );
+            }
+            handler.handlePacket( RawPacket.TYPE_802_3,
+                                  length( i ),
+                                  frame.length,
+                                  BASE_SECONDS + i / 1000,
+                                  ( i % 1000 ) * 1000,
+                                  frame );
+        }
+        writer.close();
+        assertEquals( "getRowCount()", PACKET_COUNT, writer.getRowCount() );
+        assertEquals( "getGroupCount()", 10, writer.getGroupCount() );
+        assertEquals( "getDroppedCount()", 0, writer.getDroppedCount() );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        m_file.delete();
+    }
+
+    public void testScanAll()
+        throws Exception
+    {
+        //Well under the 44 bytes per row of plain encoding
+        assertTrue( "m_file.length()", m_file.length() < PACKET_COUNT * 20 );
+
+        final HeaderArchiveReader reader = new HeaderArchiveReader( m_file );
+        try
+        {
+            final int[] next = new int[1];
+            final long matched = reader.scan( null, HeaderColumns.ALL_COLUMNS, new HeaderBatchListener()
+            {
+                public void handleBatch( final HeaderColumns columns, final int[] selection, final int count )
+                {
+                    for( int i = 0; i < count; i++ )
+                    {
+                        final int row = selection[i];
+                        final int packet = next[0]++;
+                        final boolean udp = 0 == packet % 10;
+                        assertEquals( "timestamp",
+                                      PcapWriter.toTimestamp( BASE_SECONDS + packet / 1000, ( packet % 1000 ) * 1000 ),
+                                      columns.getTimestamps()[row] );
+                        assertEquals( "length", length( packet ), get( columns, HeaderColumns.COLUMN_LENGTH, row ) );
+                        assertEquals( "etherType",
+                                      EthernetPacket.TYPE_IP,
+                                      get( columns, HeaderColumns.COLUMN_ETHER_TYPE, row ) );
+                        assertEquals( "vlan", 0, get( columns, HeaderColumns.COLUMN_VLAN, row ) );
+                        assertEquals( "protocol",
+                                      udp ? IP4Packet.PROTOCOL_UDP : IP4Packet.PROTOCOL_TCP,
+                                      get( columns, HeaderColumns.COLUMN_PROTOCOL, row ) );
+                        assertEquals( "source",
+                                      source( packet ),
+                                      get( columns, HeaderColumns.COLUMN_SOURCE_ADDRESS, row ) );
+                        assertEquals( "destination",
+                                      destination( packet ),
+                                      get( columns, HeaderColumns.COLUMN_DESTINATION_ADDRESS, row ) );
+                        assertEquals( "sourcePort",
+                                      sourcePort( packet ),
+                                      get( columns, HeaderColumns.COLUMN_SOURCE_PORT, row ) );
+                        assertEquals( "destinationPort",
+                                      udp ? 53 : 80,
+                                      get( columns, HeaderColumns.COLUMN_DESTINATION_PORT, row ) );
+                        assertEquals( "flags",
+                                      udp ? 0 : flags( packet ),
+                                      get( columns, HeaderColumns.COLUMN_TCP_FLAGS, row ) );
+                    }
+                }
+            } );
+            assertEquals( "matched", PACKET_COUNT, matched );
+            assertEquals( "next", PACKET_COUNT, next[0] );
+            assertEquals( "getSkippedCount()", 0, reader.getSkippedCount() );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testAggregate()
+        throws Exception
+    {
+        long expected = 0;
+        for( int i = 0; i < PACKET_COUNT; i += 10 )
+        {
+            expected += length( i );
+        }
+        final HeaderPredicate dns = HeaderPredicate.equal( HeaderColumns.COLUMN_DESTINATION_PORT, 53 );
+        final Sum sum = new Sum();
+        assertEquals( "matched", PACKET_COUNT / 10, scan( dns, sum ) );
+        assertEquals( "m_bytes", expected, sum.m_bytes );
+
+        final HeaderPredicate syn = HeaderPredicate.flags( HeaderColumns.TCP_SYN );
+        assertEquals( "SYN", PACKET_COUNT / 100, scan( syn, new Sum() ) );
+        assertEquals( "SYN|ACK", 0, scan( HeaderPredicate.flags( HeaderColumns.TCP_SYN | HeaderColumns.TCP_ACK ),
+                                         new Sum() ) );
+        assertEquals( "DNS or SYN", PACKET_COUNT / 10 + PACKET_COUNT / 100,
+                      scan( HeaderPredicate.or( syn, dns ), new Sum() ) );
+        assertEquals( "DNS to SERVER2", PACKET_COUNT / 20,
+                      scan( HeaderPredicate.and( dns,
+                                                 HeaderPredicate.equal( HeaderColumns.COLUMN_DESTINATION_ADDRESS,
+                                                                        SERVER2 & 0xFFFFFFFFL ) ),
+                            new Sum() ) );
+    }
+
+    public void testSkipRowGroups()
+        throws Exception
+    {
+        final long start = PcapWriter.toTimestamp( BASE_SECONDS + 2, 500000 );
+        final long end = PcapWriter.toTimestamp( BASE_SECONDS + 3, 499000 );
+        final HeaderArchiveReader reader = new HeaderArchiveReader( m_file );
+        try
+        {
+            final Sum sum = new Sum();
+            final HeaderPredicate window = HeaderPredicate.range( HeaderColumns.COLUMN_TIMESTAMP, start, end );
+            assertEquals( "matched", 1000, reader.scan( window, 1 << HeaderColumns.COLUMN_LENGTH, sum ) );
+            assertEquals( "getSkippedCount()", 8, reader.getSkippedCount() );
+
+            final HeaderPredicate none = HeaderPredicate.equal( HeaderColumns.COLUMN_VLAN, 100 );
+            assertEquals( "matched", 0, reader.scan( none, 0, sum ) );
+            assertEquals( "getSkippedCount()", 10, reader.getSkippedCount() );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private long scan( final HeaderPredicate predicate, final Sum sum )
+        throws Exception
+    {
+        final HeaderArchiveReader reader = new HeaderArchiveReader( m_file );
+        try
+        {
+            return reader.scan( predicate, 1 << HeaderColumns.COLUMN_LENGTH, sum );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private static int get( final HeaderColumns columns, final int column, final int row )
+    {
+        return columns.getColumn( column )[row];
+    }
+
+    //Unique per packet so the column is stored plain
+    private static int source( final int packet )
+    {
+        return 0x0A000000 + packet;
+    }
+
+    private static int destination( final int packet )
+    {
+        return ( 0 == ( packet / 10 ) % 2 ) ? SERVER1 : SERVER2;
+    }
+
+    //More than 256 distinct values so the dictionary has two byte indexes
+    private static int sourcePort( final int packet )
+    {
+        return 1024 + packet % 300;
+    }
+
+    private static int length( final int packet )
+    {
+        return 64 + packet % 1400;
+    }
+
+    private static int flags( final int packet )
+    {
+        return ( 1 == packet % 100 ) ? HeaderColumns.TCP_SYN : HeaderColumns.TCP_ACK;
+    }
+
+    //Create an Ethernet frame containing a TCP segment without options or payload
+    static byte[] tcpFrame( final int source,
+                            final int destination,
+                            final int sourcePort,
+                            final int destinationPort,
+                            final int flags )
+    {
+        final byte[] frame = new byte[14 + 20 + 20];
+        frame[12] = 0x08;
+        frame[14] = 0x45;
+        frame[17] = 20 + 20;
+        frame[22] = 64;
+        frame[23] = IP4Packet.PROTOCOL_TCP;
+        for( int i = 0; i < 4; i++ )
+        {
+            frame[26 + i] = (byte) ( source >> ( 24 - i * 8 ) );
+            frame[30 + i] = (byte) ( destination >> ( 24 - i * 8 ) );
+        }
+        frame[34] = (byte) ( sourcePort >> 8 );
+        frame[35] = (byte) sourcePort;
+        frame[36] = (byte) ( destinationPort >> 8 );
+        frame[37] = (byte) destinationPort;
+        frame[46] = 0x50;
+        frame[47] = (byte) flags;
+        return frame;
+    }
+
+    private static class Sum
+        implements HeaderBatchListener
+    {
+        long m_bytes;
+
+        public void handleBatch( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            final int[] lengths = columns.getColumn( HeaderColumns.COLUMN_LENGTH );
+            for( int i = 0; i < count; i++ )
+            {
+                m_bytes += lengths[selection[i]];
+            }
+        }
+    }
+}
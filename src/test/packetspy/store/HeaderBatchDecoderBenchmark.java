@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import packetspy.model.RawPacket;
+import packetspy.model.io.DissectorRegistry;
+import packetspy.model.io.ModelPacketFactory;
+
+/**
+ * Compare filling HeaderColumns by decoding each packet with a
+ * ModelPacketFactory with decoding batches using HeaderBatchDecoder.
+ */
+public class HeaderBatchDecoderBenchmark
+{
+    private static final int ITERATIONS = 5000000;
+
+    public static void main( final String[] args )
+    {
+        final byte[][] frames = new byte[64][];
+        for( int i = 0; i < frames.length; i++ )
+        {
+            frames[i] = ( 0 == i % 4 ) ?
+                FlowIndexTestCase.udpFrame( 0x0A000000 + i, 0xC0A80001, 40000 + i, 53 ) :
+                HeaderArchiveTestCase.tcpFrame( 0x0A000000 + i, 0xC0A80001, 40000 + i, 80, HeaderColumns.TCP_ACK );
+        }
+        final ModelPacketFactory factory =
+            new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), ModelPacketFactory.DEPTH_TRANSPORT );
+        final HeaderColumns columns = new HeaderColumns( HeaderBatchDecoder.DEFAULT_BATCH_SIZE );
+        final long[] sum = new long[1];
+        final HeaderBatchListener listener = new HeaderBatchListener()
+        {
+            public void handleBatch( final HeaderColumns batch, final int[] selection, final int count )
+            {
+                final int[] ports = batch.getColumn( HeaderColumns.COLUMN_SOURCE_PORT );
+                for( int i = 0; i < count; i++ )
+                {
+                    sum[0] += ports[selection[i]];
+                }
+            }
+        };
+        final HeaderBatchDecoder decoder = new HeaderBatchDecoder( listener );
+
+        for( int round = 0; round < 3; round++ )
+        {
+            long start = System.currentTimeMillis();
+            for( int i = 0; i < ITERATIONS; i++ )
+            {
+                final byte[] frame = frames[i & 63];
+                columns.add( factory.parseRawPacket( RawPacket.TYPE_802_3, frame.length, frame.length, i, 0, frame ) );
+                if( columns.isFull() )
+                {
+                    listener.handleBatch( columns, identity( columns.size() ), columns.size() );
+                    columns.clear();
+                }
+            }
+            final long model = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            for( int i = 0; i < ITERATIONS; i++ )
+            {
+                final byte[] frame = frames[i & 63];
+                decoder.handlePacket( RawPacket.TYPE_802_3, frame.length, frame.length, i, 0, frame );
+            }
+            decoder.flush();
+            final long batch = System.currentTimeMillis() - start;
+
+            System.out.println( "ModelPacketFactory: " + ( model * 1000000L / ITERATIONS ) + " ns/packet, " +
+                                "HeaderBatchDecoder: " + ( batch * 1000000L / ITERATIONS ) + " ns/packet " +
+                                "(" + sum[0] + ")" );
+        }
+    }
+
+    private static int[] c_identity;
+
+    private static int[] identity( final int size )
+    {
+        if( null == c_identity || c_identity.length < size )
+        {
+            c_identity = new int[size];
+            for( int i = 0; i < size; i++ )
+            {
+                c_identity[i] = i;
+            }
+        }
+        return c_identity;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+import packetspy.model.IP4Packet;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.DissectorRegistry;
+import packetspy.model.io.ModelPacketFactory;
+
+public class HeaderBatchDecoderTestCase
+    extends TestCase
+{
+    private static final int SERVER = 0xC0A80001;
+    private static final int CLIENT = 0x0A000002;
+
+    public void testMatchesModelDecoding()
+        throws Exception
+    {
+        final byte[] tcp = HeaderArchiveTestCase.tcpFrame( CLIENT, SERVER, 40000, 80, HeaderColumns.TCP_SYN );
+        final byte[] udp = FlowIndexTestCase.udpFrame( CLIENT, SERVER, 40001, 53 );
+        final byte[] fragment = (byte[]) udp.clone();
+        fragment[21] = 1;
+        final byte[] icmp = (byte[]) udp.clone();
+        icmp[23] = IP4Packet.PROTOCOL_ICMP;
+        final byte[] options = insert( tcp, 34, new byte[]{1, 1, 1, 0} );
+        options[14] = 0x46;
+        options[17] += 4;
+        final byte[] ip6 = ip6Frame( IP4Packet.PROTOCOL_TCP, new byte[]{(byte) 0x9C, 0x40, 0x00, 0x50,
+                                                                         0, 0, 0, 0, 0, 0, 0, 0, 0x50, 0x12} );
+        final byte[] hopByHop = ip6Frame( 0, new byte[]{IP4Packet.PROTOCOL_UDP, 0, 0, 0, 0, 0, 0, 0,
+                                                       0x00, 0x35, 0x12, 0x34, 0, 8, 0, 0} );
+        final byte[] arp = new byte[14 + 28];
+        arp[12] = 0x08;
+        arp[13] = 0x06;
+
+        final byte[][] frames = new byte[][]{
+            tcp,
+            udp,
+            fragment,
+            icmp,
+            options,
+            ip6,
+            hopByHop,
+            arp,
+            vlan( tcp, 0x8100, 100 ),
+            vlan( vlan( udp, 0x8100, 200 ), 0x88A8, 300 ),
+            vlan( vlan( udp, 0x8100, 200 ), 0x9100, 0 ),
+            vlan( vlan( vlan( udp, 0x8100, 1 ), 0x8100, 2 ), 0x8100, 3 ),
+            vlan( ip6, 0x8100, 4095 ),
+        };
+
+        final ArrayList packets = new ArrayList();
+        for( int i = 0; i < frames.length; i++ )
+        {
+            //Every captured length, with the length on the wire both equal and longer
+            for( int captured = 0; captured <= frames[i].length; captured++ )
+            {
+                packets.add( new Object[]{new Integer( RawPacket.TYPE_802_3 ), frames[i], new Integer( captured )} );
+            }
+            packets.add( new Object[]{new Integer( RawPacket.TYPE_LINUX_SLL ), frames[i], new Integer( frames[i].length )} );
+        }
+        final Random random = new Random( 1 );
+        for( int i = 0; i < 5000; i++ )
+        {
+            final byte[] frame = (byte[]) frames[random.nextInt( frames.length )].clone();
+            final int changes = 1 + random.nextInt( 3 );
+            for( int j = 0; j < changes; j++ )
+            {
+                frame[random.nextInt( frame.length )] = (byte) random.nextInt();
+            }
+            packets.add( new Object[]{new Integer( RawPacket.TYPE_802_3 ), frame, new Integer( frame.length )} );
+        }
+
+        final HeaderColumns expected = new HeaderColumns( packets.size() );
+        final HeaderColumns actual = new HeaderColumns( packets.size() );
+        final ModelPacketFactory factory =
+            new ModelPacketFactory( DissectorRegistry.createDefaultRegistry(), ModelPacketFactory.DEPTH_TRANSPORT );
+        final HeaderBatchDecoder decoder = new HeaderBatchDecoder( new Appender( actual ), 7 );
+        for( int i = 0; i < packets.size(); i++ )
+        {
+            final Object[] packet = (Object[]) packets.get( i );
+            final int linkType = ( (Integer) packet[0] ).intValue();
+            final byte[] frame = (byte[]) packet[1];
+            final int captured = ( (Integer) packet[2] ).intValue();
+            final int length = frame.length + ( i % 2 ) * 100;
+            expected.add( factory.parseRawPacket( linkType, length, captured, i, 0, frame ) );
+            decoder.handlePacket( linkType, length, captured, i, 0, frame );
+        }
+        decoder.flush();
+
+        assertEquals( "getPacketCount()", packets.size(), decoder.getPacketCount() );
+        assertEquals( "actual.size()", expected.size(), actual.size() );
+        for( int row = 0; row < expected.size(); row++ )
+        {
+            assertEquals( "timestamp " + row, expected.getTimestamps()[row], actual.getTimestamps()[row] );
+            for( int column = 1; column < HeaderColumns.COLUMN_COUNT; column++ )
+            {
+                assertEquals( "column " + column + " row " + row,
+                              expected.getColumn( column )[row],
+                              actual.getColumn( column )[row] );
+            }
+        }
+        //Most of the mutated packets are still decoded directly
+        assertTrue( "getFallbackCount()", decoder.getFallbackCount() < packets.size() / 2 );
+    }
+
+    public void testOutermostTransportLayer()
+        throws Exception
+    {
+        final byte[] udp = FlowIndexTestCase.udpFrame( CLIENT, SERVER, 40001, 53 );
+        //Destination unreachable quoting the UDP datagram
+        final byte[] icmpError = ip4Frame( IP4Packet.PROTOCOL_ICMP, new byte[]{3, 3, 0, 0, 0, 0, 0, 0}, udp );
+        //GRE carrying the IP packet of the UDP datagram
+        final byte[] gre = ip4Frame( 47, new byte[]{0, 0, 0x08, 0x00}, udp );
+        final byte[][] frames = new byte[][]{icmpError, gre, vlan( gre, 0x8100, 100 )};
+        final int[] protocols = new int[]{IP4Packet.PROTOCOL_ICMP, 47, 47};
+
+        final HeaderColumns expected = new HeaderColumns( frames.length );
+        final HeaderColumns actual = new HeaderColumns( frames.length );
+        //Fully decode packets as a listener of the capture would see them
+        final ModelPacketFactory factory = new ModelPacketFactory();
+        final HeaderBatchDecoder decoder = new HeaderBatchDecoder( new Appender( actual ), frames.length );
+        for( int i = 0; i < frames.length; i++ )
+        {
+            final byte[] frame = frames[i];
+            final RawPacket raw = factory.parseRawPacket( RawPacket.TYPE_802_3, frame.length, frame.length, i, 0, frame );
+            assertNotNull( "quoted or tunnelled UDP " + i, raw.findLayer( Packet.LAYER_UDP ) );
+            expected.add( raw );
+            decoder.handlePacket( RawPacket.TYPE_802_3, frame.length, frame.length, i, 0, frame );
+        }
+        decoder.flush();
+
+        assertEquals( "actual.size()", frames.length, actual.size() );
+        for( int row = 0; row < frames.length; row++ )
+        {
+            for( int column = 1; column < HeaderColumns.COLUMN_COUNT; column++ )
+            {
+                assertEquals( "column " + column + " row " + row,
+                              expected.getColumn( column )[row],
+                              actual.getColumn( column )[row] );
+            }
+            assertEquals( "protocol " + row, protocols[row], expected.getColumn( HeaderColumns.COLUMN_PROTOCOL )[row] );
+            assertEquals( "source " + row, CLIENT, expected.getColumn( HeaderColumns.COLUMN_SOURCE_ADDRESS )[row] );
+            assertEquals( "source port " + row, 0, expected.getColumn( HeaderColumns.COLUMN_SOURCE_PORT )[row] );
+            assertEquals( "destination port " + row, 0, expected.getColumn( HeaderColumns.COLUMN_DESTINATION_PORT )[row] );
+        }
+        assertEquals( "vlan", 100, expected.getColumn( HeaderColumns.COLUMN_VLAN )[2] );
+    }
+
+    public void testArchiveBatches()
+        throws Exception
+    {
+        final File file = File.createTempFile( "packetspy", ".hdr" );
+        try
+        {
+            final HeaderArchiveWriter writer = new HeaderArchiveWriter( file, 1000 );
+            final HeaderBatchDecoder decoder = new HeaderBatchDecoder( writer, 300 );
+            for( int i = 0; i < 2500; i++ )
+            {
+                final byte[] frame = HeaderArchiveTestCase.tcpFrame( CLIENT + i, SERVER, 40000, 80, HeaderColumns.TCP_ACK );
+                decoder.handlePacket( RawPacket.TYPE_802_3, frame.length, frame.length, i, 0, frame );
+            }
+            decoder.flush();
+            writer.close();
+            assertEquals( "getRowCount()", 2500, writer.getRowCount() );
+            assertEquals( "getGroupCount()", 3, writer.getGroupCount() );
+            assertEquals( "getFallbackCount()", 0, decoder.getFallbackCount() );
+
+            final HeaderArchiveReader reader = new HeaderArchiveReader( file );
+            try
+            {
+                final HeaderColumns rows = new HeaderColumns( 2500 );
+                final long matched =
+                    reader.scan( HeaderPredicate.range( HeaderColumns.COLUMN_SOURCE_ADDRESS, CLIENT + 1000, CLIENT + 1099 ),
+                                 HeaderColumns.ALL_COLUMNS,
+                                 new Appender( rows ) );
+                assertEquals( "matched", 100, matched );
+                assertEquals( "source", CLIENT + 1000, rows.getColumn( HeaderColumns.COLUMN_SOURCE_ADDRESS )[0] );
+                assertEquals( "flags", HeaderColumns.TCP_ACK, rows.getColumn( HeaderColumns.COLUMN_TCP_FLAGS )[0] );
+                assertEquals( "timestamp", PcapWriter.toTimestamp( 1000, 0 ), rows.getTimestamps()[0] );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    //Insert a VLAN tag with specified type and id after the addresses of frame
+    private static byte[] vlan( final byte[] frame, final int type, final int id )
+    {
+        return insert( frame, 12, new byte[]{(byte) ( type >> 8 ), (byte) type, (byte) ( id >> 8 ), (byte) id} );
+    }
+
+    //Create an Ethernet frame containing an IPv6 packet with the specified next header and payload
+    private static byte[] ip6Frame( final int nextHeader, final byte[] payload )
+    {
+        final byte[] frame = new byte[14 + 40 + Math.max( 20, payload.length )];
+        frame[12] = (byte) 0x86;
+        frame[13] = (byte) 0xDD;
+        frame[14] = 0x60;
+        frame[19] = (byte) ( frame.length - 54 );
+        frame[20] = (byte) nextHeader;
+        frame[21] = 64;
+        frame[37] = 1;
+        frame[53] = 2;
+        System.arraycopy( payload, 0, frame, 54, payload.length );
+        return frame;
+    }
+
+    //Create an Ethernet frame with the IP header of frame carrying the specified
+    //protocol, header and the IP packet of inner
+    private static byte[] ip4Frame( final int protocol, final byte[] header, final byte[] inner )
+    {
+        final byte[] result = new byte[34 + header.length + inner.length - 14];
+        System.arraycopy( inner, 0, result, 0, 34 );
+        System.arraycopy( header, 0, result, 34, header.length );
+        System.arraycopy( inner, 14, result, 34 + header.length, inner.length - 14 );
+        result[16] = (byte) ( ( result.length - 14 ) >> 8 );
+        result[17] = (byte) ( result.length - 14 );
+        result[23] = (byte) protocol;
+        return result;
+    }
+
+    private static byte[] insert( final byte[] data, final int offset, final byte[] bytes )
+    {
+        final byte[] result = new byte[data.length + bytes.length];
+        System.arraycopy( data, 0, result, 0, offset );
+        System.arraycopy( bytes, 0, result, offset, bytes.length );
+        System.arraycopy( data, offset, result, offset + bytes.length, data.length - offset );
+        return result;
+    }
+
+    private static class Appender
+        implements HeaderBatchListener
+    {
+        private final HeaderColumns m_rows;
+
+        Appender( final HeaderColumns rows )
+        {
+            m_rows = rows;
+        }
+
+        public void handleBatch( final HeaderColumns columns, final int[] selection, final int count )
+        {
+            for( int i = 0; i < count; i++ )
+            {
+                m_rows.add( columns, selection[i] );
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import packetspy.model.Packet;
+import packetspy.model.io.RawToModelPacketHandler;
+
+/**
+ * Compare decoding a capture on a single thread with
+ * ParallelPcapReader using increasing numbers of threads.
+ */
+public class ParallelPcapReaderBenchmark
+{
+    public static void main( final String[] args )
+        throws Exception
+    {
+        if( 2 != args.length )
+        {
+            System.out.println( "Usage:" );
+            System.out.println( "    java ParallelPcapReaderBenchmark captureFile maxThreads" );
+            return;
+        }
+        final File file = new File( args[0] );
+        final int maxThreads = Integer.parseInt( args[1] );
+
+        final long start = System.currentTimeMillis();
+        final Counter counter = new Counter();
+        final PcapReader reader = new PcapReader( file );
+        try
+        {
+            reader.read( new RawToModelPacketHandler( counter ) );
+        }
+        finally
+        {
+            reader.close();
+        }
+        final long single = System.currentTimeMillis() - start;
+        System.out.println( "PcapReader: " + counter.m_count + " packets in " + single + "ms" );
+
+        for( int threads = 1; threads <= maxThreads; threads *= 2 )
+        {
+            final long begin = System.currentTimeMillis();
+            final ParallelPcapReader parallel = new ParallelPcapReader( file, threads );
+            final long count = parallel.reduce( new Counter() );
+            final long time = System.currentTimeMillis() - begin;
+            System.out.println( "ParallelPcapReader(" + threads + "): " + count + " packets in " +
+                                time + "ms speedup " + ( (float) single / Math.max( 1, time ) ) );
+        }
+    }
+
+    private static class Counter
+        implements PacketReducer
+    {
+        long m_count;
+
+        public void handlePacket( final Packet packet )
+        {
+            m_count++;
+        }
+
+        public PacketReducer createPartial()
+        {
+            return new Counter();
+        }
+
+        public void merge( final PacketReducer partial )
+        {
+            m_count += ( (Counter) partial ).m_count;
+        }
+    }
+}
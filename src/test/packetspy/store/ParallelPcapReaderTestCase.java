@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import junit.framework.TestCase;
+import packetspy.model.Packet;
+import packetspy.model.RawPacket;
+import packetspy.model.io.ModelPacketFactory;
+
+public class ParallelPcapReaderTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final int BASE_SECONDS = 1072915200;
+
+    private static final int PACKET_COUNT = 5000;
+
+    private File m_file;
+
+    private long[] m_offsets;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "packetspy", ".pcap" );
+        m_offsets = writeCapture();
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        TimeIndex.getIndexFile( m_file ).delete();
+        m_file.delete();
+    }
+
+    public void testFindRecord()
+        throws Exception
+    {
+        final PcapReader reader = new PcapReader( m_file, null );
+        try
+        {
+            int record = 0;
+            for( long offset = 0; offset < reader.getSize(); offset++ )
+            {
+                while( record < m_offsets.length && m_offsets[record] < offset )
+                {
+                    record++;
+                }
+                final long expected = ( record < m_offsets.length ) ? m_offsets[record] : reader.getSize();
+                assertEquals( "findRecord( " + offset + " )", expected, reader.findRecord( offset ) );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testReadInOrderWithIndex()
+        throws Exception
+    {
+        final ParallelPcapReader reader =
+            new ParallelPcapReader( m_file, 4, ModelPacketFactory.DEPTH_ALL, 20000 );
+        assertTrue( "getChunkCount()", reader.getChunkCount() > 4 );
+        assertInOrder( reader );
+    }
+
+    public void testReadInOrderWithoutIndex()
+        throws Exception
+    {
+        TimeIndex.getIndexFile( m_file ).delete();
+        final ParallelPcapReader reader =
+            new ParallelPcapReader( m_file, 3, ModelPacketFactory.DEPTH_NETWORK, 10000 );
+        assertTrue( "getChunkCount()", reader.getChunkCount() > 50 );
+        assertInOrder( reader );
+    }
+
+    public void testReduce()
+        throws Exception
+    {
+        TimeIndex.getIndexFile( m_file ).delete();
+        final ParallelPcapReader reader =
+            new ParallelPcapReader( m_file, 4, ModelPacketFactory.DEPTH_RAW, 3000 );
+        final SequenceReducer result = new SequenceReducer();
+        assertEquals( "reduce()", PACKET_COUNT, reader.reduce( result ) );
+        assertEquals( "m_count", PACKET_COUNT, result.m_count );
+        //Partials are merged in capture order so the sequence is intact
+        for( int i = 0; i < PACKET_COUNT; i++ )
+        {
+            assertEquals( "m_sequence[" + i + "]", i, result.m_sequence[i] );
+        }
+    }
+
+    public void testFirstRecordIsNotResynchronized()
+        throws Exception
+    {
+        //The first record is days before the rest so no record chain starts at it
+        final PcapWriter writer = new PcapWriter( m_file, RawPacket.TYPE_802_3, 256, 1000000L, 8192 );
+        final byte[] frame = FlowIndexTestCase.udpFrame( 0x0A000001, 0x0A000002, 1024, 53 );
+        for( int i = 0; i < 10; i++ )
+        {
+            final int seconds = ( 0 == i ) ? BASE_SECONDS - 7 * 24 * 60 * 60 : BASE_SECONDS;
+            writer.handlePacket( RawPacket.TYPE_802_3, frame.length, frame.length, seconds, i, frame );
+        }
+        writer.close();
+        TimeIndex.getIndexFile( m_file ).delete();
+
+        final ParallelPcapReader reader =
+            new ParallelPcapReader( m_file, 2, ModelPacketFactory.DEPTH_RAW, 10000 );
+        final SequenceReducer listener = new SequenceReducer();
+        assertEquals( "read()", 10, reader.read( listener ) );
+        for( int i = 0; i < 10; i++ )
+        {
+            assertEquals( "m_sequence[" + i + "]", i, listener.m_sequence[i] );
+        }
+    }
+
+    public void testCorruptRecord()
+        throws Exception
+    {
+        final RandomAccessFile file = new RandomAccessFile( m_file, "rw" );
+        try
+        {
+            //Captured length of the last record
+            file.seek( m_offsets[PACKET_COUNT - 1] + 8 );
+            file.writeInt( 0x7FFFFFFF );
+        }
+        finally
+        {
+            file.close();
+        }
+        final ParallelPcapReader reader =
+            new ParallelPcapReader( m_file, 4, ModelPacketFactory.DEPTH_ALL, 20000 );
+        try
+        {
+            reader.read( new SequenceReducer() );
+            fail( "Expected IOException" );
+        }
+        catch( final IOException ioe )
+        {
+        }
+    }
+
+    private void assertInOrder( final ParallelPcapReader reader )
+        throws Exception
+    {
+        final SequenceReducer listener = new SequenceReducer();
+        assertEquals( "read()", PACKET_COUNT, reader.read( listener ) );
+        assertEquals( "m_count", PACKET_COUNT, listener.m_count );
+        for( int i = 0; i < PACKET_COUNT; i++ )
+        {
+            assertEquals( "m_sequence[" + i + "]", i, listener.m_sequence[i] );
+        }
+    }
+
+    /**
+     * Write a capture of frames with random lengths and payloads so that
+     * payloads contain fragments that resemble record headers.
+     *
+     * @return the offset of each record
+     */
+    private long[] writeCapture()
+        throws Exception
+    {
+        final Random random = new Random( 7 );
+        final long[] offsets = new long[PACKET_COUNT];
+        long offset = PcapWriter.FILE_HEADER_LENGTH;
+        final PcapWriter writer = new PcapWriter( m_file, RawPacket.TYPE_802_3, 256, 1000000L, 8192 );
+        for( int i = 0; i < PACKET_COUNT; i++ )
+        {
+            final byte[] header = FlowIndexTestCase.udpFrame( 0x0A000001, 0x0A000002, 1024, 53 );
+            final byte[] frame = new byte[header.length + random.nextInt( 200 )];
+            random.nextBytes( frame );
+            System.arraycopy( header, 0, frame, 0, header.length );
+            writer.handlePacket( RawPacket.TYPE_802_3,
+                                 frame.length + 100,
+                                 frame.length,
+                                 BASE_SECONDS + i / 100,
+                                 i,
+                                 frame );
+            offsets[i] = offset;
+            offset += PcapWriter.RECORD_HEADER_LENGTH + frame.length;
+        }
+        writer.close();
+        return offsets;
+    }
+
+    /**
+     * Records the sequence numbers, carried in the microseconds of
+     * each packet, in the order packets were seen.
+     */
+    static class SequenceReducer
+        implements PacketReducer
+    {
+        int[] m_sequence = new int[PACKET_COUNT];
+        int m_count;
+
+        public void handlePacket( final Packet packet )
+        {
+            m_sequence[m_count++] = ( (RawPacket) packet ).getUseconds();
+        }
+
+        public PacketReducer createPartial()
+        {
+            return new SequenceReducer();
+        }
+
+        public void merge( final PacketReducer partial )
+        {
+            final SequenceReducer other = (SequenceReducer) partial;
+            System.arraycopy( other.m_sequence, 0, m_sequence, m_count, other.m_count );
+            m_count += other.m_count;
+        }
+    }
+}
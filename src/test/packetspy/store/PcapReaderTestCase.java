@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2004 Peter Donald. All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in
+ *      the documentation and/or other materials provided with the
+ *      distribution.
+ *   3. The names of the authors may not be used to endorse or promote
+ *      products derived from this software without specific prior
+ *      written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND WITHOUT ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, WITHOUT LIMITATION, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package packetspy.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import junit.framework.TestCase;
+import packetspy.capture.RawPacketHandler;
+import packetspy.model.RawPacket;
+
+public class PcapReaderTestCase
+    extends TestCase
+{
+    //2004-01-01 00:00:00 UTC
+    private static final int BASE_SECONDS = 1072915200;
+
+    private File m_file;
+
+    protected void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "packetspy", ".pcap" );
+    }
+
+    protected void tearDown()
+        throws Exception
+    {
+        TimeIndex.getIndexFile( m_file ).delete();
+        m_file.delete();
+    }
+
+    public void testWriteAndReadAll()
+        throws Exception
+    {
+        writeCapture( 1000, PcapWriter.DEFAULT_BLOCK_SIZE );
+
+        final PcapReader reader = new PcapReader( m_file );
+        try
+        {
+            assertEquals( "getLinkType()", RawPacket.TYPE_802_3, reader.getLinkType() );
+            assertEquals( "getSnapLength()", 64, reader.getSnapLength() );
+            assertEquals( "getSize()", 24 + 1000 * ( 16 + 64 ), reader.getSize() );
+
+            final Collector collector = new Collector();
+            assertEquals( "read()", 1000, reader.read( collector ) );
+            assertEquals( "collector.m_count", 1000, collector.m_count );
+            for( int i = 0; i < 1000; i++ )
+            {
+                final byte[] data = (byte[]) collector.m_data.get( i );
+                assertEquals( "data.length", 64, data.length );
+                assertEquals( "data[0]", (byte) i, data[0] );
+                assertEquals( "length", 100, collector.m_lengths[i] );
+                assertEquals( "timestamp", timestamp( i ), collector.m_timestamps[i] );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testIndexedTimeRange()
+        throws Exception
+    {
+        writeCapture( 1000, PcapWriter.DEFAULT_BLOCK_SIZE );
+
+        final PcapReader reader = new PcapReader( m_file );
+        try
+        {
+            final TimeIndex index = reader.getIndex();
+            assertNotNull( "index", index );
+            assertEquals( "index.size()", 10, index.size() );
+            assertEquals( "index.getInterval()", PcapWriter.DEFAULT_INTERVAL, index.getInterval() );
+            assertEquals( "index.getTimestamp( 3 )", timestamp( 300 ), index.getTimestamp( 3 ) );
+            assertEquals( "index.getOffset( 3 )", 24 + 300 * ( 16 + 64 ), index.getOffset( 3 ) );
+            assertEquals( "findBlock before", 0, index.findBlock( 0 ) );
+            assertEquals( "findBlock 3.5s", 3, index.findBlock( timestamp( 350 ) ) );
+            assertEquals( "findBlock after", 9, index.findBlock( Long.MAX_VALUE ) );
+
+            final Collector collector = new Collector();
+            assertEquals( "read range", 50, reader.read( timestamp( 375 ), timestamp( 425 ), collector ) );
+            assertEquals( "first", timestamp( 375 ), collector.m_timestamps[0] );
+            assertEquals( "last", timestamp( 424 ), collector.m_timestamps[49] );
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        final PcapReader unindexed = new PcapReader( m_file, null );
+        try
+        {
+            final Collector collector = new Collector();
+            assertEquals( "read range", 50, unindexed.read( timestamp( 375 ), timestamp( 425 ), collector ) );
+            assertEquals( "read empty range", 0, unindexed.read( timestamp( 425 ), timestamp( 425 ), collector ) );
+        }
+        finally
+        {
+            unindexed.close();
+        }
+    }
+
+    public void testBlockSizeLimitsBlock()
+        throws Exception
+    {
+        writeCapture( 100, 16 * ( 16 + 64 ) );
+        final TimeIndex index = TimeIndex.load( TimeIndex.getIndexFile( m_file ) );
+        assertEquals( "index.size()", 7, index.size() );
+        assertEquals( "index.getOffset( 1 )", 24 + 16 * ( 16 + 64 ), index.getOffset( 1 ) );
+        assertEquals( "index.getTimestamp( 6 )", timestamp( 96 ), index.getTimestamp( 6 ) );
+    }
+
+    public void testLittleEndianAndTruncatedRecord()
+        throws Exception
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate( 24 + 16 + 4 + 16 + 2 );
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        buffer.putInt( PcapWriter.MAGIC_NANOSECONDS );
+        buffer.putShort( (short) 2 ).putShort( (short) 4 ).putInt( 0 ).putInt( 0 );
+        buffer.putInt( 65535 ).putInt( RawPacket.TYPE_RAW_IP );
+        buffer.putInt( BASE_SECONDS ).putInt( 5000 ).putInt( 4 ).putInt( 4 );
+        buffer.put( new byte[]{1, 2, 3, 4} );
+        buffer.putInt( BASE_SECONDS ).putInt( 6000 ).putInt( 4 ).putInt( 4 );
+        buffer.put( new byte[]{1, 2} );
+        final FileOutputStream output = new FileOutputStream( m_file );
+        output.write( buffer.array() );
+        output.close();
+
+        final PcapReader reader = new PcapReader( m_file );
+        try
+        {
+            assertNull( "getIndex()", reader.getIndex() );
+            assertEquals( "getLinkType()", RawPacket.TYPE_RAW_IP, reader.getLinkType() );
+            final Collector collector = new Collector();
+            assertEquals( "read()", 1, reader.read( collector ) );
+            assertEquals( "timestamp", PcapWriter.toTimestamp( BASE_SECONDS, 5 ), collector.m_timestamps[0] );
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void testNotPcap()
+        throws Exception
+    {
+        final FileOutputStream output = new FileOutputStream( m_file );
+        output.write( new byte[100] );
+        output.close();
+        try
+        {
+            new PcapReader( m_file );
+            fail( "Expected IOException" );
+        }
+        catch( final IOException ioe )
+        {
+            assertTrue( "ioe.getMessage()", ioe.getMessage().startsWith( "Not a pcap file" ) );
+        }
+    }
+
+    //Write packets 10ms apart with 64 bytes captured
+    private void writeCapture( final int count, final int blockSize )
+        throws Exception
+    {
+        final PcapWriter writer =
+            new PcapWriter( m_file, RawPacket.TYPE_802_3, 64, PcapWriter.DEFAULT_INTERVAL, blockSize );
+        final byte[] data = new byte[100];
+        for( int i = 0; i < count; i++ )
+        {
+            data[0] = (byte) i;
+            writer.handlePacket( RawPacket.TYPE_802_3,
+                                 100,
+                                 100,
+                                 BASE_SECONDS + i / 100,
+                                 ( i % 100 ) * 10000,
+                                 data );
+        }
+        writer.handlePacket( RawPacket.TYPE_LINUX_SLL, 100, 100, BASE_SECONDS, 0, data );
+        writer.close();
+        assertEquals( "writer.getRecordCount()", count, writer.getRecordCount() );
+        assertEquals( "writer.getDroppedCount()", 1, writer.getDroppedCount() );
+        assertNull( "writer.getError()", writer.getError() );
+    }
+
+    private static long timestamp( final int index )
+    {
+        return PcapWriter.toTimestamp( BASE_SECONDS + index / 100, ( index % 100 ) * 10000 );
+    }
+
+    private static class Collector
+        implements RawPacketHandler
+    {
+        int m_count;
+        final ArrayList m_data = new ArrayList();
+        final long[] m_timestamps = new long[1000];
+        final int[] m_lengths = new int[1000];
+
+        public void handlePacket( final int linkType,
+                                  final int length,
+                                  final int capturedLength,
+                                  final int seconds,
+                                  final int useconds,
+                                  final byte[] data )
+        {
+            m_data.add( data );
+            m_timestamps[m_count] = PcapWriter.toTimestamp( seconds, useconds );
+            m_lengths[m_count] = length;
+            m_count++;
+        }
+    }
+}